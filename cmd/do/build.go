@@ -29,14 +29,20 @@ func doGlob(ctx context.Context, cfg Config) {
 
 func doBuild(ctx context.Context, cfg Config, options BuildOptions, targets ...string) {
 	doGapic := len(targets) == 0 // Building everything implies gapic.
-	for i, t := range targets {
-		if t == "gapic" {
+	doGapicBench := false
+	for i := 0; i < len(targets); {
+		switch targets[i] {
+		case "gapic-bench":
+			doGapicBench = true
+			fallthrough
+		case "gapic":
 			doGapic = true
 			options.Install = true
 			// Remove gapic from the targets list.
 			copy(targets[i:], targets[i+1:])
 			targets = targets[:len(targets)-1]
-			break
+		default:
+			i++
 		}
 	}
 
@@ -53,6 +59,9 @@ func doBuild(ctx context.Context, cfg Config, options BuildOptions, targets ...s
 	if doGapic {
 		gapic(ctx, cfg).build(ctx, options)
 	}
+	if doGapicBench {
+		gapic(ctx, cfg).buildBench(ctx, options)
+	}
 }
 
 func doCMake(ctx context.Context, cfg Config, options BuildOptions, targets ...string) {
@@ -142,6 +142,60 @@ func (e *gapicEnv) build(ctx context.Context, options BuildOptions) {
 	}
 }
 
+// jmhDir is the directory inside gapic/third_party holding the JMH JARs used by the benchmarks:
+// jmh-core, jmh-generator-annprocess, jopt-simple and commons-math3.
+const jmhDir = "jmh"
+
+func (e *gapicEnv) buildBench(ctx context.Context, options BuildOptions) {
+	if options.DryRun {
+		return
+	}
+	jmhJars := e.src.Join("third_party", jmhDir)
+	if !jmhJars.Exists() {
+		fmt.Println("Error building the gapic benchmarks: the JMH JARs are required in", jmhJars.System())
+		os.Exit(1)
+	}
+
+	benchSrc := e.src.Join("src", "bench")
+	benchOut := e.out.Join("gapic-bench", e.platform)
+	baseJar := e.out.Join("gapic-base-" + e.platform + ".jar")
+	if !e.needsBuilding(benchSrc, benchOut) && !e.needsBuilding(baseJar, benchOut) {
+		return
+	}
+	fmt.Println("Building gapic benchmarks for", e.platform, "...")
+
+	srcTxt := e.writeFile(e.out.Join("bench-source-"+e.platform+".txt"), func(f *os.File) {
+		e.findAllJavaFiles(benchSrc, func(p file.Path) { f.WriteString(p.System() + "\n") })
+	})
+	run(ctx, e.out, e.javacExe, nil,
+		"-d", e.mkdirCleanOrExit(benchOut).System(),
+		"@"+srcTxt.System(),
+		"-classpath", e.benchClasspath(),
+		"-encoding", "UTF-8",
+		"-source", "1.8", "-target", "1.8")
+}
+
+func (e *gapicEnv) runBench(ctx context.Context, options RunOptions, args ...string) {
+	env := env(e.cfg)
+	if e.platform == "linux" {
+		env.Set("SWT_GTK3", "0")
+	}
+	if options.WD.IsEmpty() {
+		options.WD = file.Abs("")
+	}
+	classpath := e.out.Join("gapic-bench", e.platform).System() +
+		string(os.PathListSeparator) + e.benchClasspath()
+	run(ctx, options.WD, e.javaExe, env,
+		append([]string{"-cp", classpath, "org.openjdk.jmh.Main"}, args...)...)
+}
+
+func (e *gapicEnv) benchClasspath() string {
+	paths := []string{e.out.Join("gapic-base-" + e.platform + ".jar").System()}
+	e.findAllJars(e.src.Join("third_party"), func(p file.Path) { paths = append(paths, p.System()) })
+	e.findAllJars(e.src.Join("third_party", jmhDir), func(p file.Path) { paths = append(paths, p.System()) })
+	return strings.Join(paths, string(os.PathListSeparator))
+}
+
 func (e *gapicEnv) run(ctx context.Context, options RunOptions, args ...string) {
 	jar := e.out.Join("gapic-" + e.platform + ".jar")
 
@@ -187,6 +241,10 @@ func (e *gapicEnv) findAllJars(path file.Path, cb func(file.Path)) {
 			if p.Parent().Basename() == "platform" && p.Basename() != e.platform {
 				return filepath.SkipDir
 			}
+			// The benchmark dependencies are not part of the gapic JAR.
+			if p.Basename() == jmhDir && p.System() != path.System() {
+				return filepath.SkipDir
+			}
 		} else if p.Ext() == ".jar" && !strings.Contains(p.Basename(), "source") {
 			cb(p)
 		}
@@ -38,6 +38,8 @@ func doRunTarget(ctx context.Context, cfg Config, options BuildAndRunOptions, ta
 
 	if target == "gapic" {
 		gapic(ctx, cfg).run(ctx, options.RunOptions, args...)
+	} else if target == "gapic-bench" {
+		gapic(ctx, cfg).runBench(ctx, options.RunOptions, args...)
 	} else {
 		doRun(ctx, cfg, options.RunOptions, target, args...)
 	}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link ArrayImageBuffer} conversions on 4K images.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class ImageBenchmark {
+  private static final int WIDTH = 3840, HEIGHT = 2160;
+  private static final int TILES = 4;
+
+  @Param({ "Color8", "ColorHalf", "ColorFloat", "DepthFloat" })
+  public Images.Format format;
+
+  private byte[] data;
+  private ByteBuffer buffer;
+  private byte[][] tiles;
+  private ArrayImageBuffer image;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    data = Fixtures.image(format, WIDTH, HEIGHT);
+    buffer = ArrayImageBuffer.wrap(data);
+    // Split the image into horizontal bands, as received from the server.
+    tiles = new byte[TILES][];
+    int bandSize = data.length / TILES;
+    for (int i = 0; i < TILES; i++) {
+      tiles[i] = new byte[bandSize];
+      System.arraycopy(data, i * bandSize, tiles[i], 0, bandSize);
+    }
+    image = format.builder(WIDTH, HEIGHT).update(data, 0, 0, WIDTH, HEIGHT).build();
+  }
+
+  /**
+   * Conversion of the image to an SWT {@link ImageData}, done for every displayed image.
+   */
+  @Benchmark
+  public ImageData convert() {
+    return image.getImageData();
+  }
+
+  /**
+   * Creation of the image buffer. The pixel statistics of float images are computed lazily.
+   */
+  @Benchmark
+  public ArrayImageBuffer create() {
+    return format.build(WIDTH, HEIGHT, buffer);
+  }
+
+  /**
+   * Assembly of the image from bands and the flip to the UI's y-down orientation.
+   */
+  @Benchmark
+  public ArrayImageBuffer updateAndFlip() {
+    ArrayImageBuffer.Builder builder = format.builder(WIDTH, HEIGHT);
+    for (int i = 0, h = HEIGHT / TILES; i < TILES; i++) {
+      builder.update(tiles[i], 0, i * h, WIDTH, h);
+    }
+    return builder.flip().build();
+  }
+
+  /**
+   * Fixture data shared by the image benchmarks.
+   */
+  public static class Fixtures {
+    private Fixtures() {
+    }
+
+    /**
+     * @return pseudo-random, but reproducible, pixel data in the given format. Float images
+     *     contain values outside of [0, 1] to exercise the clamping.
+     */
+    public static byte[] image(Images.Format format, int width, int height) {
+      Random random = new Random(0x5eed);
+      byte[] result = new byte[format.pixelSize * width * height];
+      if (isHalf(format)) {
+        for (int i = 0; i < result.length; i += 2) {
+          // Half-floats in [0, 1.5), with one in eight negated.
+          int bits = random.nextInt(0x3E00) | ((random.nextInt(8) == 0) ? 0x8000 : 0);
+          result[i + 0] = (byte)bits;
+          result[i + 1] = (byte)(bits >> 8);
+        }
+      } else if (format != Images.Format.Color8 && format != Images.Format.Depth8) {
+        for (int i = 0; i < result.length; i += 4) {
+          int bits = Float.floatToIntBits(random.nextFloat() * 1.5f - 0.25f);
+          result[i + 0] = (byte)bits;
+          result[i + 1] = (byte)(bits >> 8);
+          result[i + 2] = (byte)(bits >> 16);
+          result[i + 3] = (byte)(bits >> 24);
+        }
+      } else {
+        random.nextBytes(result);
+      }
+      return result;
+    }
+
+    private static boolean isHalf(Images.Format format) {
+      switch (format) {
+        case ColorHalf:
+        case DepthHalf:
+        case LuminanceHalf:
+          return true;
+        default:
+          return false;
+      }
+    }
+  }
+}
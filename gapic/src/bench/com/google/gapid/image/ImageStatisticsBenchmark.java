@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import com.google.gapid.image.ImageBenchmark.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link ImageStatistics} of 4K float and half-float images, computed on first
+ * use of an image's pixel info.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class ImageStatisticsBenchmark {
+  private static final int WIDTH = 3840, HEIGHT = 2160;
+  private static final int HISTOGRAM_BINS = 256;
+
+  @Param({ "ColorHalf", "ColorFloat", "DepthHalf", "DepthFloat" })
+  public Images.Format format;
+
+  private ByteBuffer buffer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    buffer = ArrayImageBuffer.wrap(Fixtures.image(format, WIDTH, HEIGHT));
+  }
+
+  /**
+   * Computation of the per-channel minimum, maximum, mean and NaN/Inf counts.
+   */
+  @Benchmark
+  public ImageStatistics compute() {
+    boolean color = format == Images.Format.ColorHalf || format == Images.Format.ColorFloat;
+    int channels = color ? 4 : 1, colorChannels = color ? 3 : 1;
+    if (format == Images.Format.ColorHalf || format == Images.Format.DepthHalf) {
+      return ImageStatistics.compute(buffer.asShortBuffer(), channels, colorChannels);
+    } else {
+      return ImageStatistics.compute(buffer.asFloatBuffer(), channels, colorChannels);
+    }
+  }
+
+  /**
+   * Computation of the histograms of all channels. Histograms are cached by the statistics, so
+   * every invocation gets freshly computed statistics.
+   */
+  @Benchmark
+  public long[] histogram(Computed computed) {
+    return computed.stats.getHistogram(0, HISTOGRAM_BINS);
+  }
+
+  /**
+   * The statistics, without any histograms, of the benchmarked image.
+   */
+  @State(Scope.Thread)
+  public static class Computed {
+    public ImageStatistics stats;
+
+    @Setup(Level.Invocation)
+    public void setup(ImageStatisticsBenchmark benchmark) {
+      stats = benchmark.compute();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.util;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.util.Events.ListenerCollection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks of the {@link Float16}, {@link Paths}, {@link FutureCache} and {@link Events}
+ * utilities.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UtilBenchmark {
+  /**
+   * Half-float conversion of a 64KiB page of data.
+   */
+  @State(Scope.Thread)
+  public static class Float16State {
+    public int[] values;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      Random random = new Random(0x5eed);
+      values = new int[32 * 1024];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = random.nextInt() & 0xFFFF;
+      }
+    }
+  }
+
+  @Benchmark
+  public float float16(Float16State state) {
+    float sum = 0;
+    for (int value : state.values) {
+      sum += Float16.shortBitsToFloat(value);
+    }
+    return sum;
+  }
+
+  /**
+   * Sorting of command paths of varying depth, as done when merging command tree selections.
+   */
+  @State(Scope.Thread)
+  public static class PathsState {
+    public List<Path.Command> commands;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      Random random = new Random(0x5eed);
+      commands = Lists.newArrayList();
+      for (int i = 0; i < 10000; i++) {
+        Path.Command.Builder command = Path.Command.newBuilder();
+        for (int depth = 1 + random.nextInt(4); depth > 0; depth--) {
+          command.addIndices(random.nextInt(100000));
+        }
+        commands.add(command.build());
+      }
+    }
+  }
+
+  @Benchmark
+  public List<Path.Command> pathsCompare(PathsState state) {
+    List<Path.Command> sorted = Lists.newArrayList(state.commands);
+    Collections.sort(sorted, Paths::compare);
+    return sorted;
+  }
+
+  /**
+   * Lookups of a small set of hot keys in a {@link FutureCache} from multiple threads, as done by
+   * the tree and image views when scrolling.
+   */
+  @State(Scope.Benchmark)
+  public static class FutureCacheState {
+    private static final int KEYS = 1024;
+
+    @Param({ "true", "false" })
+    public boolean warm;
+
+    public FutureCache<Integer, Long> cache;
+    private final AtomicLong fetches = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setup() throws InterruptedException, ExecutionException {
+      cache = FutureCache.weightedCache(64 * 1024 * 1024, (key, value) -> 32,
+          key -> Futures.immediateFuture(fetches.incrementAndGet()), value -> true);
+      if (warm) {
+        for (int i = 0; i < KEYS; i++) {
+          cache.get(i).get();
+        }
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    public final Random random = new Random();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Long futureCacheGet(FutureCacheState state, ThreadState thread)
+      throws InterruptedException, ExecutionException {
+    return state.cache.get(thread.random.nextInt(FutureCacheState.KEYS)).get();
+  }
+
+  /**
+   * Firing of an event to the listeners of a model.
+   */
+  @State(Scope.Thread)
+  public static class EventsState {
+    @Param({ "1", "16" })
+    public int listenerCount;
+
+    public ListenerCollection<TestListener> listeners;
+    public long sum;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      listeners = Events.listeners(TestListener.class);
+      for (int i = 0; i < listenerCount; i++) {
+        listeners.addListener(value -> sum += value);
+      }
+    }
+  }
+
+  @Benchmark
+  public long eventsFire(EventsState state) {
+    state.listeners.fire().onEvent(42);
+    return state.sum;
+  }
+
+  public static interface TestListener extends Events.Listener {
+    public void onEvent(int value);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.views;
+
+import com.google.gapid.proto.core.pod.Pod;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.proto.service.box.Box;
+import com.google.gapid.proto.service.path.Path;
+import com.google.protobuf.ByteString;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Benchmarks of the {@link MemoryView} line formatting and the {@link Formatter command
+ * formatting}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ViewsBenchmark {
+  /**
+   * A 64KiB memory page, as fetched by the memory view, of which 7/8 has been observed.
+   */
+  @State(Scope.Thread)
+  public static class MemoryState {
+    private static final int PAGE_SIZE = 64 * 1024;
+
+    @Param({ "Byte", "Int16", "Int32", "Int64", "Float16", "Float32", "Float64" })
+    public String type;
+
+    private MemoryView.DataType dataType;
+    public Service.Memory memory;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      dataType = MemoryView.DataType.valueOf(type);
+      Random random = new Random(0x5eed);
+      byte[] data = new byte[PAGE_SIZE];
+      random.nextBytes(data);
+      Service.Memory.Builder builder = Service.Memory.newBuilder()
+          .setData(ByteString.copyFrom(data));
+      for (int base = 0; base < PAGE_SIZE; base += 1024) {
+        builder.addObserved(Service.MemoryRange.newBuilder().setBase(base).setSize(7 * 128));
+      }
+      memory = builder.build();
+    }
+  }
+
+  @Benchmark
+  public void memoryFormatLines(MemoryState state, Blackhole blackhole) {
+    MemoryView.formatLines(state.dataType, state.memory, blackhole::consume);
+  }
+
+  /**
+   * A command with a large parameter list, as for example a {@code glUniform4fv} with an inline
+   * array or a {@code vkCmdPipelineBarrier}, using enum and bitfield constants.
+   */
+  @State(Scope.Thread)
+  public static class CommandState {
+    @Param({ "8", "256" })
+    public int parameterCount;
+
+    public Service.Command command;
+    public Function<Path.ConstantSet, Service.ConstantSet> constants;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      Service.ConstantSet enums = constantSet(false), bits = constantSet(true);
+      constants = path -> (path.getIndex() == 1) ? enums : (path.getIndex() == 2) ? bits : null;
+
+      Random random = new Random(0x5eed);
+      Service.Command.Builder builder = Service.Command.newBuilder().setName("vkCmdBenchmark");
+      for (int i = 0; i < parameterCount; i++) {
+        Service.Parameter.Builder param = builder.addParametersBuilder().setName("param" + i);
+        Pod.Value.Builder pod = param.getValueBuilder().getPodBuilder();
+        switch (i % 5) {
+          case 0:
+            pod.setUint32(random.nextInt(64));
+            param.getConstantsBuilder().setIndex(1);
+            break;
+          case 1:
+            pod.setUint32(random.nextInt());
+            param.getConstantsBuilder().setIndex(2);
+            break;
+          case 2:
+            pod.setFloat32(random.nextFloat());
+            break;
+          case 3:
+            pod.setString("string parameter " + i);
+            break;
+          default:
+            Pod.Float32Array.Builder array = pod.getFloat32ArrayBuilder();
+            for (int j = 0; j < 16; j++) {
+              array.addVal(random.nextFloat());
+            }
+        }
+      }
+      builder.getResultBuilder().setValue(Box.Value.newBuilder()
+          .setPod(Pod.Value.newBuilder().setUint32(0)));
+      command = builder.build();
+    }
+
+    private static Service.ConstantSet constantSet(boolean bitfield) {
+      Service.ConstantSet.Builder set = Service.ConstantSet.newBuilder().setIsBitfield(bitfield);
+      for (int i = 0; i < (bitfield ? 32 : 64); i++) {
+        set.addConstantsBuilder()
+            .setName("VK_BENCHMARK_CONSTANT_" + i)
+            .setValue(bitfield ? 1L << i : i);
+      }
+      return set.build();
+    }
+  }
+
+  @Benchmark
+  public String formatCommand(CommandState state) {
+    return Formatter.toString(state.command, state.constants);
+  }
+}
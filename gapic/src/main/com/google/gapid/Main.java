@@ -18,11 +18,15 @@ package com.google.gapid;
 import static com.google.gapid.views.WelcomeDialog.showWelcomeDialog;
 import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 
+import com.google.gapid.image.BlockDecoder;
+import com.google.gapid.image.TiledImage;
 import com.google.gapid.models.Follower;
 import com.google.gapid.models.Models;
 import com.google.gapid.models.Settings;
+import com.google.gapid.models.Thumbnails;
 import com.google.gapid.server.Client;
 import com.google.gapid.server.GapiPaths;
+import com.google.gapid.server.GapidClientCache;
 import com.google.gapid.util.Flags;
 import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.Logging;
@@ -179,5 +183,15 @@ public class Main {
     Logging.logDir,
     Follower.logFollowRequests,
     Server.useCache,
+    Server.recordRequests,
+    Server.replayRequests,
+    Server.replayLatencyScale,
+    GapidClientCache.cacheSizeMb,
+    GapidClientCache.blobCacheSizeMb,
+    GapidClientCache.diskCacheDir,
+    GapidClientCache.diskCacheSizeMb,
+    TiledImage.tileCacheSizeMb,
+    BlockDecoder.decodeTextures,
+    Thumbnails.thumbnailCacheSizeMb,
   };
 }
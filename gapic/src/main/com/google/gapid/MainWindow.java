@@ -15,6 +15,7 @@
  */
 package com.google.gapid;
 
+import static com.google.gapid.views.DiagnosticsDialog.showDiagnosticsDialog;
 import static com.google.gapid.views.SettingsDialog.showSettingsDialog;
 import static com.google.gapid.views.TracerDialog.showOpenTraceDialog;
 import static com.google.gapid.views.TracerDialog.showSaveTraceDialog;
@@ -387,6 +388,8 @@ public class MainWindow extends ApplicationWindow {
     manager.add(MenuItems.HelpOnlineHelp.create(AboutDialog::showHelp));
     manager.add(MenuItems.HelpAbout.create(() -> showAbout(getShell(), widgets().theme)));
     manager.add(MenuItems.HelpShowLogs.create(AboutDialog::showLogDir));
+    manager.add(MenuItems.HelpRpcStats.create(
+        () -> showDiagnosticsDialog(getShell(), widgets().theme)));
     manager.add(MenuItems.HelpLicenses.create(() -> showLicensesDialog(getShell())));
     manager.add(MenuItems.HelpWelcome.create(
         () -> showWelcomeDialog(getShell(), models(), widgets())));
@@ -578,6 +581,7 @@ public class MainWindow extends ApplicationWindow {
     HelpOnlineHelp("&Online Help\tF1", SWT.F1),
     HelpAbout("&About"),
     HelpShowLogs("Open &Log Directory"),
+    HelpRpcStats("Show &RPC Statistics"),
     HelpLicenses("&Licenses"),
     HelpWelcome("Show &Welcome Screen");
 
@@ -28,12 +28,18 @@ import com.google.gapid.proto.stringtable.Stringtable;
 import com.google.gapid.rpc.Rpc;
 import com.google.gapid.rpc.RpcException;
 import com.google.gapid.server.Client;
+import com.google.gapid.server.GapidClient;
+import com.google.gapid.server.GapidClientCache;
+import com.google.gapid.server.GapidClientRecorder;
+import com.google.gapid.server.GapidClientReplay;
+import com.google.gapid.server.GapidClientScheduler;
 import com.google.gapid.server.GapisConnection;
 import com.google.gapid.server.GapisProcess;
 import com.google.gapid.util.Flags;
 import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.Logging;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -58,8 +64,18 @@ public class Server {
   public static final Flag<Boolean> useCache = Flags.value(
       "cache", true, "Whether to use a cache between the UI and the gapis server.");
 
+  public static final Flag<String> recordRequests = Flags.value("record-requests", "",
+      "File to record all the server requests and responses to, for later replay.");
+
+  public static final Flag<String> replayRequests = Flags.value("replay-requests", "",
+      "File of recorded server requests to replay, instead of connecting to a server.");
+
+  public static final Flag<Double> replayLatencyScale = Flags.value("replay-latency-scale", 1.0,
+      "Factor applied to the recorded latencies when replaying requests, 0 for no latency.");
+
   private final Settings settings;
   private GapisConnection gapisConnection;
+  private GapidClientRecorder recorder;
   private Client client;
 
   public Server(Settings settings) {
@@ -86,6 +102,10 @@ public class Server {
   }
 
   public void disconnect() {
+    if (recorder != null) {
+      recorder.close();
+      recorder = null;
+    }
     if (gapisConnection != null) {
       gapisConnection.close();
       gapisConnection = null;
@@ -93,22 +113,54 @@ public class Server {
   }
 
   private void connectToServer(GapisProcess.Listener listener) throws GapisInitException {
+    if (!replayRequests.get().isEmpty()) {
+      replayRequests();
+      return;
+    }
+
     GapisConnection connection = createConnection(listener);
     if (!connection.isConnected()) {
       throw new GapisInitException(GapisInitException.MESSAGE_FAILED_CONNECT, "not connected");
     }
     gapisConnection = connection;
     try {
-      if (!useCache.get()) {
-        LOG.log(WARNING, "** Not using caching in the UI, this is only meant for testing. **");
+      GapidClient gapidClient = connection.createGapidClient();
+      if (!recordRequests.get().isEmpty()) {
+        gapidClient = recorder =
+            GapidClientRecorder.create(gapidClient, new File(recordRequests.get()));
       }
-      client = new Client(connection.createGapidClient(useCache.get()));
+      client = new Client(wrap(gapidClient));
     } catch (IOException e) {
       throw new GapisInitException(
           GapisInitException.MESSAGE_FAILED_CONNECT, "unable to create client", e);
     }
   }
 
+  private void replayRequests() throws GapisInitException {
+    LOG.log(WARNING, "** Replaying recorded requests, no server is used. **");
+    try {
+      client = new Client(wrap(GapidClientReplay.load(
+          new File(replayRequests.get()), replayLatencyScale.get())));
+    } catch (IOException e) {
+      throw new GapisInitException(
+          GapisInitException.MESSAGE_FAILED_CONNECT, "unable to load the recorded requests", e);
+    }
+  }
+
+  /**
+   * Adds the scheduling and caching layers on top of the given client. The requests are recorded,
+   * or replayed, beneath these layers, so only the requests that reach the server are seen.
+   */
+  private static GapidClient wrap(GapidClient gapidClient) {
+    GapidClient result = new GapidClientScheduler(gapidClient);
+    if (useCache.get()) {
+      result = new GapidClientCache(result);
+    } else {
+      LOG.log(WARNING, "** Not using caching in the UI, this is only meant for testing. **");
+    }
+    return result;
+  }
+
   private GapisConnection createConnection(GapisProcess.Listener listener) {
     if (gapis.get().isEmpty()) {
       return new GapisProcess(settings, listener).connect();
@@ -0,0 +1,634 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link BlockDecoder} of the LDR profile of the 2D ASTC formats. Blocks that use HDR endpoint
+ * modes, or are otherwise invalid, are decoded to the error color magenta, as specified. Like the
+ * server's decoder, the image is flipped vertically.
+ */
+class ASTCDecoder extends BlockDecoder {
+  private static final byte[] ERROR_COLOR = { (byte)255, 0, (byte)255, (byte)255 };
+
+  // The number of trits, quints and bits of each quantization range. Weights use up to QUANT_32.
+  private static final int QUANT_256 = 20;
+  private static final int[] TRITS = {
+    0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0 };
+  private static final int[] QUINTS = {
+    0, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0 };
+  private static final int[] BITS = {
+    1, 0, 2, 0, 1, 3, 1, 2, 4, 2, 3, 5, 3, 4, 6, 4, 5, 7, 5, 6, 8 };
+
+  private ASTCDecoder(int blockWidth, int blockHeight) {
+    super(blockWidth, blockHeight, 16, true);
+  }
+
+  /**
+   * @return the decoder for the given block size, or {@code null} if it is not a valid 2D size.
+   */
+  public static ASTCDecoder get(int blockWidth, int blockHeight) {
+    if (blockWidth < 4 || blockWidth > 12 || blockHeight < 4 || blockHeight > 12) {
+      return null;
+    }
+    return new ASTCDecoder(blockWidth, blockHeight);
+  }
+
+  @Override
+  protected void decodeBlock(ByteBuffer in, int offset, byte[] out) {
+    if (!decodeBlock(in.getLong(offset), in.getLong(offset + 8), out)) {
+      for (int i = 0; i < out.length; i += 4) {
+        System.arraycopy(ERROR_COLOR, 0, out, i, 4);
+      }
+    }
+  }
+
+  /**
+   * Decodes the 128 bit block. Returns false if the block is invalid or uses an HDR mode.
+   */
+  private boolean decodeBlock(long lo, long hi, byte[] out) {
+    int mode = bits(lo, hi, 0, 11);
+    if ((mode & 0x1FF) == 0x1FC) {
+      return decodeVoidExtent(lo, hi, out);
+    }
+
+    // Decode the block mode into the weight grid size, the weight range and the plane count.
+    int gridWidth, gridHeight;
+    int range = (mode >> 4) & 1;
+    boolean highPrecision = ((mode >> 9) & 1) != 0, dualPlane = ((mode >> 10) & 1) != 0;
+    int a = (mode >> 5) & 3;
+    if ((mode & 3) != 0) {
+      range |= (mode & 3) << 1;
+      int b = (mode >> 7) & 3;
+      switch ((mode >> 2) & 3) {
+        case 0: gridWidth = b + 4; gridHeight = a + 2; break;
+        case 1: gridWidth = b + 8; gridHeight = a + 2; break;
+        case 2: gridWidth = a + 2; gridHeight = b + 8; break;
+        default:
+          b &= 1;
+          if ((mode & 0x100) != 0) {
+            gridWidth = b + 2;
+            gridHeight = a + 2;
+          } else {
+            gridWidth = a + 2;
+            gridHeight = b + 6;
+          }
+      }
+    } else {
+      range |= ((mode >> 2) & 3) << 1;
+      if (((mode >> 2) & 3) == 0) {
+        return false;
+      }
+      int b = (mode >> 9) & 3;
+      switch ((mode >> 7) & 3) {
+        case 0: gridWidth = 12; gridHeight = a + 2; break;
+        case 1: gridWidth = a + 2; gridHeight = 12; break;
+        case 2:
+          gridWidth = a + 6;
+          gridHeight = b + 6;
+          highPrecision = dualPlane = false;
+          break;
+        default:
+          switch (a) {
+            case 0: gridWidth = 6; gridHeight = 10; break;
+            case 1: gridWidth = 10; gridHeight = 6; break;
+            default: return false;
+          }
+      }
+    }
+    int weightRange = range - 2 + (highPrecision ? 6 : 0);
+    int planes = dualPlane ? 2 : 1;
+    int weightCount = gridWidth * gridHeight * planes;
+    int weightBits = iseBits(weightCount, weightRange);
+    if (weightCount > 64 || weightBits < 24 || weightBits > 96 ||
+        gridWidth > blockWidth || gridHeight > blockHeight) {
+      return false;
+    }
+
+    // Decode the partition count and the color endpoint modes.
+    int partitions = bits(lo, hi, 11, 2) + 1;
+    if (dualPlane && partitions == 4) {
+      return false;
+    }
+    int[] endpointModes = new int[partitions];
+    int colorStart, belowWeights = 128 - weightBits;
+    if (partitions == 1) {
+      endpointModes[0] = bits(lo, hi, 13, 4);
+      colorStart = 17;
+    } else {
+      colorStart = 29;
+      int cem = bits(lo, hi, 23, 6);
+      if ((cem & 3) == 0) {
+        for (int i = 0; i < partitions; i++) {
+          endpointModes[i] = cem >> 2;
+        }
+      } else {
+        // The modes are split into a base class, a class offset and a mode per partition. The
+        // bits that don't fit into the six bits of the field are stored below the weights.
+        int extraBits = 3 * partitions - 4;
+        belowWeights -= extraBits;
+        cem |= bits(lo, hi, belowWeights, extraBits) << 6;
+        int baseClass = (cem & 3) - 1;
+        cem >>= 2;
+        for (int i = 0; i < partitions; i++, cem >>= 1) {
+          endpointModes[i] = (baseClass + (cem & 1)) << 2;
+        }
+        for (int i = 0; i < partitions; i++, cem >>= 2) {
+          endpointModes[i] |= cem & 3;
+        }
+      }
+    }
+    int ccs = -1;
+    if (dualPlane) {
+      belowWeights -= 2;
+      ccs = bits(lo, hi, belowWeights, 2);
+    }
+
+    // Decode the color endpoints, using the largest range that fits into the available bits.
+    int colorCount = 0;
+    for (int endpointMode : endpointModes) {
+      if (isHDR(endpointMode)) {
+        return false;
+      }
+      colorCount += 2 * ((endpointMode >> 2) + 1);
+    }
+    if (colorCount > 18) {
+      return false;
+    }
+    int colorRange = QUANT_256;
+    while (colorRange >= 0 && iseBits(colorCount, colorRange) > belowWeights - colorStart) {
+      colorRange--;
+    }
+    if (colorRange < 0) {
+      return false;
+    }
+    int[] colors = decodeISE(lo, hi, colorStart, colorCount, colorRange);
+    for (int i = 0; i < colorCount; i++) {
+      colors[i] = unquantizeColor(colors[i], colorRange);
+    }
+    int[][] endpoints = new int[partitions][];
+    for (int i = 0, c = 0; i < partitions; c += 2 * ((endpointModes[i] >> 2) + 1), i++) {
+      endpoints[i] = decodeEndpoints(endpointModes[i], colors, c);
+    }
+
+    // Decode the weights, which are stored bit-reversed from the top of the block.
+    int[] weights = decodeISE(Long.reverse(hi), Long.reverse(lo), 0, weightCount, weightRange);
+    for (int i = 0; i < weightCount; i++) {
+      weights[i] = unquantizeWeight(weights[i], weightRange);
+    }
+
+    int seed = bits(lo, hi, 13, 10);
+    boolean smallBlock = blockWidth * blockHeight < 31;
+    int ds = (1024 + blockWidth / 2) / (blockWidth - 1);
+    int dt = (1024 + blockHeight / 2) / (blockHeight - 1);
+    for (int y = 0, o = 0; y < blockHeight; y++) {
+      for (int x = 0; x < blockWidth; x++, o += 4) {
+        int[] e = endpoints[
+            (partitions == 1) ? 0 : selectPartition(seed, x, y, partitions, smallBlock)];
+        // Bilinearly infill the weight grid to the texel.
+        int gs = (ds * x * (gridWidth - 1) + 32) >> 6, gt = (dt * y * (gridHeight - 1) + 32) >> 6;
+        int fs = gs & 0xF, ft = gt & 0xF, v0 = (gs >> 4) + (gt >> 4) * gridWidth;
+        int w11 = (fs * ft + 8) >> 4, w10 = ft - w11, w01 = fs - w11, w00 = 16 - fs - ft + w11;
+        for (int ch = 0; ch < 4; ch++) {
+          int plane = (ch == ccs) ? 1 : 0;
+          int weight = (weight(weights, v0, plane, planes) * w00 +
+              weight(weights, v0 + 1, plane, planes) * w01 +
+              weight(weights, v0 + gridWidth, plane, planes) * w10 +
+              weight(weights, v0 + gridWidth + 1, plane, planes) * w11 + 8) >> 4;
+          int c0 = e[ch] * 257, c1 = e[4 + ch] * 257;
+          out[o + ch] = (byte)unorm16To8((c0 * (64 - weight) + c1 * weight + 32) >> 6);
+        }
+      }
+    }
+    return true;
+  }
+
+  private static int weight(int[] weights, int index, int plane, int planes) {
+    int i = index * planes + plane;
+    return (i < weights.length) ? weights[i] : 0;
+  }
+
+  /**
+   * Decodes a constant color block. The color is stored as four 16 bit UNORM values.
+   */
+  private static boolean decodeVoidExtent(long lo, long hi, byte[] out) {
+    if (((lo >> 9) & 1) != 0) {
+      return false; // HDR.
+    }
+    for (int i = 0; i < out.length; i += 4) {
+      for (int ch = 0; ch < 4; ch++) {
+        out[i + ch] = (byte)unorm16To8((int)(hi >>> (16 * ch)) & 0xFFFF);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Converts the 16 bit UNORM value to 8 bits the way the reference decoder does, which goes via
+   * a truncating conversion to a half float, so that the results match the server's exactly.
+   */
+  private static int unorm16To8(int value) {
+    float f;
+    if (value >= 0xFFFF) {
+      f = 1;
+    } else if (value < 4) {
+      f = Math.scalb((float)value, -16);
+    } else {
+      int lz = Integer.numberOfLeadingZeros(value) - 16;
+      int mantissa = ((value << (lz + 1)) & 0xFFFF) >> 6;
+      f = Math.scalb((float)(1024 + mantissa), -11 - lz);
+    }
+    return (int)(f * 255 + 0.5f);
+  }
+
+  private static boolean isHDR(int endpointMode) {
+    switch (endpointMode) {
+      case 2: case 3: case 7: case 11: case 14: case 15:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return the RGBA colors of the two endpoints, decoded from the given unquantized values.
+   */
+  private static int[] decodeEndpoints(int mode, int[] colors, int offset) {
+    int[] v = new int[8];
+    System.arraycopy(colors, offset, v, 0, 2 * ((mode >> 2) + 1));
+    switch (mode) {
+      case 0: // Luminance, direct.
+        return endpoints(v[0], v[0], v[0], 255, v[1], v[1], v[1], 255);
+      case 1: { // Luminance, base + offset.
+        int l0 = (v[0] >> 2) | (v[1] & 0xC0), l1 = Math.min(255, l0 + (v[1] & 0x3F));
+        return endpoints(l0, l0, l0, 255, l1, l1, l1, 255);
+      }
+      case 4: // Luminance + alpha, direct.
+        return endpoints(v[0], v[0], v[0], v[2], v[1], v[1], v[1], v[3]);
+      case 5: // Luminance + alpha, base + offset.
+        bitTransferSigned(v, 1, 0);
+        bitTransferSigned(v, 3, 2);
+        return endpoints(v[0], v[0], v[0], v[2],
+            v[0] + v[1], v[0] + v[1], v[0] + v[1], v[2] + v[3]);
+      case 6: // RGB, base + scale.
+        return endpoints((v[0] * v[3]) >> 8, (v[1] * v[3]) >> 8, (v[2] * v[3]) >> 8, 255,
+            v[0], v[1], v[2], 255);
+      case 8: // RGB, direct.
+        v[6] = v[7] = 255;
+        // $FALL-THROUGH$
+      case 12: // RGBA, direct.
+        if (v[1] + v[3] + v[5] >= v[0] + v[2] + v[4]) {
+          return endpoints(v[0], v[2], v[4], v[6], v[1], v[3], v[5], v[7]);
+        }
+        return blueContract(v[1], v[3], v[5], v[7], v[0], v[2], v[4], v[6]);
+      case 9: // RGB, base + offset.
+        v[6] = 255;
+        v[7] = 0;
+        bitTransferSigned(v, 1, 0);
+        bitTransferSigned(v, 3, 2);
+        bitTransferSigned(v, 5, 4);
+        return baseOffset(v);
+      case 10: // RGB, base + scale, plus two alpha values.
+        return endpoints((v[0] * v[3]) >> 8, (v[1] * v[3]) >> 8, (v[2] * v[3]) >> 8, v[4],
+            v[0], v[1], v[2], v[5]);
+      case 13: // RGBA, base + offset.
+        bitTransferSigned(v, 1, 0);
+        bitTransferSigned(v, 3, 2);
+        bitTransferSigned(v, 5, 4);
+        bitTransferSigned(v, 7, 6);
+        return baseOffset(v);
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  private static int[] baseOffset(int[] v) {
+    if (v[1] + v[3] + v[5] >= 0) {
+      return endpoints(v[0], v[2], v[4], v[6],
+          v[0] + v[1], v[2] + v[3], v[4] + v[5], v[6] + v[7]);
+    }
+    return blueContract(v[0] + v[1], v[2] + v[3], v[4] + v[5], v[6] + v[7],
+        v[0], v[2], v[4], v[6]);
+  }
+
+  private static int[] blueContract(
+      int r0, int g0, int b0, int a0, int r1, int g1, int b1, int a1) {
+    return endpoints(
+        (r0 + b0) >> 1, (g0 + b0) >> 1, b0, a0, (r1 + b1) >> 1, (g1 + b1) >> 1, b1, a1);
+  }
+
+  private static int[] endpoints(int... rgbaRgba) {
+    for (int i = 0; i < rgbaRgba.length; i++) {
+      rgbaRgba[i] = Math.max(0, Math.min(255, rgbaRgba[i]));
+    }
+    return rgbaRgba;
+  }
+
+  /**
+   * Moves the top bit of the value at {@code a} into the value at {@code b} and turns the
+   * remaining 6 bits of {@code a} into a signed offset.
+   */
+  private static void bitTransferSigned(int[] v, int a, int b) {
+    v[b] = (v[b] >> 1) | (v[a] & 0x80);
+    v[a] = (v[a] >> 1) & 0x3F;
+    if ((v[a] & 0x20) != 0) {
+      v[a] -= 0x40;
+    }
+  }
+
+  /**
+   * @return the partition of the given texel, computed by the partition hash function.
+   */
+  private static int selectPartition(int seed, int x, int y, int partitions, boolean small) {
+    if (small) {
+      x <<= 1;
+      y <<= 1;
+    }
+    seed += (partitions - 1) * 1024;
+    int rnum = hash52(seed);
+    int[] s = new int[8];
+    for (int i = 0; i < 8; i++) {
+      s[i] = (rnum >>> (4 * i)) & 0xF;
+      s[i] *= s[i];
+    }
+    int sh1, sh2;
+    if ((seed & 1) != 0) {
+      sh1 = ((seed & 2) != 0) ? 4 : 5;
+      sh2 = (partitions == 3) ? 6 : 5;
+    } else {
+      sh1 = (partitions == 3) ? 6 : 5;
+      sh2 = ((seed & 2) != 0) ? 4 : 5;
+    }
+    int a = ((s[0] >> sh1) * x + (s[1] >> sh2) * y + (rnum >>> 14)) & 0x3F;
+    int b = ((s[2] >> sh1) * x + (s[3] >> sh2) * y + (rnum >>> 10)) & 0x3F;
+    int c = (partitions < 3) ? 0 : ((s[4] >> sh1) * x + (s[5] >> sh2) * y + (rnum >>> 6)) & 0x3F;
+    int d = (partitions < 4) ? 0 : ((s[6] >> sh1) * x + (s[7] >> sh2) * y + (rnum >>> 2)) & 0x3F;
+    if (a >= b && a >= c && a >= d) {
+      return 0;
+    } else if (b >= c && b >= d) {
+      return 1;
+    } else if (c >= d) {
+      return 2;
+    } else {
+      return 3;
+    }
+  }
+
+  private static int hash52(int p) {
+    p ^= p >>> 15;
+    p -= p << 17;
+    p += p << 7;
+    p += p << 4;
+    p ^= p >>> 5;
+    p += p << 16;
+    p ^= p >>> 7;
+    p ^= p >>> 3;
+    p ^= p << 6;
+    p ^= p >>> 17;
+    return p;
+  }
+
+  /**
+   * @return the number of bits used to encode the given number of values of the given range
+   *     using the integer sequence encoding.
+   */
+  private static int iseBits(int count, int range) {
+    int result = count * BITS[range];
+    if (TRITS[range] != 0) {
+      result += (8 * count + 4) / 5;
+    } else if (QUINTS[range] != 0) {
+      result += (7 * count + 2) / 3;
+    }
+    return result;
+  }
+
+  /**
+   * Decodes the given number of integer sequence encoded values of the given range, starting at
+   * the given bit. The values are returned as {@code (trit or quint) << bits | bits}.
+   */
+  private static int[] decodeISE(long lo, long hi, int start, int count, int range) {
+    int[] result = new int[count];
+    int n = BITS[range], end = start + iseBits(count, range), pos = start;
+    if (TRITS[range] != 0) {
+      int[] m = new int[5];
+      for (int i = 0; i < count; i += 5) {
+        int t = 0;
+        m[0] = read(lo, hi, pos, n, end);
+        t |= read(lo, hi, pos += n, 2, end);
+        m[1] = read(lo, hi, pos += 2, n, end);
+        t |= read(lo, hi, pos += n, 2, end) << 2;
+        m[2] = read(lo, hi, pos += 2, n, end);
+        t |= read(lo, hi, pos += n, 1, end) << 4;
+        m[3] = read(lo, hi, pos += 1, n, end);
+        t |= read(lo, hi, pos += n, 2, end) << 5;
+        m[4] = read(lo, hi, pos += 2, n, end);
+        t |= read(lo, hi, pos += n, 1, end) << 7;
+        pos += 1;
+        int[] trits = decodeTrits(t);
+        for (int j = 0; j < 5 && i + j < count; j++) {
+          result[i + j] = (trits[j] << n) | m[j];
+        }
+      }
+    } else if (QUINTS[range] != 0) {
+      int[] m = new int[3];
+      for (int i = 0; i < count; i += 3) {
+        int q = 0;
+        m[0] = read(lo, hi, pos, n, end);
+        q |= read(lo, hi, pos += n, 3, end);
+        m[1] = read(lo, hi, pos += 3, n, end);
+        q |= read(lo, hi, pos += n, 2, end) << 3;
+        m[2] = read(lo, hi, pos += 2, n, end);
+        q |= read(lo, hi, pos += n, 2, end) << 5;
+        pos += 2;
+        int[] quints = decodeQuints(q);
+        for (int j = 0; j < 3 && i + j < count; j++) {
+          result[i + j] = (quints[j] << n) | m[j];
+        }
+      }
+    } else {
+      for (int i = 0; i < count; i++, pos += n) {
+        result[i] = read(lo, hi, pos, n, end);
+      }
+    }
+    return result;
+  }
+
+  private static int[] decodeTrits(int t) {
+    int c, t3, t4;
+    if (((t >> 2) & 7) == 7) {
+      c = ((t >> 3) & 0x1C) | (t & 3);
+      t3 = t4 = 2;
+    } else {
+      c = t & 0x1F;
+      if (((t >> 5) & 3) == 3) {
+        t4 = 2;
+        t3 = (t >> 7) & 1;
+      } else {
+        t4 = (t >> 7) & 1;
+        t3 = (t >> 5) & 3;
+      }
+    }
+    int t0, t1, t2;
+    if ((c & 3) == 3) {
+      t2 = 2;
+      t1 = (c >> 4) & 1;
+      t0 = (((c >> 3) & 1) << 1) | (((c >> 2) & 1) & ~((c >> 3) & 1));
+    } else if (((c >> 2) & 3) == 3) {
+      t2 = t1 = 2;
+      t0 = c & 3;
+    } else {
+      t2 = (c >> 4) & 1;
+      t1 = (c >> 2) & 3;
+      t0 = (c & 2) | ((c & 1) & ~((c >> 1) & 1));
+    }
+    return new int[] { t0, t1, t2, t3, t4 };
+  }
+
+  private static int[] decodeQuints(int q) {
+    int q0, q1, q2;
+    if (((q >> 1) & 3) == 3 && ((q >> 5) & 3) == 0) {
+      q2 = ((q & 1) << 2) | ((((q >> 4) & 1) & ~(q & 1)) << 1) | (((q >> 3) & 1) & ~(q & 1));
+      q1 = q0 = 4;
+    } else {
+      int c;
+      if (((q >> 1) & 3) == 3) {
+        q2 = 4;
+        c = (((q >> 3) & 3) << 3) | ((~(q >> 5) & 3) << 1) | (q & 1);
+      } else {
+        q2 = (q >> 5) & 3;
+        c = q & 0x1F;
+      }
+      if ((c & 7) == 5) {
+        q1 = 4;
+        q0 = (c >> 3) & 3;
+      } else {
+        q1 = (c >> 3) & 3;
+        q0 = c & 7;
+      }
+    }
+    return new int[] { q0, q1, q2 };
+  }
+
+  /**
+   * @return the given color value of the given range, scaled to [0, 255].
+   */
+  private static int unquantizeColor(int v, int range) {
+    int n = BITS[range];
+    if (TRITS[range] == 0 && QUINTS[range] == 0) {
+      return replicate(v, n, 8);
+    }
+    int d = v >> n, m = v & ((1 << n) - 1);
+    int a = ((m & 1) != 0) ? 0x1FF : 0;
+    int b1 = (m >> 1) & 1, b2 = (m >> 2) & 1, b3 = (m >> 3) & 1, b4 = (m >> 4) & 1;
+    int b5 = (m >> 5) & 1;
+    int b, c;
+    if (TRITS[range] != 0) {
+      switch (n) {
+        case 1: c = 204; b = 0; break;
+        case 2: c = 93; b = (b1 << 8) | (b1 << 4) | (b1 << 2) | (b1 << 1); break;
+        case 3: c = 44; b = (b2 << 8) | (b1 << 7) | (b2 << 3) | (b1 << 2) | (b2 << 1) | b1; break;
+        case 4: c = 22; b = (b3 << 8) | (b2 << 7) | (b1 << 6) | (b3 << 2) | (b2 << 1) | b1; break;
+        case 5: c = 11; b = (b4 << 8) | (b3 << 7) | (b2 << 6) | (b1 << 5) | (b4 << 1) | b3; break;
+        case 6: c = 5; b = (b5 << 8) | (b4 << 7) | (b3 << 6) | (b2 << 5) | (b1 << 4) | b5; break;
+        default: throw new AssertionError();
+      }
+    } else {
+      switch (n) {
+        case 1: c = 113; b = 0; break;
+        case 2: c = 54; b = (b1 << 8) | (b1 << 3) | (b1 << 2); break;
+        case 3: c = 26; b = (b2 << 8) | (b1 << 7) | (b2 << 2) | (b1 << 1) | b2; break;
+        case 4: c = 13; b = (b3 << 8) | (b2 << 7) | (b1 << 6) | (b3 << 1) | b2; break;
+        case 5: c = 6; b = (b4 << 8) | (b3 << 7) | (b2 << 6) | (b1 << 5) | b4; break;
+        default: throw new AssertionError();
+      }
+    }
+    int t = (d * c + b) ^ a;
+    return (a & 0x80) | (t >> 2);
+  }
+
+  /**
+   * @return the given weight value of the given range, scaled to [0, 64].
+   */
+  private static int unquantizeWeight(int v, int range) {
+    int n = BITS[range], result;
+    if (TRITS[range] == 0 && QUINTS[range] == 0) {
+      result = replicate(v, n, 6);
+    } else if (n == 0) {
+      return (TRITS[range] != 0) ? v * 32 : v * 16;
+    } else {
+      int d = v >> n, m = v & ((1 << n) - 1);
+      int a = ((m & 1) != 0) ? 0x7F : 0;
+      int b1 = (m >> 1) & 1, b2 = (m >> 2) & 1;
+      int b, c;
+      if (TRITS[range] != 0) {
+        switch (n) {
+          case 1: c = 50; b = 0; break;
+          case 2: c = 23; b = (b1 << 6) | (b1 << 2) | b1; break;
+          case 3: c = 11; b = (b2 << 6) | (b1 << 5) | (b2 << 1) | b1; break;
+          default: throw new AssertionError();
+        }
+      } else {
+        switch (n) {
+          case 1: c = 28; b = 0; break;
+          case 2: c = 13; b = (b1 << 6) | (b1 << 1); break;
+          default: throw new AssertionError();
+        }
+      }
+      int t = (d * c + b) ^ a;
+      result = (a & 0x20) | (t >> 2);
+    }
+    return (result > 32) ? result + 1 : result;
+  }
+
+  /**
+   * @return the given value of the given number of bits, expanded to the given number of bits by
+   *     replicating its bits.
+   */
+  private static int replicate(int v, int bits, int toBits) {
+    int result = 0;
+    for (int shift = toBits - bits; shift > -bits; shift -= bits) {
+      result |= (shift >= 0) ? v << shift : v >> -shift;
+    }
+    return result;
+  }
+
+  /**
+   * @return the given number of bits starting at the given bit, where the bits at or after
+   *     {@code end} read as zero.
+   */
+  private static int read(long lo, long hi, int start, int count, int end) {
+    return (start >= end) ? 0 : bits(lo, hi, start, Math.min(count, end - start));
+  }
+
+  /**
+   * @return the given number of bits of the 128 bit value, starting at the given bit.
+   */
+  private static int bits(long lo, long hi, int start, int count) {
+    if (count == 0) {
+      return 0;
+    }
+    long v;
+    if (start >= 64) {
+      v = hi >>> (start - 64);
+    } else if (start == 0) {
+      v = lo;
+    } else {
+      v = (lo >>> start) | (hi << (64 - start));
+    }
+    return (int)(v & ((1L << count) - 1));
+  }
+}
@@ -19,11 +19,17 @@ import static com.google.gapid.util.Colors.DARK_LUMINANCE8_THRESHOLD;
 import static com.google.gapid.util.Colors.DARK_LUMINANCE_THRESHOLD;
 import static com.google.gapid.util.Colors.clamp;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.glviewer.gl.Texture;
 import com.google.gapid.image.Image.ImageBuffer;
 import com.google.gapid.image.Image.PixelInfo;
 import com.google.gapid.image.Image.PixelValue;
 import com.google.gapid.util.Colors;
+import com.google.gapid.util.Float16;
+import com.google.gapid.util.Scheduler;
 
 import org.eclipse.swt.graphics.ImageData;
 import org.lwjgl.BufferUtils;
@@ -33,16 +39,30 @@ import org.lwjgl.opengl.GL30;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
- * An {@link ImageBuffer} backed by a byte array.
+ * An {@link ImageBuffer} backed by a direct, little endian {@link ByteBuffer}. The buffer is
+ * passed to GL as is, so uploading the image to a texture does not require any copies.
  */
 public abstract class ArrayImageBuffer implements ImageBuffer {
+  /**
+   * Images with at least this many pixels are converted in parallel.
+   */
+  private static final int PARALLEL_CONVERT_THRESHOLD = 512 * 512;
+  /**
+   * The approximate number of pixels in a band of rows converted by a single parallel task.
+   */
+  private static final int CONVERT_BAND_SIZE = 64 * 1024;
+
   public final int width, height;
-  private final byte[] data;
+  private final ByteBuffer data;
   private final int internalFormat, format, type;
 
-  public ArrayImageBuffer(int width, int height, byte[] data,
+  public ArrayImageBuffer(int width, int height, ByteBuffer data,
       int internalFormat, int format, int type) {
     this.width = width;
     this.height = height;
@@ -54,20 +74,42 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
 
   @Override
   public void uploadToTexture(Texture texture) {
-    ByteBuffer buffer = (ByteBuffer)BufferUtils.createByteBuffer(data.length)
-        .put(data)
-        .flip();
-    texture.loadData(width, height, internalFormat, format, type, buffer);
+    texture.loadData(width, height, internalFormat, format, type, data.duplicate());
+  }
+
+  /**
+   * @return a read-only view of the pixel data of this image.
+   */
+  public ByteBuffer getBuffer() {
+    return data.asReadOnlyBuffer();
+  }
+
+  /**
+   * @return the size in bytes of the pixel data of this image.
+   */
+  public int getByteSize() {
+    return data.capacity();
   }
 
   @Override
   public ImageData getImageData() {
     ImageData result = Images.createImageData(width, height, true);
-    convert(data, result.data, result.alphaData, result.bytesPerLine);
+    if ((long)width * height < PARALLEL_CONVERT_THRESHOLD) {
+      convert(data, result.data, result.alphaData, result.bytesPerLine, 0, height);
+    } else {
+      int bandRows = Math.max(1, CONVERT_BAND_SIZE / Math.max(1, width));
+      ForkJoinPool.commonPool().invoke(new ConvertTask(result, 0, height, bandRows));
+    }
     return result;
   }
 
-  protected abstract void convert(byte[] src, byte[] dst, byte[] alpha, int stride);
+  /**
+   * Converts the rows in [startRow, endRow) of this image into the given SWT image data. Rows are
+   * counted from the top of the SWT image, i.e. row 0 is the last row of the data. Different row
+   * ranges may be converted concurrently.
+   */
+  protected abstract void convert(
+      ByteBuffer src, byte[] dst, byte[] alpha, int stride, int startRow, int endRow);
 
   @Override
   public PixelValue getPixel(int x, int y) {
@@ -77,10 +119,78 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     return getPixel(x, y, data);
   }
 
-  protected abstract PixelValue getPixel(int x, int y, byte[] src);
+  protected abstract PixelValue getPixel(int x, int y, ByteBuffer src);
+
+  /**
+   * Reads the given number of pixels, starting at the given pixel, as RGBA floats. Normalized
+   * values are scaled to [0, 1] and luminance is replicated to the color channels, with an alpha
+   * of 1. May be called concurrently.
+   */
+  public abstract void getRGBA(int x, int y, int count, float[] dst);
+
+  /**
+   * @return a memoizing supplier of the {@link ImageStatistics} of the given buffer. The statistics
+   *     are computed in the background on first use, so they don't delay the image's creation.
+   */
+  protected static Supplier<ListenableFuture<PixelInfo>> statistics(
+      FloatBuffer buffer, int channels, int colorChannels) {
+    return Suppliers.memoize(() -> Scheduler.EXECUTOR.submit(
+        () -> buffer.hasRemaining() ?
+            ImageStatistics.compute(buffer, channels, colorChannels) : PixelInfo.NULL_INFO));
+  }
 
-  protected static ByteBuffer buffer(byte[] data) {
-    return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+  /**
+   * @return a memoizing supplier of the {@link ImageStatistics} of the given half-float buffer.
+   */
+  protected static Supplier<ListenableFuture<PixelInfo>> statistics(
+      ShortBuffer buffer, int channels, int colorChannels) {
+    return Suppliers.memoize(() -> Scheduler.EXECUTOR.submit(
+        () -> buffer.hasRemaining() ?
+            ImageStatistics.compute(buffer, channels, colorChannels) : PixelInfo.NULL_INFO));
+  }
+
+  /**
+   * {@link RecursiveAction} converting a range of rows, splitting it into halves until it is no
+   * larger than a band.
+   */
+  @SuppressWarnings("serial")
+  private class ConvertTask extends RecursiveAction {
+    private final ImageData result;
+    private final int startRow, endRow, bandRows;
+
+    public ConvertTask(ImageData result, int startRow, int endRow, int bandRows) {
+      this.result = result;
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.bandRows = bandRows;
+    }
+
+    @Override
+    protected void compute() {
+      if (endRow - startRow <= bandRows) {
+        convert(data, result.data, result.alphaData, result.bytesPerLine, startRow, endRow);
+      } else {
+        int mid = (startRow + endRow) >>> 1;
+        invokeAll(new ConvertTask(result, startRow, mid, bandRows),
+            new ConvertTask(result, mid, endRow, bandRows));
+      }
+    }
+  }
+
+  /**
+   * @return a new direct buffer of the given size, suitable to be passed to GL.
+   */
+  protected static ByteBuffer allocate(int size) {
+    return BufferUtils.createByteBuffer(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * @return a direct buffer containing the given data.
+   */
+  public static ByteBuffer wrap(byte[] data) {
+    ByteBuffer buffer = allocate(data.length);
+    buffer.put(data).rewind();
+    return buffer;
   }
 
   /**
@@ -88,36 +198,60 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
    */
   public abstract static class Builder {
     public final int width, height;
-    public final byte[] data;
+    public final ByteBuffer data;
     private final int pixelSize;
 
     public Builder(int width, int height, int pixelSize) {
       this.width = width;
       this.height = height;
-      this.data = new byte[pixelSize * width * height];
+      this.data = allocate(pixelSize * width * height);
       this.pixelSize = pixelSize;
     }
 
     public Builder update(byte[] src, int x, int y, int w, int h) {
+      return update(ByteBuffer.wrap(src), x, y, w, h);
+    }
+
+    /**
+     * Copies the given pixels, starting at the buffer's position, into the image at the given
+     * location. The source may be a read-only view, such as a protobuf ByteString's buffer.
+     */
+    public Builder update(ByteBuffer src, int x, int y, int w, int h) {
+      ByteBuffer in = src.duplicate(), out = data.duplicate();
       if (x == 0 && w == width) {
         // Copying complete rows of pixels is easy.
-        System.arraycopy(src, 0, data, pixelSize * y * w, pixelSize * w * h);
+        in.limit(in.position() + pixelSize * w * h);
+        out.position(pixelSize * y * w);
+        out.put(in);
       } else {
         // Copy one (incomplete) row at a time.
-        for (int row = 0, p = y * width, s = 0; row < h; row++, p += width, s += w * pixelSize) {
-          System.arraycopy(src, s, data, pixelSize * (p + x), pixelSize * w);
+        int rowSize = pixelSize * w;
+        for (int row = 0, p = y * width, s = in.position(); row < h;
+            row++, p += width, s += rowSize) {
+          in.limit(s + rowSize).position(s);
+          out.position(pixelSize * (p + x));
+          out.put(in);
         }
       }
       return this;
     }
 
+    /**
+     * Flips the image vertically, in place.
+     */
     public Builder flip() {
       int s = pixelSize * width;
-      byte[] row = new byte[s];
-      for (int y = 0, i = 0, j = data.length - s; y < height / 2; y++, i += s, j -= s) {
-        System.arraycopy(data, i, row, 0, s);
-        System.arraycopy(data, j, data, i, s);
-        System.arraycopy(row, 0, data, j, s);
+      byte[] top = new byte[s], bottom = new byte[s];
+      ByteBuffer buffer = data.duplicate();
+      for (int y = 0, i = 0, j = data.capacity() - s; y < height / 2; y++, i += s, j -= s) {
+        buffer.position(i);
+        buffer.get(top);
+        buffer.position(j);
+        buffer.get(bottom);
+        buffer.position(j);
+        buffer.put(top);
+        buffer.position(i);
+        buffer.put(bottom);
       }
       return this;
     }
@@ -129,15 +263,20 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
    * An {@link ArrayImageBuffer} that represents an RGBA image with 8bit color channels.
    */
   public static class RGBA8ImageBuffer extends ArrayImageBuffer {
-    public RGBA8ImageBuffer(int width, int height, byte[] data) {
+    public RGBA8ImageBuffer(int width, int height, ByteBuffer data) {
       super(width, height, data, GL11.GL_RGBA8, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE);
     }
 
     @Override
-    protected void convert(byte[] src, byte[] dst, byte[] alpha, int stride) {
-      for (int row = 0, di = 0, si = 4 * (height - 1) * width, ai = 0; row < height;
-          row++, si -= 4 * width, di += stride) {
-        for (int col = 0, s = si, d = di; col < width; col++, s += 4, d += 3, ai++) {
+    protected void convert(
+        ByteBuffer buffer, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      ByteBuffer in = buffer.duplicate();
+      byte[] src = new byte[4 * width];
+      for (int row = startRow, di = row * stride, ai = row * width; row < endRow;
+          row++, di += stride) {
+        in.position(4 * (height - 1 - row) * width);
+        in.get(src);
+        for (int s = 0, d = di; s < src.length; s += 4, d += 3, ai++) {
           dst[d + 0] = src[s + 0];
           dst[d + 1] = src[s + 1];
           dst[d + 2] = src[s + 2];
@@ -147,13 +286,24 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
 
     @Override
-    protected PixelValue getPixel(int x, int y, byte[] data) {
+    protected PixelValue getPixel(int x, int y, ByteBuffer data) {
       int i = 4 * (y * width + x);
       return new Pixel(
-          ((data[i + 3] & 0xFF) << 24) |
-          ((data[i + 0] & 0xFF) << 16) |
-          ((data[i + 1] & 0xFF) << 8) |
-          ((data[i + 2] & 0xFF) << 0));
+          ((data.get(i + 3) & 0xFF) << 24) |
+          ((data.get(i + 0) & 0xFF) << 16) |
+          ((data.get(i + 1) & 0xFF) << 8) |
+          ((data.get(i + 2) & 0xFF) << 0));
+    }
+
+    @Override
+    public void getRGBA(int x, int y, int count, float[] dst) {
+      ByteBuffer in = getBuffer();
+      in.position(4 * (y * width + x));
+      byte[] src = new byte[4 * count];
+      in.get(src);
+      for (int i = 0; i < src.length; i++) {
+        dst[i] = (src[i] & 0xFF) / 255f;
+      }
     }
 
     @Override
@@ -185,36 +335,53 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
    */
   public static class RGBAFloatImageBuffer extends ArrayImageBuffer {
     private final FloatBuffer buffer;
-    private final PixelInfo info;
+    private final Supplier<ListenableFuture<PixelInfo>> info;
 
-    public RGBAFloatImageBuffer(int width, int height, byte[] data) {
+    public RGBAFloatImageBuffer(int width, int height, ByteBuffer data) {
       super(width, height, data, GL30.GL_RGBA32F, GL11.GL_RGBA, GL11.GL_FLOAT);
-      this.buffer = buffer(data).asFloatBuffer();
-      this.info = FloatPixelInfo.compute(buffer, true);
+      this.buffer = data.asFloatBuffer();
+      this.info = statistics(buffer, 4, 3);
     }
 
     @Override
-    protected void convert(byte[] src, byte[] dst, byte[] alpha, int stride) {
-      for (int row = 0, di = 0, si = 4 * (height - 1) * width, ai = 0; row < height;
-          row++, si -= 4 * width, di += stride) {
-        for (int col = 0, s = si, d = di; col < width; col++, s += 4, d += 3, ai++) {
-          dst[d + 0] = clamp(buffer.get(s + 0));
-          dst[d + 1] = clamp(buffer.get(s + 1));
-          dst[d + 2] = clamp(buffer.get(s + 2));
-          alpha[ai] = clamp(buffer.get(s + 3));
+    protected void convert(
+        ByteBuffer data, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      FloatBuffer in = buffer.duplicate();
+      float[] src = new float[4 * width];
+      for (int row = startRow, di = row * stride, ai = row * width; row < endRow;
+          row++, di += stride) {
+        in.position(4 * (height - 1 - row) * width);
+        in.get(src);
+        for (int s = 0, d = di; s < src.length; s += 4, d += 3, ai++) {
+          dst[d + 0] = clamp(src[s + 0]);
+          dst[d + 1] = clamp(src[s + 1]);
+          dst[d + 2] = clamp(src[s + 2]);
+          alpha[ai] = clamp(src[s + 3]);
         }
       }
     }
 
     @Override
-    protected PixelValue getPixel(int x, int y, byte[] data) {
+    protected PixelValue getPixel(int x, int y, ByteBuffer data) {
       int i = 4 * (y * width + x);
       return new Pixel(buffer.get(i + 0), buffer.get(i + 1), buffer.get(i + 2), buffer.get(i + 3));
     }
 
+    @Override
+    public void getRGBA(int x, int y, int count, float[] dst) {
+      FloatBuffer in = buffer.duplicate();
+      in.position(4 * (y * width + x));
+      in.get(dst, 0, 4 * count);
+    }
+
     @Override
     public PixelInfo getInfo() {
-      return info;
+      return Futures.getUnchecked(info.get());
+    }
+
+    @Override
+    public ListenableFuture<PixelInfo> getInfoAsync() {
+      return info.get();
     }
 
     private static class Pixel implements PixelValue {
@@ -239,12 +406,77 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
   }
 
+  /**
+   * An {@link ArrayImageBuffer} that represents an RGBA image with 16bit float color channels.
+   * The data is kept, and uploaded to GL, as half-floats, taking half the memory of a
+   * {@link RGBAFloatImageBuffer}.
+   */
+  public static class RGBAHalfImageBuffer extends ArrayImageBuffer {
+    private final ShortBuffer buffer;
+    private final Supplier<ListenableFuture<PixelInfo>> info;
+
+    public RGBAHalfImageBuffer(int width, int height, ByteBuffer data) {
+      super(width, height, data, GL30.GL_RGBA16F, GL11.GL_RGBA, GL30.GL_HALF_FLOAT);
+      this.buffer = data.asShortBuffer();
+      this.info = statistics(buffer, 4, 3);
+    }
+
+    @Override
+    protected void convert(
+        ByteBuffer data, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      ShortBuffer in = buffer.duplicate();
+      short[] halfs = new short[4 * width];
+      float[] src = new float[4 * width];
+      for (int row = startRow, di = row * stride, ai = row * width; row < endRow;
+          row++, di += stride) {
+        in.position(4 * (height - 1 - row) * width);
+        in.get(halfs);
+        Float16.shortBitsToFloat(halfs, 0, src, 0, src.length);
+        for (int s = 0, d = di; s < src.length; s += 4, d += 3, ai++) {
+          dst[d + 0] = clamp(src[s + 0]);
+          dst[d + 1] = clamp(src[s + 1]);
+          dst[d + 2] = clamp(src[s + 2]);
+          alpha[ai] = clamp(src[s + 3]);
+        }
+      }
+    }
+
+    @Override
+    protected PixelValue getPixel(int x, int y, ByteBuffer data) {
+      int i = 4 * (y * width + x);
+      return new RGBAFloatImageBuffer.Pixel(half(i + 0), half(i + 1), half(i + 2), half(i + 3));
+    }
+
+    private float half(int index) {
+      return Float16.shortBitsToFloat(buffer.get(index));
+    }
+
+    @Override
+    public void getRGBA(int x, int y, int count, float[] dst) {
+      ShortBuffer in = buffer.duplicate();
+      in.position(4 * (y * width + x));
+      short[] halfs = new short[4 * count];
+      in.get(halfs);
+      Float16.shortBitsToFloat(halfs, 0, dst, 0, halfs.length);
+    }
+
+    @Override
+    public PixelInfo getInfo() {
+      return Futures.getUnchecked(info.get());
+    }
+
+    @Override
+    public ListenableFuture<PixelInfo> getInfoAsync() {
+      return info.get();
+    }
+  }
+
   /**
    * An {@link ArrayImageBuffer} that represents an 8bit luminance image.
    */
   // TODO: The client may not actually need to distinguish between luminance and RGBA
   public static class Luminance8ImageBuffer extends ArrayImageBuffer {
-    public Luminance8ImageBuffer(int width, int height, byte[] data) {
+    public Luminance8ImageBuffer(int width, int height, ByteBuffer data) {
       super(width, height, data, GL11.GL_RGB8, GL11.GL_RED, GL11.GL_UNSIGNED_BYTE);
     }
 
@@ -255,21 +487,37 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
 
     @Override
-    protected void convert(byte[] src, byte[] dst, byte[] alpha, int stride) {
-      for (int row = 0, di = 0, si = (height - 1) * width, ai = 0; row < height;
-          row++, si -= width, di += stride) {
-        for (int col = 0, s = si, d = di; col < width; col++, s++, d += 3, ai++) {
+    protected void convert(
+        ByteBuffer buffer, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      ByteBuffer in = buffer.duplicate();
+      byte[] src = new byte[width];
+      Arrays.fill(alpha, startRow * width, endRow * width, (byte)-1);
+      for (int row = startRow, di = row * stride; row < endRow; row++, di += stride) {
+        in.position((height - 1 - row) * width);
+        in.get(src);
+        for (int s = 0, d = di; s < src.length; s++, d += 3) {
           dst[d + 0] = src[s];
           dst[d + 1] = src[s];
           dst[d + 2] = src[s];
-          alpha[ai] = -1;
         }
       }
     }
 
     @Override
-    protected PixelValue getPixel(int x, int y, byte[] src) {
-      return new Pixel(src[y * width + x]);
+    protected PixelValue getPixel(int x, int y, ByteBuffer src) {
+      return new Pixel(src.get(y * width + x));
+    }
+
+    @Override
+    public void getRGBA(int x, int y, int count, float[] dst) {
+      ByteBuffer in = getBuffer();
+      in.position(y * width + x);
+      byte[] src = new byte[count];
+      in.get(src);
+      for (int i = 0, d = 0; i < src.length; i++, d += 4) {
+        dst[d + 0] = dst[d + 1] = dst[d + 2] = (src[i] & 0xFF) / 255f;
+        dst[d + 3] = 1;
+      }
     }
 
     @Override
@@ -302,12 +550,12 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
   //TODO: The client may not actually need to distinguish between luminance and RGBA
   public static class LuminanceFloatImageBuffer extends ArrayImageBuffer {
     private final FloatBuffer buffer;
-    private final PixelInfo info;
+    private final Supplier<ListenableFuture<PixelInfo>> info;
 
-    public LuminanceFloatImageBuffer(int width, int height, byte[] data) {
+    public LuminanceFloatImageBuffer(int width, int height, ByteBuffer data) {
       super(width, height, data, GL30.GL_RGB32F, GL11.GL_RED, GL11.GL_FLOAT);
-      this.buffer = buffer(data).asFloatBuffer();
-      this.info = FloatPixelInfo.compute(buffer, false);
+      this.buffer = data.asFloatBuffer();
+      this.info = statistics(buffer, 1, 1);
     }
 
     @Override
@@ -317,27 +565,48 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
 
     @Override
-    protected void convert(byte[] src, byte[] dst, byte[] alpha, int stride) {
-      for (int row = 0, di = 0, si = (height - 1) * width, ai = 0; row < height;
-          row++, si -= width, di += stride) {
-        for (int col = 0, s = si, d = di; col < width; col++, s++, d += 3, ai++) {
-          byte value = clamp(buffer.get(s));
+    protected void convert(
+        ByteBuffer data, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      FloatBuffer in = buffer.duplicate();
+      float[] src = new float[width];
+      Arrays.fill(alpha, startRow * width, endRow * width, (byte)-1);
+      for (int row = startRow, di = row * stride; row < endRow; row++, di += stride) {
+        in.position((height - 1 - row) * width);
+        in.get(src);
+        for (int s = 0, d = di; s < src.length; s++, d += 3) {
+          byte value = clamp(src[s]);
           dst[d + 0] = value;
           dst[d + 1] = value;
           dst[d + 2] = value;
-          alpha[ai] = -1;
         }
       }
     }
 
     @Override
-    protected PixelValue getPixel(int x, int y, byte[] data) {
+    protected PixelValue getPixel(int x, int y, ByteBuffer data) {
       return new Pixel(buffer.get(y * width + x));
     }
 
+    @Override
+    public void getRGBA(int x, int y, int count, float[] dst) {
+      FloatBuffer in = buffer.duplicate();
+      in.position(y * width + x);
+      float[] src = new float[count];
+      in.get(src);
+      for (int i = 0, d = 0; i < src.length; i++, d += 4) {
+        dst[d + 0] = dst[d + 1] = dst[d + 2] = src[i];
+        dst[d + 3] = 1;
+      }
+    }
+
     @Override
     public PixelInfo getInfo() {
-      return info;
+      return Futures.getUnchecked(info.get());
+    }
+
+    @Override
+    public ListenableFuture<PixelInfo> getInfoAsync() {
+      return info.get();
     }
 
     private static class Pixel implements PixelValue {
@@ -359,51 +628,73 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
   }
 
-  private static class FloatPixelInfo implements PixelInfo {
-    private final float min, max;
+  /**
+   * An {@link ArrayImageBuffer} that represents a 16bit float luminance image.
+   */
+  public static class LuminanceHalfImageBuffer extends ArrayImageBuffer {
+    private final ShortBuffer buffer;
+    private final Supplier<ListenableFuture<PixelInfo>> info;
+
+    public LuminanceHalfImageBuffer(int width, int height, ByteBuffer data) {
+      super(width, height, data, GL30.GL_RGB16F, GL11.GL_RED, GL30.GL_HALF_FLOAT);
+      this.buffer = data.asShortBuffer();
+      this.info = statistics(buffer, 1, 1);
+    }
 
-    private FloatPixelInfo(float min, float max) {
-      this.min = min;
-      this.max = max;
+    @Override
+    public void uploadToTexture(Texture texture) {
+      super.uploadToTexture(texture);
+      texture.setSwizzle(GL11.GL_RED, GL11.GL_RED, GL11.GL_RED, GL11.GL_ONE);
     }
 
-    public static PixelInfo compute(FloatBuffer buffer, boolean isRGBA) {
-      if (!buffer.hasRemaining()) {
-        return PixelInfo.NULL_INFO;
+    @Override
+    protected void convert(
+        ByteBuffer data, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      ShortBuffer in = buffer.duplicate();
+      short[] halfs = new short[width];
+      float[] src = new float[width];
+      Arrays.fill(alpha, startRow * width, endRow * width, (byte)-1);
+      for (int row = startRow, di = row * stride; row < endRow; row++, di += stride) {
+        in.position((height - 1 - row) * width);
+        in.get(halfs);
+        Float16.shortBitsToFloat(halfs, 0, src, 0, src.length);
+        for (int s = 0, d = di; s < src.length; s++, d += 3) {
+          byte value = clamp(src[s]);
+          dst[d + 0] = value;
+          dst[d + 1] = value;
+          dst[d + 2] = value;
+        }
       }
+    }
 
-      float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
-      if (isRGBA) {
-        for (int i = 0, end = buffer.remaining() - 3; i <= end; ) {
-          float value = buffer.get(i++);
-          min = Math.min(min, value);
-          max = Math.max(max, value);
-          value = buffer.get(i++);
-          min = Math.min(min, value);
-          max = Math.max(max, value);
-          value = buffer.get(i++);
-          min = Math.min(min, value);
-          max = Math.max(max, value);
-          i++; // skip alpha
-        }
-      } else {
-        for (int i = 0; i < buffer.remaining(); i++) {
-          float value = buffer.get(i);
-          min = Math.min(min, value);
-          max = Math.max(max, value);
-        }
+    @Override
+    protected PixelValue getPixel(int x, int y, ByteBuffer data) {
+      return new LuminanceFloatImageBuffer.Pixel(
+          Float16.shortBitsToFloat(buffer.get(y * width + x)));
+    }
+
+    @Override
+    public void getRGBA(int x, int y, int count, float[] dst) {
+      ShortBuffer in = buffer.duplicate();
+      in.position(y * width + x);
+      short[] halfs = new short[count];
+      in.get(halfs);
+      float[] src = new float[count];
+      Float16.shortBitsToFloat(halfs, 0, src, 0, count);
+      for (int i = 0, d = 0; i < src.length; i++, d += 4) {
+        dst[d + 0] = dst[d + 1] = dst[d + 2] = src[i];
+        dst[d + 3] = 1;
       }
-      return new FloatPixelInfo(min, max);
     }
 
     @Override
-    public float getMin() {
-      return min;
+    public PixelInfo getInfo() {
+      return Futures.getUnchecked(info.get());
     }
 
     @Override
-    public float getMax() {
-      return max;
+    public ListenableFuture<PixelInfo> getInfoAsync() {
+      return info.get();
     }
   }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import com.google.gapid.proto.image.Image;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decoder of block compressed texture data into {@link Images.Format#Color8 RGBA8} pixels. Instead
+ * of having the server convert compressed textures, which multiplies the amount of data sent over
+ * the wire by 4 to 16, the UI can fetch the compressed data and decode it itself. The blocks are
+ * decoded in parallel on the common fork-join pool.
+ */
+public abstract class BlockDecoder {
+  public static final Flag<Boolean> decodeTextures = Flags.value("decode-textures", false,
+      "Fetch compressed textures in their native format and decode them in the UI.");
+
+  /**
+   * The approximate number of blocks decoded by a single parallel task.
+   */
+  private static final int DECODE_BAND_SIZE = 4096;
+
+  public final int blockWidth, blockHeight;
+  /** The size in bytes of a compressed block. */
+  public final int blockSize;
+  /**
+   * Whether the decoded rows are stored bottom to top, matching the images converted by the
+   * server, which flips the ASTC formats.
+   */
+  public final boolean flipped;
+
+  public BlockDecoder(int blockWidth, int blockHeight, int blockSize) {
+    this(blockWidth, blockHeight, blockSize, false);
+  }
+
+  public BlockDecoder(int blockWidth, int blockHeight, int blockSize, boolean flipped) {
+    this.blockWidth = blockWidth;
+    this.blockHeight = blockHeight;
+    this.blockSize = blockSize;
+    this.flipped = flipped;
+  }
+
+  /**
+   * @return the decoder of the given format, or {@code null} if the format is not a compressed
+   *     format that can be decoded by the UI.
+   */
+  public static BlockDecoder get(Image.Format format) {
+    switch (format.getFormatCase()) {
+      case S3_DXT1_RGB: return S3TCDecoder.DXT1_RGB;
+      case S3_DXT1_RGBA: return S3TCDecoder.DXT1_RGBA;
+      case S3_DXT3_RGBA: return S3TCDecoder.DXT3;
+      case S3_DXT5_RGBA: return S3TCDecoder.DXT5;
+      case ETC1_RGB_U8_NORM:
+      case ETC2_RGB_U8_NORM:
+        return ETCDecoder.RGB8;
+      case ETC2_RGBA_U8_NORM: return ETCDecoder.RGBA8;
+      case ETC2_RGBA_U8U8U8U1_NORM: return ETCDecoder.RGB8A1;
+      case ETC2_R_U11_NORM: return ETCDecoder.R11;
+      case ETC2_RG_U11_NORM: return ETCDecoder.RG11;
+      case ETC2_R_S11_NORM: return ETCDecoder.SIGNED_R11;
+      case ETC2_RG_S11_NORM: return ETCDecoder.SIGNED_RG11;
+      case ASTC:
+        return ASTCDecoder.get(format.getAstc().getBlockWidth(), format.getAstc().getBlockHeight());
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return whether images with the given levels should be fetched in their native format and
+   *     decoded by the UI.
+   */
+  public static boolean shouldDecode(List<Image.Info> levels) {
+    if (!decodeTextures.get() || levels.isEmpty()) {
+      return false;
+    }
+    for (Image.Info level : levels) {
+      if (level.getDepth() > 1 || get(level.getFormat()) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int getBlocksX(int width) {
+    return Math.max(1, (width + blockWidth - 1) / blockWidth);
+  }
+
+  public int getBlocksY(int height) {
+    return Math.max(1, (height + blockHeight - 1) / blockHeight);
+  }
+
+  /**
+   * @return the size in bytes of a row of blocks of an image of the given width.
+   */
+  public int getRowSize(int width) {
+    return getBlocksX(width) * blockSize;
+  }
+
+  /**
+   * Decodes the rows of blocks, starting at the buffer's position, covering the given number of
+   * pixel rows of an image of the given width. If this decoder is {@link #flipped}, the first
+   * decoded row is the last row of the returned pixels.
+   *
+   * @return the decoded RGBA8 pixels.
+   */
+  public ByteBuffer decode(ByteBuffer src, int width, int height) {
+    ByteBuffer in = src.slice().order(ByteOrder.LITTLE_ENDIAN);
+    byte[] out = new byte[4 * width * height];
+    int blocksX = getBlocksX(width), blocksY = getBlocksY(height);
+    int bandRows = Math.max(1, DECODE_BAND_SIZE / blocksX);
+    if (blocksY <= bandRows) {
+      decode(in, out, width, height, 0, blocksY);
+    } else {
+      ForkJoinPool.commonPool().invoke(
+          new DecodeTask(in, out, width, height, 0, blocksY, bandRows));
+    }
+    return ByteBuffer.wrap(out);
+  }
+
+  private void decode(ByteBuffer in, byte[] out, int width, int height, int startRow, int endRow) {
+    byte[] block = new byte[4 * blockWidth * blockHeight];
+    int rowSize = getRowSize(width);
+    for (int by = startRow; by < endRow; by++) {
+      int y = by * blockHeight, h = Math.min(blockHeight, height - y);
+      for (int bx = 0, x = 0; x < width; bx++, x += blockWidth) {
+        decodeBlock(in, by * rowSize + bx * blockSize, block);
+        int w = 4 * Math.min(blockWidth, width - x);
+        for (int row = 0; row < h; row++) {
+          int outY = flipped ? height - 1 - y - row : y + row;
+          System.arraycopy(block, 4 * row * blockWidth, out, 4 * (outY * width + x), w);
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes the block at the given offset of the little endian buffer into the given array of
+   * RGBA8 pixels, which are stored in row-major order.
+   */
+  protected abstract void decodeBlock(ByteBuffer in, int offset, byte[] out);
+
+  /**
+   * {@link RecursiveAction} decoding a range of rows of blocks, splitting it into halves until it
+   * is no larger than a band.
+   */
+  @SuppressWarnings("serial")
+  private class DecodeTask extends RecursiveAction {
+    private final ByteBuffer in;
+    private final byte[] out;
+    private final int width, height, startRow, endRow, bandRows;
+
+    public DecodeTask(ByteBuffer in, byte[] out, int width, int height,
+        int startRow, int endRow, int bandRows) {
+      this.in = in;
+      this.out = out;
+      this.width = width;
+      this.height = height;
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.bandRows = bandRows;
+    }
+
+    @Override
+    protected void compute() {
+      if (endRow - startRow <= bandRows) {
+        decode(in, out, width, height, startRow, endRow);
+      } else {
+        int mid = (startRow + endRow) >>> 1;
+        invokeAll(new DecodeTask(in, out, width, height, startRow, mid, bandRows),
+            new DecodeTask(in, out, width, height, mid, endRow, bandRows));
+      }
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link BlockDecoder} of the ETC1 and ETC2 formats, including the EAC R11 and RG11 formats.
+ * Within a 64 bit ETC block, which is stored in big endian order, the pixels are indexed in
+ * column-major order. Signed EAC values are clamped to [0, 1], as 8 bits can't represent negative
+ * values.
+ */
+abstract class ETCDecoder extends BlockDecoder {
+  public static final ETCDecoder RGB8 = new ETCDecoder(8) {
+    @Override
+    protected void decodeBlock(ByteBuffer in, int offset, byte[] out) {
+      decodeColor(read(in, offset), out, null, false);
+    }
+  };
+
+  public static final ETCDecoder RGBA8 = new ETCDecoder(16) {
+    @Override
+    protected void decodeBlock(ByteBuffer in, int offset, byte[] out) {
+      int[] alpha = new int[16];
+      decodeEAC(read(in, offset), alpha, EACMode.Alpha8);
+      decodeColor(read(in, offset + 8), out, alpha, false);
+    }
+  };
+
+  public static final ETCDecoder RGB8A1 = new ETCDecoder(8) {
+    @Override
+    protected void decodeBlock(ByteBuffer in, int offset, byte[] out) {
+      decodeColor(read(in, offset), out, null, true);
+    }
+  };
+
+  public static final ETCDecoder R11 = new EACDecoder(1, EACMode.Unsigned11);
+  public static final ETCDecoder RG11 = new EACDecoder(2, EACMode.Unsigned11);
+  public static final ETCDecoder SIGNED_R11 = new EACDecoder(1, EACMode.Signed11);
+  public static final ETCDecoder SIGNED_RG11 = new EACDecoder(2, EACMode.Signed11);
+
+  private static final int[][] MODIFIERS = {
+    { 2, 8, -2, -8 }, { 5, 17, -5, -17 }, { 9, 29, -9, -29 }, { 13, 42, -13, -42 },
+    { 18, 60, -18, -60 }, { 24, 80, -24, -80 }, { 33, 106, -33, -106 }, { 47, 183, -47, -183 },
+  };
+  private static final int[] DISTANCES = { 3, 6, 11, 16, 23, 32, 41, 64 };
+  private static final int[] DIFFERENCES = { 0, 1, 2, 3, -4, -3, -2, -1 };
+  private static final int[][] EAC_MODIFIERS = {
+    { -3, -6, -9, -15, 2, 5, 8, 14 }, { -3, -7, -10, -13, 2, 6, 9, 12 },
+    { -2, -5, -8, -13, 1, 4, 7, 12 }, { -2, -4, -6, -13, 1, 3, 5, 12 },
+    { -3, -6, -8, -12, 2, 5, 7, 11 }, { -3, -7, -9, -11, 2, 6, 8, 10 },
+    { -4, -7, -8, -11, 3, 6, 7, 10 }, { -3, -5, -8, -11, 2, 4, 7, 10 },
+    { -2, -6, -8, -10, 1, 5, 7, 9 }, { -2, -5, -8, -10, 1, 4, 7, 9 },
+    { -2, -4, -8, -10, 1, 3, 7, 9 }, { -2, -5, -7, -10, 1, 4, 6, 9 },
+    { -3, -4, -7, -10, 2, 3, 6, 9 }, { -1, -2, -3, -10, 0, 1, 2, 9 },
+    { -4, -6, -8, -9, 3, 5, 7, 8 }, { -3, -5, -7, -9, 2, 4, 6, 8 },
+  };
+
+  private ETCDecoder(int blockSize) {
+    super(4, 4, blockSize);
+  }
+
+  protected static long read(ByteBuffer in, int offset) {
+    return Long.reverseBytes(in.getLong(offset));
+  }
+
+  /**
+   * Decodes an ETC1 or ETC2 color block. If alpha is null, all pixels are opaque. In punch-through
+   * alpha blocks, the "differential" bit is the opaque flag and the blocks are always differential.
+   */
+  protected static void decodeColor(long v, byte[] out, int[] alpha, boolean punchThrough) {
+    boolean flip = ((v >> 32) & 1) != 0;
+    boolean diff = ((v >> 33) & 1) != 0;
+    boolean opaque = !punchThrough || diff;
+    int[][] c = new int[4][3];
+
+    int mode = 0;
+    for (int i = 0; i < 3; i++) {
+      if (!punchThrough && !diff) {
+        c[0][i] = expand4((int)(v >> (60 - i * 8)));
+        c[1][i] = expand4((int)(v >> (56 - i * 8)));
+      } else {
+        int a = (int)(v >> (59 - i * 8)) & 31;
+        int b = a + DIFFERENCES[(int)(v >> (56 - i * 8)) & 7];
+        if (b < 0 || b > 31) {
+          // Overflow of the red, green or blue channel selects the T, H or planar mode.
+          mode = i + 1;
+          break;
+        }
+        c[0][i] = (a << 3) | (a >> 2);
+        c[1][i] = (b << 3) | (b >> 2);
+      }
+    }
+
+    switch (mode) {
+      case 0: { // Individual or differential mode (ETC1).
+        int[] mod0 = MODIFIERS[(int)(v >> 37) & 7], mod1 = MODIFIERS[(int)(v >> 34) & 7];
+        for (int i = 0; i < 16; i++) {
+          int idx = index(v, i);
+          int block = flip ? ((i >> 1) & 1) : (i >> 3);
+          int shift = (!opaque && (idx & 1) == 0) ? 0 : (block == 0 ? mod0 : mod1)[idx];
+          setPixel(out, i, c[block][0] + shift, c[block][1] + shift, c[block][2] + shift,
+              alpha, opaque || idx != 2);
+        }
+        break;
+      }
+      case 1: { // T mode.
+        c[0][0] = expand4((int)(((v >> 57) & 12) | ((v >> 56) & 3)));
+        c[0][1] = expand4((int)(v >> 52));
+        c[0][2] = expand4((int)(v >> 48));
+        c[2][0] = expand4((int)(v >> 44));
+        c[2][1] = expand4((int)(v >> 40));
+        c[2][2] = expand4((int)(v >> 36));
+        int mod = DISTANCES[(int)(((v >> 33) & 6) | ((v >> 32) & 1))];
+        for (int i = 0; i < 3; i++) {
+          c[1][i] = c[2][i] + mod;
+          c[3][i] = c[2][i] - mod;
+        }
+        setPixels(v, c, out, alpha, opaque);
+        break;
+      }
+      case 2: { // H mode.
+        c[0][0] = expand4((int)(v >> 59));
+        c[0][1] = expand4((int)(((v >> 55) & 14) | ((v >> 52) & 1)));
+        c[0][2] = expand4((int)(((v >> 48) & 8) | ((v >> 47) & 7)));
+        c[2][0] = expand4((int)(v >> 43));
+        c[2][1] = expand4((int)(v >> 39));
+        c[2][2] = expand4((int)(v >> 35));
+        int modIdx = (int)(((v >> 32) & 4) | ((v >> 31) & 2));
+        if (((c[0][0] << 16) | (c[0][1] << 8) | c[0][2]) >=
+            ((c[2][0] << 16) | (c[2][1] << 8) | c[2][2])) {
+          modIdx++;
+        }
+        int mod = DISTANCES[modIdx];
+        for (int i = 0; i < 3; i++) {
+          c[1][i] = c[0][i] - mod;
+          c[0][i] = c[0][i] + mod;
+          c[3][i] = c[2][i] - mod;
+          c[2][i] = c[2][i] + mod;
+        }
+        setPixels(v, c, out, alpha, opaque);
+        break;
+      }
+      case 3: { // Planar mode.
+        c[0][0] = expand6((int)(v >> 57));
+        c[0][1] = expand7((int)(((v >> 50) & 64) | ((v >> 49) & 63)));
+        c[0][2] = expand6((int)(((v >> 43) & 32) | ((v >> 40) & 24) | ((v >> 39) & 7)));
+        c[1][0] = expand6((int)(((v >> 33) & 62) | ((v >> 32) & 1)));
+        c[1][1] = expand7((int)(v >> 25));
+        c[1][2] = expand6((int)(v >> 19));
+        c[2][0] = expand6((int)(v >> 13));
+        c[2][1] = expand7((int)(v >> 6));
+        c[2][2] = expand6((int)v);
+        int[] p = new int[3];
+        for (int i = 0; i < 16; i++) {
+          int x = i >> 2, y = i & 3;
+          for (int ch = 0; ch < 3; ch++) {
+            p[ch] = (x * (c[1][ch] - c[0][ch]) + y * (c[2][ch] - c[0][ch]) + 4 * c[0][ch] + 2) >> 2;
+          }
+          setPixel(out, i, p[0], p[1], p[2], alpha, true);
+        }
+        break;
+      }
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  /**
+   * Sets the pixels of a T or H mode block, using the 2 bit indices into the 4 given colors.
+   */
+  private static void setPixels(long v, int[][] c, byte[] out, int[] alpha, boolean opaque) {
+    for (int i = 0; i < 16; i++) {
+      int idx = index(v, i);
+      setPixel(out, i, c[idx][0], c[idx][1], c[idx][2], alpha, opaque || idx != 2);
+    }
+  }
+
+  private static int index(long v, int i) {
+    return (int)(((v >> i) & 1) | ((v >> (15 + i)) & 2));
+  }
+
+  /**
+   * Sets the pixel with the given column-major index. Non-visible pixels are transparent black.
+   */
+  private static void setPixel(
+      byte[] out, int i, int r, int g, int b, int[] alpha, boolean visible) {
+    int o = 4 * ((i & 3) * 4 + (i >> 2));
+    out[o + 0] = visible ? clamp(r) : 0;
+    out[o + 1] = visible ? clamp(g) : 0;
+    out[o + 2] = visible ? clamp(b) : 0;
+    out[o + 3] = !visible ? 0 : (alpha == null) ? (byte)255 : clamp(alpha[i]);
+  }
+
+  /**
+   * Decodes an EAC block into the given column-major values, which are scaled to [0, 255].
+   */
+  protected static void decodeEAC(long v, int[] out, EACMode mode) {
+    int base = (int)(v >>> 56), mul = (int)(v >> 52) & 15;
+    int[] modifiers = EAC_MODIFIERS[(int)(v >> 48) & 15];
+    for (int i = 0; i < 16; i++) {
+      int mod = modifiers[(int)(v >> ((15 - i) * 3)) & 7];
+      out[i] = mode.decode(base, mul, mod);
+    }
+  }
+
+  private static int expand4(int v) {
+    v &= 0xF;
+    return (v << 4) | v;
+  }
+
+  private static int expand6(int v) {
+    v &= 0x3F;
+    return (v << 2) | (v >> 4);
+  }
+
+  private static int expand7(int v) {
+    v &= 0x7F;
+    return (v << 1) | (v >> 6);
+  }
+
+  private static byte clamp(int v) {
+    return (byte)Math.max(0, Math.min(255, v));
+  }
+
+  /**
+   * The ways the values of an EAC block are interpreted.
+   */
+  protected static enum EACMode {
+    Alpha8 {
+      @Override
+      public int decode(int base, int mul, int mod) {
+        return base + mod * mul;
+      }
+    },
+    Unsigned11 {
+      @Override
+      public int decode(int base, int mul, int mod) {
+        return Math.max(0, Math.min(2047, base * 8 + 4 + mod * scale(mul))) >> 3;
+      }
+    },
+    Signed11 {
+      @Override
+      public int decode(int base, int mul, int mod) {
+        return Math.max(0, Math.min(1023, (byte)base * 8 + mod * scale(mul))) >> 2;
+      }
+    };
+
+    public abstract int decode(int base, int mul, int mod);
+
+    protected static int scale(int mul) {
+      return (mul == 0) ? 1 : mul * 8;
+    }
+  }
+
+  /**
+   * {@link ETCDecoder} of the one and two channel EAC formats. The blocks of the second channel
+   * follow the blocks of the first.
+   */
+  private static class EACDecoder extends ETCDecoder {
+    private final int channels;
+    private final EACMode mode;
+
+    public EACDecoder(int channels, EACMode mode) {
+      super(8 * channels);
+      this.channels = channels;
+      this.mode = mode;
+    }
+
+    @Override
+    protected void decodeBlock(ByteBuffer in, int offset, byte[] out) {
+      int[] values = new int[16];
+      for (int c = 0; c < 4; c++) {
+        if (c < channels) {
+          decodeEAC(read(in, offset + 8 * c), values, mode);
+        }
+        for (int i = 0; i < 16; i++) {
+          int value = (c < channels) ? values[i] : (c == 3) ? 255 : 0;
+          out[4 * ((i & 3) * 4 + (i >> 2)) + c] = (byte)value;
+        }
+      }
+    }
+  }
+}
@@ -24,6 +24,7 @@ import static com.google.gapid.util.Paths.resourceInfo;
 import static com.google.gapid.util.Paths.thumbnail;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.proto.image.Image.Info;
@@ -34,15 +35,24 @@ import com.google.gapid.proto.service.gfxapi.GfxAPI.CubemapLevel;
 import com.google.gapid.proto.service.gfxapi.GfxAPI.Texture2D;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.server.Client;
+import com.google.gapid.server.RequestScheduler.Priority;
 
 import org.eclipse.swt.graphics.ImageData;
 
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
 
 /**
  * A {@link MultiLevelImage} fetched from the RPC server.
  */
 public class FetchedImage implements MultiLevelImage {
+  /**
+   * The maximum number of bytes of image data to fetch in a single request.
+   */
+  protected static final int CHUNK_SIZE = 16 * 1024 * 1024;
+
   private final Level[] levels;
 
   public static ListenableFuture<FetchedImage> load(
@@ -58,26 +68,46 @@ public class FetchedImage implements MultiLevelImage {
     });
   }
 
-  public static ListenableFuture<FetchedImage> load(Client client, Path.ResourceData imagePath) {
+  /**
+   * @return the image of the given texture resource. Very large 2D textures are returned as a
+   *     {@link TiledImage}, rather than a {@link FetchedImage}.
+   */
+  public static ListenableFuture<MultiLevelImage> load(
+      Client client, Path.ResourceData imagePath) {
     return Futures.transformAsync(client.get(resourceInfo(imagePath)), value -> {
       GfxAPI.ResourceData data = value.getResourceData();
       GfxAPI.Texture texture = data.getTexture();
       switch (texture.getTypeCase()) {
-        case TEXTURE_2D: return load(client, imagePath, getFormat(texture.getTexture2D()));
-        case CUBEMAP: return load(client, imagePath, getFormat(texture.getCubemap()));
+        case TEXTURE_2D: {
+          Texture2D texture2D = texture.getTexture2D();
+          List<Info> levels = texture2D.getLevelsList();
+          if (BlockDecoder.shouldDecode(levels) && !TiledImage.shouldTile(levels)) {
+            return Futures.<MultiLevelImage>immediateFuture(
+                new FetchedImage(client, Images.Format.Color8, texture2D));
+          }
+          return load(client, imagePath, getFormat(texture2D));
+        }
+        case CUBEMAP: {
+          Cubemap cubemap = texture.getCubemap();
+          if (BlockDecoder.shouldDecode(getFaces(cubemap))) {
+            return Futures.<MultiLevelImage>immediateFuture(
+                new FetchedImage(client, Images.Format.Color8, cubemap));
+          }
+          return load(client, imagePath, getFormat(cubemap));
+        }
         default:
           throw new UnsupportedOperationException("Unexpected resource type: " + value);
       }
     });
   }
 
-  public static ListenableFuture<FetchedImage> load(
+  public static ListenableFuture<MultiLevelImage> load(
       Client client, Path.ResourceData imagePath, Images.Format format) {
     return Futures.transform(client.get(imageData(imagePath, format.format)), value -> {
       GfxAPI.ResourceData data = value.getResourceData();
       GfxAPI.Texture texture = data.getTexture();
       switch (texture.getTypeCase()) {
-        case TEXTURE_2D: return new FetchedImage(client, format, texture.getTexture2D());
+        case TEXTURE_2D: return create(client, format, texture.getTexture2D());
         case CUBEMAP: return new FetchedImage(client, format, texture.getCubemap());
         default:
           throw new UnsupportedOperationException("Unexpected resource type: " + value);
@@ -85,18 +115,51 @@ public class FetchedImage implements MultiLevelImage {
     });
   }
 
+  private static List<Info> getFaces(Cubemap cubemap) {
+    List<Info> result = Lists.newArrayList();
+    for (CubemapLevel level : cubemap.getLevelsList()) {
+      result.add(level.getNegativeX());
+      result.add(level.getPositiveX());
+      result.add(level.getNegativeY());
+      result.add(level.getPositiveY());
+      result.add(level.getNegativeZ());
+      result.add(level.getPositiveZ());
+    }
+    return result;
+  }
+
+  private static MultiLevelImage create(Client client, Images.Format format, Texture2D texture) {
+    if (TiledImage.shouldTile(texture.getLevelsList())) {
+      return new TiledImage(client, format, texture.getLevelsList());
+    }
+    return new FetchedImage(client, format, texture);
+  }
+
   public static ListenableFuture<ImageData> loadLevel(
       ListenableFuture<FetchedImage> futureImage, final int level) {
     return Futures.transformAsync(futureImage, image -> Futures.transform(
         image.getLevel(Math.min(level, image.getLevelCount())), (l) -> l.getData().getImageData()));
   }
 
+  /**
+   * @return the thumbnail image at the given path. Thumbnails are only decorations, so they are
+   *     fetched at {@link Priority#Background} priority, behind any other request.
+   */
   public static ListenableFuture<ImageData> loadThumbnail(Client client, Path.Thumbnail path) {
-    return loadLevel(Futures.transform(client.get(thumbnail(path)), value -> {
-      return new FetchedImage(client, Images.Format.Color8, value.getImageInfo());
+    return loadLevel(Futures.transform(client.get(thumbnail(path), Priority.Background), value -> {
+      return new FetchedImage(
+          client, Priority.Background, Images.Format.Color8, value.getImageInfo());
     }), 0);
   }
 
+  /**
+   * @return a read-only view of the pixel data of the given blob value. This avoids copying the
+   *     data before it is copied into the direct buffer that is uploaded to GL.
+   */
+  protected static ByteBuffer pixels(Value value) {
+    return value.getBox().getPod().getUint8Array().asReadOnlyByteBuffer();
+  }
+
   private static Images.Format getFormat(Info imageInfo) {
     return Images.Format.from(imageInfo.getFormat());
   }
@@ -111,14 +174,18 @@ public class FetchedImage implements MultiLevelImage {
   }
 
   public FetchedImage(Client client, Images.Format format, Info imageInfo) {
-    levels = new Level[] { new SingleFacedLevel(client, format, imageInfo) };
+    this(client, Priority.Interactive, format, imageInfo);
+  }
+
+  public FetchedImage(Client client, Priority priority, Images.Format format, Info imageInfo) {
+    levels = new Level[] { new SingleFacedLevel(client, priority, format, imageInfo) };
   }
 
   public FetchedImage(Client client, Images.Format format, Texture2D texture) {
     List<Info> infos = texture.getLevelsList();
     levels = new Level[infos.size()];
     for (int i = 0; i < infos.size(); i++) {
-      levels[i] = new SingleFacedLevel(client, format, infos.get(i));
+      levels[i] = new SingleFacedLevel(client, Priority.Interactive, format, infos.get(i));
     }
   }
 
@@ -137,9 +204,14 @@ public class FetchedImage implements MultiLevelImage {
 
   @Override
   public ListenableFuture<Image> getLevel(int index) {
+    return getLevel(index, progress -> { /* ignored */ });
+  }
+
+  @Override
+  public ListenableFuture<Image> getLevel(int index, DoubleConsumer progress) {
     return (index < 0 || index >= levels.length) ?
         immediateFailedFuture(new IllegalArgumentException("Invalid image level " + index)) :
-        levels[index].get();
+        levels[index].get(progress);
   }
 
   /**
@@ -148,12 +220,12 @@ public class FetchedImage implements MultiLevelImage {
   private abstract static class Level implements Function<ArrayImageBuffer, Image>, Image {
     public static final Level EMPTY_LEVEL = new Level(null) {
       @Override
-      public ListenableFuture<Image> get() {
+      public ListenableFuture<Image> get(DoubleConsumer progress) {
         return immediateFuture(Image.EMPTY);
       }
 
       @Override
-      protected ListenableFuture<ArrayImageBuffer> doLoad() {
+      protected ListenableFuture<ArrayImageBuffer> doLoad(DoubleConsumer progress) {
         return null;
       }
     };
@@ -165,12 +237,12 @@ public class FetchedImage implements MultiLevelImage {
       this.format = format;
     }
 
-    public ListenableFuture<Image> get() {
+    public ListenableFuture<Image> get(DoubleConsumer progress) {
       ImageBuffer result;
       synchronized (this) {
         result = image;
       }
-      return (result == null) ? Futures.transform(doLoad(), this) : immediateFuture(this);
+      return (result == null) ? Futures.transform(doLoad(progress), this) : immediateFuture(this);
     }
 
     @Override
@@ -196,44 +268,67 @@ public class FetchedImage implements MultiLevelImage {
       return image;
     }
 
-    protected abstract ListenableFuture<ArrayImageBuffer> doLoad();
-
-    protected static ArrayImageBuffer convertImage(Info info, Images.Format format, byte[] data) {
-      return format.builder(info.getWidth(), info.getHeight())
-          .update(data, 0, 0, info.getWidth(), info.getHeight())
-          .build();
+    protected abstract ListenableFuture<ArrayImageBuffer> doLoad(DoubleConsumer progress);
+
+    /**
+     * Fetches the pixels of the given image and copies them into the builder at the given location.
+     * Images larger than {@link #CHUNK_SIZE} are fetched as ranges of rows, one range at a time,
+     * each range being copied into the builder as soon as it arrives. This keeps the requests below
+     * the RPC message size limit and the memory used while loading close to the size of the image.
+     * Images in a compressed format that the UI can decode are fetched in their native format and
+     * decoded as they arrive.
+     */
+    protected ListenableFuture<Void> load(Client client, Priority priority, Info info,
+        ArrayImageBuffer.Builder builder, int x, int y, Progress progress) {
+      BlockDecoder decoder = BlockDecoder.get(info.getFormat());
+      if (decoder != null) {
+        return loadBlocks(client, priority, info, decoder, builder, x, y, 0, progress);
+      }
+      int rowSize = format.pixelSize * info.getWidth();
+      int rows = Math.max(1, CHUNK_SIZE / Math.max(1, rowSize));
+      if (rows >= info.getHeight()) {
+        return Futures.transform(client.get(blob(info.getBytes()), priority), value -> {
+          builder.update(pixels(value), x, y, info.getWidth(), info.getHeight());
+          progress.add((long)rowSize * info.getHeight());
+          return null;
+        });
+      }
+      return loadRows(client, priority, info, builder, x, y, 0, rows, progress);
     }
 
-    protected static ArrayImageBuffer convertImage(
-        Info[] infos, Images.Format format, byte[][] data) {
-      assert (infos.length == data.length && infos.length == 6);
-      // Typically these are all the same, but let's be safe.
-      int width = Math.max(
-          Math.max(Math.max(Math.max(Math.max(infos[0].getWidth(), infos[1].getWidth()),
-              infos[2].getWidth()), infos[3].getWidth()), infos[4].getWidth()),
-          infos[5].getWidth());
-      int height =
-          Math.max(Math.max(
-              Math.max(Math.max(Math.max(infos[0].getHeight(), infos[1].getHeight()),
-                  infos[2].getHeight()), infos[3].getHeight()),
-              infos[4].getHeight()), infos[5].getHeight());
+    private ListenableFuture<Void> loadRows(Client client, Priority priority, Info info,
+        ArrayImageBuffer.Builder builder, int x, int y, int row, int rows, Progress progress) {
+      int rowSize = format.pixelSize * info.getWidth();
+      int count = Math.min(rows, info.getHeight() - row);
+      Path.Any path = blob(info.getBytes(), (long)row * rowSize, (long)count * rowSize);
+      return Futures.transformAsync(client.get(path, priority), value -> {
+        builder.update(pixels(value), x, y + row, info.getWidth(), count);
+        progress.add((long)count * rowSize);
+        return (row + count >= info.getHeight()) ? Futures.<Void>immediateFuture(null) :
+            loadRows(client, priority, info, builder, x, y, row + count, rows, progress);
+      });
+    }
 
-      // +----+----+----+----+
-      // |    | -Y |    |    |
-      // +----+----+----+----+
-      // | -X | +Z | +X | -Z |
-      // +----+----+----+----+
-      // |    | +Y |    |    |
-      // +----+----+----+----+
-      return format.builder(4 * width, 3 * height)
-          .update(data[0], 0 * width, 1 * height, infos[0].getWidth(), infos[0].getHeight()) // -X
-          .update(data[1], 2 * width, 1 * height, infos[1].getWidth(), infos[1].getHeight()) // +X
-          .update(data[2], 1 * width, 2 * height, infos[2].getWidth(), infos[2].getHeight()) // -Y
-          .update(data[3], 1 * width, 0 * height, infos[3].getWidth(), infos[3].getHeight()) // +Y
-          .update(data[4], 3 * width, 1 * height, infos[4].getWidth(), infos[4].getHeight()) // -Z
-          .update(data[5], 1 * width, 1 * height, infos[5].getWidth(), infos[5].getHeight()) // +Z
-          .flip()
-          .build();
+    /**
+     * Fetches the rows of compressed blocks, starting at the given row of blocks, a chunk at a
+     * time, decoding each chunk and copying its pixels into the builder as soon as it arrives.
+     */
+    private ListenableFuture<Void> loadBlocks(Client client, Priority priority, Info info,
+        BlockDecoder decoder, ArrayImageBuffer.Builder builder, int x, int y, int blockRow,
+        Progress progress) {
+      int width = info.getWidth(), height = info.getHeight();
+      int rowSize = decoder.getRowSize(width), blocksY = decoder.getBlocksY(height);
+      int count = Math.min(Math.max(1, CHUNK_SIZE / rowSize), blocksY - blockRow);
+      int top = blockRow * decoder.blockHeight;
+      int rows = Math.min(height, top + count * decoder.blockHeight) - top;
+      Path.Any path = blob(info.getBytes(), (long)blockRow * rowSize, (long)count * rowSize);
+      return Futures.transformAsync(client.get(path, priority), value -> {
+        int row = decoder.flipped ? height - top - rows : top;
+        builder.update(decoder.decode(pixels(value), width, rows), x, y + row, width, rows);
+        progress.add((long)format.pixelSize * width * rows);
+        return (blockRow + count >= blocksY) ? Futures.<Void>immediateFuture(null) :
+            loadBlocks(client, priority, info, decoder, builder, x, y, blockRow + count, progress);
+      });
     }
   }
 
@@ -242,24 +337,25 @@ public class FetchedImage implements MultiLevelImage {
    */
   private static class SingleFacedLevel extends Level {
     private final Client client;
+    private final Priority priority;
     protected final Info imageInfo;
 
-    public SingleFacedLevel(Client client, Images.Format format, Info imageInfo) {
+    public SingleFacedLevel(
+        Client client, Priority priority, Images.Format format, Info imageInfo) {
       super(format);
       this.client = client;
+      this.priority = priority;
       this.imageInfo = imageInfo;
     }
 
     @Override
-    protected ListenableFuture<ArrayImageBuffer> doLoad() {
-      return Futures.transform(
-          client.get(blob(imageInfo.getBytes())), new Function<Value, ArrayImageBuffer>() {
-        @Override
-        public ArrayImageBuffer apply(Value data) {
-          //TODO
-          return convertImage(imageInfo, format, data.getBox().getPod().getUint8Array().toByteArray());
-        }
-      });
+    protected ListenableFuture<ArrayImageBuffer> doLoad(DoubleConsumer listener) {
+      ArrayImageBuffer.Builder builder =
+          format.builder(imageInfo.getWidth(), imageInfo.getHeight());
+      Progress progress = new Progress(
+          (long)format.pixelSize * imageInfo.getWidth() * imageInfo.getHeight(), listener);
+      return Futures.transform(load(client, priority, imageInfo, builder, 0, 0, progress),
+          ignored -> builder.build());
     }
   }
 
@@ -281,24 +377,61 @@ public class FetchedImage implements MultiLevelImage {
     }
 
     @Override
-    protected ListenableFuture<ArrayImageBuffer> doLoad() {
-      @SuppressWarnings("unchecked")
-      ListenableFuture<Value>[] futures = new ListenableFuture[imageInfos.length];
+    protected ListenableFuture<ArrayImageBuffer> doLoad(DoubleConsumer listener) {
+      // Typically these are all the same, but let's be safe.
+      int width = 0, height = 0;
+      long size = 0;
+      for (Info info : imageInfos) {
+        width = Math.max(width, info.getWidth());
+        height = Math.max(height, info.getHeight());
+        size += (long)format.pixelSize * info.getWidth() * info.getHeight();
+      }
+
+      // +----+----+----+----+
+      // |    | -Y |    |    |
+      // +----+----+----+----+
+      // | -X | +Z | +X | -Z |
+      // +----+----+----+----+
+      // |    | +Y |    |    |
+      // +----+----+----+----+
+      int[][] offsets = new int[][] {
+        { 0 * width, 1 * height }, // -X
+        { 2 * width, 1 * height }, // +X
+        { 1 * width, 2 * height }, // -Y
+        { 1 * width, 0 * height }, // +Y
+        { 3 * width, 1 * height }, // -Z
+        { 1 * width, 1 * height }, // +Z
+      };
+
+      // The faces write to distinct areas of the builder, so can be loaded concurrently.
+      ArrayImageBuffer.Builder builder = format.builder(4 * width, 3 * height);
+      Progress progress = new Progress(size, listener);
+      List<ListenableFuture<Void>> futures = Lists.newArrayList();
       for (int i = 0; i < imageInfos.length; i++) {
-        futures[i] = client.get(blob(imageInfos[i].getBytes()));
+        futures.add(load(client, Priority.Interactive, imageInfos[i], builder,
+            offsets[i][0], offsets[i][1], progress));
       }
-      return Futures.transform(
-          Futures.allAsList(futures), new Function<List<Value>, ArrayImageBuffer>() {
-        @Override
-        public ArrayImageBuffer apply(List<Value> values) {
-          byte[][] data = new byte[values.size()][];
-          for (int i = 0; i < data.length; i++) {
-            // TODO
-            data[i] = values.get(i).getBox().getPod().getUint8Array().toByteArray();
-          }
-          return convertImage(imageInfos, format, data);
-        }
-      });
+      return Futures.transform(Futures.allAsList(futures), ignored -> builder.flip().build());
+    }
+  }
+
+  /**
+   * Accumulates the number of bytes loaded for a {@link Level} and reports it to a listener as a
+   * fraction of the total.
+   */
+  private static class Progress {
+    private final long total;
+    private final DoubleConsumer listener;
+    private final AtomicLong loaded = new AtomicLong();
+
+    public Progress(long total, DoubleConsumer listener) {
+      this.total = total;
+      this.listener = listener;
+    }
+
+    public void add(long bytes) {
+      long done = loaded.addAndGet(bytes);
+      listener.accept((total <= 0) ? 1 : Math.min(1, (double)done / total));
     }
   }
 }
@@ -15,6 +15,8 @@
  */
 package com.google.gapid.image;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.glviewer.gl.Texture;
 
 import org.eclipse.swt.graphics.ImageData;
@@ -103,9 +105,16 @@ public interface Image {
     public PixelValue getPixel(int x, int y);
 
     /**
-     * @return the {@link PixelInfo} for this buffer.
+     * @return the {@link PixelInfo} for this buffer. This may block while the info is computed.
      */
     public PixelInfo getInfo();
+
+    /**
+     * @return the future {@link PixelInfo} for this buffer, computed in the background if needed.
+     */
+    public default ListenableFuture<PixelInfo> getInfoAsync() {
+      return Futures.immediateFuture(getInfo());
+    }
   }
 
   /**
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.image.Image.ImageBuffer;
+import com.google.gapid.image.Image.PixelValue;
+import com.google.gapid.util.Scheduler;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The per-pixel difference between two images of the same size, such as the framebuffer before
+ * and after a command. The images are compared in parallel, tile by tile, on the common fork-join
+ * pool. Besides the absolute and relative difference of each pixel, the result contains a heatmap
+ * {@link #getImage() image} of the differences, the bounding boxes of the changed regions and
+ * summary statistics.
+ */
+public class ImageDiff {
+  /**
+   * The width and height in pixels of the tiles compared by a single task. Changed regions are
+   * found at the granularity of these tiles.
+   */
+  private static final int TILE_SIZE = 64;
+
+  public final int width, height;
+  /** The number of pixels that differ in any channel. */
+  public final long changedPixels;
+  /** The largest finite absolute difference of any channel of any pixel. */
+  public final float maxError;
+  /** The mean of the squared differences of all channels, ignoring non-finite differences. */
+  public final double meanSquaredError;
+  /** The bounding boxes of the connected regions of changed tiles. */
+  public final List<Rectangle> changedRegions;
+  private final float[] absolute, relative;
+  private final MultiLevelImage image;
+
+  private ImageDiff(int width, int height, Result result, List<Rectangle> changedRegions,
+      float[] absolute, float[] relative, ByteBuffer heatmap) {
+    this.width = width;
+    this.height = height;
+    this.changedPixels = result.changed;
+    this.maxError = result.max;
+    this.meanSquaredError = (result.count == 0) ? 0 : result.sumSquares / result.count;
+    this.changedRegions = changedRegions;
+    this.absolute = absolute;
+    this.relative = relative;
+    this.image = new DiffImage(heatmap);
+  }
+
+  /**
+   * Compares the given levels in the background. The levels of {@link TiledImage TiledImages} are
+   * assembled from their tiles first. The result fails with an {@link IllegalArgumentException},
+   * whose message can be shown to the user, if the images cannot be compared.
+   */
+  public static ListenableFuture<ImageDiff> compare(
+      ListenableFuture<Image> before, ListenableFuture<Image> after) {
+    return Futures.transformAsync(Futures.allAsList(before, after), images -> {
+      ListenableFuture<ArrayImageBuffer> a = getBuffer(images.get(0));
+      ListenableFuture<ArrayImageBuffer> b = getBuffer(images.get(1));
+      return Futures.whenAllSucceed(a, b).call(
+          () -> compare(Futures.getDone(a), Futures.getDone(b)), Scheduler.EXECUTOR);
+    });
+  }
+
+  /**
+   * Compares the given images, which must be of the same size. This may take a while for large
+   * images and should not be called on the UI thread.
+   */
+  public static ImageDiff compare(ArrayImageBuffer a, ArrayImageBuffer b) {
+    if (a.width != b.width || a.height != b.height) {
+      throw new IllegalArgumentException("Cannot compare images of different sizes: " +
+          a.width + "x" + a.height + " and " + b.width + "x" + b.height);
+    }
+    int width = b.width, height = b.height;
+    int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE, tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+    float[] absolute = new float[width * height], relative = new float[width * height];
+    Rectangle[] tileBounds = new Rectangle[tilesX * tilesY];
+    Result result = ForkJoinPool.commonPool().invoke(new CompareTask(
+        a, b, absolute, relative, tileBounds, tilesX, 0, tilesX * tilesY));
+    ByteBuffer heatmap = ArrayImageBuffer.allocate(4 * width * height);
+    ForkJoinPool.commonPool().invoke(
+        new HeatmapTask(b, absolute, result.max, heatmap, 0, tilesX * tilesY, tilesX));
+    return new ImageDiff(width, height, result, mergeRegions(tileBounds, tilesX, tilesY),
+        absolute, relative, heatmap);
+  }
+
+  private static ListenableFuture<ArrayImageBuffer> getBuffer(Image image) {
+    ImageBuffer data = image.getData();
+    if (data instanceof ArrayImageBuffer) {
+      return Futures.immediateFuture((ArrayImageBuffer)data);
+    } else if (data instanceof TiledImage.Level) {
+      return ((TiledImage.Level)data).getBuffer();
+    }
+    return Futures.immediateFailedFuture(
+        new IllegalArgumentException("Comparing images of this kind is not supported."));
+  }
+
+  /**
+   * @return the peak signal-to-noise ratio in dB, treating 1 as the peak value, or infinity if
+   *     the images are identical.
+   */
+  public double getPSNR() {
+    return (meanSquaredError == 0) ?
+        Double.POSITIVE_INFINITY : 10 * Math.log10(1 / meanSquaredError);
+  }
+
+  /**
+   * @return the largest absolute difference of any channel of the given pixel.
+   */
+  public float getAbsoluteDifference(int x, int y) {
+    return absolute[y * width + x];
+  }
+
+  /**
+   * @return the largest difference of any channel of the given pixel, relative to the larger of
+   *     the two values.
+   */
+  public float getRelativeDifference(int x, int y) {
+    return relative[y * width + x];
+  }
+
+  /**
+   * @return the heatmap of the differences. Unchanged pixels are shown as a dimmed grayscale of
+   *     the second image, changed pixels are colored from blue to red by their difference,
+   *     relative to the {@link #maxError maximum}.
+   */
+  public MultiLevelImage getImage() {
+    return image;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d of %d pixels changed, max error: %g, PSNR: %.2f dB",
+        changedPixels, (long)width * height, maxError, getPSNR());
+  }
+
+  /**
+   * Merges the bounding boxes of the changed pixels of the tiles into the bounding boxes of the
+   * connected, including diagonally, regions of changed tiles.
+   */
+  private static List<Rectangle> mergeRegions(Rectangle[] tiles, int tilesX, int tilesY) {
+    List<Rectangle> result = Lists.newArrayList();
+    boolean[] visited = new boolean[tiles.length];
+    int[] stack = new int[tiles.length];
+    for (int start = 0; start < tiles.length; start++) {
+      if (tiles[start] == null || visited[start]) {
+        continue;
+      }
+      Rectangle bounds = new Rectangle(
+          tiles[start].x, tiles[start].y, tiles[start].width, tiles[start].height);
+      visited[start] = true;
+      int top = 0;
+      stack[top++] = start;
+      while (top > 0) {
+        int tile = stack[--top], tx = tile % tilesX, ty = tile / tilesX;
+        bounds.add(tiles[tile]);
+        for (int y = Math.max(0, ty - 1); y <= Math.min(tilesY - 1, ty + 1); y++) {
+          for (int x = Math.max(0, tx - 1); x <= Math.min(tilesX - 1, tx + 1); x++) {
+            int neighbour = y * tilesX + x;
+            if (tiles[neighbour] != null && !visited[neighbour]) {
+              visited[neighbour] = true;
+              stack[top++] = neighbour;
+            }
+          }
+        }
+      }
+      result.add(bounds);
+    }
+    return result;
+  }
+
+  /**
+   * Statistics of a range of tiles.
+   */
+  private static class Result {
+    public long changed, count;
+    public float max;
+    public double sumSquares;
+
+    public Result merge(Result o) {
+      changed += o.changed;
+      count += o.count;
+      max = Math.max(max, o.max);
+      sumSquares += o.sumSquares;
+      return this;
+    }
+  }
+
+  /**
+   * {@link RecursiveTask} comparing a range of tiles, splitting it into halves until it is a
+   * single tile.
+   */
+  @SuppressWarnings("serial")
+  private static class CompareTask extends RecursiveTask<Result> {
+    private final ArrayImageBuffer a, b;
+    private final float[] absolute, relative;
+    private final Rectangle[] tileBounds;
+    private final int tilesX, start, end;
+
+    public CompareTask(ArrayImageBuffer a, ArrayImageBuffer b, float[] absolute,
+        float[] relative, Rectangle[] tileBounds, int tilesX, int start, int end) {
+      this.a = a;
+      this.b = b;
+      this.absolute = absolute;
+      this.relative = relative;
+      this.tileBounds = tileBounds;
+      this.tilesX = tilesX;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected Result compute() {
+      if (end - start > 1) {
+        int mid = (start + end) >>> 1;
+        CompareTask right =
+            new CompareTask(a, b, absolute, relative, tileBounds, tilesX, mid, end);
+        right.fork();
+        Result left =
+            new CompareTask(a, b, absolute, relative, tileBounds, tilesX, start, mid).compute();
+        return left.merge(right.join());
+      }
+
+      Result result = new Result();
+      int x0 = (start % tilesX) * TILE_SIZE, y0 = (start / tilesX) * TILE_SIZE;
+      int w = Math.min(TILE_SIZE, a.width - x0), h = Math.min(TILE_SIZE, a.height - y0);
+      int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+      float[] pa = new float[4 * w], pb = new float[4 * w];
+      for (int y = y0; y < y0 + h; y++) {
+        a.getRGBA(x0, y, w, pa);
+        b.getRGBA(x0, y, w, pb);
+        for (int x = 0, i = y * a.width + x0; x < w; x++, i++) {
+          float abs = 0, rel = 0;
+          boolean changed = false;
+          for (int c = 4 * x; c < 4 * x + 4; c++) {
+            if (pa[c] == pb[c] || (Float.isNaN(pa[c]) && Float.isNaN(pb[c]))) {
+              result.count++;
+              continue;
+            }
+            changed = true;
+            float d = Math.abs(pa[c] - pb[c]);
+            if (Float.isNaN(d) || Float.isInfinite(d)) {
+              // Differences that are not finite, e.g. due to NaNs, don't count towards the error.
+              abs = rel = Float.POSITIVE_INFINITY;
+              continue;
+            }
+            abs = Math.max(abs, d);
+            rel = Math.max(rel, d / Math.max(Math.abs(pa[c]), Math.abs(pb[c])));
+            result.max = Math.max(result.max, d);
+            result.sumSquares += (double)d * d;
+            result.count++;
+          }
+          absolute[i] = abs;
+          relative[i] = rel;
+          if (changed) {
+            result.changed++;
+            minX = Math.min(minX, x0 + x);
+            maxX = Math.max(maxX, x0 + x);
+            minY = Math.min(minY, y);
+            maxY = y;
+          }
+        }
+      }
+      if (maxX >= 0) {
+        tileBounds[start] = new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * {@link RecursiveAction} rendering the heatmap of a range of tiles.
+   */
+  @SuppressWarnings("serial")
+  private static class HeatmapTask extends RecursiveAction {
+    private final ArrayImageBuffer image;
+    private final float[] absolute;
+    private final float max;
+    private final ByteBuffer out;
+    private final int start, end, tilesX;
+
+    public HeatmapTask(ArrayImageBuffer image, float[] absolute, float max, ByteBuffer out,
+        int start, int end, int tilesX) {
+      this.image = image;
+      this.absolute = absolute;
+      this.max = max;
+      this.out = out;
+      this.start = start;
+      this.end = end;
+      this.tilesX = tilesX;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start > 1) {
+        int mid = (start + end) >>> 1;
+        invokeAll(new HeatmapTask(image, absolute, max, out, start, mid, tilesX),
+            new HeatmapTask(image, absolute, max, out, mid, end, tilesX));
+        return;
+      }
+
+      int x0 = (start % tilesX) * TILE_SIZE, y0 = (start / tilesX) * TILE_SIZE;
+      int w = Math.min(TILE_SIZE, image.width - x0), h = Math.min(TILE_SIZE, image.height - y0);
+      float[] pixels = new float[4 * w];
+      byte[] row = new byte[4 * w];
+      ByteBuffer buffer = out.duplicate();
+      for (int y = y0; y < y0 + h; y++) {
+        image.getRGBA(x0, y, w, pixels);
+        for (int x = 0, i = y * image.width + x0, o = 0; x < w; x++, i++, o += 4) {
+          int rgb;
+          if (absolute[i] == 0) {
+            int gray = (int)(64 * Math.max(0, Math.min(1,
+                0.299f * pixels[o] + 0.587f * pixels[o + 1] + 0.114f * pixels[o + 2])));
+            rgb = (gray << 16) | (gray << 8) | gray;
+          } else {
+            rgb = heat((max > 0) ? Math.min(1, absolute[i] / max) : 1);
+          }
+          row[o + 0] = (byte)(rgb >> 16);
+          row[o + 1] = (byte)(rgb >> 8);
+          row[o + 2] = (byte)rgb;
+          row[o + 3] = (byte)0xFF;
+        }
+        buffer.position(4 * (y * image.width + x0));
+        buffer.put(row);
+      }
+    }
+
+    /**
+     * @return the RGB color of the given value in [0, 1], going from blue, via cyan, green and
+     *     yellow, to red.
+     */
+    private static int heat(float value) {
+      float v = 4 * value;
+      int r = (int)(255 * Math.max(0, Math.min(1, v - 2)));
+      int g = (int)(255 * Math.max(0, Math.min(1, (v < 2) ? v : 4 - v)));
+      int b = (int)(255 * Math.max(0, Math.min(1, 2 - v)));
+      return (r << 16) | (g << 8) | b;
+    }
+  }
+
+  /**
+   * The single level heatmap image of an {@link ImageDiff}, whose pixel values are the
+   * differences of the compared images.
+   */
+  private class DiffImage implements MultiLevelImage, Image {
+    private final ArrayImageBuffer data;
+
+    public DiffImage(ByteBuffer heatmap) {
+      this.data = new ArrayImageBuffer.RGBA8ImageBuffer(width, height, heatmap) {
+        @Override
+        protected PixelValue getPixel(int x, int y, ByteBuffer src) {
+          return new DiffPixel(getAbsoluteDifference(x, y), getRelativeDifference(x, y));
+        }
+      };
+    }
+
+    @Override
+    public int getLevelCount() {
+      return 1;
+    }
+
+    @Override
+    public ListenableFuture<Image> getLevel(int index) {
+      return Futures.immediateFuture(this);
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public ImageBuffer getData() {
+      return data;
+    }
+  }
+
+  private static class DiffPixel implements PixelValue {
+    private final float absolute, relative;
+
+    public DiffPixel(float absolute, float relative) {
+      this.absolute = absolute;
+      this.relative = relative;
+    }
+
+    @Override
+    public String toString() {
+      return (absolute == 0) ? "Unchanged" :
+          String.format("Difference: %g (%.1f%%)", absolute, 100 * relative);
+    }
+
+    @Override
+    public boolean isDark() {
+      // Unchanged pixels are shown in dark gray.
+      return absolute == 0;
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import com.google.common.collect.Maps;
+import com.google.gapid.image.Image.PixelInfo;
+import com.google.gapid.util.Float16;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Per-channel statistics of a float or half-float image: the minimum, maximum and mean of the
+ * finite values, the number of NaN and infinite values, and histograms of the finite values. The
+ * statistics are computed in parallel on the common fork-join pool. Histograms are computed on
+ * first request for a given number of bins and then cached.
+ */
+public class ImageStatistics implements PixelInfo {
+  /**
+   * The number of floats processed by a single fork-join task.
+   */
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private final Source source;
+  private final int channels;
+  private final int colorChannels;
+  private final Partial stats;
+  private final Map<Integer, long[][]> histograms = Maps.newHashMap();
+
+  private ImageStatistics(Source source, int channels, int colorChannels, Partial stats) {
+    this.source = source;
+    this.channels = channels;
+    this.colorChannels = colorChannels;
+    this.stats = stats;
+  }
+
+  /**
+   * Computes the statistics of the given buffer of interleaved channels. Only the first
+   * {@code colorChannels} channels are considered by {@link #getMin()} and {@link #getMax()}, so
+   * that for example the alpha channel does not affect the tone mapping of an RGBA image.
+   */
+  public static ImageStatistics compute(FloatBuffer buffer, int channels, int colorChannels) {
+    return compute(new FloatSource(buffer), channels, colorChannels);
+  }
+
+  /**
+   * Computes the statistics of the given buffer of interleaved half-float channels. The values are
+   * converted to floats a block at a time, so the image is never held as floats as a whole.
+   */
+  public static ImageStatistics compute(ShortBuffer buffer, int channels, int colorChannels) {
+    return compute(new HalfSource(buffer), channels, colorChannels);
+  }
+
+  private static ImageStatistics compute(Source source, int channels, int colorChannels) {
+    int pixels = source.size() / channels;
+    Partial stats = ForkJoinPool.commonPool().invoke(
+        new StatsTask(source, channels, 0, pixels, blockPixels(channels)));
+    return new ImageStatistics(source, channels, colorChannels, stats);
+  }
+
+  public int getChannelCount() {
+    return channels;
+  }
+
+  /**
+   * @return the minimum finite value across all color channels, or 0 if there are none.
+   */
+  @Override
+  public float getMin() {
+    float min = Float.POSITIVE_INFINITY;
+    for (int c = 0; c < colorChannels; c++) {
+      min = Math.min(min, stats.min[c]);
+    }
+    return (min == Float.POSITIVE_INFINITY) ? 0 : min;
+  }
+
+  /**
+   * @return the maximum finite value across all color channels, or 1 if there are none.
+   */
+  @Override
+  public float getMax() {
+    float max = Float.NEGATIVE_INFINITY;
+    for (int c = 0; c < colorChannels; c++) {
+      max = Math.max(max, stats.max[c]);
+    }
+    return (max == Float.NEGATIVE_INFINITY) ? 1 : max;
+  }
+
+  /**
+   * @return the minimum finite value of the given channel, or NaN if it has no finite values.
+   */
+  public float getMin(int channel) {
+    return (stats.count[channel] == 0) ? Float.NaN : stats.min[channel];
+  }
+
+  /**
+   * @return the maximum finite value of the given channel, or NaN if it has no finite values.
+   */
+  public float getMax(int channel) {
+    return (stats.count[channel] == 0) ? Float.NaN : stats.max[channel];
+  }
+
+  /**
+   * @return the mean of the finite values of the given channel, or NaN if it has none.
+   */
+  public double getMean(int channel) {
+    return (stats.count[channel] == 0) ? Double.NaN : stats.sum[channel] / stats.count[channel];
+  }
+
+  public long getNaNCount(int channel) {
+    return stats.nan[channel];
+  }
+
+  public long getInfCount(int channel) {
+    return stats.inf[channel];
+  }
+
+  /**
+   * @return the histogram of the finite values of the given channel, using the given number of
+   *     equally sized bins spanning the channel's [min, max] range.
+   * @throws IllegalArgumentException if the number of bins is not positive.
+   */
+  public long[] getHistogram(int channel, int bins) {
+    if (bins <= 0) {
+      throw new IllegalArgumentException("Invalid number of histogram bins: " + bins);
+    }
+    long[][] result;
+    synchronized (histograms) {
+      result = histograms.get(bins);
+    }
+    if (result == null) {
+      int pixels = source.size() / channels;
+      result = ForkJoinPool.commonPool().invoke(new HistogramTask(
+          source, channels, stats, bins, 0, pixels, blockPixels(channels)));
+      synchronized (histograms) {
+        histograms.put(bins, result);
+      }
+    }
+    return result[channel].clone();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int c = 0; c < channels; c++) {
+      sb.append(c == 0 ? "" : ", ").append("[min: ").append(getMin(c))
+          .append(", max: ").append(getMax(c))
+          .append(", mean: ").append(getMean(c))
+          .append(", NaN: ").append(getNaNCount(c))
+          .append(", Inf: ").append(getInfCount(c)).append(']');
+    }
+    return sb.toString();
+  }
+
+  private static int blockPixels(int channels) {
+    return Math.max(1, BLOCK_SIZE / channels);
+  }
+
+  /**
+   * The values of an image, read as floats a range at a time. Ranges may be read concurrently.
+   */
+  private static interface Source {
+    public int size();
+
+    /**
+     * Reads {@code dst.length} values, starting at the given value.
+     */
+    public void get(int offset, float[] dst);
+  }
+
+  private static class FloatSource implements Source {
+    private final FloatBuffer buffer;
+
+    public FloatSource(FloatBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int size() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public void get(int offset, float[] dst) {
+      FloatBuffer in = buffer.duplicate();
+      in.position(in.position() + offset);
+      in.get(dst);
+    }
+  }
+
+  private static class HalfSource implements Source {
+    private final ShortBuffer buffer;
+
+    public HalfSource(ShortBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int size() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public void get(int offset, float[] dst) {
+      short[] halfs = new short[dst.length];
+      ShortBuffer in = buffer.duplicate();
+      in.position(in.position() + offset);
+      in.get(halfs);
+      Float16.shortBitsToFloat(halfs, 0, dst, 0, halfs.length);
+    }
+  }
+
+  /**
+   * Statistics of a range of pixels.
+   */
+  private static class Partial {
+    public final float[] min, max;
+    public final double[] sum;
+    public final long[] count, nan, inf;
+
+    public Partial(int channels) {
+      min = new float[channels];
+      max = new float[channels];
+      sum = new double[channels];
+      count = new long[channels];
+      nan = new long[channels];
+      inf = new long[channels];
+      Arrays.fill(min, Float.POSITIVE_INFINITY);
+      Arrays.fill(max, Float.NEGATIVE_INFINITY);
+    }
+
+    public Partial merge(Partial o) {
+      for (int c = 0; c < min.length; c++) {
+        min[c] = Math.min(min[c], o.min[c]);
+        max[c] = Math.max(max[c], o.max[c]);
+        sum[c] += o.sum[c];
+        count[c] += o.count[c];
+        nan[c] += o.nan[c];
+        inf[c] += o.inf[c];
+      }
+      return this;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class StatsTask extends RecursiveTask<Partial> {
+    private final Source source;
+    private final int channels, start, end, blockPixels;
+
+    public StatsTask(Source source, int channels, int start, int end, int blockPixels) {
+      this.source = source;
+      this.channels = channels;
+      this.start = start;
+      this.end = end;
+      this.blockPixels = blockPixels;
+    }
+
+    @Override
+    protected Partial compute() {
+      if (end - start > blockPixels) {
+        int mid = (start + end) >>> 1;
+        StatsTask right = new StatsTask(source, channels, mid, end, blockPixels);
+        right.fork();
+        Partial left = new StatsTask(source, channels, start, mid, blockPixels).compute();
+        return left.merge(right.join());
+      }
+
+      Partial result = new Partial(channels);
+      float[] values = new float[(end - start) * channels];
+      source.get(start * channels, values);
+      for (int c = 0; c < channels; c++) {
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        double sum = 0;
+        long nan = 0, inf = 0;
+        for (int i = c; i < values.length; i += channels) {
+          float value = values[i];
+          if (Float.isNaN(value)) {
+            nan++;
+          } else if (Float.isInfinite(value)) {
+            inf++;
+          } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+          }
+        }
+        result.min[c] = min;
+        result.max[c] = max;
+        result.sum[c] = sum;
+        result.nan[c] = nan;
+        result.inf[c] = inf;
+        result.count[c] = values.length / channels - nan - inf;
+      }
+      return result;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class HistogramTask extends RecursiveTask<long[][]> {
+    private final Source source;
+    private final int channels;
+    private final Partial stats;
+    private final int bins, start, end, blockPixels;
+
+    public HistogramTask(Source source, int channels, Partial stats, int bins,
+        int start, int end, int blockPixels) {
+      this.source = source;
+      this.channels = channels;
+      this.stats = stats;
+      this.bins = bins;
+      this.start = start;
+      this.end = end;
+      this.blockPixels = blockPixels;
+    }
+
+    @Override
+    protected long[][] compute() {
+      if (end - start > blockPixels) {
+        int mid = (start + end) >>> 1;
+        HistogramTask right =
+            new HistogramTask(source, channels, stats, bins, mid, end, blockPixels);
+        right.fork();
+        long[][] left =
+            new HistogramTask(source, channels, stats, bins, start, mid, blockPixels).compute();
+        long[][] other = right.join();
+        for (int c = 0; c < channels; c++) {
+          for (int b = 0; b < bins; b++) {
+            left[c][b] += other[c][b];
+          }
+        }
+        return left;
+      }
+
+      long[][] result = new long[channels][bins];
+      float[] values = new float[(end - start) * channels];
+      source.get(start * channels, values);
+      for (int c = 0; c < channels; c++) {
+        long[] histogram = result[c];
+        float min = stats.min[c], range = stats.max[c] - min;
+        float scale = (range > 0) ? bins / range : 0;
+        for (int i = c; i < values.length; i += channels) {
+          float value = values[i];
+          if (!Float.isNaN(value) && !Float.isInfinite(value)) {
+            histogram[Math.min(bins - 1, (int)((value - min) * scale))]++;
+          }
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -31,6 +31,7 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.internal.DPIUtil;
 
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 /**
@@ -43,6 +44,15 @@ public class Images {
   public static final Image.Format FMT_DEPTH_U8_NORM = Image.Format.newBuilder()
       .setUncompressed(Image.FmtUncompressed.newBuilder().setFormat(Streams.FMT_DEPTH_U8_NORM))
       .build();
+  public static final Image.Format FMT_RGBA_HALF = Image.Format.newBuilder()
+      .setUncompressed(Image.FmtUncompressed.newBuilder().setFormat(Streams.FMT_RGBA_HALF))
+      .build();
+  public static final Image.Format FMT_LUMINANCE_HALF = Image.Format.newBuilder()
+      .setUncompressed(Image.FmtUncompressed.newBuilder().setFormat(Streams.FMT_LUMINANCE_HALF))
+      .build();
+  public static final Image.Format FMT_DEPTH_HALF = Image.Format.newBuilder()
+      .setUncompressed(Image.FmtUncompressed.newBuilder().setFormat(Streams.FMT_DEPTH_HALF))
+      .build();
   public static final Image.Format FMT_RGBA_FLOAT = Image.Format.newBuilder()
       .setUncompressed(Image.FmtUncompressed.newBuilder().setFormat(Streams.FMT_RGBA_FLOAT))
       .build();
@@ -110,19 +120,25 @@ public class Images {
     return new Point(bounds.width, bounds.height);
   }
 
+  /**
+   * @return the given image without its alpha channel. As the image may be shared, for example by
+   *     the thumbnail cache, it is not modified, instead a new image sharing the pixel data is
+   *     returned.
+   */
   public static ListenableFuture<ImageData> noAlpha(ListenableFuture<ImageData> image) {
-    return Futures.transform(image, data -> {
-      data.alphaData = null;
-      return data;
-    });
+    return Futures.transform(image, data -> (data.alphaData == null) ? data : new ImageData(
+        data.width, data.height, data.depth, data.palette, data.scanlinePad, data.data));
   }
 
   public static Image.Format getFormatToRequest(Image.Format format) {
     boolean color = isColorFormat(format);
     int channels = getChannelCount(format, color ? COLOR_CHANNELS : DEPTH_CHANNELS);
     boolean is8bit = are8BitsEnough(format, color ? COLOR_CHANNELS : DEPTH_CHANNELS);
+    boolean isHalf = areHalfFloatsEnough(format, color ? COLOR_CHANNELS : DEPTH_CHANNELS);
     if (is8bit) {
       return color ? FMT_RGBA_U8_NORM : FMT_DEPTH_U8_NORM;
+    } else if (isHalf) {
+      return (channels != 1) ? FMT_RGBA_HALF : (color ? FMT_LUMINANCE_HALF : FMT_DEPTH_HALF);
     } else if (channels == 1) {
       return color ? FMT_LUMINANCE_FLOAT : FMT_DEPTH_FLOAT;
     } else {
@@ -201,6 +217,42 @@ public class Images {
     }
   }
 
+  /**
+   * @return whether all the given channels of the given format can be held as half-floats without
+   *     losing precision. This is the case for small floats, such as the 11 and 10 bit floats of
+   *     R11G11B10, and for integers of up to 10 bits.
+   */
+  public static boolean areHalfFloatsEnough(
+      Image.Format format, Set<Stream.Channel> interestedChannels) {
+    switch (format.getFormatCase()) {
+      case UNCOMPRESSED:
+        return areHalfFloatsEnough(format.getUncompressed().getFormat(), interestedChannels);
+      default:
+        return true;
+    }
+  }
+
+  public static boolean areHalfFloatsEnough(
+      Stream.Format format, Set<Stream.Channel> interestedChannels) {
+    for (Stream.Component c : format.getComponentsList()) {
+      if (interestedChannels.contains(c.getChannel()) && !areHalfFloatsEnough(c.getDataType())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public static boolean areHalfFloatsEnough(Stream.DataType type) {
+    switch (type.getKindCase()) {
+      case INTEGER:
+        return type.getInteger().getBits() <= (type.getSigned() ? 11 : 10);
+      case FLOAT:
+        return type.getFloat().getExponentBits() <= 5 && type.getFloat().getMantissaBits() <= 10;
+      default:
+        return false;
+    }
+  }
+
   public static boolean isColorFormat(Image.Format format) {
     switch (format.getFormatCase()) {
       case UNCOMPRESSED: return isColorFormat(format.getUncompressed().getFormat());
@@ -223,31 +275,49 @@ public class Images {
   public static enum Format {
     Color8(FMT_RGBA_U8_NORM, 4 * 1) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.RGBA8ImageBuffer(width, height, data);
       }
     },
     Depth8(FMT_DEPTH_U8_NORM, 1 *1) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.Luminance8ImageBuffer(width, height, data);
       }
     },
+    ColorHalf(FMT_RGBA_HALF, 4 * 2) {
+      @Override
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
+        return new ArrayImageBuffer.RGBAHalfImageBuffer(width, height, data);
+      }
+    },
+    DepthHalf(FMT_DEPTH_HALF, 1 * 2) {
+      @Override
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
+        return new ArrayImageBuffer.LuminanceHalfImageBuffer(width, height, data);
+      }
+    },
+    LuminanceHalf(FMT_LUMINANCE_HALF, 1 * 2) {
+      @Override
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
+        return new ArrayImageBuffer.LuminanceHalfImageBuffer(width, height, data);
+      }
+    },
     ColorFloat(FMT_RGBA_FLOAT, 4 * 4) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.RGBAFloatImageBuffer(width, height, data);
       }
     },
     DepthFloat(FMT_DEPTH_FLOAT, 1 * 4) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.LuminanceFloatImageBuffer(width, height, data);
       }
     },
     LuminanceFloat(FMT_LUMINANCE_FLOAT, 1 * 4) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.LuminanceFloatImageBuffer(width, height, data);
       }
     };
@@ -260,12 +330,23 @@ public class Images {
       this.pixelSize = pixelSize;
     }
 
+    /**
+     * @return whether the images of this format provide {@link ImageStatistics} as their
+     *     {@link com.google.gapid.image.Image.PixelInfo}, rather than no info.
+     */
+    public boolean hasStatistics() {
+      return this != Color8 && this != Depth8;
+    }
+
     public static Format from(Image.Format format) {
       boolean color = isColorFormat(format);
       int channels = getChannelCount(format, color ? COLOR_CHANNELS : DEPTH_CHANNELS);
       boolean is8bit = are8BitsEnough(format, color ? COLOR_CHANNELS : DEPTH_CHANNELS);
+      boolean isHalf = areHalfFloatsEnough(format, color ? COLOR_CHANNELS : DEPTH_CHANNELS);
       if (is8bit) {
         return color ? Color8 : Depth8;
+      } else if (isHalf) {
+        return (channels != 1) ? ColorHalf : (color ? LuminanceHalf : DepthHalf);
       } else if (channels == 1) {
         return color ? LuminanceFloat : DepthFloat;
       } else {
@@ -282,6 +363,6 @@ public class Images {
       };
     }
 
-    protected abstract ArrayImageBuffer build(int width, int height, byte[] data);
+    protected abstract ArrayImageBuffer build(int width, int height, ByteBuffer data);
   }
 }
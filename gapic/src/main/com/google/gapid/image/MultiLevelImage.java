@@ -18,6 +18,8 @@ package com.google.gapid.image;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.function.DoubleConsumer;
+
 /**
  * An image with (optionally) multiple mipmap levels.
  */
@@ -32,6 +34,15 @@ public interface MultiLevelImage {
    */
   public ListenableFuture<Image> getLevel(int index);
 
+  /**
+   * @return a future {@link Image} representing the given 0-based level. The listener is notified
+   *     of the fraction, between 0 and 1, of the level's data that has been loaded so far. It may
+   *     be called from any thread.
+   */
+  public default ListenableFuture<Image> getLevel(int index, DoubleConsumer progress) {
+    return getLevel(index);
+  }
+
   public static final MultiLevelImage EMPTY = new MultiLevelImage() {
     @Override
     public int getLevelCount() {
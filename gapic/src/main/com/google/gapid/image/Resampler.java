@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Resamples images of 8 bit RGBA pixels. Unlike {@link ImageData#scaledTo(int, int)}, which picks
+ * the nearest source pixel, the resampler filters the source pixels covered by each destination
+ * pixel. The filter is separable and works directly on the packed pixel arrays, one row at a time.
+ * Colors are filtered premultiplied by their alpha, so transparent pixels do not bleed into their
+ * neighbours. Large images are resampled in parallel bands of rows on the common fork-join pool.
+ */
+public class Resampler {
+  /**
+   * Images with more source pixels than this are resampled in parallel.
+   */
+  private static final long PARALLEL_THRESHOLD = 512 * 512;
+  /**
+   * The approximate number of source pixels resampled by a single parallel task.
+   */
+  private static final long BAND_SIZE = 128 * 1024;
+
+  private Resampler() {
+  }
+
+  /**
+   * The filter used to compute the destination pixels.
+   */
+  public static enum Filter {
+    /**
+     * Averages all the source pixels covered by a destination pixel, weighted by their coverage.
+     * This is the best filter for downscaling.
+     */
+    Box {
+      @Override
+      protected Weights getWeights(int srcSize, int dstSize) {
+        double scale = (double)srcSize / dstSize;
+        int taps = (int)Math.ceil(scale) + 1;
+        Weights result = new Weights(dstSize, taps);
+        for (int d = 0; d < dstSize; d++) {
+          double lo = d * scale, hi = Math.min(srcSize, (d + 1) * scale);
+          int first = (int)lo, last = Math.min(srcSize, (int)Math.ceil(hi));
+          result.first[d] = first;
+          result.count[d] = last - first;
+          for (int s = first; s < last; s++) {
+            result.weights[d * taps + s - first] =
+                (float)((Math.min(hi, s + 1) - Math.max(lo, s)) / (hi - lo));
+          }
+        }
+        return result;
+      }
+    },
+
+    /**
+     * Interpolates between the four source pixels nearest to the center of a destination pixel.
+     * This is the best filter for upscaling and for downscaling by less than a factor of two.
+     */
+    Bilinear {
+      @Override
+      protected Weights getWeights(int srcSize, int dstSize) {
+        double scale = (double)srcSize / dstSize;
+        Weights result = new Weights(dstSize, 2);
+        for (int d = 0; d < dstSize; d++) {
+          double center = Math.max(0, Math.min(srcSize - 1, (d + 0.5) * scale - 0.5));
+          int first = (int)center;
+          float fraction = (float)(center - first);
+          result.first[d] = first;
+          result.count[d] = (first + 1 < srcSize) ? 2 : 1;
+          result.weights[2 * d] = 1 - fraction;
+          result.weights[2 * d + 1] = (first + 1 < srcSize) ? fraction : 0;
+        }
+        return result;
+      }
+    };
+
+    /**
+     * @return the weights of the source pixels contributing to each destination pixel along one
+     *     axis of the image.
+     */
+    protected abstract Weights getWeights(int srcSize, int dstSize);
+
+    /**
+     * @return the filter best suited to scale an image of the given size to the given size.
+     */
+    public static Filter forScale(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+      return (dstWidth * 2 <= srcWidth || dstHeight * 2 <= srcHeight) ? Box : Bilinear;
+    }
+  }
+
+  /**
+   * Resamples the given packed RGBA pixels, stored in row-major order, to the given size.
+   *
+   * @return the packed RGBA pixels of the resampled image.
+   */
+  public static byte[] resize(
+      byte[] rgba, int width, int height, int newWidth, int newHeight, Filter filter) {
+    byte[] result = new byte[4 * newWidth * newHeight];
+    resample(new RGBASource(rgba, width), new RGBASink(result, newWidth),
+        width, height, newWidth, newHeight, filter);
+    return result;
+  }
+
+  /**
+   * Resamples the given image to the given size. Images created by
+   * {@link Images#createImageData(int, int, boolean)} are resampled directly. For any other pixel
+   * layout, this falls back to {@link ImageData#scaledTo(int, int)}.
+   *
+   * @return the resampled image, which has an alpha channel if the given image has one.
+   */
+  public static ImageData resize(ImageData image, int newWidth, int newHeight, Filter filter) {
+    if (!isRGB(image) || image.alpha != -1 || image.transparentPixel != -1) {
+      return image.scaledTo(newWidth, newHeight);
+    }
+    ImageData result = Images.createImageData(newWidth, newHeight, image.alphaData != null);
+    resample(new ImageDataSource(image), new ImageDataSink(result),
+        image.width, image.height, newWidth, newHeight, filter);
+    return result;
+  }
+
+  /**
+   * Resamples the given image to the given size with the filter best suited to the scale.
+   */
+  public static ImageData resize(ImageData image, int newWidth, int newHeight) {
+    return resize(image, newWidth, newHeight,
+        Filter.forScale(image.width, image.height, newWidth, newHeight));
+  }
+
+  private static boolean isRGB(ImageData image) {
+    PaletteData palette = image.palette;
+    return image.depth == 24 && palette.isDirect && palette.redMask == 0xFF0000 &&
+        palette.greenMask == 0x00FF00 && palette.blueMask == 0x0000FF;
+  }
+
+  private static void resample(Source src, Sink dst,
+      int srcWidth, int srcHeight, int dstWidth, int dstHeight, Filter filter) {
+    if (dstWidth <= 0 || dstHeight <= 0 || srcWidth <= 0 || srcHeight <= 0) {
+      return;
+    }
+
+    Weights xs = filter.getWeights(srcWidth, dstWidth);
+    Weights ys = filter.getWeights(srcHeight, dstHeight);
+    long srcPixels = (long)srcWidth * srcHeight;
+    if (srcPixels <= PARALLEL_THRESHOLD) {
+      resample(src, dst, dstWidth, xs, ys, 0, dstHeight);
+    } else {
+      int bandRows = (int)Math.max(1, dstHeight * BAND_SIZE / srcPixels);
+      ForkJoinPool.commonPool().invoke(
+          new ResampleTask(src, dst, dstWidth, xs, ys, 0, dstHeight, bandRows));
+    }
+  }
+
+  /**
+   * Computes the destination rows in [startRow, endRow). Different row ranges may be computed
+   * concurrently.
+   */
+  private static void resample(
+      Source src, Sink dst, int dstWidth, Weights xs, Weights ys, int startRow, int endRow) {
+    float[] acc = new float[4 * dstWidth];
+    for (int y = startRow; y < endRow; y++) {
+      Arrays.fill(acc, 0);
+      int firstRow = ys.first[y], lastRow = firstRow + ys.count[y];
+      for (int sy = firstRow, t = y * ys.taps; sy < lastRow; sy++, t++) {
+        if (ys.weights[t] != 0) {
+          src.accumulateRow(sy, xs, ys.weights[t], acc);
+        }
+      }
+      dst.writeRow(y, acc);
+    }
+  }
+
+  /**
+   * Converts a premultiplied color channel back to an 8 bit value.
+   */
+  private static byte unpremultiply(float value, float alpha) {
+    return toByte((alpha <= 0) ? 0 : value / alpha);
+  }
+
+  private static byte toByte(float value) {
+    return (byte)Math.max(0, Math.min(255, (int)(value + 0.5f)));
+  }
+
+  /**
+   * The per destination pixel filter weights along one axis of an image. Destination pixel
+   * {@code d} is the weighted sum of the source pixels {@code [first[d], first[d] + count[d])},
+   * with the weights starting at {@code weights[d * taps]}.
+   */
+  static class Weights {
+    public final int taps;
+    public final int[] first;
+    public final int[] count;
+    public final float[] weights;
+
+    public Weights(int size, int taps) {
+      this.taps = taps;
+      this.first = new int[size];
+      this.count = new int[size];
+      this.weights = new float[size * taps];
+    }
+  }
+
+  /**
+   * Source of the pixels to resample.
+   */
+  private static interface Source {
+    /**
+     * Filters the given source row horizontally and adds it, scaled by the given weight, to the
+     * given row of destination pixels. The destination pixels are RGBA floats, with the color
+     * channels premultiplied by the alpha and all channels scaled to [0, 255]. May be called
+     * concurrently.
+     */
+    public void accumulateRow(int y, Weights xs, float weight, float[] acc);
+  }
+
+  /**
+   * Destination of the resampled pixels.
+   */
+  private static interface Sink {
+    /**
+     * Writes the given row of premultiplied RGBA floats, as computed by
+     * {@link Source#accumulateRow}. May be called concurrently for different rows.
+     */
+    public void writeRow(int y, float[] in);
+  }
+
+  private static class RGBASource implements Source {
+    private final byte[] data;
+    private final int width;
+
+    public RGBASource(byte[] data, int width) {
+      this.data = data;
+      this.width = width;
+    }
+
+    @Override
+    public void accumulateRow(int y, Weights xs, float weight, float[] acc) {
+      for (int x = 0, o = 0, row = 4 * y * width; o < acc.length; x++, o += 4) {
+        float r = 0, g = 0, b = 0, a = 0;
+        for (int i = row + 4 * xs.first[x], t = x * xs.taps, end = t + xs.count[x]; t < end;
+            i += 4, t++) {
+          float w = xs.weights[t] * (data[i + 3] & 0xFF);
+          r += w * (data[i + 0] & 0xFF);
+          g += w * (data[i + 1] & 0xFF);
+          b += w * (data[i + 2] & 0xFF);
+          a += w;
+        }
+        acc[o + 0] += weight * r;
+        acc[o + 1] += weight * g;
+        acc[o + 2] += weight * b;
+        acc[o + 3] += weight * a;
+      }
+    }
+  }
+
+  private static class RGBASink implements Sink {
+    private final byte[] data;
+    private final int width;
+
+    public RGBASink(byte[] data, int width) {
+      this.data = data;
+      this.width = width;
+    }
+
+    @Override
+    public void writeRow(int y, float[] in) {
+      for (int i = 0, o = 4 * y * width; i < 4 * width; i += 4, o += 4) {
+        float alpha = in[i + 3];
+        data[o + 0] = unpremultiply(in[i + 0], alpha);
+        data[o + 1] = unpremultiply(in[i + 1], alpha);
+        data[o + 2] = unpremultiply(in[i + 2], alpha);
+        data[o + 3] = toByte(alpha);
+      }
+    }
+  }
+
+  private static class ImageDataSource implements Source {
+    private final ImageData image;
+
+    public ImageDataSource(ImageData image) {
+      this.image = image;
+    }
+
+    @Override
+    public void accumulateRow(int y, Weights xs, float weight, float[] acc) {
+      byte[] data = image.data, alpha = image.alphaData;
+      int row = y * image.bytesPerLine, alphaRow = y * image.width;
+      for (int x = 0, o = 0; o < acc.length; x++, o += 4) {
+        float r = 0, g = 0, b = 0, a = 0;
+        for (int i = row + 3 * xs.first[x], j = alphaRow + xs.first[x], t = x * xs.taps,
+            end = t + xs.count[x]; t < end; i += 3, j++, t++) {
+          float w = xs.weights[t] * ((alpha == null) ? 255 : (alpha[j] & 0xFF));
+          r += w * (data[i + 0] & 0xFF);
+          g += w * (data[i + 1] & 0xFF);
+          b += w * (data[i + 2] & 0xFF);
+          a += w;
+        }
+        acc[o + 0] += weight * r;
+        acc[o + 1] += weight * g;
+        acc[o + 2] += weight * b;
+        acc[o + 3] += weight * a;
+      }
+    }
+  }
+
+  private static class ImageDataSink implements Sink {
+    private final ImageData image;
+
+    public ImageDataSink(ImageData image) {
+      this.image = image;
+    }
+
+    @Override
+    public void writeRow(int y, float[] in) {
+      byte[] data = image.data, alpha = image.alphaData;
+      for (int i = 0, o = y * image.bytesPerLine, a = y * image.width; i < 4 * image.width;
+          i += 4, o += 3, a++) {
+        float value = in[i + 3];
+        data[o + 0] = unpremultiply(in[i + 0], value);
+        data[o + 1] = unpremultiply(in[i + 1], value);
+        data[o + 2] = unpremultiply(in[i + 2], value);
+        if (alpha != null) {
+          alpha[a] = toByte(value);
+        }
+      }
+    }
+  }
+
+  /**
+   * {@link RecursiveAction} resampling a range of destination rows, splitting it into halves
+   * until it is no larger than a band.
+   */
+  @SuppressWarnings("serial")
+  private static class ResampleTask extends RecursiveAction {
+    private final Source src;
+    private final Sink dst;
+    private final int dstWidth;
+    private final Weights xs, ys;
+    private final int startRow, endRow, bandRows;
+
+    public ResampleTask(Source src, Sink dst, int dstWidth, Weights xs, Weights ys,
+        int startRow, int endRow, int bandRows) {
+      this.src = src;
+      this.dst = dst;
+      this.dstWidth = dstWidth;
+      this.xs = xs;
+      this.ys = ys;
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.bandRows = bandRows;
+    }
+
+    @Override
+    protected void compute() {
+      if (endRow - startRow <= bandRows) {
+        resample(src, dst, dstWidth, xs, ys, startRow, endRow);
+      } else {
+        int mid = (startRow + endRow) >>> 1;
+        invokeAll(new ResampleTask(src, dst, dstWidth, xs, ys, startRow, mid, bandRows),
+            new ResampleTask(src, dst, dstWidth, xs, ys, mid, endRow, bandRows));
+      }
+    }
+  }
+}
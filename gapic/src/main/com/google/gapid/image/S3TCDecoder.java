@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link BlockDecoder} of the S3TC (DXT1, DXT3 and DXT5) formats.
+ */
+abstract class S3TCDecoder extends BlockDecoder {
+  public static final S3TCDecoder DXT1_RGB = new S3TCDecoder(8) {
+    @Override
+    protected void decodeBlock(ByteBuffer in, int offset, byte[] out) {
+      decodeColor(in, offset, out, true, false);
+    }
+  };
+
+  public static final S3TCDecoder DXT1_RGBA = new S3TCDecoder(8) {
+    @Override
+    protected void decodeBlock(ByteBuffer in, int offset, byte[] out) {
+      decodeColor(in, offset, out, true, true);
+    }
+  };
+
+  public static final S3TCDecoder DXT3 = new S3TCDecoder(16) {
+    @Override
+    protected void decodeBlock(ByteBuffer in, int offset, byte[] out) {
+      decodeColor(in, offset + 8, out, false, false);
+      long alpha = in.getLong(offset);
+      for (int i = 0; i < 16; i++, alpha >>>= 4) {
+        out[4 * i + 3] = (byte)((alpha & 0xF) * 0x11);
+      }
+    }
+  };
+
+  public static final S3TCDecoder DXT5 = new S3TCDecoder(16) {
+    @Override
+    protected void decodeBlock(ByteBuffer in, int offset, byte[] out) {
+      decodeColor(in, offset + 8, out, false, false);
+      int a0 = in.get(offset) & 0xFF, a1 = in.get(offset + 1) & 0xFF;
+      long codes = in.getLong(offset) >>> 16;
+      for (int i = 0; i < 16; i++, codes >>>= 3) {
+        int code = (int)(codes & 7), alpha;
+        if (code < 2) {
+          alpha = (code == 0) ? a0 : a1;
+        } else if (a0 > a1) {
+          alpha = (a0 * (8 - code) + a1 * (code - 1)) / 7;
+        } else if (code < 6) {
+          alpha = (a0 * (6 - code) + a1 * (code - 1)) / 5;
+        } else {
+          alpha = (code == 6) ? 0 : 255;
+        }
+        out[4 * i + 3] = (byte)alpha;
+      }
+    }
+  };
+
+  private S3TCDecoder(int blockSize) {
+    super(4, 4, blockSize);
+  }
+
+  /**
+   * Decodes the 8 byte color part of a block. In DXT1 blocks, whose first color is not greater
+   * than the second, the fourth color is black, and transparent if the format has an alpha
+   * channel. The alpha of all other pixels is set to opaque.
+   */
+  protected static void decodeColor(
+      ByteBuffer in, int offset, byte[] out, boolean dxt1, boolean hasAlpha) {
+    int c0 = in.getShort(offset) & 0xFFFF, c1 = in.getShort(offset + 2) & 0xFFFF;
+    int codes = in.getInt(offset + 4);
+    int[] colors = new int[4 * 4];
+    expand565(c0, colors, 0);
+    expand565(c1, colors, 4);
+    boolean fourColors = !dxt1 || c0 > c1;
+    for (int i = 0; i < 3; i++) {
+      if (fourColors) {
+        colors[8 + i] = (2 * colors[i] + colors[4 + i]) / 3;
+        colors[12 + i] = (colors[i] + 2 * colors[4 + i]) / 3;
+      } else {
+        colors[8 + i] = (colors[i] + colors[4 + i]) / 2;
+        colors[12 + i] = 0;
+      }
+    }
+    colors[3] = colors[7] = colors[11] = 255;
+    colors[15] = (fourColors || !hasAlpha) ? 255 : 0;
+
+    for (int i = 0; i < 16; i++, codes >>>= 2) {
+      int c = 4 * (codes & 3);
+      out[4 * i + 0] = (byte)colors[c + 0];
+      out[4 * i + 1] = (byte)colors[c + 1];
+      out[4 * i + 2] = (byte)colors[c + 2];
+      out[4 * i + 3] = (byte)colors[c + 3];
+    }
+  }
+
+  private static void expand565(int c, int[] out, int offset) {
+    out[offset + 0] = ((c >> 8) & 0xF8) | ((c >> 13) & 0x7);
+    out[offset + 1] = ((c >> 3) & 0xFC) | ((c >> 9) & 0x3);
+    out[offset + 2] = ((c << 3) & 0xF8) | ((c >> 2) & 0x7);
+  }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.gapid.util.Paths.blob;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.glviewer.gl.Texture;
+import com.google.gapid.image.Image.ImageBuffer;
+import com.google.gapid.image.Image.PixelInfo;
+import com.google.gapid.image.Image.PixelValue;
+import com.google.gapid.proto.image.Image.ID;
+import com.google.gapid.proto.image.Image.Info;
+import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.server.Client;
+import com.google.gapid.server.RequestScheduler.Priority;
+import com.google.gapid.util.Events;
+import com.google.gapid.util.Events.ListenerCollection;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
+import com.google.gapid.util.FutureCache;
+import com.google.gapid.util.Scheduler;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * A {@link MultiLevelImage} of a very large texture, that is fetched in fixed-size tiles on
+ * demand, rather than a whole level at a time. Loaded tiles are kept in a least recently used
+ * cache with a memory budget, shared by all tiled images and keyed by the data of the tile's
+ * level, so images of the same texture share their tiles. The
+ * {@link com.google.gapid.widgets.ImagePanel} renders these images tile by tile, requesting only
+ * the tiles visible at the current zoom, and shows the tiles of coarser levels until the finer
+ * ones have been loaded.
+ */
+public class TiledImage implements MultiLevelImage {
+  protected static final Logger LOG = Logger.getLogger(TiledImage.class.getName());
+
+  public static final Flag<Integer> tileCacheSizeMb = Flags.value("tile-cache-size-mb", 256,
+      "Size in MB of the UI's cache of tiles of very large textures.");
+
+  /**
+   * The width and height in pixels of a tile.
+   */
+  public static final int TILE_SIZE = 256;
+  /**
+   * Textures whose largest level has more pixels than this are displayed as tiled images.
+   */
+  private static final long TILING_THRESHOLD = 4096 * 4096;
+  /**
+   * The pixel info is computed from the finest level with at most this many pixels.
+   */
+  private static final long INFO_PIXEL_BUDGET = 1024 * 1024;
+  /**
+   * The delay after which a tile that failed to load is requested again.
+   */
+  private static final long RETRY_DELAY_MS = 5000;
+
+  private final Client client;
+  private final Images.Format format;
+  private final Info[] levels;
+  private final Set<TileKey> requested = ConcurrentHashMap.newKeySet();
+  private final ListenerCollection<Listener> listeners = Events.listeners(Listener.class);
+  private final Supplier<ListenableFuture<PixelInfo>> info;
+
+  public TiledImage(Client client, Images.Format format, List<Info> levels) {
+    this.client = client;
+    this.format = format;
+    this.levels = levels.toArray(new Info[levels.size()]);
+    this.info = Suppliers.memoize(this::computeInfo);
+  }
+
+  /**
+   * @return whether the texture with the given levels should be displayed as a tiled image.
+   */
+  public static boolean shouldTile(List<Info> levels) {
+    return !levels.isEmpty() &&
+        (long)levels.get(0).getWidth() * levels.get(0).getHeight() > TILING_THRESHOLD;
+  }
+
+  @Override
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  @Override
+  public ListenableFuture<Image> getLevel(int index) {
+    return (index < 0 || index >= levels.length) ?
+        immediateFailedFuture(new IllegalArgumentException("Invalid image level " + index)) :
+        immediateFuture(new Level(index));
+  }
+
+  public int getWidth(int level) {
+    return levels[level].getWidth();
+  }
+
+  public int getHeight(int level) {
+    return levels[level].getHeight();
+  }
+
+  public int getTilesX(int level) {
+    return (getWidth(level) + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  public int getTilesY(int level) {
+    return (getHeight(level) + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  /**
+   * @return the coarsest level, starting at the given level, whose resolution is still at least
+   *     that of the screen when the given level is drawn with the given scale.
+   */
+  public int getLevelForScale(int level, double scale) {
+    int result = level;
+    for (double s = scale; s <= 0.5 && result < levels.length - 1; s *= 2) {
+      result++;
+    }
+    return result;
+  }
+
+  /**
+   * @return the given tile, if it has been loaded, otherwise {@code null}, in which case the tile
+   *     is requested at the given priority and the listeners notified once it has been loaded.
+   */
+  public Tile getTile(int level, int x, int y, Priority priority) {
+    TileKey key = getKey(level, x, y);
+    Tile tile = TileCache.TILES.getIfPresent(key);
+    if (tile == null && requested.add(key)) {
+      ListenableFuture<Tile> future = TileCache.TILES.get(key, k -> fetch(k, priority));
+      Futures.addCallback(future, new FutureCallback<Tile>() {
+        @Override
+        public void onSuccess(Tile result) {
+          requested.remove(key);
+          listeners.fire().onTileLoaded(result);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          // Keep the tile marked as requested for a while, so it is not requested over and over
+          // again while it keeps failing.
+          LOG.log(WARNING, "Failed to load tile " + key, t);
+          Scheduler.EXECUTOR.schedule(() -> requested.remove(key), RETRY_DELAY_MS, MILLISECONDS);
+        }
+      });
+    }
+    return tile;
+  }
+
+  /**
+   * @return the given tile, if it has been loaded, otherwise {@code null}, without requesting it.
+   */
+  public Tile peekTile(int level, int x, int y) {
+    return TileCache.TILES.getIfPresent(getKey(level, x, y));
+  }
+
+  public void addListener(Listener listener) {
+    listeners.addListener(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.removeListener(listener);
+  }
+
+  private TileKey getKey(int level, int x, int y) {
+    return new TileKey(client, levels[level], format, level, x, y);
+  }
+
+  /**
+   * @return the pixel info of the finest level within the {@link #INFO_PIXEL_BUDGET}, which, if
+   *     the texture has a mipmap chain, approximates the info of the whole image. Images without
+   *     such a level, or of a format without statistics, have no info.
+   */
+  private ListenableFuture<PixelInfo> computeInfo() {
+    if (!format.hasStatistics()) {
+      return immediateFuture(PixelInfo.NULL_INFO);
+    }
+    for (int level = 0; level < levels.length; level++) {
+      if ((long)getWidth(level) * getHeight(level) <= INFO_PIXEL_BUDGET) {
+        return Futures.transformAsync(assemble(level), buffer -> buffer.getInfoAsync());
+      }
+    }
+    return immediateFuture(PixelInfo.NULL_INFO);
+  }
+
+  /**
+   * @return all the tiles of the given level assembled into a single image.
+   */
+  private ListenableFuture<ArrayImageBuffer> assemble(int level) {
+    List<ListenableFuture<Tile>> futures = Lists.newArrayList();
+    for (int y = 0; y < getTilesY(level); y++) {
+      for (int x = 0; x < getTilesX(level); x++) {
+        futures.add(TileCache.TILES.get(getKey(level, x, y)));
+      }
+    }
+    return Futures.transform(Futures.allAsList(futures), loaded -> {
+      ArrayImageBuffer.Builder builder = format.builder(getWidth(level), getHeight(level));
+      for (Tile tile : loaded) {
+        builder.update(tile.data.getBuffer(), tile.x, tile.y, tile.getWidth(), tile.getHeight());
+      }
+      return builder.build();
+    });
+  }
+
+  private static ListenableFuture<Tile> fetch(TileKey key, Priority priority) {
+    Info info = key.info;
+    int x = key.x * TILE_SIZE, y = key.y * TILE_SIZE;
+    int w = Math.min(TILE_SIZE, info.getWidth() - x);
+    int h = Math.min(TILE_SIZE, info.getHeight() - y);
+    long pixelSize = key.format.pixelSize, stride = pixelSize * info.getWidth();
+    Path.Any path = blob(info.getBytes(), y * stride + x * pixelSize, w * pixelSize, h, stride);
+    return Futures.transform(key.client.get(path, priority), value -> new Tile(
+        key.level, x, y,
+        key.format.builder(w, h).update(FetchedImage.pixels(value), 0, 0, w, h).build()));
+  }
+
+  /**
+   * Holds the tile cache shared by all tiled images. It is only created on first use, once the
+   * flags, which determine its size, have been parsed.
+   */
+  private static class TileCache {
+    public static final FutureCache<TileKey, Tile> TILES = FutureCache.weightedCache(
+        tileCacheSizeMb.get() * 1024L * 1024L, (key, tile) -> tile.data.getByteSize(),
+        key -> fetch(key, Priority.Visible), tile -> true);
+  }
+
+  /**
+   * A loaded tile of a {@link TiledImage}.
+   */
+  public static class Tile {
+    public final int level;
+    /** The position of the bottom left pixel of this tile within its level. */
+    public final int x, y;
+    public final ArrayImageBuffer data;
+
+    public Tile(int level, int x, int y, ArrayImageBuffer data) {
+      this.level = level;
+      this.x = x;
+      this.y = y;
+      this.data = data;
+    }
+
+    public int getWidth() {
+      return data.width;
+    }
+
+    public int getHeight() {
+      return data.height;
+    }
+  }
+
+  /**
+   * A level of a {@link TiledImage}. The {@link com.google.gapid.widgets.ImagePanel} draws it tile
+   * by tile, its {@link ImageBuffer} methods that need the whole level assemble it from all its
+   * tiles.
+   */
+  public class Level implements Image, ImageBuffer {
+    public final int index;
+
+    public Level(int index) {
+      this.index = index;
+    }
+
+    public TiledImage getImage() {
+      return TiledImage.this;
+    }
+
+    @Override
+    public int getWidth() {
+      return TiledImage.this.getWidth(index);
+    }
+
+    @Override
+    public int getHeight() {
+      return TiledImage.this.getHeight(index);
+    }
+
+    @Override
+    public ImageBuffer getData() {
+      return this;
+    }
+
+    /**
+     * @return all tiles of this level assembled into a single image, once they have been loaded.
+     */
+    public ListenableFuture<ArrayImageBuffer> getBuffer() {
+      return assemble(index);
+    }
+
+    /**
+     * Loads all tiles of this level and uploads them, assembled into a single image. This blocks
+     * until all tiles have been loaded.
+     */
+    @Override
+    public void uploadToTexture(Texture texture) {
+      Futures.getUnchecked(assemble(index)).uploadToTexture(texture);
+    }
+
+    /**
+     * Loads all tiles of this level and assembles them into a single image. This blocks until all
+     * tiles have been loaded and should not be called on the UI thread.
+     */
+    @Override
+    public ImageData getImageData() {
+      return Futures.getUnchecked(assemble(index)).getImageData();
+    }
+
+    /**
+     * @return the value of the given pixel from the loaded tile containing it, falling back to
+     *     the coarser levels if the tile of this level has not been loaded.
+     */
+    @Override
+    public PixelValue getPixel(int x, int y) {
+      if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight()) {
+        return PixelValue.NULL_PIXEL;
+      }
+      for (int level = index; level < levels.length; level++) {
+        int lx = (int)((long)x * TiledImage.this.getWidth(level) / getWidth());
+        int ly = (int)((long)y * TiledImage.this.getHeight(level) / getHeight());
+        Tile tile = peekTile(level, lx / TILE_SIZE, ly / TILE_SIZE);
+        if (tile != null) {
+          return tile.data.getPixel(lx - tile.x, ly - tile.y);
+        }
+      }
+      return PixelValue.NULL_PIXEL;
+    }
+
+    /**
+     * @return the pixel info, if it has already been computed, without waiting for it.
+     */
+    @Override
+    public PixelInfo getInfo() {
+      ListenableFuture<PixelInfo> result = info.get();
+      if (!result.isDone()) {
+        return PixelInfo.NULL_INFO;
+      }
+      try {
+        return Futures.getDone(result);
+      } catch (ExecutionException | CancellationException e) {
+        return PixelInfo.NULL_INFO;
+      }
+    }
+
+    /**
+     * @return the pixel info of the image, shared by all its levels.
+     * @see TiledImage#computeInfo()
+     */
+    @Override
+    public ListenableFuture<PixelInfo> getInfoAsync() {
+      return info.get();
+    }
+  }
+
+  /**
+   * Listener notified when tiles of a {@link TiledImage} have been loaded. May be called from any
+   * thread.
+   */
+  public static interface Listener extends Events.Listener {
+    public void onTileLoaded(Tile tile);
+  }
+
+  /**
+   * Identifies a tile by the data of its level, its format and position. The client and level
+   * info are only used to fetch the tile.
+   */
+  private static class TileKey {
+    public final Client client;
+    public final Info info;
+    public final ID data;
+    public final Images.Format format;
+    public final int level, x, y;
+
+    public TileKey(Client client, Info info, Images.Format format, int level, int x, int y) {
+      this.client = client;
+      this.info = info;
+      this.data = info.getBytes();
+      this.format = format;
+      this.level = level;
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof TileKey)) {
+        return false;
+      }
+      TileKey o = (TileKey)obj;
+      return level == o.level && x == o.x && y == o.y && format == o.format &&
+          data.equals(o.data);
+    }
+
+    @Override
+    public int hashCode() {
+      return (((data.hashCode() * 31 + format.hashCode()) * 31 + level) * 31 + x) * 31 + y;
+    }
+
+    @Override
+    public String toString() {
+      return level + ":" + x + "," + y;
+    }
+  }
+}
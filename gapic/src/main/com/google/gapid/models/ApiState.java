@@ -33,6 +33,7 @@ import com.google.gapid.rpc.Rpc.Result;
 import com.google.gapid.rpc.UiErrorCallback.ResultOrError;
 import com.google.gapid.server.Client;
 import com.google.gapid.server.Client.DataUnavailableException;
+import com.google.gapid.server.RequestScheduler.Priority;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.ObjectStore;
@@ -116,7 +117,7 @@ public class ApiState
 
   public ListenableFuture<Node> load(Node node) {
     return node.load(shell, () -> Futures.transformAsync(
-        client.get(Paths.any(node.getPath(Path.StateTreeNode.newBuilder()))),
+        client.get(Paths.any(node.getPath(Path.StateTreeNode.newBuilder())), Priority.Visible),
         value -> Futures.transform(constants.loadConstants(value.getStateTreeNode()),
             ignore -> new NodeData(value.getStateTreeNode()))));
   }
@@ -37,6 +37,7 @@ import com.google.gapid.rpc.RpcException;
 import com.google.gapid.rpc.UiCallback;
 import com.google.gapid.rpc.Rpc.Result;
 import com.google.gapid.server.Client;
+import com.google.gapid.server.RequestScheduler.Priority;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.Messages;
@@ -108,14 +109,15 @@ public class AtomStream extends ModelBase.ForPath<AtomStream.Node, Void, AtomStr
 
   public ListenableFuture<Node> load(Node node) {
     return node.load(shell, () -> Futures.transformAsync(
-        client.get(any(node.getPath(Path.CommandTreeNode.newBuilder()))), v1 -> {
+        client.get(any(node.getPath(Path.CommandTreeNode.newBuilder())), Priority.Visible), v1 -> {
           CommandTreeNode data = v1.getCommandTreeNode();
           if (data.getGroup().isEmpty() && data.hasCommands()) {
-            return Futures.transformAsync(client.get(any(lastCommand(data.getCommands()))), v2 -> {
-              Service.Command cmd = v2.getCommand();
-              return Futures.transform(constants.loadConstants(cmd),
-                  ignore -> new NodeData(data, v2.getCommand()));
-            });
+            return Futures.transformAsync(
+                client.get(any(lastCommand(data.getCommands())), Priority.Visible), v2 -> {
+                  Service.Command cmd = v2.getCommand();
+                  return Futures.transform(constants.loadConstants(cmd),
+                      ignore -> new NodeData(data, v2.getCommand()));
+                });
           }
           return Futures.immediateFuture(new NodeData(data, null));
         }));
@@ -350,6 +352,10 @@ public class AtomStream extends ModelBase.ForPath<AtomStream.Node, Void, AtomStr
       return Paths.memoryAfter(index, Application_VALUE, range).getMemory();
     }
 
+    public Service.MemoryRange getRange() {
+      return range;
+    }
+
     public boolean contains(long address) {
       return Ranges.contains(range, address);
     }
@@ -31,6 +31,7 @@ import com.google.gapid.rpc.UiCallback;
 import com.google.gapid.rpc.Rpc.Result;
 import com.google.gapid.server.Client;
 import com.google.gapid.server.Client.PathNotFollowableException;
+import com.google.gapid.server.RequestScheduler.Priority;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.Events.ListenerCollection;
 import com.google.gapid.util.Flags;
@@ -75,13 +76,15 @@ public class Follower {
     for (Service.Parameter p : atom.getParametersList()) {
       Path.Any follow = Paths.atomField(path, p.getName());
       Futures.addCallback(
-          client.follow(follow), callback(follow, v -> paths.put(p.getName(), v), onResult));
+          client.follow(follow, Priority.Prefetch),
+          callback(follow, v -> paths.put(p.getName(), v), onResult));
     }
 
     if (atom.hasResult()) {
       Path.Any follow = Paths.atomResult(path);
       Futures.addCallback(
-          client.follow(follow), callback(follow, v -> paths.put(RESULT_NAME, v), onResult));
+          client.follow(follow, Priority.Prefetch),
+          callback(follow, v -> paths.put(RESULT_NAME, v), onResult));
     }
 
     return new Prefetcher<String>() {
@@ -102,7 +105,7 @@ public class Follower {
    */
   public Prefetcher<Void> prepare(Path.Any path, Runnable onResult) {
     ObjectStore<Path.Any> result = ObjectStore.create();
-    ListenableFuture<Path.Any> future = client.follow(path);
+    ListenableFuture<Path.Any> future = client.follow(path, Priority.Prefetch);
     Futures.addCallback(future, callback(path, v -> {
       synchronized(result) {
         result.update(v);
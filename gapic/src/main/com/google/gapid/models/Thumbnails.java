@@ -16,14 +16,19 @@
 package com.google.gapid.models;
 
 import static com.google.gapid.util.Paths.thumbnail;
+import static com.google.gapid.util.Scheduler.EXECUTOR;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.image.FetchedImage;
+import com.google.gapid.image.Resampler;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.server.Client;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.Events.ListenerCollection;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
+import com.google.gapid.util.FutureCache;
 
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.internal.DPIUtil;
@@ -31,11 +36,17 @@ import org.eclipse.swt.internal.DPIUtil;
 import java.util.logging.Logger;
 
 /**
- * Manages the loading of thumbnail previews.
+ * Manages the loading of thumbnail previews. Thumbnails are fetched from the server once, at the
+ * largest thumbnail size, and all smaller sizes are derived from this base image. Both the base
+ * images and the derived sizes are kept in a cache, shared by all views, that is limited by the
+ * total size of the pixel data.
  */
 public class Thumbnails {
   protected static final Logger LOG = Logger.getLogger(ApiState.class.getName());
 
+  public static final Flag<Integer> thumbnailCacheSizeMb = Flags.value(
+      "thumbnail-cache-size-mb", 128, "Size in MB of the UI's cache of thumbnail images.");
+
   public static final int THUMB_SIZE = 192;
   private static final int MIN_SIZE = DPIUtil.autoScaleUp(18);
   private static final int THUMB_PIXELS = DPIUtil.autoScaleUp(THUMB_SIZE);
@@ -43,12 +54,15 @@ public class Thumbnails {
   private final Client client;
   private final Devices devices;
   private final Capture capture;
+  private final FutureCache<Key, ImageData> cache;
   private final ListenerCollection<Listener> listeners = Events.listeners(Listener.class);
 
   public Thumbnails(Client client, Devices devices, Capture capture) {
     this.client = client;
     this.devices = devices;
     this.capture = capture;
+    this.cache = FutureCache.weightedCache(thumbnailCacheSizeMb.get() * 1024L * 1024L,
+        (key, image) -> getByteSize(image), this::load, image -> true);
 
     devices.addListener(new Devices.Listener() {
       @Override
@@ -59,6 +73,7 @@ public class Thumbnails {
   }
 
   protected void update() {
+    cache.invalidateAll();
     if (isReady()) {
       listeners.fire().onThumbnailsChanged();
     }
@@ -68,29 +83,66 @@ public class Thumbnails {
     return devices.hasReplayDevice() && capture.isLoaded();
   }
 
+  /**
+   * @return the thumbnail of the framebuffer after the given command, scaled to the given size.
+   *     The returned image is shared and must not be modified.
+   */
   public ListenableFuture<ImageData> getThumbnail(Path.Command command, int size) {
-    return Futures.transform(FetchedImage.loadThumbnail(client, thumbnail(command, THUMB_PIXELS)),
-        image -> processImage(image, size));
+    return getThumbnail(thumbnail(command, THUMB_PIXELS), size);
   }
 
+  /**
+   * @return the thumbnail of the framebuffer of the given command tree node, scaled to the given
+   *     size. The returned image is shared and must not be modified.
+   */
   public ListenableFuture<ImageData> getThumbnail(Path.CommandTreeNode node, int size) {
-    return Futures.transform(FetchedImage.loadThumbnail(client, thumbnail(node, THUMB_PIXELS)),
-        image -> processImage(image, size));
+    return getThumbnail(thumbnail(node, THUMB_PIXELS), size);
+  }
+
+  /**
+   * @return the thumbnail of the given resource, scaled to the given size. The returned image is
+   *     shared and must not be modified.
+   */
+  public ListenableFuture<ImageData> getThumbnail(Path.ResourceData resource, int size) {
+    return getThumbnail(thumbnail(resource, THUMB_PIXELS), size);
+  }
+
+  private ListenableFuture<ImageData> getThumbnail(Path.Thumbnail path, int size) {
+    // Requests for the full size are served from the base image, without caching a second copy.
+    return (size >= THUMB_SIZE) ?
+        Futures.transform(cache.get(Key.base(path)), image -> processImage(image, size), EXECUTOR) :
+        cache.get(new Key(path, size));
+  }
+
+  private ListenableFuture<ImageData> load(Key key) {
+    if (key.isBase()) {
+      return FetchedImage.loadThumbnail(client, key.path);
+    }
+    return Futures.transform(
+        cache.get(Key.base(key.path)), image -> processImage(image, key.size), EXECUTOR);
+  }
+
+  private static int getByteSize(ImageData image) {
+    return image.data.length + ((image.alphaData == null) ? 0 : image.alphaData.length);
   }
 
+  /**
+   * Scales the given image to fit into the given size, filtering the pixels with the
+   * {@link Resampler}. This is done on the executor, rather than the thread completing the fetch.
+   */
   private static ImageData processImage(ImageData image, int size) {
     size = DPIUtil.autoScaleUp(size);
     if (image.width >= image.height) {
       if (image.width > size) {
-        return image.scaledTo(size, (image.height * size) / image.width);
+        return Resampler.resize(image, size, (image.height * size) / image.width);
       } else if (image.width < MIN_SIZE) {
-        return image.scaledTo(MIN_SIZE, (image.height * MIN_SIZE) / image.width);
+        return Resampler.resize(image, MIN_SIZE, (image.height * MIN_SIZE) / image.width);
       }
     } else {
       if (image.height > size) {
-        return image.scaledTo((image.width * size) / image.height, size);
+        return Resampler.resize(image, (image.width * size) / image.height, size);
       } else if (image.height < MIN_SIZE) {
-        return image.scaledTo((image.width * MIN_SIZE) / image.height, MIN_SIZE);
+        return Resampler.resize(image, (image.width * MIN_SIZE) / image.height, MIN_SIZE);
       }
     }
     return image;
@@ -104,6 +156,46 @@ public class Thumbnails {
     listeners.removeListener(listener);
   }
 
+  /**
+   * Cache key of a thumbnail image. The base image, as fetched from the server, has a size of
+   * {@link #BASE_SIZE}. All other sizes are derived from it.
+   */
+  private static class Key {
+    private static final int BASE_SIZE = -1;
+
+    public final Path.Thumbnail path;
+    public final int size;
+
+    public Key(Path.Thumbnail path, int size) {
+      this.path = path;
+      this.size = size;
+    }
+
+    public boolean isBase() {
+      return size == BASE_SIZE;
+    }
+
+    public static Key base(Path.Thumbnail path) {
+      return new Key(path, BASE_SIZE);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * path.hashCode() + size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key key = (Key)obj;
+      return size == key.size && path.equals(key.path);
+    }
+  }
+
   public static interface Listener extends Events.Listener {
     /**
      * Event indicating that render settings have changed an thumbnails need to be updated.
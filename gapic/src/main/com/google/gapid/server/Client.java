@@ -40,6 +40,7 @@ import com.google.gapid.proto.service.gfxapi.GfxAPI;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.proto.stringtable.Stringtable;
 import com.google.gapid.rpc.RpcException;
+import com.google.gapid.server.RequestScheduler.Priority;
 import com.google.gapid.util.Paths;
 import com.google.protobuf.ByteString;
 
@@ -68,27 +69,41 @@ public class Client {
   }
 
   public ListenableFuture<Value> get(Path.Any path) {
+    return get(path, Priority.Interactive);
+  }
+
+  public ListenableFuture<Value> get(Path.Any path, Priority priority) {
     LOG.log(FINE, "RPC->get({0})", path);
-    return Futures.transformAsync(
-        client.get(GetRequest.newBuilder().setPath(path).build()),
+    GetRequest request = GetRequest.newBuilder().setPath(path).build();
+    RpcMetrics.Call call = RpcMetrics.start("get", path, request);
+    return call.finish(Futures.transformAsync(
+        call.response(client.get(request, priority)),
         in -> Futures.immediateFuture(throwIfError(in.getValue(), in.getError()))
-    );
+    ));
   }
 
   public ListenableFuture<Path.Any> set(Path.Any path, Service.Value value) {
     LOG.log(FINE, "RPC->set({0}, {1})", new Object[] { path, value });
-    return Futures.transformAsync(
-        client.set(SetRequest.newBuilder().setPath(path).setValue(value).build()),
+    SetRequest request = SetRequest.newBuilder().setPath(path).setValue(value).build();
+    RpcMetrics.Call call = RpcMetrics.start("set", path, request);
+    return call.finish(Futures.transformAsync(
+        call.response(client.set(request)),
         in -> Futures.immediateFuture(throwIfError(in.getPath(), in.getError()))
-    );
+    ));
   }
 
   public ListenableFuture<Path.Any> follow(Path.Any path) {
+    return follow(path, Priority.Interactive);
+  }
+
+  public ListenableFuture<Path.Any> follow(Path.Any path, Priority priority) {
     LOG.log(FINE, "RPC->follow({0})", path);
-    return Futures.transformAsync(
-        client.follow(FollowRequest.newBuilder().setPath(path).setPath(path).build()),
+    FollowRequest request = FollowRequest.newBuilder().setPath(path).setPath(path).build();
+    RpcMetrics.Call call = RpcMetrics.start("follow", path, request);
+    return call.finish(Futures.transformAsync(
+        call.response(client.follow(request, priority)),
         in -> Futures.immediateFuture(throwIfError(in.getPath(), in.getError()))
-    );
+    ));
   }
 
   public ListenableFuture<List<Stringtable.Info>> getAvailableStringTables() {
@@ -151,16 +166,18 @@ public class Client {
       Service.RenderSettings settings, Service.UsageHints hints) {
     LOG.log(FINE, "RPC->getFramebufferAttachment({0}, {1}, {2}, {3}, {4})",
         new Object[] { device, after, attachment, settings, hints });
-    return Futures.transformAsync(
-        client.getFramebufferAttachment(GetFramebufferAttachmentRequest.newBuilder()
-            .setDevice(device)
-            .setAfter(after)
-            .setAttachment(attachment)
-            .setSettings(settings)
-            .setHints(hints)
-            .build()),
+    GetFramebufferAttachmentRequest request = GetFramebufferAttachmentRequest.newBuilder()
+        .setDevice(device)
+        .setAfter(after)
+        .setAttachment(attachment)
+        .setSettings(settings)
+        .setHints(hints)
+        .build();
+    RpcMetrics.Call call = RpcMetrics.start("getFramebufferAttachment", "framebuffer", request);
+    return call.finish(Futures.transformAsync(
+        call.response(client.getFramebufferAttachment(request)),
         in -> Futures.immediateFuture(throwIfError(in.getImage(), in.getError()))
-    );
+    ));
   }
 
   public ListenableFuture<Void> streamLog(Consumer<Log.Message> onLogMessage) {
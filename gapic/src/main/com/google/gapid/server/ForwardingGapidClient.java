@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.log.Log;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.server.RequestScheduler.Priority;
+
+import java.util.function.Consumer;
+
+/**
+ * A {@link GapidClient} that forwards all requests to another client. Subclasses override the
+ * methods they want to intercept.
+ */
+public abstract class ForwardingGapidClient implements GapidClient {
+  protected final GapidClient delegate;
+
+  public ForwardingGapidClient(GapidClient delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public ListenableFuture<Void> ping() {
+    return delegate.ping();
+  }
+
+  @Override
+  public ListenableFuture<Service.GetServerInfoResponse> getServerInfo(
+      Service.GetServerInfoRequest request) {
+    return delegate.getServerInfo(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetResponse> get(Service.GetRequest request, Priority priority) {
+    return delegate.get(request, priority);
+  }
+
+  @Override
+  public ListenableFuture<Service.SetResponse> set(Service.SetRequest request) {
+    return delegate.set(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.FollowResponse> follow(
+      Service.FollowRequest request, Priority priority) {
+    return delegate.follow(request, priority);
+  }
+
+  @Override
+  public ListenableFuture<Service.BeginCPUProfileResponse> beginCPUProfile(
+      Service.BeginCPUProfileRequest request) {
+    return delegate.beginCPUProfile(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.EndCPUProfileResponse> endCPUProfile(
+      Service.EndCPUProfileRequest request) {
+    return delegate.endCPUProfile(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetPerformanceCountersResponse> getPerformanceCounters(
+      Service.GetPerformanceCountersRequest request) {
+    return delegate.getPerformanceCounters(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetProfileResponse> getProfile(
+      Service.GetProfileRequest request) {
+    return delegate.getProfile(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetAvailableStringTablesResponse> getAvailableStringTables(
+      Service.GetAvailableStringTablesRequest request) {
+    return delegate.getAvailableStringTables(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetStringTableResponse> getStringTable(
+      Service.GetStringTableRequest request) {
+    return delegate.getStringTable(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.ImportCaptureResponse> importCapture(
+      Service.ImportCaptureRequest request) {
+    return delegate.importCapture(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.LoadCaptureResponse> loadCapture(
+      Service.LoadCaptureRequest request) {
+    return delegate.loadCapture(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.ExportCaptureResponse> exportCapture(
+      Service.ExportCaptureRequest request) {
+    return delegate.exportCapture(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetDevicesResponse> getDevices(
+      Service.GetDevicesRequest request) {
+    return delegate.getDevices(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetDevicesForReplayResponse> getDevicesForReplay(
+      Service.GetDevicesForReplayRequest request) {
+    return delegate.getDevicesForReplay(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetFramebufferAttachmentResponse> getFramebufferAttachment(
+      Service.GetFramebufferAttachmentRequest request) {
+    return delegate.getFramebufferAttachment(request);
+  }
+
+  @Override
+  public ListenableFuture<Void> streamLog(Consumer<Log.Message> onLogMessage) {
+    return delegate.streamLog(onLogMessage);
+  }
+
+  @Override
+  public ListenableFuture<Void> streamSearch(
+      Service.FindRequest request, Consumer<Service.FindResponse> onResult) {
+    return delegate.streamSearch(request, onResult);
+  }
+}
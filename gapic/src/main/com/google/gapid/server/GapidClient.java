@@ -18,6 +18,7 @@ package com.google.gapid.server;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.proto.log.Log;
 import com.google.gapid.proto.service.Service;
+import com.google.gapid.server.RequestScheduler.Priority;
 
 import java.util.function.Consumer;
 
@@ -28,9 +29,11 @@ public interface GapidClient {
   public ListenableFuture<Void> ping();
   public ListenableFuture<Service.GetServerInfoResponse> getServerInfo(
       Service.GetServerInfoRequest request);
-  public ListenableFuture<Service.GetResponse> get(Service.GetRequest request);
+  public ListenableFuture<Service.GetResponse> get(
+      Service.GetRequest request, Priority priority);
   public ListenableFuture<Service.SetResponse> set(Service.SetRequest request);
-  public ListenableFuture<Service.FollowResponse> follow(Service.FollowRequest request);
+  public ListenableFuture<Service.FollowResponse> follow(
+      Service.FollowRequest request, Priority priority);
   public ListenableFuture<Service.BeginCPUProfileResponse> beginCPUProfile(
       Service.BeginCPUProfileRequest request);
   public ListenableFuture<Service.EndCPUProfileResponse> endCPUProfile(
@@ -15,33 +15,209 @@
  */
 package com.google.gapid.server;
 
+import static com.google.gapid.util.Scheduler.EXECUTOR;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.gapid.proto.service.GapidGrpc;
+import com.google.gapid.models.Info;
 import com.google.gapid.proto.service.Service;
+import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.server.RequestScheduler.Priority;
+import com.google.gapid.util.DiskCache;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.FutureCache;
+import com.google.gapid.util.Paths;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 /**
- * A caching {@link GapidClientGrpc}.
+ * A {@link GapidClient} caching the get and follow responses of another client. Identical concurrent get and follow requests are coalesced
+ * into a single RPC. Responses are kept in byte budgeted LRU caches, with separate budgets for the
+ * blob heavy responses (image data, memory, meshes) and the small structural responses.
+ * Only the requests that miss the caches are forwarded, so only they are queued by a
+ * {@link GapidClientScheduler} below this cache. A request joining an in-flight RPC waits for it
+ * at the priority the RPC was queued with.
+ * Optionally, responses are also persisted to a {@link DiskCache}, so reopening a previously
+ * analyzed capture does not require the server to recompute them.
  */
-public class GapidClientCache extends GapidClientGrpc {
+public class GapidClientCache extends ForwardingGapidClient {
+  private static final Logger LOG = Logger.getLogger(GapidClientCache.class.getName());
+
+  public static final Flag<Integer> cacheSizeMb = Flags.value("cache-size-mb", 128,
+      "Size in MB of the UI's cache for structural (command tree, state, etc.) responses.");
+  public static final Flag<Integer> blobCacheSizeMb = Flags.value("blob-cache-size-mb", 512,
+      "Size in MB of the UI's cache for blob (image data, memory, etc.) responses.");
+  public static final Flag<String> diskCacheDir = Flags.value("disk-cache-dir", "",
+      "Directory of the UI's persistent response cache. Disabled if empty.");
+  public static final Flag<Integer> diskCacheSizeMb = Flags.value("disk-cache-size-mb", 4096,
+      "Maximum size in MB of the UI's persistent response cache.");
+
+  private static final long MB = 1024 * 1024;
+  private static final int DISK_KEY_GET = 1;
+  private static final int DISK_KEY_FOLLOW = 2;
+
   private final FutureCache<Service.GetRequest, Service.GetResponse> getCache;
+  private final FutureCache<Service.GetRequest, Service.GetResponse> blobCache;
   private final FutureCache<Service.FollowRequest, Service.FollowResponse> followCache;
+  private final DiskCache diskCache;
+
+  public GapidClientCache(GapidClient delegate) {
+    super(delegate);
+    this.getCache = FutureCache.weightedCache(cacheSizeMb.get() * MB,
+        (request, result) -> request.getSerializedSize() + result.getSerializedSize(),
+        request -> fetchGet(request, Priority.Interactive), GapidClientCache::shouldCache);
+    this.blobCache = FutureCache.weightedCache(blobCacheSizeMb.get() * MB,
+        (request, result) -> request.getSerializedSize() + result.getSerializedSize(),
+        request -> fetchGet(request, Priority.Interactive), GapidClientCache::shouldCache);
+    this.followCache = FutureCache.weightedCache(cacheSizeMb.get() * MB,
+        (request, result) -> request.getSerializedSize() + result.getSerializedSize(),
+        request -> fetchFollow(request, Priority.Interactive), GapidClientCache::shouldCache);
+    this.diskCache = openDiskCache();
+    RpcMetrics.setCacheStats(this::getCacheStats);
+  }
 
-  public GapidClientCache(GapidGrpc.GapidFutureStub client, GapidGrpc.GapidStub stub) {
-    super(client, stub);
-    this.getCache = FutureCache.softCache(
-        client::get, result -> result.getResCase() == Service.GetResponse.ResCase.VALUE);
-    this.followCache = FutureCache.softCache(
-        client::follow, result -> result.getResCase() == Service.FollowResponse.ResCase.PATH);
+  private static DiskCache openDiskCache() {
+    if (diskCacheDir.get().isEmpty()) {
+      return null;
+    }
+    try {
+      return DiskCache.open(new File(diskCacheDir.get()), diskCacheSizeMb.get() * MB);
+    } catch (IOException e) {
+      LOG.log(WARNING, "Failed to open the disk cache, continuing without it", e);
+      return null;
+    }
   }
 
   @Override
-  public ListenableFuture<Service.GetResponse> get(Service.GetRequest request) {
-    return getCache.get(request);
+  public ListenableFuture<Service.GetResponse> get(
+      Service.GetRequest request, Priority priority) {
+    RpcMetrics.cacheLookup("get", request.getPath());
+    return (isBlobRequest(request) ? blobCache : getCache).get(
+        request, r -> fetchGet(r, priority));
   }
 
   @Override
-  public ListenableFuture<Service.FollowResponse> follow(Service.FollowRequest request) {
-    return followCache.get(request);
+  public ListenableFuture<Service.FollowResponse> follow(
+      Service.FollowRequest request, Priority priority) {
+    RpcMetrics.cacheLookup("follow", request.getPath());
+    return followCache.get(request, r -> fetchFollow(r, priority));
+  }
+
+  /**
+   * @return the statistics of the response caches, keyed by cache name.
+   */
+  public Map<String, FutureCache.Stats> getCacheStats() {
+    return ImmutableMap.of(
+        "get", getCache.getStats(),
+        "blob", blobCache.getStats(),
+        "follow", followCache.getStats());
+  }
+
+  private ListenableFuture<Service.GetResponse> fetchGet(
+      Service.GetRequest request, Priority priority) {
+    RpcMetrics.cacheMiss("get", request.getPath());
+    return fetch(DISK_KEY_GET, request.getPath(), Service.GetResponse.getDefaultInstance(),
+        () -> delegate.get(request, priority), GapidClientCache::shouldCache);
+  }
+
+  private ListenableFuture<Service.FollowResponse> fetchFollow(
+      Service.FollowRequest request, Priority priority) {
+    RpcMetrics.cacheMiss("follow", request.getPath());
+    return fetch(DISK_KEY_FOLLOW, request.getPath(), Service.FollowResponse.getDefaultInstance(),
+        () -> delegate.follow(request, priority), GapidClientCache::shouldCache);
+  }
+
+  /**
+   * Looks up the response in the disk cache, falling back to the RPC on a miss.
+   */
+  private <T extends Message> ListenableFuture<T> fetch(int kind, Path.Any path, T prototype,
+      Supplier<ListenableFuture<T>> rpc, Predicate<T> shouldCache) {
+    if (diskCache == null || !isPersistable(path)) {
+      return rpc.get();
+    }
+
+    long group = getDiskGroup(path);
+    byte[] key = getDiskKey(kind, path);
+    return Futures.transformAsync(EXECUTOR.submit(() -> diskCache.get(group, key)), data -> {
+      if (data != null) {
+        try {
+          @SuppressWarnings("unchecked")
+          T result = (T)prototype.getParserForType().parseFrom(data);
+          return Futures.immediateFuture(result);
+        } catch (InvalidProtocolBufferException e) {
+          LOG.log(WARNING, "Ignoring invalid disk cache entry for " + Paths.toString(path), e);
+        }
+      }
+
+      return Futures.transform(rpc.get(), result -> {
+        if (shouldCache.test(result)) {
+          EXECUTOR.execute(() -> diskCache.put(group, key, result.toByteArray()));
+        }
+        return result;
+      });
+    });
+  }
+
+  private static boolean shouldCache(Service.GetResponse result) {
+    return result.getResCase() == Service.GetResponse.ResCase.VALUE;
+  }
+
+  private static boolean shouldCache(Service.FollowResponse result) {
+    return result.getResCase() == Service.FollowResponse.ResCase.PATH;
+  }
+
+  private static boolean isBlobRequest(Service.GetRequest request) {
+    switch (request.getPath().getPathCase()) {
+      case BLOB:
+      case MEMORY:
+      case MESH:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Only responses for paths within a capture and content addressed blobs stay valid across
+   * server sessions.
+   */
+  private static boolean isPersistable(Path.Any path) {
+    return path.getPathCase() == Path.Any.PathCase.BLOB || Paths.findCapture(path) != null;
+  }
+
+  /**
+   * @return the disk cache group of the given path, derived from its capture ID.
+   */
+  private static long getDiskGroup(Path.Any path) {
+    Path.Capture capture = Paths.findCapture(path);
+    return (capture == null) ? 0 :
+        Hashing.murmur3_128().hashBytes(capture.getId().getData().toByteArray()).asLong();
+  }
+
+  /**
+   * @return the disk cache key of the given path, consisting of its serialized form. The server
+   *     version is included, so results computed by a different server version are not reused.
+   */
+  private static byte[] getDiskKey(int kind, Path.Any path) {
+    byte[] version = Info.getServerVersion().toString().getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocate(4 + 4 + version.length + path.getSerializedSize())
+        .putInt(kind)
+        .putInt(version.length)
+        .put(version)
+        .put(path.toByteArray())
+        .array();
   }
 }
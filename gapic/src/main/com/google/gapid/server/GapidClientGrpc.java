@@ -23,12 +23,14 @@ import com.google.gapid.proto.service.GapidGrpc;
 import com.google.gapid.proto.service.Service;
 
 import com.google.gapid.proto.service.Service.PingRequest;
+import com.google.gapid.server.RequestScheduler.Priority;
 import java.util.function.Consumer;
 
 import io.grpc.stub.StreamObserver;
 
 /**
- * A {@link GapidClient} based on a gRPC service.
+ * A {@link GapidClient} based on a gRPC service. Requests are sent right away, regardless of their
+ * {@link Priority}, see {@link GapidClientScheduler} for ordering them.
  */
 public class GapidClientGrpc implements GapidClient {
   private static final PingRequest PING_REQUEST = Service.PingRequest.newBuilder().build();
@@ -52,7 +54,8 @@ public class GapidClientGrpc implements GapidClient {
   }
 
   @Override
-  public ListenableFuture<Service.GetResponse> get(Service.GetRequest request) {
+  public ListenableFuture<Service.GetResponse> get(
+      Service.GetRequest request, Priority priority) {
     return client.get(request);
   }
 
@@ -62,7 +65,8 @@ public class GapidClientGrpc implements GapidClient {
   }
 
   @Override
-  public ListenableFuture<Service.FollowResponse> follow(Service.FollowRequest request) {
+  public ListenableFuture<Service.FollowResponse> follow(
+      Service.FollowRequest request, Priority priority) {
     return client.follow(request);
   }
 
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.log.Log;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.server.RequestScheduler.Priority;
+import com.google.protobuf.MessageLite;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A {@link GapidClient} that forwards all requests to another client and records every successful
+ * request and response pair, together with its latency, to a file. The recording can be played
+ * back without a server using {@link GapidClientReplay}. The recorder wraps the RPC client itself,
+ * beneath the {@link GapidClientCache cache} and the {@link GapidClientScheduler scheduler}, so
+ * only the requests that actually reach the server are recorded.
+ *
+ * <p>The file is a gzipped sequence of records, each consisting of the {@link Method}, the
+ * latency in microseconds, the request and the response. Search streams are recorded as a single
+ * record, once complete, containing all the results and their latencies.
+ */
+public class GapidClientRecorder implements GapidClient, Closeable {
+  private static final Logger LOG = Logger.getLogger(GapidClientRecorder.class.getName());
+
+  protected static final int MAGIC = 0x47524543; // GREC
+  protected static final int VERSION = 1;
+
+  private final GapidClient client;
+  private final DataOutputStream out;
+  private boolean closed = false;
+
+  private GapidClientRecorder(GapidClient client, DataOutputStream out) {
+    this.client = client;
+    this.out = out;
+  }
+
+  public static GapidClientRecorder create(GapidClient client, File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    LOG.log(WARNING, "Recording all server requests to " + file);
+    return new GapidClientRecorder(client, out);
+  }
+
+  @Override
+  public ListenableFuture<Void> ping() {
+    return client.ping();
+  }
+
+  @Override
+  public ListenableFuture<Service.GetServerInfoResponse> getServerInfo(
+      Service.GetServerInfoRequest request) {
+    return record(Method.GetServerInfo, request, () -> client.getServerInfo(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetResponse> get(
+      Service.GetRequest request, Priority priority) {
+    return record(Method.Get, request, () -> client.get(request, priority));
+  }
+
+  @Override
+  public ListenableFuture<Service.SetResponse> set(Service.SetRequest request) {
+    return record(Method.Set, request, () -> client.set(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.FollowResponse> follow(
+      Service.FollowRequest request, Priority priority) {
+    return record(Method.Follow, request, () -> client.follow(request, priority));
+  }
+
+  @Override
+  public ListenableFuture<Service.BeginCPUProfileResponse> beginCPUProfile(
+      Service.BeginCPUProfileRequest request) {
+    return record(Method.BeginCPUProfile, request, () -> client.beginCPUProfile(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.EndCPUProfileResponse> endCPUProfile(
+      Service.EndCPUProfileRequest request) {
+    return record(Method.EndCPUProfile, request, () -> client.endCPUProfile(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetPerformanceCountersResponse> getPerformanceCounters(
+      Service.GetPerformanceCountersRequest request) {
+    return record(
+        Method.GetPerformanceCounters, request, () -> client.getPerformanceCounters(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetProfileResponse> getProfile(
+      Service.GetProfileRequest request) {
+    return record(Method.GetProfile, request, () -> client.getProfile(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetAvailableStringTablesResponse> getAvailableStringTables(
+      Service.GetAvailableStringTablesRequest request) {
+    return record(
+        Method.GetAvailableStringTables, request, () -> client.getAvailableStringTables(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetStringTableResponse> getStringTable(
+      Service.GetStringTableRequest request) {
+    return record(Method.GetStringTable, request, () -> client.getStringTable(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.ImportCaptureResponse> importCapture(
+      Service.ImportCaptureRequest request) {
+    return record(Method.ImportCapture, request, () -> client.importCapture(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.LoadCaptureResponse> loadCapture(
+      Service.LoadCaptureRequest request) {
+    return record(Method.LoadCapture, request, () -> client.loadCapture(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.ExportCaptureResponse> exportCapture(
+      Service.ExportCaptureRequest request) {
+    return record(Method.ExportCapture, request, () -> client.exportCapture(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetDevicesResponse> getDevices(
+      Service.GetDevicesRequest request) {
+    return record(Method.GetDevices, request, () -> client.getDevices(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetDevicesForReplayResponse> getDevicesForReplay(
+      Service.GetDevicesForReplayRequest request) {
+    return record(Method.GetDevicesForReplay, request, () -> client.getDevicesForReplay(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetFramebufferAttachmentResponse> getFramebufferAttachment(
+      Service.GetFramebufferAttachmentRequest request) {
+    return record(
+        Method.GetFramebufferAttachment, request, () -> client.getFramebufferAttachment(request));
+  }
+
+  @Override
+  public ListenableFuture<Void> streamLog(Consumer<Log.Message> onLogMessage) {
+    // Server logs are not part of the recording.
+    return client.streamLog(onLogMessage);
+  }
+
+  @Override
+  public ListenableFuture<Void> streamSearch(
+      Service.FindRequest request, Consumer<Service.FindResponse> onResult) {
+    long start = System.nanoTime();
+    List<Result> results = Lists.newArrayList();
+    ListenableFuture<Void> result = client.streamSearch(request, response -> {
+      synchronized (results) {
+        results.add(new Result(micros(start), response));
+      }
+      onResult.accept(response);
+    });
+    Futures.addCallback(result, new FutureCallback<Void>() {
+      @Override
+      public void onSuccess(Void ignored) {
+        synchronized (results) {
+          write(Method.Find, request, micros(start), results);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        // Failed searches are not recorded.
+      }
+    });
+    return result;
+  }
+
+  @Override
+  public void close() {
+    synchronized (out) {
+      if (!closed) {
+        closed = true;
+        try {
+          out.close();
+        } catch (IOException e) {
+          LOG.log(WARNING, "Failed to close the request recording", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Issues the given call, recording its request, response and latency once it succeeds. The
+   * latency is measured from before the call is issued.
+   */
+  private <T extends MessageLite> ListenableFuture<T> record(
+      Method method, MessageLite request, Supplier<ListenableFuture<T>> call) {
+    long start = System.nanoTime();
+    ListenableFuture<T> future = call.get();
+    Futures.addCallback(future, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(T response) {
+        write(method, request, micros(start), response);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        // Failed requests are not recorded, the replay will fail them as unknown.
+      }
+    });
+    return future;
+  }
+
+  private void write(Method method, MessageLite request, int latency, MessageLite response) {
+    byte[] requestData = request.toByteArray(), responseData = response.toByteArray();
+    synchronized (out) {
+      if (closed) {
+        return;
+      }
+      try {
+        writeHeader(method, requestData, latency);
+        writeBytes(responseData);
+      } catch (IOException e) {
+        LOG.log(WARNING, "Failed to record request", e);
+      }
+    }
+  }
+
+  private void write(Method method, MessageLite request, int latency, List<Result> results) {
+    byte[] requestData = request.toByteArray();
+    synchronized (out) {
+      if (closed) {
+        return;
+      }
+      try {
+        writeHeader(method, requestData, latency);
+        out.writeInt(results.size());
+        for (Result result : results) {
+          out.writeInt(result.latency);
+          writeBytes(result.response.toByteArray());
+        }
+      } catch (IOException e) {
+        LOG.log(WARNING, "Failed to record request", e);
+      }
+    }
+  }
+
+  private void writeHeader(Method method, byte[] request, int latency) throws IOException {
+    out.writeByte(method.ordinal());
+    out.writeInt(latency);
+    writeBytes(request);
+  }
+
+  private void writeBytes(byte[] data) throws IOException {
+    out.writeInt(data.length);
+    out.write(data);
+  }
+
+  private static int micros(long start) {
+    return (int)Math.min(Integer.MAX_VALUE,
+        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+  }
+
+  /**
+   * The recorded RPC methods. The ordinals are stored in the recording, so new methods must only
+   * be added at the end.
+   */
+  protected static enum Method {
+    GetServerInfo, Get, Set, Follow, BeginCPUProfile, EndCPUProfile, GetPerformanceCounters,
+    GetProfile, GetAvailableStringTables, GetStringTable, ImportCapture, LoadCapture,
+    ExportCapture, GetDevices, GetDevicesForReplay, GetFramebufferAttachment, Find;
+  }
+
+  private static class Result {
+    public final int latency;
+    public final Service.FindResponse response;
+
+    public Result(int latency, Service.FindResponse response) {
+      this.latency = latency;
+      this.response = response;
+    }
+  }
+}
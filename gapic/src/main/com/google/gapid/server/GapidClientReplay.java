@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import static com.google.gapid.util.Scheduler.EXECUTOR;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.logging.Level.INFO;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.log.Log;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.rpc.RpcException;
+import com.google.gapid.server.GapidClientRecorder.Method;
+import com.google.gapid.server.RequestScheduler.Priority;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageLite;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A {@link GapidClient} that serves the responses of a {@link GapidClientRecorder recording},
+ * without any server. Responses are delayed by their recorded latency multiplied by a scale, a
+ * scale of 0 serving them immediately. Requests that were issued multiple times in the recording
+ * are answered with the recorded responses in order, repeating the last one once exhausted.
+ * Requests that are not part of the recording fail with a {@link NotRecordedException}. The replay
+ * client takes the place of the RPC client, beneath the same caching and scheduling layers.
+ */
+public class GapidClientReplay implements GapidClient {
+  private static final Logger LOG = Logger.getLogger(GapidClientReplay.class.getName());
+
+  private final Map<Key, Responses> responses;
+  private final double latencyScale;
+
+  private GapidClientReplay(Map<Key, Responses> responses, double latencyScale) {
+    this.responses = responses;
+    this.latencyScale = latencyScale;
+  }
+
+  public static GapidClientReplay load(File file, double latencyScale) throws IOException {
+    Map<Key, Responses> responses = Maps.newHashMap();
+    int count = 0;
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+      if (in.readInt() != GapidClientRecorder.MAGIC ||
+          in.readInt() != GapidClientRecorder.VERSION) {
+        throw new IOException("Not a valid request recording: " + file);
+      }
+
+      Method[] methods = Method.values();
+      for (int method; (method = in.read()) >= 0; count++) {
+        if (method >= methods.length) {
+          throw new IOException("Invalid method in request recording: " + method);
+        }
+        int latency = in.readInt();
+        Key key = new Key(methods[method], readBytes(in));
+        Response response = (methods[method] == Method.Find) ?
+            new Response(latency, readResults(in)) : new Response(latency, readBytes(in));
+        responses.computeIfAbsent(key, k -> new Responses()).add(response);
+      }
+    } catch (EOFException e) {
+      // The recording was not closed properly, e.g. because the UI crashed. Use what was read.
+      LOG.log(INFO, "Request recording " + file + " is truncated after " + count + " requests");
+    }
+    LOG.log(INFO, "Loaded " + count + " recorded requests from " + file);
+    return new GapidClientReplay(responses, latencyScale);
+  }
+
+  private static ByteString readBytes(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    if (size < 0) {
+      throw new IOException("Invalid size in request recording: " + size);
+    }
+    byte[] data = new byte[size];
+    in.readFully(data);
+    return ByteString.copyFrom(data);
+  }
+
+  private static List<Response> readResults(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<Response> results = Lists.newArrayListWithCapacity(Math.max(0, count));
+    for (int i = 0; i < count; i++) {
+      int latency = in.readInt();
+      results.add(new Response(latency, readBytes(in)));
+    }
+    return results;
+  }
+
+  @Override
+  public ListenableFuture<Void> ping() {
+    return Futures.immediateFuture(null);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetServerInfoResponse> getServerInfo(
+      Service.GetServerInfoRequest request) {
+    return replay(
+        Method.GetServerInfo, request, Service.GetServerInfoResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.GetResponse> get(
+      Service.GetRequest request, Priority priority) {
+    return replay(Method.Get, request, Service.GetResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.SetResponse> set(Service.SetRequest request) {
+    return replay(Method.Set, request, Service.SetResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.FollowResponse> follow(
+      Service.FollowRequest request, Priority priority) {
+    return replay(Method.Follow, request, Service.FollowResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.BeginCPUProfileResponse> beginCPUProfile(
+      Service.BeginCPUProfileRequest request) {
+    return replay(
+        Method.BeginCPUProfile, request, Service.BeginCPUProfileResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.EndCPUProfileResponse> endCPUProfile(
+      Service.EndCPUProfileRequest request) {
+    return replay(
+        Method.EndCPUProfile, request, Service.EndCPUProfileResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.GetPerformanceCountersResponse> getPerformanceCounters(
+      Service.GetPerformanceCountersRequest request) {
+    return replay(Method.GetPerformanceCounters, request,
+        Service.GetPerformanceCountersResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.GetProfileResponse> getProfile(
+      Service.GetProfileRequest request) {
+    return replay(Method.GetProfile, request, Service.GetProfileResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.GetAvailableStringTablesResponse> getAvailableStringTables(
+      Service.GetAvailableStringTablesRequest request) {
+    return replay(Method.GetAvailableStringTables, request,
+        Service.GetAvailableStringTablesResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.GetStringTableResponse> getStringTable(
+      Service.GetStringTableRequest request) {
+    return replay(
+        Method.GetStringTable, request, Service.GetStringTableResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.ImportCaptureResponse> importCapture(
+      Service.ImportCaptureRequest request) {
+    return replay(
+        Method.ImportCapture, request, Service.ImportCaptureResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.LoadCaptureResponse> loadCapture(
+      Service.LoadCaptureRequest request) {
+    return replay(Method.LoadCapture, request, Service.LoadCaptureResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.ExportCaptureResponse> exportCapture(
+      Service.ExportCaptureRequest request) {
+    return replay(
+        Method.ExportCapture, request, Service.ExportCaptureResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.GetDevicesResponse> getDevices(
+      Service.GetDevicesRequest request) {
+    return replay(Method.GetDevices, request, Service.GetDevicesResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.GetDevicesForReplayResponse> getDevicesForReplay(
+      Service.GetDevicesForReplayRequest request) {
+    return replay(Method.GetDevicesForReplay, request,
+        Service.GetDevicesForReplayResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Service.GetFramebufferAttachmentResponse> getFramebufferAttachment(
+      Service.GetFramebufferAttachmentRequest request) {
+    return replay(Method.GetFramebufferAttachment, request,
+        Service.GetFramebufferAttachmentResponse.getDefaultInstance());
+  }
+
+  @Override
+  public ListenableFuture<Void> streamLog(Consumer<Log.Message> onLogMessage) {
+    // There is no server, so there are no server logs.
+    return Futures.immediateFuture(null);
+  }
+
+  @Override
+  public ListenableFuture<Void> streamSearch(
+      Service.FindRequest request, Consumer<Service.FindResponse> onResult) {
+    Response response = next(Method.Find, request);
+    if (response == null) {
+      return Futures.immediateFailedFuture(new NotRecordedException(Method.Find, request));
+    }
+
+    // The recorded latencies are relative to the start of the search, so each result is delayed
+    // by the time since the previous one.
+    ListenableFuture<Void> done = Futures.immediateFuture(null);
+    int last = 0;
+    for (Response result : response.results) {
+      int latency = result.latency - last;
+      done = Futures.transformAsync(done, ignored -> delay(latency, () -> {
+        onResult.accept(Service.FindResponse.parseFrom(result.data));
+        return null;
+      }));
+      last = result.latency;
+    }
+    int latency = response.latency - last;
+    return Futures.transformAsync(done, ignored -> delay(latency, () -> null));
+  }
+
+  private <T extends Message> ListenableFuture<T> replay(
+      Method method, MessageLite request, T prototype) {
+    Response response = next(method, request);
+    if (response == null) {
+      return Futures.immediateFailedFuture(new NotRecordedException(method, request));
+    }
+    return delay(response.latency, () -> {
+      @SuppressWarnings("unchecked")
+      T result = (T)prototype.getParserForType().parseFrom(response.data);
+      return result;
+    });
+  }
+
+  private Response next(Method method, MessageLite request) {
+    Responses recorded = responses.get(new Key(method, request.toByteString()));
+    return (recorded == null) ? null : recorded.next();
+  }
+
+  /**
+   * @return a future for the given value, computed after the given recorded latency, adjusted by
+   *     the latency scale, in microseconds.
+   */
+  private <T> ListenableFuture<T> delay(int latency, Parse<T> parse) {
+    long delay = (long)(latency * latencyScale);
+    if (delay <= 0) {
+      try {
+        return Futures.immediateFuture(parse.get());
+      } catch (InvalidProtocolBufferException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+    }
+    return EXECUTOR.schedule(parse::get, delay, MICROSECONDS);
+  }
+
+  /**
+   * Exception thrown when a request is made that is not part of the recording.
+   */
+  public static class NotRecordedException extends RpcException {
+    public NotRecordedException(Method method, MessageLite request) {
+      super("Request not in the recording: " + method + " " + request);
+    }
+  }
+
+  private static interface Parse<T> {
+    public T get() throws InvalidProtocolBufferException;
+  }
+
+  private static class Key {
+    public final Method method;
+    public final ByteString request;
+
+    public Key(Method method, ByteString request) {
+      this.method = method;
+      this.request = request;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key o = (Key)obj;
+      return method == o.method && request.equals(o.request);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(method, request);
+    }
+  }
+
+  private static class Response {
+    public final int latency;
+    public final ByteString data;
+    public final List<Response> results;
+
+    public Response(int latency, ByteString data) {
+      this.latency = latency;
+      this.data = data;
+      this.results = null;
+    }
+
+    public Response(int latency, List<Response> results) {
+      this.latency = latency;
+      this.data = null;
+      this.results = results;
+    }
+  }
+
+  private static class Responses {
+    private final List<Response> responses = Lists.newArrayList();
+    private int next = 0;
+
+    public void add(Response response) {
+      responses.add(response);
+    }
+
+    public synchronized Response next() {
+      Response response = responses.get(next);
+      next = Math.min(next + 1, responses.size() - 1);
+      return response;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.server.RequestScheduler.Priority;
+
+/**
+ * A {@link GapidClient} that orders the get and follow requests sent to another client by their
+ * {@link Priority}, using a {@link RequestScheduler}. The time the requests spend queued and the
+ * latency of the forwarded requests are recorded in the {@link RpcMetrics}.
+ */
+public class GapidClientScheduler extends ForwardingGapidClient {
+  private final RequestScheduler scheduler = new RequestScheduler();
+
+  public GapidClientScheduler(GapidClient delegate) {
+    super(delegate);
+  }
+
+  @Override
+  public ListenableFuture<Service.GetResponse> get(
+      Service.GetRequest request, Priority priority) {
+    RpcMetrics.Dispatch dispatch = RpcMetrics.queue("get", request.getPath());
+    return scheduler.submit(
+        priority, () -> dispatch.dispatched(delegate.get(request, priority)));
+  }
+
+  @Override
+  public ListenableFuture<Service.FollowResponse> follow(
+      Service.FollowRequest request, Priority priority) {
+    RpcMetrics.Dispatch dispatch = RpcMetrics.queue("follow", request.getPath());
+    return scheduler.submit(
+        priority, () -> dispatch.dispatched(delegate.follow(request, priority)));
+  }
+}
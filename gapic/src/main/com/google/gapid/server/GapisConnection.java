@@ -42,7 +42,7 @@ public abstract class GapisConnection implements Closeable {
     }
 
     @Override
-    public GapidClient createGapidClient(boolean caching) throws IOException {
+    public GapidClient createGapidClient() throws IOException {
       throw new IOException("Not connected");
     }
 
@@ -69,7 +69,7 @@ public abstract class GapisConnection implements Closeable {
 
   public abstract boolean isConnected();
 
-  public abstract GapidClient createGapidClient(boolean caching) throws IOException;
+  public abstract GapidClient createGapidClient() throws IOException;
 
   public static interface CloseListener {
     public void onClose(GapisConnection connection);
@@ -114,11 +114,10 @@ public abstract class GapisConnection implements Closeable {
     }
 
     @Override
-    public GapidClient createGapidClient(boolean caching) throws IOException {
+    public GapidClient createGapidClient() throws IOException {
       GapidGrpc.GapidFutureStub futureStub = GapidGrpc.newFutureStub(channel);
       GapidGrpc.GapidStub stub = GapidGrpc.newStub(channel);
-      GapidClient client = caching ? new GapidClientCache(futureStub, stub) :
-          new GapidClientGrpc(futureStub, stub);
+      GapidClient client = new GapidClientGrpc(futureStub, stub);
       if (heartbeatRateMS > 0) {
         new Heartbeat(client, heartbeatRateMS).start();
       }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Orders the RPCs sent to the server by {@link Priority}. Each priority class has a limit on the
+ * number of concurrent RPCs and a class is only fully dispatched once all higher classes have
+ * been. While higher classes are queued, each lower class still gets a minimum share of
+ * {@link #MIN_IN_FLIGHT} concurrent RPCs, so it is not starved. A request that is cancelled while
+ * still queued, e.g. because the image or tree item it was for has been unloaded, is dropped
+ * without ever being sent.
+ */
+public class RequestScheduler {
+  private static final int MIN_IN_FLIGHT = 1;
+
+  private final Deque<Request<?>>[] queues;
+  private final int[] inFlight;
+
+  @SuppressWarnings("unchecked")
+  public RequestScheduler() {
+    Priority[] priorities = Priority.values();
+    this.queues = new Deque[priorities.length];
+    this.inFlight = new int[priorities.length];
+    for (int i = 0; i < queues.length; i++) {
+      queues[i] = new ArrayDeque<Request<?>>();
+    }
+  }
+
+  /**
+   * Queues the given RPC with the given priority.
+   * @return a future for the result of the RPC. Cancelling it drops the RPC if it is still queued.
+   */
+  public <T> ListenableFuture<T> submit(Priority priority, Supplier<ListenableFuture<T>> rpc) {
+    Request<T> request = new Request<T>(priority, rpc);
+    request.result.addListener(() -> onDone(request), MoreExecutors.directExecutor());
+    synchronized (this) {
+      if (priority.newestFirst) {
+        queues[priority.ordinal()].addFirst(request);
+      } else {
+        queues[priority.ordinal()].addLast(request);
+      }
+    }
+    dispatch();
+    return request.result;
+  }
+
+  private void onDone(Request<?> request) {
+    synchronized (this) {
+      if (request.started) {
+        inFlight[request.priority.ordinal()]--;
+      } else {
+        // Cancelled while queued.
+        queues[request.priority.ordinal()].remove(request);
+      }
+    }
+    dispatch();
+  }
+
+  private void dispatch() {
+    List<Request<?>> toStart = Lists.newArrayList();
+    synchronized (this) {
+      boolean higherQueued = false;
+      for (Priority priority : Priority.values()) {
+        Deque<Request<?>> queue = queues[priority.ordinal()];
+        // Don't let lower priority requests go ahead of the queued ones, beyond their minimum.
+        int limit = higherQueued ? MIN_IN_FLIGHT : priority.maxInFlight;
+        while (!queue.isEmpty() && inFlight[priority.ordinal()] < limit) {
+          Request<?> request = queue.removeFirst();
+          request.started = true;
+          inFlight[priority.ordinal()]++;
+          toStart.add(request);
+        }
+        higherQueued |= !queue.isEmpty();
+      }
+    }
+
+    for (Request<?> request : toStart) {
+      request.start();
+    }
+  }
+
+  /**
+   * Request priority classes, from highest to lowest.
+   */
+  public static enum Priority {
+    /** Requests for the user's current selection. */
+    Interactive(8, false),
+    /** Requests for rows, images, etc. currently visible on screen. */
+    Visible(6, true),
+    /** Requests for data that is likely to be needed soon. */
+    Prefetch(3, true),
+    /** Everything else. */
+    Background(2, false);
+
+    public final int maxInFlight;
+    /** Whether the most recent requests are sent first, as they are the most likely relevant. */
+    public final boolean newestFirst;
+
+    private Priority(int maxInFlight, boolean newestFirst) {
+      this.maxInFlight = maxInFlight;
+      this.newestFirst = newestFirst;
+    }
+  }
+
+  private static class Request<T> {
+    public final Priority priority;
+    public final SettableFuture<T> result = SettableFuture.create();
+    private final Supplier<ListenableFuture<T>> rpc;
+    public boolean started = false;
+
+    public Request(Priority priority, Supplier<ListenableFuture<T>> rpc) {
+      this.priority = priority;
+      this.rpc = rpc;
+    }
+
+    public void start() {
+      if (result.isDone()) {
+        return;
+      }
+      try {
+        // Cancelling the result also cancels the RPC.
+        result.setFuture(rpc.get());
+      } catch (RuntimeException e) {
+        result.setException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.rpc.RpcException;
+import com.google.gapid.util.FutureCache;
+import com.google.protobuf.MessageLite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Collects per RPC method and path type statistics: latencies, payload sizes, cache hits and
+ * errors. Used to tell apart slow server responses, slow transfers and slow client side processing.
+ * Besides the end to end latency of a call, the time requests sent to the server spent queued in
+ * the {@link RequestScheduler} and the latency of the RPC itself, once dispatched, are recorded
+ * separately. The dump also includes the hit, miss and eviction counts of the response caches.
+ */
+public class RpcMetrics {
+  private static final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+  private static volatile Supplier<Map<String, FutureCache.Stats>> cacheStats = ImmutableMap::of;
+
+  private RpcMetrics() {
+  }
+
+  /**
+   * Starts tracking an RPC for the given method and path.
+   */
+  public static Call start(String method, Path.Any path, MessageLite request) {
+    Entry entry = getEntry(method, getPathType(path));
+    entry.requestBytes.addAndGet(request.getSerializedSize());
+    return new Call(entry);
+  }
+
+  /**
+   * Starts tracking an RPC for the given method, that is not path based.
+   */
+  public static Call start(String method, String type, MessageLite request) {
+    Entry entry = getEntry(method, type);
+    entry.requestBytes.addAndGet(request.getSerializedSize());
+    return new Call(entry);
+  }
+
+  /**
+   * Starts tracking the queued RPC for the given method and path, sent to the server.
+   */
+  public static Dispatch queue(String method, Path.Any path) {
+    return new Dispatch(getEntry(method, getPathType(path)));
+  }
+
+  /**
+   * Records a request that was looked up in the client side cache.
+   */
+  public static void cacheLookup(String method, Path.Any path) {
+    getEntry(method, getPathType(path)).cacheLookups.incrementAndGet();
+  }
+
+  /**
+   * Records a request that had to be sent to the server, because it was not in the cache.
+   */
+  public static void cacheMiss(String method, Path.Any path) {
+    getEntry(method, getPathType(path)).cacheMisses.incrementAndGet();
+  }
+
+  /**
+   * Sets the source of the response cache statistics included in the {@link #dump() dump}.
+   */
+  public static void setCacheStats(Supplier<Map<String, FutureCache.Stats>> stats) {
+    cacheStats = stats;
+  }
+
+  public static void reset() {
+    entries.clear();
+  }
+
+  /**
+   * @return a snapshot of the statistics, sorted by method and path type.
+   */
+  public static List<Snapshot> getSnapshot() {
+    List<Snapshot> result = Lists.newArrayList();
+    for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+      result.add(new Snapshot(entry.getKey(), entry.getValue()));
+    }
+    Collections.sort(result, (a, b) -> {
+      int r = a.method.compareTo(b.method);
+      return (r != 0) ? r : a.type.compareTo(b.type);
+    });
+    return result;
+  }
+
+  /**
+   * @return a human readable table of the current statistics.
+   */
+  public static String dump() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format(
+        "%-26s %-30s %8s %8s %9s %9s %9s %9s %9s %9s %9s %9s %12s %12s %7s  %s%n",
+        "Method", "Type", "Count", "Pending", "p50 ms", "p90 ms", "p99 ms", "Max ms",
+        "Queue p50", "Queue p90", "RPC p50", "RPC p90", "Req bytes", "Resp bytes", "Hit %",
+        "Errors"));
+    for (Snapshot s : getSnapshot()) {
+      sb.append(String.format(
+          "%-26s %-30s %8d %8d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f %12d %12d %7s  %s%n",
+          s.method, s.type, s.count, s.pending, s.p50Ms, s.p90Ms, s.p99Ms, s.maxMs,
+          s.queueP50Ms, s.queueP90Ms, s.rpcP50Ms, s.rpcP90Ms, s.requestBytes, s.responseBytes,
+          (s.cacheLookups == 0) ? "-" : String.format("%.1f", 100 * s.getCacheHitRate()),
+          s.errors.isEmpty() ? "-" : s.errors.toString()));
+    }
+
+    Map<String, FutureCache.Stats> caches = cacheStats.get();
+    if (!caches.isEmpty()) {
+      sb.append(String.format("%nResponse caches (since start)%n"));
+      sb.append(String.format("%-26s %12s %12s %12s %7s %14s%n",
+          "Cache", "Hits", "Misses", "Evictions", "Hit %", "Bytes"));
+      for (Map.Entry<String, FutureCache.Stats> e : caches.entrySet()) {
+        FutureCache.Stats s = e.getValue();
+        sb.append(String.format("%-26s %12d %12d %12d %7.1f %14d%n",
+            e.getKey(), s.hits, s.misses, s.evictions, 100 * s.getHitRate(), s.weight));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Writes the current statistics to the given file.
+   */
+  public static void dump(File file) throws IOException {
+    Files.write(dump(), file, UTF_8);
+  }
+
+  private static Entry getEntry(String method, String type) {
+    Key key = new Key(method, type);
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry();
+      Entry existing = entries.putIfAbsent(key, entry);
+      if (existing != null) {
+        entry = existing;
+      }
+    }
+    return entry;
+  }
+
+  private static String getPathType(Path.Any path) {
+    return path.getPathCase().name().toLowerCase();
+  }
+
+  /**
+   * @return the error category of the given RPC failure, corresponding to the error types of
+   *     the service API.
+   */
+  protected static String getErrorCategory(Throwable t) {
+    if (t instanceof CancellationException) {
+      return "cancelled";
+    } else if (t instanceof Client.InternalServerErrorException) {
+      return "internal";
+    } else if (t instanceof Client.InvalidArgumentException) {
+      return "invalid_argument";
+    } else if (t instanceof Client.InvalidPathException) {
+      return "invalid_path";
+    } else if (t instanceof Client.DataUnavailableException) {
+      return "data_unavailable";
+    } else if (t instanceof Client.PathNotFollowableException) {
+      return "path_not_followable";
+    } else if (t instanceof RpcException) {
+      return "rpc";
+    } else {
+      return "transport";
+    }
+  }
+
+  /**
+   * Tracks a single RPC.
+   */
+  public static class Call {
+    private final Entry entry;
+    private final long start;
+
+    protected Call(Entry entry) {
+      this.entry = entry;
+      this.start = System.nanoTime();
+      entry.pending.incrementAndGet();
+    }
+
+    /**
+     * Records the size of the raw server response, once available.
+     */
+    public <T extends MessageLite> ListenableFuture<T> response(ListenableFuture<T> future) {
+      Futures.addCallback(future, new FutureCallback<T>() {
+        @Override
+        public void onSuccess(T result) {
+          entry.responseBytes.addAndGet(result.getSerializedSize());
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          // Recorded by finish.
+        }
+      });
+      return future;
+    }
+
+    /**
+     * Records the latency and error category of the final result, once available.
+     */
+    public <T> ListenableFuture<T> finish(ListenableFuture<T> future) {
+      Futures.addCallback(future, new FutureCallback<T>() {
+        @Override
+        public void onSuccess(T result) {
+          done(null);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          done(getErrorCategory(t));
+        }
+      });
+      return future;
+    }
+
+    protected void done(String error) {
+      entry.pending.decrementAndGet();
+      if (error == null) {
+        entry.latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+      } else {
+        entry.getErrorCounter(error).incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Tracks the queue and RPC phases of a single RPC sent to the server.
+   */
+  public static class Dispatch {
+    private final Entry entry;
+    private final long queued;
+
+    protected Dispatch(Entry entry) {
+      this.entry = entry;
+      this.queued = System.nanoTime();
+    }
+
+    /**
+     * Records the time spent queued and starts timing the given, just dispatched, RPC.
+     */
+    public <T> ListenableFuture<T> dispatched(ListenableFuture<T> future) {
+      long start = System.nanoTime();
+      entry.queueWait.record(TimeUnit.NANOSECONDS.toMicros(start - queued));
+      Futures.addCallback(future, new FutureCallback<T>() {
+        @Override
+        public void onSuccess(T result) {
+          entry.rpcLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          // Recorded by the call.
+        }
+      });
+      return future;
+    }
+  }
+
+  /**
+   * Immutable copy of the statistics of a method and path type.
+   */
+  public static class Snapshot {
+    public final String method, type;
+    public final long count, pending;
+    public final double p50Ms, p90Ms, p99Ms, maxMs, meanMs;
+    public final double queueP50Ms, queueP90Ms, rpcP50Ms, rpcP90Ms;
+    public final long requestBytes, responseBytes;
+    public final long cacheLookups, cacheMisses;
+    public final Map<String, Long> errors;
+
+    protected Snapshot(Key key, Entry entry) {
+      this.method = key.method;
+      this.type = key.type;
+      this.count = entry.latency.getCount();
+      this.pending = entry.pending.get();
+      this.p50Ms = entry.latency.getPercentile(0.5) / 1000.0;
+      this.p90Ms = entry.latency.getPercentile(0.9) / 1000.0;
+      this.p99Ms = entry.latency.getPercentile(0.99) / 1000.0;
+      this.maxMs = entry.latency.getMax() / 1000.0;
+      this.meanMs = entry.latency.getMean() / 1000.0;
+      this.queueP50Ms = entry.queueWait.getPercentile(0.5) / 1000.0;
+      this.queueP90Ms = entry.queueWait.getPercentile(0.9) / 1000.0;
+      this.rpcP50Ms = entry.rpcLatency.getPercentile(0.5) / 1000.0;
+      this.rpcP90Ms = entry.rpcLatency.getPercentile(0.9) / 1000.0;
+      this.requestBytes = entry.requestBytes.get();
+      this.responseBytes = entry.responseBytes.get();
+      this.cacheLookups = entry.cacheLookups.get();
+      this.cacheMisses = entry.cacheMisses.get();
+      this.errors = entry.getErrors();
+    }
+
+    public double getCacheHitRate() {
+      return (cacheLookups == 0) ? 0 : (double)(cacheLookups - cacheMisses) / cacheLookups;
+    }
+  }
+
+  private static class Key {
+    public final String method, type;
+
+    public Key(String method, String type) {
+      this.method = method;
+      this.type = type;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key o = (Key)obj;
+      return method.equals(o.method) && type.equals(o.type);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(method, type);
+    }
+  }
+
+  private static class Entry {
+    public final Histogram latency = new Histogram();
+    public final Histogram queueWait = new Histogram();
+    public final Histogram rpcLatency = new Histogram();
+    public final AtomicLong pending = new AtomicLong();
+    public final AtomicLong requestBytes = new AtomicLong();
+    public final AtomicLong responseBytes = new AtomicLong();
+    public final AtomicLong cacheLookups = new AtomicLong();
+    public final AtomicLong cacheMisses = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> errors =
+        new ConcurrentHashMap<String, AtomicLong>();
+
+    public AtomicLong getErrorCounter(String category) {
+      AtomicLong counter = errors.get(category);
+      if (counter == null) {
+        counter = new AtomicLong();
+        AtomicLong existing = errors.putIfAbsent(category, counter);
+        if (existing != null) {
+          counter = existing;
+        }
+      }
+      return counter;
+    }
+
+    public Map<String, Long> getErrors() {
+      Map<String, Long> result = new TreeMap<String, Long>();
+      for (Map.Entry<String, AtomicLong> e : errors.entrySet()) {
+        result.put(e.getKey(), e.getValue().get());
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A log-linear histogram, in the style of an HDR histogram. Values are bucketed by their highest
+   * set bit and the next {@link #SUB_BUCKET_BITS} bits, giving a relative precision of ~6%.
+   */
+  private static class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts =
+        new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+      value = Math.max(0, value);
+      counts.incrementAndGet(index(value));
+      count.incrementAndGet();
+      sum.addAndGet(value);
+      max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    public double getMean() {
+      long n = count.get();
+      return (n == 0) ? 0 : (double)sum.get() / n;
+    }
+
+    public long getPercentile(double percentile) {
+      long n = count.get();
+      if (n == 0) {
+        return 0;
+      }
+      long target = Math.max(1, (long)Math.ceil(percentile * n)), seen = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        seen += counts.get(i);
+        if (seen >= target) {
+          return Math.min(lowerBound(i), max.get());
+        }
+      }
+      return max.get();
+    }
+
+    private static int index(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int)value;
+      }
+      int exp = 63 - Long.numberOfLeadingZeros(value);
+      int sub = (int)(value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int index) {
+      if (index < SUB_BUCKETS) {
+        return index;
+      }
+      int exp = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      int sub = index % SUB_BUCKETS;
+      return ((long)(SUB_BUCKETS | sub)) << (exp - SUB_BUCKET_BITS);
+    }
+  }
+}
@@ -1,30 +0,0 @@
-/*
- * Copyright (C) 2017 Google Inc.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package com.google.gapid.util;
-
-import java.math.BigInteger;
-
-/**
- * Sibling to {@link org.eclipse.swt.graphics.Point} that uses {@link BigInteger} coordinates.
- */
-public class BigPoint {
-  public final BigInteger x, y;
-
-  public BigPoint(BigInteger x, BigInteger y) {
-    this.x = x;
-    this.y = y;
-  }
-}
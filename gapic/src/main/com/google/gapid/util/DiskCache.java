@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.util;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of byte array values, stored in memory-mapped, append-only segment files.
+ * Entries are keyed by a group (e.g. the capture) and a key within that group. The in-memory index
+ * only holds a hash of the keys, the full key is stored with the entry and compared on look up.
+ * Once the number of segments exceeds the size limit, the oldest segment, and with it all its
+ * entries, is evicted and unmapped. Segment files that cannot be deleted right away are marked as
+ * stale and deleted the next time the cache is opened.
+ */
+public class DiskCache {
+  private static final Logger LOG = Logger.getLogger(DiskCache.class.getName());
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String STALE_SUFFIX = ".stale";
+  private static final int SEGMENT_MAGIC = 0x47434443; // GCDC
+  private static final int SEGMENT_VERSION = 2;
+  private static final int SEGMENT_HEADER_SIZE = 8;
+  private static final int MIN_SEGMENT_SIZE = 16 * 1024 * 1024;
+  private static final int MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+  private static final int MIN_SEGMENTS = 4;
+
+  private final File dir;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final Index index = new Index();
+  private final Deque<Segment> segments = new ArrayDeque<Segment>(); // Oldest first.
+
+  private DiskCache(File dir, int segmentSize, int maxSegments) {
+    this.dir = dir;
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+  }
+
+  /**
+   * Opens the cache in the given directory, loading the index of any existing segments.
+   */
+  public static DiskCache open(File dir, long maxBytes) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create cache directory " + dir);
+    }
+    int segmentSize = (int)Math.max(MIN_SEGMENT_SIZE,
+        Math.min(MAX_SEGMENT_SIZE, maxBytes / MIN_SEGMENTS));
+    DiskCache cache = new DiskCache(dir, segmentSize, (int)Math.max(1, maxBytes / segmentSize));
+    cache.load();
+    return cache;
+  }
+
+  /**
+   * @return the cached value for the given key or {@code null} if not in the cache.
+   */
+  public synchronized byte[] get(long group, byte[] key) {
+    long keyHash = hash(key);
+    long location = index.get(group, keyHash);
+    if (location == 0) {
+      return null;
+    }
+    Segment segment = getSegment(Index.segment(location));
+    return (segment == null) ? null : segment.read(Index.offset(location), group, keyHash, key);
+  }
+
+  /**
+   * Appends the given value to the cache. Values that don't fit into a segment are ignored.
+   */
+  public synchronized void put(long group, byte[] key, byte[] value) {
+    if (Segment.entrySize(key, value) > segmentSize - SEGMENT_HEADER_SIZE) {
+      return;
+    }
+
+    long keyHash = hash(key);
+    try {
+      Segment segment = segments.peekLast();
+      int offset = (segment == null) ? -1 : segment.append(group, keyHash, key, value);
+      if (offset < 0) {
+        segment = addSegment();
+        offset = segment.append(group, keyHash, key, value);
+      }
+      index.put(group, keyHash, Index.location(segment.id, offset));
+    } catch (IOException e) {
+      LOG.log(WARNING, "Failed to write to the disk cache", e);
+    }
+  }
+
+  private static long hash(byte[] key) {
+    return Hashing.murmur3_128().hashBytes(key).asLong();
+  }
+
+  private void load() throws IOException {
+    List<File> files = Lists.newArrayList();
+    for (File file : dir.listFiles()) {
+      if (file.getName().endsWith(STALE_SUFFIX)) {
+        // Left behind by a previous session that did not get to delete it.
+        delete(file);
+      } else if (file.getName().endsWith(SEGMENT_SUFFIX) && getSegmentId(file) >= 0) {
+        files.add(file);
+      }
+    }
+    files.sort((a, b) -> Integer.compare(getSegmentId(a), getSegmentId(b)));
+
+    for (File file : files) {
+      try {
+        Segment segment = Segment.open(file, getSegmentId(file));
+        segment.scan(index);
+        segments.addLast(segment);
+      } catch (IOException e) {
+        LOG.log(WARNING, "Discarding invalid disk cache segment " + file, e);
+        delete(file);
+      }
+    }
+    evict();
+  }
+
+  private Segment addSegment() throws IOException {
+    Segment last = segments.peekLast();
+    int id = (last == null) ? 0 : last.id + 1;
+    Segment segment = Segment.create(
+        new File(dir, String.format("%08d%s", id, SEGMENT_SUFFIX)), id, segmentSize);
+    segments.addLast(segment);
+    evict();
+    return segment;
+  }
+
+  private void evict() {
+    boolean evicted = false;
+    while (segments.size() > maxSegments) {
+      Segment segment = segments.removeFirst();
+      segment.unmap();
+      delete(segment.file);
+      evicted = true;
+    }
+    if (evicted) {
+      index.retain(segments.peekFirst().id);
+    }
+  }
+
+  private Segment getSegment(int id) {
+    for (Segment segment : segments) {
+      if (segment.id == id) {
+        return segment;
+      }
+    }
+    return null;
+  }
+
+  private static int getSegmentId(File file) {
+    String name = file.getName();
+    try {
+      return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Deletes the given file or, if that fails, e.g. because it is still mapped on a platform that
+   * does not allow deleting mapped files, marks it as stale, so it is deleted on the next start.
+   */
+  private static void delete(File file) {
+    if (file.delete() || !file.exists()) {
+      return;
+    }
+    File stale = file.getName().endsWith(STALE_SUFFIX) ? file :
+        new File(file.getParentFile(), file.getName() + STALE_SUFFIX);
+    if (stale == file || !file.renameTo(stale)) {
+      LOG.log(WARNING, "Failed to delete disk cache file " + file);
+      stale.deleteOnExit();
+    }
+  }
+
+  /**
+   * Releases the mapping of the given buffer right away, rather than once it is garbage collected,
+   * so its file can be deleted. The buffer must not be accessed afterwards. There is no public API
+   * for this, so it is done reflectively, falling back to the garbage collector if that fails.
+   */
+  protected static void unmap(MappedByteBuffer buffer) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner;
+      try {
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      } catch (NoSuchMethodException e) {
+        // Before Java 9, the buffer's cleaner has to be invoked directly.
+        Method getCleaner = buffer.getClass().getMethod("cleaner");
+        getCleaner.setAccessible(true);
+        Object cleaner = getCleaner.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+        return;
+      }
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buffer);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.log(FINE, "Failed to unmap a disk cache segment", e);
+    }
+  }
+
+  /**
+   * A single memory-mapped segment file. An entry consists of the size of its value, the CRC of
+   * its value, the group, the hash of the key, the size of the key, the key and finally the value.
+   * A zero size marks the end of the segment.
+   */
+  private static class Segment {
+    private static final int ENTRY_HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
+    public final File file;
+    public final int id;
+    private final MappedByteBuffer buffer;
+    private int end;
+
+    private Segment(File file, int id, MappedByteBuffer buffer, int end) {
+      this.file = file;
+      this.id = id;
+      this.buffer = buffer;
+      this.end = end;
+    }
+
+    public static Segment create(File file, int id, int size) throws IOException {
+      MappedByteBuffer buffer = map(file, size);
+      buffer.putInt(0, SEGMENT_MAGIC);
+      buffer.putInt(4, SEGMENT_VERSION);
+      return new Segment(file, id, buffer, SEGMENT_HEADER_SIZE);
+    }
+
+    public static Segment open(File file, int id) throws IOException {
+      MappedByteBuffer buffer = map(file, (int)Math.min(file.length(), MAX_SEGMENT_SIZE));
+      if (buffer.capacity() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != SEGMENT_MAGIC ||
+          buffer.getInt(4) != SEGMENT_VERSION) {
+        DiskCache.unmap(buffer);
+        throw new IOException("Invalid segment header");
+      }
+      return new Segment(file, id, buffer, SEGMENT_HEADER_SIZE);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    }
+
+    public static int entrySize(byte[] key, byte[] value) {
+      return ENTRY_HEADER_SIZE + key.length + value.length;
+    }
+
+    /**
+     * Adds all the entries of this segment to the given index.
+     */
+    public void scan(Index index) {
+      while (end + ENTRY_HEADER_SIZE <= buffer.capacity()) {
+        int size = buffer.getInt(end), keySize = buffer.getInt(end + 24);
+        if (size <= 0 || keySize < 0 ||
+            (long)end + ENTRY_HEADER_SIZE + keySize + size > buffer.capacity()) {
+          break;
+        }
+        index.put(buffer.getLong(end + 8), buffer.getLong(end + 16), Index.location(id, end));
+        end += ENTRY_HEADER_SIZE + keySize + size;
+      }
+    }
+
+    /**
+     * @return the offset of the appended entry or -1 if this segment is full.
+     */
+    public int append(long group, long keyHash, byte[] key, byte[] value) {
+      if (end + entrySize(key, value) > buffer.capacity()) {
+        return -1;
+      }
+
+      int offset = end;
+      ByteBuffer out = buffer.duplicate();
+      out.position(offset + ENTRY_HEADER_SIZE);
+      out.put(key);
+      out.put(value);
+      buffer.putInt(offset + 4, crc(value));
+      buffer.putLong(offset + 8, group);
+      buffer.putLong(offset + 16, keyHash);
+      buffer.putInt(offset + 24, key.length);
+      // Written last, so a partially written entry terminates the segment.
+      buffer.putInt(offset, value.length);
+      end += entrySize(key, value);
+      return offset;
+    }
+
+    /**
+     * @return the value of the entry at the given offset, or {@code null} if the entry is not for
+     *     the given key, e.g. because a different key has the same hash.
+     */
+    public byte[] read(int offset, long group, long keyHash, byte[] key) {
+      int size = buffer.getInt(offset);
+      if (buffer.getLong(offset + 8) != group || buffer.getLong(offset + 16) != keyHash ||
+          buffer.getInt(offset + 24) != key.length) {
+        return null;
+      }
+
+      ByteBuffer in = buffer.duplicate();
+      in.position(offset + ENTRY_HEADER_SIZE);
+      byte[] storedKey = new byte[key.length];
+      in.get(storedKey);
+      if (!Arrays.equals(storedKey, key)) {
+        return null;
+      }
+
+      byte[] result = new byte[size];
+      in.get(result);
+      if (crc(result) != buffer.getInt(offset + 4)) {
+        LOG.log(WARNING, "Corrupted disk cache entry in " + file + " at " + offset);
+        return null;
+      }
+      return result;
+    }
+
+    /**
+     * Releases the mapping of this segment. It must not be accessed afterwards.
+     */
+    public void unmap() {
+      DiskCache.unmap(buffer);
+    }
+
+    private static int crc(byte[] value) {
+      CRC32 crc = new CRC32();
+      crc.update(value);
+      return (int)crc.getValue();
+    }
+  }
+
+  /**
+   * Open addressing hash map from group and key hash to the entry location, stored in flat arrays
+   * to keep the per entry overhead small. A location of 0 marks an empty slot.
+   */
+  private static class Index {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] keys = new long[2 * INITIAL_CAPACITY]; // group, key hash pairs.
+    private long[] locations = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public static long location(int segment, int offset) {
+      return ((long)segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    public static int segment(long location) {
+      return (int)(location >>> 32);
+    }
+
+    public static int offset(long location) {
+      return (int)location;
+    }
+
+    public long get(long group, long key) {
+      for (int i = slot(group, key, locations.length); locations[i] != 0;
+          i = (i + 1) & (locations.length - 1)) {
+        if (keys[2 * i] == group && keys[2 * i + 1] == key) {
+          return locations[i];
+        }
+      }
+      return 0;
+    }
+
+    public void put(long group, long key, long location) {
+      if (2 * (size + 1) > locations.length) {
+        rehash(2 * locations.length, 0);
+      }
+      if (insert(keys, locations, group, key, location)) {
+        size++;
+      }
+    }
+
+    /**
+     * Removes all entries located in segments older than the given segment.
+     */
+    public void retain(int firstSegment) {
+      rehash(locations.length, firstSegment);
+    }
+
+    private void rehash(int capacity, int firstSegment) {
+      long[] newKeys = new long[2 * capacity];
+      long[] newLocations = new long[capacity];
+      int newSize = 0;
+      for (int i = 0; i < locations.length; i++) {
+        if (locations[i] != 0 && segment(locations[i]) >= firstSegment) {
+          insert(newKeys, newLocations, keys[2 * i], keys[2 * i + 1], locations[i]);
+          newSize++;
+        }
+      }
+      keys = newKeys;
+      locations = newLocations;
+      size = newSize;
+    }
+
+    /**
+     * @return whether a new entry was added, rather than an existing one replaced.
+     */
+    private static boolean insert(
+        long[] keys, long[] locations, long group, long key, long location) {
+      int i = slot(group, key, locations.length);
+      for (; locations[i] != 0; i = (i + 1) & (locations.length - 1)) {
+        if (keys[2 * i] == group && keys[2 * i + 1] == key) {
+          locations[i] = location;
+          return false;
+        }
+      }
+      keys[2 * i] = group;
+      keys[2 * i + 1] = key;
+      locations[i] = location;
+      return true;
+    }
+
+    private static int slot(long group, long key, int capacity) {
+      long hash = (group * 31 + key) * 0x9E3779B97F4A7C15L;
+      return (int)(hash >>> 32) & (capacity - 1);
+    }
+  }
+}
@@ -64,4 +64,26 @@ public class Float16 {
     return Float.intBitsToFloat(
         MANTISSA_LOOKUP[OFFSET_LOOKUP[upper] + lower] | EXPONENT_LOOKUP[upper]);
   }
+
+  /**
+   * Converts the given number of half-floats to floats. Whole images are converted this way, so
+   * rather than combining the three tables for each value, this looks the values up in a table of
+   * all 65536 half-floats, which is built on first use.
+   */
+  public static void shortBitsToFloat(
+      short[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+    float[] values = AllValues.VALUES;
+    for (int i = 0; i < count; i++) {
+      dst[dstOffset + i] = values[src[srcOffset + i] & 0xFFFF];
+    }
+  }
+
+  private static class AllValues {
+    public static final float[] VALUES = new float[1 << 16];
+    static {
+      for (int i = 0; i < VALUES.length; i++) {
+        VALUES[i] = shortBitsToFloat(i);
+      }
+    }
+  }
 }
@@ -19,28 +19,66 @@ import static com.google.gapid.util.Scheduler.EXECUTOR;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+/**
+ * Caches the results of asynchronous fetches. Concurrent requests for the same key, that are not
+ * yet in the cache, share a single in-flight fetch. The shared fetch is cancelled once all the
+ * requests waiting for it have been cancelled.
+ */
 public class FutureCache<K, V> {
   private final Cache<K, V> cache;
   private final Function<K, ListenableFuture<V>> fetcher;
   private final Predicate<V> shouldCache;
+  private final Weigher<K, V> weigher;
+  private final AtomicLong weight;
+  private final AtomicLong generation = new AtomicLong();
+  private final ConcurrentMap<K, Fetch<V>> inFlight = new ConcurrentHashMap<>();
 
   public FutureCache(
       Cache<K, V> cache, Function<K, ListenableFuture<V>> fetcher, Predicate<V> shouldCache) {
+    this(cache, fetcher, shouldCache, (k, v) -> 0, new AtomicLong());
+  }
+
+  private FutureCache(Cache<K, V> cache, Function<K, ListenableFuture<V>> fetcher,
+      Predicate<V> shouldCache, Weigher<K, V> weigher, AtomicLong weight) {
     this.cache = cache;
     this.fetcher = fetcher;
     this.shouldCache = shouldCache;
+    this.weigher = weigher;
+    this.weight = weight;
   }
 
-  public static <K, V> FutureCache<K, V> softCache(
+  /**
+   * Creates a cache that holds on to at most {@code maxWeight} worth of entries, as determined by
+   * the given {@link Weigher}, evicting the least recently used entries first.
+   */
+  public static <K, V> FutureCache<K, V> weightedCache(long maxWeight, Weigher<K, V> weigher,
       Function<K, ListenableFuture<V>> fetcher, Predicate<V> shouldCache) {
-    return new FutureCache<K, V>(
-        CacheBuilder.newBuilder().softValues().build(), fetcher, shouldCache);
+    AtomicLong weight = new AtomicLong();
+    Cache<K, V> cache = CacheBuilder.newBuilder()
+        // A single segment, as the weight limit is split across segments, which would otherwise
+        // cause entries larger than a segment's share to be evicted right away.
+        .concurrencyLevel(1)
+        .maximumWeight(maxWeight)
+        .weigher(weigher)
+        .removalListener((RemovalNotification<K, V> removed) ->
+            weight.addAndGet(-weigher.weigh(removed.getKey(), removed.getValue())))
+        .recordStats()
+        .build();
+    return new FutureCache<K, V>(cache, fetcher, shouldCache, weigher, weight);
   }
 
   public static <K, V> FutureCache<K, V> hardCache(
@@ -49,6 +87,14 @@ public class FutureCache<K, V> {
   }
 
   public ListenableFuture<V> get(K key) {
+    return get(key, fetcher);
+  }
+
+  /**
+   * Like {@link #get(Object)}, but uses the given fetcher, instead of the cache's, if a new fetch
+   * has to be started. Requests joining an already in-flight fetch don't use it.
+   */
+  public ListenableFuture<V> get(K key, Function<K, ListenableFuture<V>> fetcher) {
     // Look up the value in the cache using the executor.
     ListenableFuture<V> cacheLookUp = EXECUTOR.submit(() -> cache.getIfPresent(key));
     return Futures.transformAsync(cacheLookUp, fromCache -> {
@@ -56,17 +102,136 @@ public class FutureCache<K, V> {
         return Futures.immediateFuture(fromCache);
       }
 
-      return Futures.transform(fetcher.apply(key), value -> {
-        if (shouldCache.test(value)) {
+      return fetch(key, fetcher);
+    });
+  }
+
+  /**
+   * Returns a view of the in-flight fetch for the given key, starting a new one if there is none.
+   * Callers get their own view of the shared fetch, so cancelling one does not cancel it, unless
+   * it is the last one.
+   */
+  private ListenableFuture<V> fetch(K key, Function<K, ListenableFuture<V>> fetcher) {
+    while (true) {
+      Fetch<V> fetch = new Fetch<V>();
+      Fetch<V> existing = inFlight.putIfAbsent(key, fetch);
+      if (existing == null) {
+        ListenableFuture<V> view = fetch.newView();
+        start(key, fetch, fetcher);
+        return view;
+      }
+
+      ListenableFuture<V> view = existing.newView();
+      if (view != null) {
+        return view;
+      }
+      // The existing fetch has just been cancelled, replace it.
+      inFlight.remove(key, existing);
+    }
+  }
+
+  private void start(K key, Fetch<V> fetch, Function<K, ListenableFuture<V>> fetcher) {
+    SettableFuture<V> result = fetch.result;
+    result.addListener(() -> inFlight.remove(key, fetch), MoreExecutors.directExecutor());
+
+    // A fetch may have completed between the cache look up and registering this one.
+    V fromCache = cache.asMap().get(key);
+    if (fromCache != null) {
+      result.set(fromCache);
+      return;
+    }
+
+    long fetchGeneration = generation.get();
+    try {
+      result.setFuture(Futures.transform(fetcher.apply(key), value -> {
+        // Don't cache values fetched before the cache was invalidated.
+        if (shouldCache.test(value) && generation.get() == fetchGeneration) {
+          weight.addAndGet(weigher.weigh(key, value));
           cache.put(key, value);
         }
         return value;
-      });
-    });
+      }));
+    } catch (RuntimeException e) {
+      result.setException(e);
+    }
   }
 
   public V getIfPresent(K key) {
     return cache.getIfPresent(key);
   }
-}
 
+  /**
+   * Discards all cached values. Fetches that are still in flight complete, but their results are
+   * not cached and later requests start a new fetch.
+   */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    inFlight.clear();
+    cache.invalidateAll();
+  }
+
+  /**
+   * @return the current hit, miss, eviction and weight statistics of this cache. Only caches
+   *     created via {@link #weightedCache} record hits, misses and evictions.
+   */
+  public Stats getStats() {
+    return new Stats(cache.stats(), weight.get());
+  }
+
+  /**
+   * A shared in-flight fetch, counting the requests waiting for it.
+   */
+  private static class Fetch<V> {
+    public final SettableFuture<V> result = SettableFuture.create();
+    private int waiters = 0;
+
+    /**
+     * @return a new view of the fetch's result, or {@code null} if the fetch has been cancelled.
+     */
+    public synchronized ListenableFuture<V> newView() {
+      if (result.isCancelled()) {
+        return null;
+      }
+
+      waiters++;
+      ListenableFuture<V> view = Futures.nonCancellationPropagating(result);
+      view.addListener(() -> {
+        if (view.isCancelled()) {
+          removeWaiter();
+        }
+      }, MoreExecutors.directExecutor());
+      return view;
+    }
+
+    private synchronized void removeWaiter() {
+      if (--waiters == 0) {
+        result.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Snapshot of the statistics of a {@link FutureCache}.
+   */
+  public static class Stats {
+    public final long hits, misses, evictions, weight;
+
+    public Stats(CacheStats stats, long weight) {
+      this.hits = stats.hitCount();
+      this.misses = stats.missCount();
+      this.evictions = stats.evictionCount();
+      this.weight = weight;
+    }
+
+    public double getHitRate() {
+      long requests = hits + misses;
+      return (requests == 0) ? 1.0 : (double)hits / requests;
+    }
+
+    @Override
+    public String toString() {
+      return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions +
+          ", weight: " + weight;
+    }
+  }
+}
@@ -22,6 +22,8 @@ public interface Messages {
   public static final String NO_FRAMES_IN_CONTEXT = "No frames in selected context.";
   public static final String SELECT_ATOM = "Select a frame or command.";
   public static final String SELECT_DRAW_CALL = "Select a draw call.";
+  public static final String NO_PREVIOUS_COMMAND =
+      "The selected command is the first command. There is nothing to compare it to.";
   public static final String SELECT_MEMORY = "Select a command and observation or a pointer in the command list.";
   public static final String SELECT_TEXTURE = "Select a texture.";
   public static final String SELECT_OBSERVATION = "Select an observed memory range.";
@@ -51,4 +53,5 @@ public interface Messages {
   public static final String WELCOME_TITLE = WINDOW_TITLE;
   public static final String NO_REPLAY_DEVICE = "No replay device available for this capture.";
   public static final String SETTINGS_TITLE = "Modify Settings";
+  public static final String DIAGNOSTICS_TITLE = "RPC Statistics";
 }
@@ -15,6 +15,7 @@
  */
 package com.google.gapid.util;
 
+import com.google.common.collect.Lists;
 import com.google.common.primitives.UnsignedLongs;
 import com.google.gapid.image.Images;
 import com.google.gapid.models.ApiContext.FilteringContext;
@@ -26,8 +27,11 @@ import com.google.gapid.proto.service.box.Box;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.proto.service.vertex.Vertex;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
 import com.google.protobuf.TextFormat;
 
+import java.util.List;
+
 /**
  * Path utilities.
  */
@@ -80,6 +84,24 @@ public class Paths {
         .build();
   }
 
+  /**
+   * @return the command after which the state is the state before the given command, or
+   *     {@code null} if the given command is the first command of the capture. The first
+   *     sub-command of a command is preceded by the command before its parent.
+   */
+  public static Path.Command previousCommand(Path.Command command) {
+    List<Long> indices = Lists.newArrayList(command.getIndicesList());
+    while (!indices.isEmpty()) {
+      int last = indices.size() - 1;
+      if (indices.get(last) > 0) {
+        indices.set(last, indices.get(last) - 1);
+        return command.toBuilder().clearIndices().addAllIndices(indices).build();
+      }
+      indices.remove(last);
+    }
+    return null;
+  }
+
   /**
    * Compares a and b, returning -1 if a comes before b, 1 if b comes before a and 0 if they
    * are equal.
@@ -354,12 +376,61 @@ public class Paths {
         .build();
   }
 
+  /**
+   * @return a path to the given range of bytes of the given blob. A size of 0 refers to all the
+   *     bytes from the offset to the end of the blob.
+   */
+  public static Path.Any blob(Image.ID id, long offset, long size) {
+    return Path.Any.newBuilder()
+        .setBlob(Path.Blob.newBuilder()
+            .setId(Path.ID.newBuilder()
+                .setData(id.getData()))
+            .setOffset(offset)
+            .setSize(size))
+        .build();
+  }
+
+  /**
+   * @return a path to the given number of rows of the given blob, each row being size bytes long
+   *     and starting stride bytes after the previous one, the first starting at the offset.
+   */
+  public static Path.Any blob(Image.ID id, long offset, long size, long rows, long stride) {
+    return Path.Any.newBuilder()
+        .setBlob(Path.Blob.newBuilder()
+            .setId(Path.ID.newBuilder()
+                .setData(id.getData()))
+            .setOffset(offset)
+            .setSize(size)
+            .setRows(rows)
+            .setStride(stride))
+        .build();
+  }
+
   public static Path.Any device(Path.Device device) {
     return Path.Any.newBuilder()
         .setDevice(device)
         .build();
   }
 
+  /**
+   * @return the capture the given path is relative to, or {@code null} if the path is not relative
+   *     to a capture (e.g. blob or device paths).
+   */
+  public static Path.Capture findCapture(Message path) {
+    if (path instanceof Path.Capture) {
+      return (Path.Capture)path;
+    }
+    for (Object field : path.getAllFields().values()) {
+      if (field instanceof Message) {
+        Path.Capture capture = findCapture((Message)field);
+        if (capture != null) {
+          return capture;
+        }
+      }
+    }
+    return null;
+  }
+
   public static Path.State findState(Path.Any path) {
     switch (path.getPathCase()) {
       case STATE: return path.getState();
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.util;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedLongs;
+import com.google.gapid.proto.service.Service.MemoryRange;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Immutable index of items covering {@link MemoryRange memory ranges}, which may overlap. The items
+ * are kept sorted by the base of their range and form an implicit, balanced, interval tree: the
+ * root of the items in [lo, hi) is the item at their middle, with the items before it as its left
+ * and the items after it as its right subtree. Every node stores the maximum end of the ranges in
+ * its subtree, so that lookups skip the subtrees that cannot contain any matches. Looking up the
+ * item containing an address takes logarithmic time, and the items overlapping a range take
+ * logarithmic time per item found, regardless of how long the ranges are.
+ */
+public class RangeIndex<T> {
+  private static final RangeIndex<?> EMPTY =
+      new RangeIndex<Object>(new Object[0], new long[0], new long[0]);
+
+  private final Object[] items;
+  private final long[] bases;
+  private final long[] ends;
+  /** The maximum, unsigned, end of the ranges in the subtree rooted at each index. */
+  private final long[] maxEnds;
+
+  private RangeIndex(Object[] items, long[] bases, long[] ends) {
+    this.items = items;
+    this.bases = bases;
+    this.ends = ends;
+    this.maxEnds = new long[ends.length];
+    computeMaxEnds(0, ends.length);
+  }
+
+  /**
+   * Computes the {@link #maxEnds} of the subtree of the items in [lo, hi).
+   *
+   * @return the maximum end of the subtree, or 0 if it is empty.
+   */
+  private long computeMaxEnds(int lo, int hi) {
+    if (lo >= hi) {
+      return 0;
+    }
+    int mid = (lo + hi) >>> 1;
+    maxEnds[mid] =
+        UnsignedLongs.max(ends[mid], computeMaxEnds(lo, mid), computeMaxEnds(mid + 1, hi));
+    return maxEnds[mid];
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <T> RangeIndex<T> empty() {
+    return (RangeIndex<T>)EMPTY;
+  }
+
+  public static RangeIndex<MemoryRange> of(List<MemoryRange> ranges) {
+    return of(ranges, Function.identity());
+  }
+
+  public static <T> RangeIndex<T> of(List<T> items, Function<T, MemoryRange> getRange) {
+    if (items.isEmpty()) {
+      return empty();
+    }
+
+    MemoryRange[] ranges = new MemoryRange[items.size()];
+    Integer[] order = new Integer[items.size()];
+    for (int i = 0; i < ranges.length; i++) {
+      ranges[i] = getRange.apply(items.get(i));
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparing(
+        (Integer i) -> ranges[i].getBase(), UnsignedLongs::compare));
+
+    Object[] sortedItems = new Object[ranges.length];
+    long[] bases = new long[ranges.length], ends = new long[ranges.length];
+    for (int i = 0; i < ranges.length; i++) {
+      MemoryRange range = ranges[order[i]];
+      sortedItems[i] = items.get(order[i]);
+      bases[i] = range.getBase();
+      ends[i] = range.getBase() + range.getSize();
+      if (range.getSize() != 0 && UnsignedLongs.compare(ends[i], bases[i]) <= 0) {
+        // The range ends at the very top of the address space.
+        ends[i] = -1L;
+      }
+    }
+    return new RangeIndex<T>(sortedItems, bases, ends);
+  }
+
+  public int size() {
+    return items.length;
+  }
+
+  public boolean isEmpty() {
+    return items.length == 0;
+  }
+
+  /**
+   * @return the item with the highest base whose range contains the given address, or
+   *     {@code null} if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  public T find(long address) {
+    int index = find(0, items.length, address);
+    return (index < 0) ? null : (T)items[index];
+  }
+
+  /**
+   * @return the index of the item with the highest base in the subtree of the items in [lo, hi)
+   *     whose range contains the given address, or -1 if there is none.
+   */
+  private int find(int lo, int hi, long address) {
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (UnsignedLongs.compare(maxEnds[mid], address) <= 0) {
+        // None of the ranges of this subtree reach the address.
+        return -1;
+      } else if (UnsignedLongs.compare(bases[mid], address) > 0) {
+        // This item, and all the ones after it, start after the address.
+        hi = mid;
+        continue;
+      }
+
+      // The items after this one have higher bases, so they are searched first.
+      int result = find(mid + 1, hi, address);
+      if (result >= 0) {
+        return result;
+      } else if (UnsignedLongs.compare(ends[mid], address) > 0) {
+        return mid;
+      }
+      hi = mid;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the items whose ranges overlap the range from start (inclusive) to end (exclusive), in
+   *     ascending order of their bases.
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> getOverlapping(long start, long end) {
+    if (isEmpty() || UnsignedLongs.compare(start, end) >= 0) {
+      return Collections.emptyList();
+    }
+
+    List<T> result = Lists.newArrayList();
+    collectOverlapping(0, items.length, start, end, result);
+    return result;
+  }
+
+  /**
+   * Adds the items of the subtree of the items in [lo, hi) whose ranges overlap the range from
+   * start (inclusive) to end (exclusive) to the given list, in ascending order of their bases.
+   */
+  @SuppressWarnings("unchecked")
+  private void collectOverlapping(int lo, int hi, long start, long end, List<T> result) {
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (UnsignedLongs.compare(maxEnds[mid], start) <= 0) {
+        // None of the ranges of this subtree reach the start.
+        return;
+      }
+      collectOverlapping(lo, mid, start, end, result);
+      if (UnsignedLongs.compare(bases[mid], end) >= 0) {
+        // This item, and all the ones after it, start at or after the end.
+        return;
+      } else if (UnsignedLongs.compare(ends[mid], start) > 0) {
+        result.add((T)items[mid]);
+      }
+      lo = mid + 1;
+    }
+  }
+}
@@ -24,6 +24,9 @@ public class Streams {
   // U8 represents a 8-bit unsigned, integer.
   public static final Stream.DataType U8 = newInt(false, 8);
 
+  // F16 represents a 16-bit signed, floating-point number.
+  public static final Stream.DataType F16 = newFloat(true, 5, 10);
+
   // F32 represents a 32-bit signed, floating-point number.
   public static final Stream.DataType F32 = newFloat(true, 7, 24);
 
@@ -91,6 +94,32 @@ public class Streams {
           .setSampling(LINEAR))
       .build();
 
+  public static final Stream.Format FMT_RGBA_HALF = Stream.Format.newBuilder()
+      .addComponents(Stream.Component.newBuilder()
+          .setChannel(Stream.Channel.Red)
+          .setDataType(F16)
+          .setSampling(LINEAR))
+      .addComponents(Stream.Component.newBuilder()
+          .setChannel(Stream.Channel.Green)
+          .setDataType(F16)
+          .setSampling(LINEAR))
+      .addComponents(Stream.Component.newBuilder()
+          .setChannel(Stream.Channel.Blue)
+          .setDataType(F16)
+          .setSampling(LINEAR))
+      .addComponents(Stream.Component.newBuilder()
+          .setChannel(Stream.Channel.Alpha)
+          .setDataType(F16)
+          .setSampling(LINEAR))
+      .build();
+
+  public static final Stream.Format FMT_LUMINANCE_HALF = Stream.Format.newBuilder()
+      .addComponents(Stream.Component.newBuilder()
+          .setChannel(Stream.Channel.Luminance)
+          .setDataType(F16)
+          .setSampling(LINEAR))
+      .build();
+
   public static final Stream.Format FMT_LUMINANCE_FLOAT = Stream.Format.newBuilder()
       .addComponents(Stream.Component.newBuilder()
           .setChannel(Stream.Channel.Luminance)
@@ -105,6 +134,13 @@ public class Streams {
           .setSampling(LINEAR_NORMALIZED))
       .build();
 
+  public static final Stream.Format FMT_DEPTH_HALF = Stream.Format.newBuilder()
+      .addComponents(Stream.Component.newBuilder()
+          .setChannel(Stream.Channel.Depth)
+          .setDataType(F16)
+          .setSampling(LINEAR))
+      .build();
+
   public static final Stream.Format FMT_DEPTH_FLOAT = Stream.Format.newBuilder()
       .addComponents(Stream.Component.newBuilder()
           .setChannel(Stream.Channel.Depth)
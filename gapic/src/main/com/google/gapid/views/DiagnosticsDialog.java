@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.views;
+
+import static java.util.logging.Level.WARNING;
+
+import com.google.gapid.server.RpcMetrics;
+import com.google.gapid.util.Messages;
+import com.google.gapid.widgets.Theme;
+
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.TitleAreaDialog;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Dialog showing the {@link RpcMetrics RPC statistics} and allowing them to be saved to a file,
+ * e.g. to be attached to a bug report.
+ */
+public class DiagnosticsDialog extends TitleAreaDialog {
+  private static final Logger LOG = Logger.getLogger(DiagnosticsDialog.class.getName());
+
+  private static final int REFRESH_ID = IDialogConstants.CLIENT_ID;
+  private static final int RESET_ID = IDialogConstants.CLIENT_ID + 1;
+  private static final int SAVE_ID = IDialogConstants.CLIENT_ID + 2;
+
+  private final Theme theme;
+  private Text text;
+
+  public DiagnosticsDialog(Shell parent, Theme theme) {
+    super(parent);
+    this.theme = theme;
+  }
+
+  public static void showDiagnosticsDialog(Shell shell, Theme theme) {
+    new DiagnosticsDialog(shell, theme).open();
+  }
+
+  @Override
+  public void create() {
+    super.create();
+    setTitle(Messages.DIAGNOSTICS_TITLE);
+    setMessage("Latency, payload size, cache and error statistics of the server requests.");
+  }
+
+  @Override
+  protected boolean isResizable() {
+    return true;
+  }
+
+  @Override
+  protected void configureShell(Shell newShell) {
+    super.configureShell(newShell);
+    newShell.setText(Messages.DIAGNOSTICS_TITLE);
+  }
+
+  @Override
+  protected Control createDialogArea(Composite parent) {
+    Composite area = (Composite)super.createDialogArea(parent);
+
+    text = new Text(area, SWT.MULTI | SWT.READ_ONLY | SWT.BORDER | SWT.H_SCROLL | SWT.V_SCROLL);
+    GridData data = new GridData(SWT.FILL, SWT.FILL, true, true);
+    data.widthHint = 900;
+    data.heightHint = 400;
+    text.setLayoutData(data);
+    text.setFont(theme.getMonoSpaceFont());
+    refresh();
+
+    return area;
+  }
+
+  private void refresh() {
+    text.setText(RpcMetrics.dump());
+  }
+
+  @Override
+  protected void createButtonsForButtonBar(Composite parent) {
+    createButton(parent, REFRESH_ID, "Refresh", false);
+    createButton(parent, RESET_ID, "Reset", false);
+    createButton(parent, SAVE_ID, "Save...", false);
+    createButton(parent, IDialogConstants.OK_ID, IDialogConstants.CLOSE_LABEL, true);
+  }
+
+  @Override
+  protected void buttonPressed(int buttonId) {
+    switch (buttonId) {
+      case REFRESH_ID:
+        refresh();
+        break;
+      case RESET_ID:
+        RpcMetrics.reset();
+        refresh();
+        break;
+      case SAVE_ID:
+        save();
+        break;
+      default:
+        super.buttonPressed(buttonId);
+    }
+  }
+
+  private void save() {
+    FileDialog dialog = new FileDialog(getShell(), SWT.SAVE);
+    dialog.setText("Save RPC statistics...");
+    dialog.setFileName("gapic-rpc-stats.txt");
+    dialog.setOverwrite(true);
+    String file = dialog.open();
+    if (file != null) {
+      try {
+        RpcMetrics.dump(new File(file));
+      } catch (IOException e) {
+        LOG.log(WARNING, "Failed to save the RPC statistics", e);
+        MessageDialog.openError(getShell(), "Error", "Failed to save the RPC statistics.");
+      }
+    }
+  }
+}
@@ -19,12 +19,17 @@ import static com.google.gapid.util.Loadable.MessageType.Error;
 import static com.google.gapid.util.Loadable.MessageType.Info;
 import static com.google.gapid.widgets.Widgets.createBaloonToolItem;
 import static com.google.gapid.widgets.Widgets.createComposite;
+import static com.google.gapid.widgets.Widgets.createLabel;
 import static com.google.gapid.widgets.Widgets.createSeparator;
 import static com.google.gapid.widgets.Widgets.createToggleToolItem;
 import static com.google.gapid.widgets.Widgets.exclusiveSelection;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.image.FetchedImage;
+import com.google.gapid.image.Image;
+import com.google.gapid.image.ImageDiff;
 import com.google.gapid.image.MultiLevelImage;
 import com.google.gapid.models.AtomStream;
 import com.google.gapid.models.AtomStream.AtomIndex;
@@ -43,27 +48,32 @@ import com.google.gapid.rpc.SingleInFlight;
 import com.google.gapid.rpc.UiErrorCallback;
 import com.google.gapid.server.Client;
 import com.google.gapid.server.Client.DataUnavailableException;
+import com.google.gapid.util.FutureCache;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.Messages;
+import com.google.gapid.util.Paths;
 import com.google.gapid.widgets.ImagePanel;
 import com.google.gapid.widgets.Theme;
 import com.google.gapid.widgets.Widgets;
 
 import org.eclipse.swt.SWT;
-import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.ToolBar;
 import org.eclipse.swt.widgets.ToolItem;
 
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 
 /**
- * View that displays the framebuffer at the current selection in an {@link ImagePanel}.
+ * View that displays the framebuffer at the current selection in an {@link ImagePanel}. It can
+ * also show the {@link ImageDiff difference} between the framebuffer before and after the
+ * selected command, to help find the command that broke a frame.
  */
 public class FramebufferView extends Composite
     implements Tab, Capture.Listener, Devices.Listener, AtomStream.Listener {
@@ -84,29 +94,45 @@ public class FramebufferView extends Composite
   private static final Service.UsageHints HINTS = Service.UsageHints.newBuilder()
       .setPrimary(true)
       .build();
+  /**
+   * The number of recently fetched framebuffers to keep. Comparing a command to its predecessor,
+   * then selecting the next command, reuses the already decoded framebuffer of the former.
+   */
+  private static final int FRAMEBUFFER_CACHE_SIZE = 4;
 
   private final Client client;
   private final Models models;
   private final SingleInFlight rpcController = new SingleInFlight();
+  private final FutureCache<FramebufferKey, FetchedImage> framebuffers;
   protected final ImagePanel imagePanel;
   protected final Loadable loading;
+  private final Label diffSummary;
   private RenderSettings renderSettings = RENDER_SHADED;
   private FramebufferAttachment target = FramebufferAttachment.Color0;
+  private boolean showDiff = false;
   private ToolItem targetItem;
 
   public FramebufferView(Composite parent, Client client, Models models, Widgets widgets) {
     super(parent, SWT.NONE);
     this.client = client;
     this.models = models;
+    this.framebuffers = new FutureCache<FramebufferKey, FetchedImage>(
+        CacheBuilder.newBuilder().maximumSize(FRAMEBUFFER_CACHE_SIZE).build(),
+        key -> FetchedImage.load(client, getImageInfoPath(key)), image -> true);
 
     setLayout(new GridLayout(2, false));
 
     ToolBar toolBar = createToolBar(widgets.theme);
     imagePanel = new ImagePanel(this, widgets);
     loading = imagePanel.getLoading();
+    diffSummary = createLabel(this, "");
 
     toolBar.setLayoutData(new GridData(SWT.LEFT, SWT.FILL, false, true));
     imagePanel.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
+    GridData summaryData = new GridData(SWT.FILL, SWT.BOTTOM, true, false, 2, 1);
+    summaryData.exclude = true;
+    diffSummary.setLayoutData(summaryData);
+    diffSummary.setVisible(false);
 
     imagePanel.createToolbar(toolBar, widgets.theme, true);
     // Work around for https://bugs.eclipse.org/bugs/show_bug.cgi?id=517480
@@ -159,6 +185,12 @@ public class FramebufferView extends Composite
           updateBuffer();
         }, "Render wireframe geometry"));
     createSeparator(bar);
+    ToolItem diffItem = createToggleToolItem(bar, null, e -> {
+      showDiff = ((ToolItem)e.widget).getSelection();
+      updateBuffer();
+    }, "Show the difference to the framebuffer before the selected command");
+    diffItem.setText("\u0394");
+    createSeparator(bar);
     return bar;
   }
 
@@ -205,7 +237,8 @@ public class FramebufferView extends Composite
     updateBuffer();
   }
 
-  private void updateRenderTarget(FramebufferAttachment attachment, Image icon) {
+  private void updateRenderTarget(
+      FramebufferAttachment attachment, org.eclipse.swt.graphics.Image icon) {
     target = attachment;
     targetItem.setImage(icon);
     updateBuffer();
@@ -213,14 +246,16 @@ public class FramebufferView extends Composite
 
   private void updateBuffer() {
     AtomIndex atomPath = models.atoms.getSelectedAtoms();
+    setDiffSummary(null);
     if (atomPath == null) {
       loading.showMessage(Info, Messages.SELECT_ATOM);
     } else if (!models.devices.hasReplayDevice()) {
       loading.showMessage(Error, Messages.NO_REPLAY_DEVICE);
+    } else if (showDiff) {
+      updateDiff(atomPath.getCommand());
     } else {
       loading.startLoading();
-      rpcController.start().listen(
-          FetchedImage.load(client, getImageInfoPath(atomPath.getCommand())),
+      rpcController.start().listen(framebuffers.get(getKey(atomPath.getCommand())),
           new UiErrorCallback<FetchedImage, MultiLevelImage, Loadable.Message>(this, LOG) {
         @Override
         protected ResultOrError<MultiLevelImage, Loadable.Message> onRpcThread(
@@ -247,8 +282,102 @@ public class FramebufferView extends Composite
     }
   }
 
-  private ListenableFuture<ImageInfo> getImageInfoPath(Path.Command atomPath) {
+  private void updateDiff(Path.Command after) {
+    Path.Command before = Paths.previousCommand(after);
+    if (before == null) {
+      loading.showMessage(Info, Messages.NO_PREVIOUS_COMMAND);
+      return;
+    }
+
+    loading.startLoading();
+    rpcController.start().listen(ImageDiff.compare(getFirstLevel(before), getFirstLevel(after)),
+        new UiErrorCallback<ImageDiff, ImageDiff, Loadable.Message>(this, LOG) {
+      @Override
+      protected ResultOrError<ImageDiff, Loadable.Message> onRpcThread(
+          Rpc.Result<ImageDiff> result) throws RpcException, ExecutionException {
+        try {
+          return success(result.get());
+        } catch (DataUnavailableException e) {
+          return error(Loadable.Message.info(e));
+        } catch (RpcException e) {
+          return error(Loadable.Message.error(e));
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IllegalArgumentException) {
+            // The framebuffer was resized by the command.
+            return error(Loadable.Message.info(e.getCause().getMessage()));
+          }
+          throw e;
+        }
+      }
+
+      @Override
+      protected void onUiThreadSuccess(ImageDiff result) {
+        imagePanel.setImage(result.getImage());
+        setDiffSummary(result);
+      }
+
+      @Override
+      protected void onUiThreadError(Loadable.Message message) {
+        loading.showMessage(message);
+      }
+    });
+  }
+
+  private ListenableFuture<Image> getFirstLevel(Path.Command command) {
+    return Futures.transformAsync(framebuffers.get(getKey(command)), image -> image.getLevel(0));
+  }
+
+  private void setDiffSummary(ImageDiff diff) {
+    GridData data = (GridData)diffSummary.getLayoutData();
+    data.exclude = diff == null;
+    diffSummary.setVisible(diff != null);
+    diffSummary.setText((diff == null) ? "" :
+        diff + ", changed regions: " + diff.changedRegions.size());
+    requestLayout();
+  }
+
+  private FramebufferKey getKey(Path.Command command) {
+    return new FramebufferKey(
+        models.devices.getReplayDevice(), command, target, renderSettings);
+  }
+
+  private ListenableFuture<ImageInfo> getImageInfoPath(FramebufferKey key) {
     return client.getFramebufferAttachment(
-        models.devices.getReplayDevice(), atomPath, target, renderSettings, HINTS);
+        key.device, key.command, key.attachment, key.settings, HINTS);
+  }
+
+  /**
+   * The parameters of a framebuffer request, identifying a framebuffer in the cache.
+   */
+  private static class FramebufferKey {
+    public final Path.Device device;
+    public final Path.Command command;
+    public final FramebufferAttachment attachment;
+    public final RenderSettings settings;
+
+    public FramebufferKey(Path.Device device, Path.Command command,
+        FramebufferAttachment attachment, RenderSettings settings) {
+      this.device = device;
+      this.command = command;
+      this.attachment = attachment;
+      this.settings = settings;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof FramebufferKey)) {
+        return false;
+      }
+      FramebufferKey o = (FramebufferKey)obj;
+      return Objects.equals(device, o.device) && Objects.equals(command, o.command) &&
+          attachment == o.attachment && Objects.equals(settings, o.settings);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(device, command, attachment, settings);
+    }
   }
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.views;
+
+import static com.google.gapid.util.Ranges.memory;
+import static com.google.gapid.util.Scheduler.EXECUTOR;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.server.RequestScheduler.Priority;
+import com.google.gapid.util.FutureCache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Computes which bytes of a memory pool have changed between a baseline command and other
+ * commands. Memory is compared a page at a time, where a page is any memory path. Both versions of
+ * a page are fetched through a shared page cache. Once the hash of a baseline page is known,
+ * pages with an equal hash are skipped without comparing their bytes. The hashes are kept in a
+ * cache shared by all diffs and baseline pages are hashed in the background on their first
+ * comparison, so that stepping through the commands only hashes the baseline pages once.
+ */
+public class MemoryDiff {
+  /**
+   * The number of pages whose changes are kept.
+   */
+  private static final int CHANGES_CACHE_SIZE = 1024;
+  /**
+   * Masks selecting the bytes of a little endian long whose bits are set in the index.
+   */
+  private static final long[] BYTE_MASKS = new long[256];
+  static {
+    for (int i = 0; i < BYTE_MASKS.length; i++) {
+      for (int b = 0; b < 8; b++) {
+        if ((i & (1 << b)) != 0) {
+          BYTE_MASKS[i] |= 0xFFL << (8 * b);
+        }
+      }
+    }
+  }
+
+  public final Path.Command baseline;
+  private final MemoryPageCache pages;
+  private final Cache<Path.Any, HashCode> hashes;
+  private final FutureCache<Path.Any, List<Service.MemoryRange>> changes;
+
+  public MemoryDiff(
+      Path.Command baseline, MemoryPageCache pages, Cache<Path.Any, HashCode> hashes) {
+    this.baseline = baseline;
+    this.pages = pages;
+    this.hashes = hashes;
+    this.changes = new FutureCache<Path.Any, List<Service.MemoryRange>>(
+        CacheBuilder.newBuilder().maximumSize(CHANGES_CACHE_SIZE).build(),
+        page -> fetchChanges(page, Priority.Interactive), ranges -> true);
+  }
+
+  /**
+   * @return a new cache for page hashes, to be shared by diffs of the same capture.
+   */
+  public static Cache<Path.Any, HashCode> createHashCache(long maxPages) {
+    return CacheBuilder.newBuilder().maximumSize(maxPages).build();
+  }
+
+  /**
+   * @return the changed ranges, relative to the page's address, of the given memory page after its
+   *     command compared to after the baseline command.
+   */
+  public ListenableFuture<List<Service.MemoryRange>> getChanges(Path.Any page) {
+    return changes.get(page);
+  }
+
+  /**
+   * Like {@link #getChanges(Path.Any)}, but fetches the pages at the given priority, if they need
+   * to be fetched.
+   */
+  public ListenableFuture<List<Service.MemoryRange>> getChanges(Path.Any page, Priority priority) {
+    return changes.get(page, p -> fetchChanges(p, priority));
+  }
+
+  /**
+   * @return the already computed changes of the given page, or {@code null}.
+   */
+  public List<Service.MemoryRange> getChangesIfPresent(Path.Any page) {
+    return changes.getIfPresent(page);
+  }
+
+  /**
+   * Compares the given pages in parallel.
+   *
+   * @return the changed regions, with absolute addresses, of the given pages, which have to be in
+   *     ascending address order. Regions spanning adjacent pages are merged. Pages that fail to
+   *     load are skipped.
+   */
+  public ListenableFuture<List<Service.MemoryRange>> findChanges(List<Path.Any> pagePaths) {
+    List<ListenableFuture<List<Service.MemoryRange>>> futures = Lists.newArrayList();
+    for (Path.Any page : pagePaths) {
+      futures.add(getChanges(page));
+    }
+    return Futures.transform(Futures.successfulAsList(futures), pageChanges -> {
+      List<Service.MemoryRange> result = Lists.newArrayList();
+      for (int i = 0; i < pageChanges.size(); i++) {
+        List<Service.MemoryRange> changed = pageChanges.get(i);
+        if (changed == null) {
+          continue;
+        }
+        long base = pagePaths.get(i).getMemory().getAddress();
+        for (Service.MemoryRange range : changed) {
+          int last = result.size() - 1;
+          long start = base + range.getBase();
+          if (last >= 0 &&
+              result.get(last).getBase() + result.get(last).getSize() == start) {
+            Service.MemoryRange prev = result.get(last);
+            result.set(last, memory(prev.getBase(), prev.getSize() + range.getSize()));
+          } else {
+            result.add(memory(start, range.getSize()));
+          }
+        }
+      }
+      return result;
+    }, EXECUTOR);
+  }
+
+  private ListenableFuture<List<Service.MemoryRange>> fetchChanges(
+      Path.Any page, Priority priority) {
+    Path.Any base = Path.Any.newBuilder()
+        .setMemory(page.getMemory().toBuilder().setAfter(baseline))
+        .build();
+    ListenableFuture<Service.Memory> before = pages.get(base, priority);
+    ListenableFuture<Service.Memory> after = pages.get(page, priority);
+    return Futures.whenAllSucceed(before, after).call(() -> {
+      Service.Memory a = Futures.getDone(before), b = Futures.getDone(after);
+      HashCode baseHash = hashes.getIfPresent(base);
+      if (baseHash == null) {
+        // Nothing to compare a hash of the page against yet, so compare the bytes right away.
+        EXECUTOR.execute(() -> hashes.put(base, hash(a)));
+      } else if (baseHash.equals(hash(page, b))) {
+        return Collections.emptyList();
+      }
+      return compare(a, b);
+    }, EXECUTOR);
+  }
+
+  private HashCode hash(Path.Any path, Service.Memory memory) throws ExecutionException {
+    return hashes.get(path, () -> hash(memory));
+  }
+
+  private static HashCode hash(Service.Memory memory) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    ByteBuffer data = memory.getData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    while (data.remaining() >= 8) {
+      hasher.putLong(data.getLong());
+    }
+    while (data.hasRemaining()) {
+      hasher.putByte(data.get());
+    }
+    for (Service.MemoryRange range : memory.getObservedList()) {
+      hasher.putLong(range.getBase()).putLong(range.getSize());
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * Compares the given memory, a word at a time, falling back to individual bytes for the words
+   * that differ. A byte has changed if its value differs, or if it is observed in only one of them.
+   *
+   * @return the changed ranges, relative to the start of the memory.
+   */
+  public static List<Service.MemoryRange> compare(Service.Memory a, Service.Memory b) {
+    ByteBuffer bufA = a.getData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer bufB = b.getData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    long[] knownA = getKnown(a, bufA.limit()), knownB = getKnown(b, bufB.limit());
+    int common = Math.min(bufA.limit(), bufB.limit());
+    int length = Math.max(bufA.limit(), bufB.limit());
+
+    List<Service.MemoryRange> result = Lists.newArrayList();
+    int runStart = -1;
+    int i = 0;
+    for (; i + 8 <= common; i += 8) {
+      int wordKnownA = getKnownByte(knownA, i), wordKnownB = getKnownByte(knownB, i);
+      if (wordKnownA == wordKnownB &&
+          ((bufA.getLong(i) ^ bufB.getLong(i)) & BYTE_MASKS[wordKnownA]) == 0) {
+        if (runStart >= 0) {
+          result.add(memory(runStart, i - runStart));
+          runStart = -1;
+        }
+        continue;
+      }
+      for (int j = i; j < i + 8; j++) {
+        runStart = addByte(result, runStart, j,
+            isChanged(bufA, knownA, bufB, knownB, j));
+      }
+    }
+    for (; i < length; i++) {
+      runStart = addByte(result, runStart, i, isChanged(bufA, knownA, bufB, knownB, i));
+    }
+    if (runStart >= 0) {
+      result.add(memory(runStart, length - runStart));
+    }
+    return result;
+  }
+
+  private static int addByte(
+      List<Service.MemoryRange> result, int runStart, int offset, boolean changed) {
+    if (changed) {
+      return (runStart < 0) ? offset : runStart;
+    } else if (runStart >= 0) {
+      result.add(memory(runStart, offset - runStart));
+    }
+    return -1;
+  }
+
+  private static boolean isChanged(
+      ByteBuffer bufA, long[] knownA, ByteBuffer bufB, long[] knownB, int offset) {
+    boolean isKnownA = isKnown(knownA, offset), isKnownB = isKnown(knownB, offset);
+    return isKnownA != isKnownB || (isKnownA && bufA.get(offset) != bufB.get(offset));
+  }
+
+  private static long[] getKnown(Service.Memory memory, int size) {
+    BitSet known = new BitSet(size);
+    for (Service.MemoryRange range : memory.getObservedList()) {
+      int start = (int)Math.min(range.getBase(), size);
+      known.set(start, (int)Math.min(range.getBase() + range.getSize(), size));
+    }
+    return known.toLongArray();
+  }
+
+  private static boolean isKnown(long[] known, int offset) {
+    int word = offset >>> 6;
+    return word < known.length && (known[word] & (1L << offset)) != 0;
+  }
+
+  /**
+   * @return the bits indicating which of the 8 bytes at the given multiple of 8 are known.
+   */
+  private static int getKnownByte(long[] known, int offset) {
+    int word = offset >>> 6;
+    return (word < known.length) ? (int)(known[word] >>> (offset & 63)) & 0xFF : 0;
+  }
+}
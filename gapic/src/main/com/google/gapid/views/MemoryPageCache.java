@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.views;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.server.Client;
+import com.google.gapid.server.RequestScheduler.Priority;
+import com.google.gapid.util.FutureCache;
+
+/**
+ * Cache of memory pages, where a page is any memory path, shared by the data models and diffs of
+ * the {@link MemoryView}. Pages are fetched at the priority of the request that misses the cache,
+ * so that pages loaded ahead of time don't delay the pages being shown.
+ */
+public class MemoryPageCache {
+  private final Client client;
+  private final FutureCache<Path.Any, Service.Memory> cache;
+
+  public MemoryPageCache(Client client, long size) {
+    this.client = client;
+    this.cache = FutureCache.weightedCache(size, (path, memory) -> memory.getSerializedSize(),
+        path -> fetch(path, Priority.Interactive), memory -> true);
+  }
+
+  public ListenableFuture<Service.Memory> get(Path.Any path, Priority priority) {
+    return cache.get(path, p -> fetch(p, priority));
+  }
+
+  /**
+   * @return the cached page, or {@code null}.
+   */
+  public Service.Memory getIfPresent(Path.Any path) {
+    return cache.getIfPresent(path);
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  private ListenableFuture<Service.Memory> fetch(Path.Any path, Priority priority) {
+    return Futures.transform(client.get(path, priority), value -> value.getMemory());
+  }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.views;
+
+import static com.google.gapid.util.Ranges.memory;
+import static com.google.gapid.util.Scheduler.EXECUTOR;
+import static java.util.logging.Level.FINE;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedLongs;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.server.Client;
+import com.google.gapid.server.RequestScheduler.Priority;
+import com.google.gapid.util.Events;
+import com.google.gapid.util.Paths;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Searches the memory of a pool after a command for a {@link Pattern}. The searched ranges are
+ * fetched in chunks, a few at a time, and each chunk is matched on the executor as soon as it
+ * arrives. Only bytes the server has observed are matched. Matches are reported to a
+ * {@link Listener} chunk by chunk, while the search is still running.
+ */
+public class MemorySearch {
+  protected static final Logger LOG = Logger.getLogger(MemorySearch.class.getName());
+
+  /**
+   * The number of bytes fetched by a single request.
+   */
+  private static final long CHUNK_SIZE = 1 << 20;
+  /**
+   * The maximum number of chunks being fetched or matched at a time.
+   */
+  private static final int MAX_IN_FLIGHT = 4;
+  /**
+   * The search stops after finding this many matches.
+   */
+  public static final int MAX_MATCHES = 1000;
+
+  private final Client client;
+  private final Path.Command after;
+  private final int pool;
+  private final Pattern pattern;
+  private final Listener listener;
+  private final List<Service.MemoryRange> ranges;
+  private final Set<ListenableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+  private int nextRange = 0;
+  private long nextAddress;
+  private int pending = 0;
+  private int matches = 0;
+  private boolean done = false;
+
+  private MemorySearch(Client client, Path.Command after, int pool,
+      List<Service.MemoryRange> ranges, Pattern pattern, Listener listener) {
+    this.client = client;
+    this.after = after;
+    this.pool = pool;
+    this.ranges = merge(ranges);
+    this.pattern = pattern;
+    this.listener = listener;
+    this.nextAddress = this.ranges.isEmpty() ? 0 : this.ranges.get(0).getBase();
+  }
+
+  /**
+   * Starts searching the given ranges of the pool's memory after the given command.
+   *
+   * @return the running search, which can be used to cancel it.
+   */
+  public static MemorySearch start(Client client, Path.Command after, int pool,
+      List<Service.MemoryRange> ranges, Pattern pattern, Listener listener) {
+    MemorySearch search = new MemorySearch(client, after, pool, ranges, pattern, listener);
+    search.startChunks();
+    return search;
+  }
+
+  /**
+   * Cancels this search. The listener is not notified of any further matches.
+   */
+  public void cancel() {
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+      done = true;
+    }
+    cancelInFlight();
+  }
+
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  private void cancelInFlight() {
+    for (ListenableFuture<?> future : inFlight) {
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * Starts fetching chunks until {@link #MAX_IN_FLIGHT} are in flight or all have been started.
+   * Finishes the search once all chunks have been matched.
+   */
+  private void startChunks() {
+    while (true) {
+      long base, size, reportSize;
+      synchronized (this) {
+        if (done) {
+          return;
+        } else if (nextRange >= ranges.size()) {
+          if (pending == 0) {
+            done = true;
+            listener.onSearchFinished(matches, false);
+          }
+          return;
+        } else if (pending >= MAX_IN_FLIGHT) {
+          return;
+        }
+
+        // Fetch enough bytes past the chunk to match patterns that start within it.
+        Service.MemoryRange range = ranges.get(nextRange);
+        long end = range.getBase() + range.getSize();
+        base = nextAddress;
+        reportSize = UnsignedLongs.min(CHUNK_SIZE, end - base);
+        size = UnsignedLongs.min(reportSize + pattern.length - 1, end - base);
+        if (reportSize == end - base) {
+          nextRange++;
+          if (nextRange < ranges.size()) {
+            nextAddress = ranges.get(nextRange).getBase();
+          }
+        } else {
+          nextAddress = base + reportSize;
+        }
+        pending++;
+      }
+      startChunk(base, size, (int)reportSize);
+    }
+  }
+
+  private void startChunk(long base, long size, int reportSize) {
+    ListenableFuture<List<Long>> future = Futures.transform(
+        client.get(Paths.memoryAfter(after, pool, base, size), Priority.Prefetch),
+        value -> pattern.find(base, value.getMemory(), reportSize), EXECUTOR);
+    inFlight.add(future);
+    future.addListener(() -> {
+      inFlight.remove(future);
+      List<Long> found;
+      try {
+        found = Futures.getDone(future);
+      } catch (Exception e) {
+        // Memory that could not be fetched cannot contain any matches.
+        LOG.log(FINE, "Failed to search memory at 0x" + Long.toHexString(base), e);
+        found = Collections.emptyList();
+      }
+      onChunkDone(found);
+    }, EXECUTOR);
+  }
+
+  private void onChunkDone(List<Long> found) {
+    synchronized (this) {
+      pending--;
+      if (done) {
+        return;
+      }
+      if (!found.isEmpty()) {
+        if (matches + found.size() > MAX_MATCHES) {
+          found = found.subList(0, MAX_MATCHES - matches);
+        }
+        matches += found.size();
+        listener.onMatchesFound(found);
+      }
+      if (matches >= MAX_MATCHES) {
+        done = true;
+        listener.onSearchFinished(matches, true);
+      }
+    }
+    if (isDone()) {
+      cancelInFlight();
+    } else {
+      startChunks();
+    }
+  }
+
+  /**
+   * @return the given ranges sorted by address, with overlapping and adjacent ranges merged.
+   */
+  private static List<Service.MemoryRange> merge(List<Service.MemoryRange> ranges) {
+    List<Service.MemoryRange> sorted = Lists.newArrayList(ranges);
+    sorted.sort((a, b) -> UnsignedLongs.compare(a.getBase(), b.getBase()));
+    List<Service.MemoryRange> result = Lists.newArrayList();
+    for (Service.MemoryRange range : sorted) {
+      if (range.getSize() == 0) {
+        continue;
+      }
+      int last = result.size() - 1;
+      if (last >= 0) {
+        Service.MemoryRange prev = result.get(last);
+        long prevEnd = prev.getBase() + prev.getSize();
+        if (UnsignedLongs.compare(range.getBase(), prevEnd) <= 0) {
+          long end = range.getBase() + range.getSize();
+          if (UnsignedLongs.compare(end, prevEnd) > 0) {
+            result.set(last, memory(prev.getBase(), end - prev.getBase()));
+          }
+          continue;
+        }
+      }
+      result.add(range);
+    }
+    return result;
+  }
+
+  /**
+   * Listener notified of the progress of a search. Methods are called on a worker thread.
+   */
+  public static interface Listener extends Events.Listener {
+    /**
+     * Event indicating that the given matches, in ascending address order, have been found.
+     */
+    public default void onMatchesFound(List<Long> addresses) { /* empty */ }
+
+    /**
+     * Event indicating that the search has completed, or has been stopped after finding
+     * {@link MemorySearch#MAX_MATCHES} matches if truncated is set.
+     */
+    public default void onSearchFinished(int matches, boolean truncated) { /* empty */ }
+  }
+
+  /**
+   * The kinds of values that can be searched for.
+   */
+  public static enum Kind {
+    Bytes() {
+      @Override
+      public Pattern parse(String text) {
+        String hex = text.replaceAll("\\s+", "");
+        if (hex.startsWith("0x") || hex.startsWith("0X")) {
+          hex = hex.substring(2);
+        }
+        if (hex.isEmpty() || (hex.length() % 2) != 0) {
+          throw new IllegalArgumentException("Expected an even number of hex digits: " + text);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+          bytes[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return Pattern.bytes(bytes);
+      }
+    }, Int8() {
+      @Override
+      public Pattern parse(String text) {
+        return Pattern.integer(parseInteger(text, 1), 1);
+      }
+    }, Int16() {
+      @Override
+      public Pattern parse(String text) {
+        return Pattern.integer(parseInteger(text, 2), 2);
+      }
+    }, Int32() {
+      @Override
+      public Pattern parse(String text) {
+        return Pattern.integer(parseInteger(text, 4), 4);
+      }
+    }, Int64() {
+      @Override
+      public Pattern parse(String text) {
+        return Pattern.integer(parseInteger(text, 8), 8);
+      }
+    }, Float32() {
+      @Override
+      public Pattern parse(String text) {
+        double[] value = parseFloat(text);
+        return Pattern.float32((float)value[0], (float)value[1]);
+      }
+    }, Float64() {
+      @Override
+      public Pattern parse(String text) {
+        double[] value = parseFloat(text);
+        return Pattern.float64(value[0], value[1]);
+      }
+    }, Text() {
+      @Override
+      public Pattern parse(String text) {
+        if (text.isEmpty()) {
+          throw new IllegalArgumentException("Expected a non-empty string");
+        }
+        return Pattern.string(text);
+      }
+    };
+
+    /**
+     * @return the pattern matching the value described by the given user entered text.
+     * @throws IllegalArgumentException if the text is not a valid value of this kind.
+     */
+    public abstract Pattern parse(String text);
+
+    /**
+     * Parses a signed or unsigned, decimal, hex or octal integer that fits into the given number
+     * of bytes.
+     */
+    protected static long parseInteger(String text, int size) {
+      text = text.trim();
+      long value;
+      if (text.startsWith("-")) {
+        value = Long.decode(text);
+        if (size < 8 && value < -(1L << (8 * size - 1))) {
+          throw new IllegalArgumentException("Value out of range: " + text);
+        }
+      } else {
+        value = UnsignedLongs.decode(text);
+        if (size < 8 && UnsignedLongs.compare(value, (1L << (8 * size)) - 1) > 0) {
+          throw new IllegalArgumentException("Value out of range: " + text);
+        }
+      }
+      return value;
+    }
+
+    /**
+     * Parses a floating point value, optionally followed by "~" and the tolerance.
+     *
+     * @return the value and the tolerance.
+     */
+    protected static double[] parseFloat(String text) {
+      int tilde = text.indexOf('~');
+      if (tilde < 0) {
+        return new double[] { Double.parseDouble(text.trim()), 0 };
+      }
+      double tolerance = Math.abs(Double.parseDouble(text.substring(tilde + 1).trim()));
+      return new double[] { Double.parseDouble(text.substring(0, tilde).trim()), tolerance };
+    }
+  }
+
+  /**
+   * The value to search for, matched against little endian memory.
+   */
+  public abstract static class Pattern {
+    /** The number of bytes of a match. */
+    public final int length;
+    /** Matches start at addresses that are multiples of this alignment. */
+    public final int alignment;
+
+    public Pattern(int length, int alignment) {
+      this.length = length;
+      this.alignment = alignment;
+    }
+
+    /**
+     * @return whether the bytes at the given offset of the buffer match this pattern. The buffer
+     *     has at least {@link #length} bytes left at the offset.
+     */
+    protected abstract boolean matches(ByteBuffer buffer, int offset);
+
+    /**
+     * @return the addresses of the matches within the observed bytes of the given memory, which
+     *     starts at the given address, that start within the first {@code reportSize} bytes.
+     */
+    public List<Long> find(long base, Service.Memory memory, int reportSize) {
+      ByteBuffer buffer = memory.getData().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+      List<Long> result = Lists.newArrayList();
+      for (Service.MemoryRange observed : merge(memory.getObservedList())) {
+        int start = (int)Math.min(observed.getBase(), buffer.limit());
+        int end = (int)Math.min(observed.getBase() + observed.getSize(), buffer.limit());
+        start += (int)Long.remainderUnsigned(alignment - Long.remainderUnsigned(
+            base + start, alignment), alignment);
+        for (int offset = start; offset < reportSize && offset + length <= end;
+            offset += alignment) {
+          if (matches(buffer, offset)) {
+            result.add(base + offset);
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return a pattern matching the given sequence of bytes at any address.
+     */
+    public static Pattern bytes(byte[] bytes) {
+      return bytes(bytes, 1);
+    }
+
+    private static Pattern bytes(byte[] bytes, int alignment) {
+      return new Pattern(bytes.length, alignment) {
+        @Override
+        protected boolean matches(ByteBuffer buffer, int offset) {
+          for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+              return false;
+            }
+          }
+          return true;
+        }
+      };
+    }
+
+    /**
+     * @return a pattern matching the given integer of the given size at aligned addresses.
+     */
+    public static Pattern integer(long value, int size) {
+      byte[] bytes = new byte[size];
+      for (int i = 0; i < size; i++, value >>>= 8) {
+        bytes[i] = (byte)value;
+      }
+      return bytes(bytes, size);
+    }
+
+    /**
+     * @return a pattern matching 32 bit floats within the given tolerance of the given value at
+     *     aligned addresses.
+     */
+    public static Pattern float32(float value, float tolerance) {
+      return new Pattern(4, 4) {
+        @Override
+        protected boolean matches(ByteBuffer buffer, int offset) {
+          return Math.abs(buffer.getFloat(offset) - value) <= tolerance;
+        }
+      };
+    }
+
+    /**
+     * @return a pattern matching 64 bit floats within the given tolerance of the given value at
+     *     aligned addresses.
+     */
+    public static Pattern float64(double value, double tolerance) {
+      return new Pattern(8, 8) {
+        @Override
+        protected boolean matches(ByteBuffer buffer, int offset) {
+          return Math.abs(buffer.getDouble(offset) - value) <= tolerance;
+        }
+      };
+    }
+
+    /**
+     * @return a pattern matching the UTF-8 encoding of the given string at any address.
+     */
+    public static Pattern string(String value) {
+      return bytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
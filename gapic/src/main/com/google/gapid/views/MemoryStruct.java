@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.views;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.UnsignedLongs;
+import com.google.gapid.util.Float16;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A user defined layout of records in memory, such as the vertices of a vertex buffer or a uniform
+ * block, and the decoding of memory into its records. Memory is decoded a column at a time, where
+ * each element of each field is a column, so that decoding is a tight strided loop over the data,
+ * while formatting the decoded values is left until they are shown.
+ */
+public class MemoryStruct {
+  /**
+   * The largest supported distance between consecutive records.
+   */
+  public static final int MAX_STRIDE = 4096;
+  /**
+   * The largest supported number of elements of a single field.
+   */
+  public static final int MAX_COUNT = 64;
+
+  private static final Pattern FIELD =
+      Pattern.compile("(\\w+)\\s*(?:\\[\\s*(\\w+)\\s*\\])?\\s*(\\w+)?\\s*(?:@\\s*(\\w+))?");
+  private static final Pattern STRIDE = Pattern.compile("stride\\s+(\\w+)");
+
+  /**
+   * The names, besides the names of the {@link Type types}, that can be used as a field's type,
+   * along with the number of elements they stand for.
+   */
+  private static final Map<String, Alias> ALIASES = Maps.newHashMap();
+  static {
+    for (Type type : Type.values()) {
+      ALIASES.put(type.name().toLowerCase(Locale.ENGLISH), new Alias(type, 1));
+    }
+    ALIASES.put("half", new Alias(Type.Float16, 1));
+    ALIASES.put("float", new Alias(Type.Float32, 1));
+    ALIASES.put("double", new Alias(Type.Float64, 1));
+    ALIASES.put("int", new Alias(Type.Int32, 1));
+    ALIASES.put("uint", new Alias(Type.UInt32, 1));
+    for (int n = 2; n <= 4; n++) {
+      ALIASES.put("vec" + n, new Alias(Type.Float32, n));
+      ALIASES.put("ivec" + n, new Alias(Type.Int32, n));
+      ALIASES.put("uvec" + n, new Alias(Type.UInt32, n));
+      ALIASES.put("mat" + n, new Alias(Type.Float32, n * n));
+    }
+  }
+
+  private MemoryStruct() {
+  }
+
+  /**
+   * The types of the elements of a field, which are stored little endian.
+   */
+  public static enum Type {
+    Int8(1, 4), UInt8(1, 3), Int16(2, 6), UInt16(2, 5), Int32(4, 11), UInt32(4, 10),
+    Int64(8, 20), UInt64(8, 20), Float16(2, 15), Float32(4, 15), Float64(8, 24);
+
+    /** The number of bytes of a value. */
+    public final int size;
+    /** The number of characters a value is shown in. */
+    public final int chars;
+
+    private Type(int size, int chars) {
+      this.size = size;
+      this.chars = chars;
+    }
+
+    public boolean isSigned() {
+      return this == Int8 || this == Int16 || this == Int32 || this == Int64;
+    }
+
+    public boolean isFloat() {
+      return this == Float16 || this == Float32 || this == Float64;
+    }
+  }
+
+  private static class Alias {
+    public final Type type;
+    public final int count;
+
+    public Alias(Type type, int count) {
+      this.type = type;
+      this.count = count;
+    }
+  }
+
+  /**
+   * A field of a record: a value, or an array of values, of a {@link Type} at an offset.
+   */
+  public static class Field {
+    public final String name;
+    public final Type type;
+    public final int count;
+    public final int offset;
+
+    public Field(String name, Type type, int count, int offset) {
+      this.name = name;
+      this.type = type;
+      this.count = count;
+      this.offset = offset;
+    }
+
+    public int getSize() {
+      return type.size * count;
+    }
+
+    @Override
+    public String toString() {
+      return type.name().toLowerCase(Locale.ENGLISH) + ((count == 1) ? "" : "[" + count + "]") +
+          " " + name + " @" + offset;
+    }
+  }
+
+  /**
+   * The layout of the records, consisting of the fields, in order of their offset, and the stride,
+   * the distance between consecutive records.
+   */
+  public static class Layout {
+    public final List<Field> fields;
+    public final int stride;
+    /** The number of bytes of a record covered by its fields. */
+    public final int size;
+
+    // The type and offset of each element of each field, in order of the fields.
+    private final Type[] columnTypes;
+    private final int[] columnOffsets;
+
+    public Layout(List<Field> fields, int stride) {
+      this.fields = Collections.unmodifiableList(fields);
+      this.stride = stride;
+
+      int columns = 0, end = 0;
+      for (Field field : fields) {
+        columns += field.count;
+        end = Math.max(end, field.offset + field.getSize());
+      }
+      this.size = end;
+      this.columnTypes = new Type[columns];
+      this.columnOffsets = new int[columns];
+      int column = 0;
+      for (Field field : fields) {
+        for (int i = 0; i < field.count; i++, column++) {
+          columnTypes[column] = field.type;
+          columnOffsets[column] = field.offset + i * field.type.size;
+        }
+      }
+    }
+
+    /**
+     * Parses a layout from its textual description: a list of fields and optionally the stride,
+     * separated by semicolons or new lines. A field is described by its type, optionally followed
+     * by an element count in brackets, its name and its offset following an "@", e.g.
+     * {@code "vec3 position; float32[2] uv @16; uint32 color; stride 32"}. Fields without an offset
+     * follow the previous field and the stride defaults to the end of the last field.
+     *
+     * @throws IllegalArgumentException if the text is not a valid layout.
+     */
+    public static Layout parse(String text) {
+      List<Field> fields = Lists.newArrayList();
+      int stride = -1, next = 0;
+      for (String entry : text.split("[;\\n]")) {
+        entry = entry.trim();
+        if (entry.isEmpty()) {
+          continue;
+        }
+
+        Matcher matcher = STRIDE.matcher(entry);
+        if (matcher.matches()) {
+          stride = parseNumber(matcher.group(1), 1, MAX_STRIDE, "stride");
+          continue;
+        }
+
+        matcher = FIELD.matcher(entry);
+        if (!matcher.matches()) {
+          throw new IllegalArgumentException("Invalid field: " + entry);
+        }
+        Alias alias = ALIASES.get(matcher.group(1).toLowerCase(Locale.ENGLISH));
+        if (alias == null) {
+          throw new IllegalArgumentException("Unknown type: " + matcher.group(1));
+        }
+        int count = alias.count * ((matcher.group(2) == null) ? 1 :
+            parseNumber(matcher.group(2), 1, MAX_COUNT, "element count"));
+        if (count > MAX_COUNT) {
+          throw new IllegalArgumentException("Too many elements: " + entry);
+        }
+        String name = (matcher.group(3) == null) ? "field" + fields.size() : matcher.group(3);
+        int offset = (matcher.group(4) == null) ? next :
+            parseNumber(matcher.group(4), 0, MAX_STRIDE - 1, "offset");
+        Field field = new Field(name, alias.type, count, offset);
+        fields.add(field);
+        next = offset + field.getSize();
+      }
+
+      if (fields.isEmpty()) {
+        throw new IllegalArgumentException("Expected at least one field");
+      }
+      fields.sort(Comparator.comparingInt(field -> field.offset));
+      Field last = Collections.max(fields, Comparator.comparingInt(f -> f.offset + f.getSize()));
+      int end = last.offset + last.getSize();
+      if (stride < 0) {
+        stride = end;
+      }
+      if (end > stride) {
+        throw new IllegalArgumentException(
+            "Field " + last.name + " extends past the stride of " + stride + " bytes");
+      } else if (stride > MAX_STRIDE) {
+        throw new IllegalArgumentException("The stride can be at most " + MAX_STRIDE + " bytes");
+      }
+      return new Layout(fields, stride);
+    }
+
+    private static int parseNumber(String text, int min, int max, String what) {
+      long value;
+      try {
+        value = Long.decode(text);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid " + what + ": " + text);
+      }
+      if (value < min || value > max) {
+        throw new IllegalArgumentException(
+            "The " + what + " has to be between " + min + " and " + max + ": " + text);
+      }
+      return (int)value;
+    }
+
+    public int getColumnCount() {
+      return columnTypes.length;
+    }
+
+    public Type getColumnType(int column) {
+      return columnTypes[column];
+    }
+
+    /**
+     * @return the offset of the given column within a record.
+     */
+    public int getColumnOffset(int column) {
+      return columnOffsets[column];
+    }
+
+    /**
+     * Decodes all the records contained in the given range of the data. A value is known if all
+     * its bytes are set in the given known bytes, or if there are no known bytes.
+     */
+    public Records decode(byte[] data, BitSet known, int offset, int length) {
+      int count = (length < size) ? 0 : (length - size) / stride + 1;
+      long[][] values = new long[columnTypes.length][];
+      BitSet[] valuesKnown = new BitSet[columnTypes.length];
+      for (int c = 0; c < columnTypes.length; c++) {
+        int start = offset + columnOffsets[c];
+        values[c] = decodeColumn(data, start, count, columnTypes[c]);
+        valuesKnown[c] = decodeKnown(known, start, count, columnTypes[c].size);
+      }
+      return new Records(this, count, values, valuesKnown);
+    }
+
+    /**
+     * @return the values, sign extended if signed, of the given type of the given number of
+     *     records, starting at the given position.
+     */
+    private long[] decodeColumn(byte[] data, int pos, int count, Type type) {
+      long[] result = new long[count];
+      switch (type.size) {
+        case 1:
+          for (int r = 0; r < count; r++, pos += stride) {
+            result[r] = data[pos] & 0xFFL;
+          }
+          break;
+        case 2:
+          for (int r = 0; r < count; r++, pos += stride) {
+            result[r] = (data[pos] & 0xFFL) | ((data[pos + 1] & 0xFFL) << 8);
+          }
+          break;
+        case 4:
+          for (int r = 0; r < count; r++, pos += stride) {
+            result[r] = (data[pos] & 0xFFL) | ((data[pos + 1] & 0xFFL) << 8) |
+                ((data[pos + 2] & 0xFFL) << 16) | ((data[pos + 3] & 0xFFL) << 24);
+          }
+          break;
+        case 8:
+          for (int r = 0; r < count; r++, pos += stride) {
+            result[r] = (data[pos] & 0xFFL) | ((data[pos + 1] & 0xFFL) << 8) |
+                ((data[pos + 2] & 0xFFL) << 16) | ((data[pos + 3] & 0xFFL) << 24) |
+                ((data[pos + 4] & 0xFFL) << 32) | ((data[pos + 5] & 0xFFL) << 40) |
+                ((data[pos + 6] & 0xFFL) << 48) | ((long)data[pos + 7] << 56);
+          }
+          break;
+        default:
+          throw new AssertionError();
+      }
+      if (type.isSigned() && type.size < 8) {
+        int shift = 64 - 8 * type.size;
+        for (int r = 0; r < count; r++) {
+          result[r] = (result[r] << shift) >> shift;
+        }
+      }
+      return result;
+    }
+
+    private BitSet decodeKnown(BitSet known, int pos, int count, int valueSize) {
+      BitSet result = new BitSet(count);
+      if (known == null) {
+        result.set(0, count);
+        return result;
+      }
+      for (int r = 0; r < count; r++, pos += stride) {
+        if (known.nextClearBit(pos) >= pos + valueSize) {
+          result.set(r);
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder();
+      for (Field field : fields) {
+        result.append(field).append("; ");
+      }
+      return result.append("stride ").append(stride).toString();
+    }
+  }
+
+  /**
+   * Decoded records, stored as a column of values for each element of each field.
+   */
+  public static class Records {
+    public final Layout layout;
+    public final int count;
+    private final long[][] values;
+    private final BitSet[] known;
+
+    protected Records(Layout layout, int count, long[][] values, BitSet[] known) {
+      this.layout = layout;
+      this.count = count;
+      this.values = values;
+      this.known = known;
+    }
+
+    public boolean isKnown(int record, int column) {
+      return record < count && known[column].get(record);
+    }
+
+    /**
+     * @return the raw value, sign extended if signed, of the given column of the given record.
+     */
+    public long getValue(int record, int column) {
+      return values[column][record];
+    }
+
+    /**
+     * Writes the value of the given column of the given record, right aligned and truncated to
+     * the number of characters of its type, to the buffer at the given position. Floating point
+     * values are formatted using the given scratch buffer.
+     */
+    public void format(int record, int column, char[] buffer, int pos, StringBuilder scratch) {
+      Type type = layout.getColumnType(column);
+      if (!isKnown(record, column)) {
+        Arrays.fill(buffer, pos, pos + type.chars, '?');
+        return;
+      }
+
+      long value = values[column][record];
+      if (!type.isFloat()) {
+        formatInteger(buffer, pos + type.chars, pos, value, type.isSigned() && value < 0);
+        return;
+      }
+
+      scratch.setLength(0);
+      switch (type) {
+        case Float16:
+          scratch.append(Float16.shortBitsToFloat((short)value));
+          break;
+        case Float32:
+          scratch.append(Float.intBitsToFloat((int)value));
+          break;
+        default:
+          scratch.append(Double.longBitsToDouble(value));
+          break;
+      }
+      int length = Math.min(type.chars, scratch.length());
+      scratch.getChars(0, length, buffer, pos + type.chars - length);
+    }
+
+    /**
+     * Writes the given value in decimal, right aligned to end before the given end, truncating
+     * the most significant digits if it does not fit between start and end.
+     */
+    private static void formatInteger(
+        char[] buffer, int end, int start, long value, boolean negative) {
+      // Negating the minimum long results in itself, which is the correct unsigned magnitude.
+      long magnitude = negative ? -value : value;
+      int pos = end;
+      do {
+        buffer[--pos] = (char)('0' + UnsignedLongs.remainder(magnitude, 10));
+        magnitude = UnsignedLongs.divide(magnitude, 10);
+      } while (magnitude != 0 && pos > start);
+      if (negative && pos > start) {
+        buffer[--pos] = '-';
+      }
+    }
+  }
+}
@@ -15,18 +15,27 @@
  */
 package com.google.gapid.views;
 
+import static com.google.gapid.util.GeoUtils.bottom;
 import static com.google.gapid.util.GeoUtils.top;
 import static com.google.gapid.util.Loadable.MessageType.Error;
 import static com.google.gapid.util.Loadable.MessageType.Info;
 import static com.google.gapid.util.Ranges.memory;
+import static com.google.gapid.widgets.Widgets.createButton;
 import static com.google.gapid.widgets.Widgets.createDropDown;
 import static com.google.gapid.widgets.Widgets.createDropDownViewer;
 import static com.google.gapid.widgets.Widgets.createLabel;
+import static com.google.gapid.widgets.Widgets.createTextbox;
 import static com.google.gapid.widgets.Widgets.ifNotDisposed;
 import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
 import com.google.common.primitives.UnsignedLong;
 import com.google.common.primitives.UnsignedLongs;
 import com.google.common.util.concurrent.Futures;
@@ -45,14 +54,16 @@ import com.google.gapid.rpc.SingleInFlight;
 import com.google.gapid.rpc.UiCallback;
 import com.google.gapid.rpc.Rpc.Result;
 import com.google.gapid.server.Client;
-import com.google.gapid.util.BigPoint;
+import com.google.gapid.server.RequestScheduler.Priority;
 import com.google.gapid.util.Float16;
+import com.google.gapid.util.FutureCache;
 import com.google.gapid.util.IntRange;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.LongPoint;
 import com.google.gapid.util.Messages;
 import com.google.gapid.util.MouseAdapter;
 import com.google.gapid.util.Paths;
+import com.google.gapid.util.RangeIndex;
 import com.google.gapid.widgets.CopyPaste;
 import com.google.gapid.widgets.CopyPaste.CopyData;
 import com.google.gapid.widgets.CopyPaste.CopySource;
@@ -71,16 +82,17 @@ import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Text;
 
-import java.lang.ref.SoftReference;
-import java.math.BigInteger;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.util.Arrays;
@@ -88,10 +100,12 @@ import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.logging.Logger;
 
 /**
@@ -100,21 +114,49 @@ import java.util.logging.Logger;
 public class MemoryView extends Composite
     implements Tab, Capture.Listener, AtomStream.Listener, Follower.Listener {
   private static final Logger LOG = Logger.getLogger(MemoryView.class.getName());
+  private static final long PAGE_CACHE_SIZE = 32 * 1024 * 1024;
+  /**
+   * The number of bytes after the current address searched in addition to the observations.
+   */
+  private static final long SEARCH_WINDOW_SIZE = 16 * 1024 * 1024;
+  /**
+   * The number of bytes after the current address compared in addition to the observations.
+   */
+  private static final long DIFF_WINDOW_SIZE = 4 * 1024 * 1024;
+  /**
+   * The maximum number of pages compared when looking for changed regions.
+   */
+  private static final int MAX_DIFF_PAGES = 256;
+  /**
+   * The maximum number of changed regions listed.
+   */
+  private static final int MAX_DIFF_REGIONS = 1000;
+  private static final int PAGE_HASH_CACHE_SIZE = 4096;
 
   private final Client client;
   private final Models models;
+  private final MemoryPageCache pages;
+  private final Cache<Path.Any, HashCode> pageHashes =
+      MemoryDiff.createHashCache(PAGE_HASH_CACHE_SIZE);
   private final Selections selections;
+  private final SearchBar searchBar;
+  private final DiffBar diffBar;
+  private final StructBar structBar;
   private final MemoryPanel memoryPanel;
   protected final LoadablePanel<InfiniteScrolledComposite> loading;
   protected final InfiniteScrolledComposite memoryScroll;
   private final State uiState = new State();
   private final SingleInFlight rpcController = new SingleInFlight();
-  private MemoryDataModel memoryData;
+  private final SingleInFlight diffController = new SingleInFlight();
+  private PagedMemoryDataModel memoryData;
+  private MemoryDiff diff;
+  private Observation[] observations = new Observation[0];
 
   public MemoryView(Composite parent, Client client, Models models, Widgets widgets) {
     super(parent, SWT.NONE);
     this.client = client;
     this.models = models;
+    this.pages = new MemoryPageCache(client, PAGE_CACHE_SIZE);
 
     memoryPanel = new MemoryPanel(this, new Loadable() {
       @Override
@@ -135,11 +177,17 @@ public class MemoryView extends Composite
     setLayout(new GridLayout(1, true));
 
     selections = new Selections(this, this::setDataType, this::setObservation);
+    searchBar = new SearchBar(this, this::startSearch, this::goToAddress);
+    diffBar = new DiffBar(this, this::toggleBaseline, this::goToAddress);
+    structBar = new StructBar(this, this::setLayout);
     loading = LoadablePanel.create(this, widgets,
         panel -> new InfiniteScrolledComposite(panel, SWT.H_SCROLL | SWT.V_SCROLL, memoryPanel));
     memoryScroll = loading.getContents();
 
     selections.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
+    searchBar.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
+    diffBar.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
+    structBar.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
     loading.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
 
     models.capture.addListener(this);
@@ -171,6 +219,10 @@ public class MemoryView extends Composite
 
   @Override
   public void onCaptureLoadingStart(boolean maintainState) {
+    pages.invalidateAll();
+    pageHashes.invalidateAll();
+    searchBar.reset();
+    setBaseline(null);
     loading.showMessage(Info, Messages.LOADING_CAPTURE);
   }
 
@@ -204,6 +256,8 @@ public class MemoryView extends Composite
   }
 
   protected void setObservations(AtomIndex range, Observation[] obs) {
+    observations = obs;
+    searchBar.reset();
     selections.setObservations(obs);
     if (obs.length > 0 && !uiState.isComplete()) {
       // If the memory view is not showing anything yet, show the first observation.
@@ -216,6 +270,7 @@ public class MemoryView extends Composite
 
   @Override
   public void onMemoryFollowed(Path.Memory path) {
+    searchBar.reset();
     uiState.update(path);
     update(path.getAddress());
   }
@@ -226,6 +281,19 @@ public class MemoryView extends Composite
     }
   }
 
+  /**
+   * Shows the memory as records of the given layout, or as values of the selected data type if
+   * the layout is {@code null}. The first record starts at the observation containing the current
+   * address, if there is one, or at the current address.
+   */
+  private void setLayout(MemoryStruct.Layout layout) {
+    long address = getCurrentAddress();
+    Observation obs = selections.findObservation(address);
+    if (uiState.setLayout(layout, (obs == null) ? address : obs.getRange().getBase())) {
+      update(address);
+    }
+  }
+
   private void setObservation(Observation obs) {
     Path.Memory memoryPath = obs.getPath();
     uiState.update(memoryPath);
@@ -240,18 +308,117 @@ public class MemoryView extends Composite
 
     loading.stopLoading();
     selections.setPool(uiState.pool);
-    memoryData = uiState.createMemoryDataModel(client);
-    selections.setDataType(uiState.dataType);
+    memoryData = uiState.createMemoryDataModel(pages, getActiveDiff());
+    selections.setDataType(uiState.dataType, uiState.layout == null);
     memoryPanel.setModel(uiState.getMemoryModel(memoryData));
     memoryScroll.updateMinSize();
     scheduleIfNotDisposed(memoryScroll, () -> goToAddress(address));
     selections.updateSelectedObservation(address);
+    findChanges(address);
+  }
+
+  private void toggleBaseline() {
+    if (diff != null) {
+      setBaseline(null);
+    } else if (uiState.isComplete()) {
+      setBaseline(uiState.atomPath);
+    } else {
+      return;
+    }
+    update(getCurrentAddress());
+  }
+
+  private void setBaseline(Path.Command baseline) {
+    diffController.start().cancel();
+    diff = (baseline == null) ? null : new MemoryDiff(baseline, pages, pageHashes);
+    diffBar.setBaseline(baseline);
+  }
+
+  /**
+   * @return the diff to show, or {@code null} if there is no baseline or the baseline command is
+   *     the command being shown.
+   */
+  private MemoryDiff getActiveDiff() {
+    return (diff == null || diff.baseline.equals(uiState.atomPath)) ? null : diff;
+  }
+
+  /**
+   * Compares the observations of the selected command and the memory following the given address
+   * to the baseline and lists the changed regions.
+   */
+  private void findChanges(long address) {
+    MemoryDiff active = getActiveDiff();
+    if (active == null) {
+      diffController.start().cancel();
+      diffBar.setRegions(Collections.emptyList(),
+          (diff == null) ? "" : "Select another command to compare to the baseline");
+      return;
+    }
+
+    List<Path.Any> paths = Lists.newArrayList();
+    for (Service.MemoryRange page : memoryData.getPages(getScanRanges(address, DIFF_WINDOW_SIZE))) {
+      if (paths.size() >= MAX_DIFF_PAGES) {
+        break;
+      }
+      paths.add(Paths.memoryAfter(uiState.atomPath, uiState.pool, page.getBase(), page.getSize()));
+    }
+    diffBar.setRegions(Collections.emptyList(), "Comparing...");
+    diffController.start().listen(active.findChanges(paths),
+        new UiCallback<List<Service.MemoryRange>, List<Service.MemoryRange>>(this, LOG) {
+      @Override
+      protected List<Service.MemoryRange> onRpcThread(Result<List<Service.MemoryRange>> result)
+          throws RpcException, ExecutionException {
+        return result.get();
+      }
+
+      @Override
+      protected void onUiThread(List<Service.MemoryRange> regions) {
+        String status = regions.size() + " changed region" + (regions.size() == 1 ? "" : "s");
+        if (regions.size() > MAX_DIFF_REGIONS) {
+          status = MAX_DIFF_REGIONS + " of " + status;
+          regions = regions.subList(0, MAX_DIFF_REGIONS);
+        }
+        diffBar.setRegions(regions, status);
+      }
+    });
   }
 
   private void goToAddress(long address) {
-    memoryScroll.scrollTo(BigInteger.ZERO, UnsignedLong.fromLongBits(address).bigIntegerValue()
-        .divide(BigInteger.valueOf(FixedMemoryModel.BYTES_PER_ROW))
-        .multiply(BigInteger.valueOf(memoryPanel.lineHeight)));
+    long first = (memoryData == null) ? 0 : memoryData.getAddress();
+    memoryScroll.scrollTo(0, (Long.compareUnsigned(address, first) < 0) ? 0 :
+        Long.divideUnsigned(address - first, getBytesPerLine()));
+  }
+
+  private int getBytesPerLine() {
+    return (memoryPanel.model == null) ?
+        FixedMemoryModel.BYTES_PER_ROW : memoryPanel.model.getBytesPerLine();
+  }
+
+  /**
+   * Starts searching the current pool for the given pattern. The observations of the selected
+   * command and a window of memory starting at the current address are searched, as scanning the
+   * whole 64 bit address space is not feasible.
+   */
+  private MemorySearch startSearch(MemorySearch.Pattern pattern, MemorySearch.Listener listener) {
+    if (!uiState.isComplete()) {
+      return null;
+    }
+    return MemorySearch.start(client, uiState.atomPath, uiState.pool,
+        getScanRanges(getCurrentAddress(), SEARCH_WINDOW_SIZE), pattern, listener);
+  }
+
+  /**
+   * @return the observations of the selected command and the given number of bytes starting at
+   *     the given address, which are the ranges scanned by the search and diff.
+   */
+  private List<Service.MemoryRange> getScanRanges(long address, long windowSize) {
+    List<Service.MemoryRange> ranges = Lists.newArrayList();
+    for (Observation obs : observations) {
+      ranges.add(obs.getRange());
+    }
+    boolean fits = address == 0 || UnsignedLongs.compare(-address, windowSize) >= 0;
+    ranges.add(memory(address, fits ? windowSize : -address));
+    return ranges;
   }
 
   private long getCurrentAddress() {
@@ -259,10 +426,23 @@ public class MemoryView extends Composite
       return 0;
     }
 
-    return memoryScroll.getScrollLocation().y
-        .divide(BigInteger.valueOf(memoryPanel.lineHeight))
-        .multiply(BigInteger.valueOf(FixedMemoryModel.BYTES_PER_ROW))
-        .add(UnsignedLong.fromLongBits(memoryData.getAddress()).bigIntegerValue()).longValue();
+    return memoryScroll.getScrollY() * getBytesPerLine() + memoryData.getAddress();
+  }
+
+  /**
+   * Formats all the lines of the given memory as displayed for the given data type, passing each
+   * formatted line to the given consumer. Used by the benchmarks.
+   */
+  @VisibleForTesting
+  static void formatLines(DataType dataType, Service.Memory memory, Consumer<char[]> onLine) {
+    MemorySegment segment = new MemorySegment(memory);
+    FixedMemoryModel model = (FixedMemoryModel)dataType.getMemoryModel(new PagedMemoryDataModel(
+        (address, count, priority) -> Futures.immediateFuture(memory), 0, segment.length - 1));
+    for (Iterator<Segment> it =
+        model.getLines(0, model.getLineCount(), Collections.singletonList(segment));
+        it.hasNext(); ) {
+      onLine.accept(it.next().array);
+    }
   }
 
   /**
@@ -273,6 +453,7 @@ public class MemoryView extends Composite
     private final Combo typeCombo;
     private final Label obsLabel;
     private final ComboViewer obsCombo;
+    private RangeIndex<Observation> obsIndex = RangeIndex.empty();
 
     public Selections(Composite parent, Consumer<DataType> dataTypeListener,
         Consumer<Observation> observationListener) {
@@ -314,11 +495,13 @@ public class MemoryView extends Composite
       return combo;
     }
 
-    public void setDataType(DataType dataType) {
+    public void setDataType(DataType dataType, boolean enabled) {
       typeCombo.select(dataType.ordinal());
+      typeCombo.setEnabled(enabled);
     }
 
     public void setObservations(Observation[] observations) {
+      obsIndex = RangeIndex.of(Arrays.asList(observations), Observation::getRange);
       if (observations.length == 0) {
         obsCombo.setInput(Arrays.asList(observations));
       } else {
@@ -330,15 +513,15 @@ public class MemoryView extends Composite
       obsCombo.getControl().requestLayout();
     }
 
-    @SuppressWarnings("unchecked")
+    public Observation findObservation(long address) {
+      return obsIndex.find(address);
+    }
+
     public void updateSelectedObservation(long address) {
-      for (Observation obs : (Iterable<Observation>)obsCombo.getInput()) {
-        if (obs.contains(address)) {
-          obsCombo.setSelection(new StructuredSelection(obs), true);
-          return;
-        }
-      }
-      if (obsCombo.getCombo().getItemCount() > 0) {
+      Observation obs = obsIndex.find(address);
+      if (obs != null) {
+        obsCombo.setSelection(new StructuredSelection(obs), true);
+      } else if (obsCombo.getCombo().getItemCount() > 0) {
         obsCombo.setSelection(new StructuredSelection(Observation.NULL_OBSERVATION));
       }
     }
@@ -349,11 +532,269 @@ public class MemoryView extends Composite
     }
   }
 
+  /**
+   * Search controls, allowing the user to search the memory for a value and to jump to the
+   * matches, which are listed as they are found.
+   */
+  private static class SearchBar extends Composite {
+    private final BiFunction<MemorySearch.Pattern, MemorySearch.Listener, MemorySearch> searcher;
+    private final Combo kindCombo;
+    private final Text valueText;
+    private final Button findButton;
+    private final ComboViewer resultsCombo;
+    private final Label statusLabel;
+    private final List<Long> matches = Lists.newArrayList();
+    private MemorySearch search;
+
+    public SearchBar(Composite parent,
+        BiFunction<MemorySearch.Pattern, MemorySearch.Listener, MemorySearch> searcher,
+        LongConsumer matchListener) {
+      super(parent, SWT.NONE);
+      this.searcher = searcher;
+      setLayout(new GridLayout(6, false));
+
+      createLabel(this, "Find:").setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      kindCombo = createDropDown(this);
+      String[] names = new String[MemorySearch.Kind.values().length];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = MemorySearch.Kind.values()[i].name();
+      }
+      kindCombo.setItems(names);
+      kindCombo.select(0);
+      valueText = createTextbox(this, "");
+      findButton = createButton(this, "Find", e -> {
+        if (search != null) {
+          stop();
+        } else {
+          find();
+        }
+      });
+      resultsCombo = createDropDownViewer(this);
+      resultsCombo.setContentProvider(ArrayContentProvider.getInstance());
+      resultsCombo.setLabelProvider(new LabelProvider() {
+        @Override
+        public String getText(Object element) {
+          return String.format("0x%016x", (Long)element);
+        }
+      });
+      resultsCombo.setInput(matches);
+      statusLabel = createLabel(this, "");
+
+      kindCombo.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      valueText.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+      findButton.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      resultsCombo.getCombo().setLayoutData(new GridData(SWT.FILL, SWT.CENTER, false, false));
+      statusLabel.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+
+      valueText.addListener(SWT.DefaultSelection, e -> find());
+      resultsCombo.getCombo().addListener(SWT.Selection, e -> {
+        int index = resultsCombo.getCombo().getSelectionIndex();
+        if (index >= 0) {
+          matchListener.accept(matches.get(index));
+        }
+      });
+      addListener(SWT.Dispose, e -> stop());
+    }
+
+    private void find() {
+      reset();
+      MemorySearch.Pattern pattern;
+      try {
+        pattern = MemorySearch.Kind.values()[kindCombo.getSelectionIndex()]
+            .parse(valueText.getText());
+      } catch (IllegalArgumentException e) {
+        setStatus("Invalid value");
+        return;
+      }
+
+      MemorySearch[] current = new MemorySearch[1];
+      current[0] = search = searcher.apply(pattern, new MemorySearch.Listener() {
+        @Override
+        public void onMatchesFound(List<Long> addresses) {
+          scheduleIfNotDisposed(SearchBar.this, () -> {
+            if (search != null && search == current[0]) {
+              addMatches(addresses);
+              setStatus("Searching... " + matches.size() + " found");
+            }
+          });
+        }
+
+        @Override
+        public void onSearchFinished(int count, boolean truncated) {
+          scheduleIfNotDisposed(SearchBar.this, () -> {
+            if (search != null && search == current[0]) {
+              search = null;
+              findButton.setText("Find");
+              setStatus(count + (truncated ? "+" : "") + " found");
+            }
+          });
+        }
+      });
+      if (search != null) {
+        findButton.setText("Stop");
+        setStatus("Searching...");
+      }
+    }
+
+    private void addMatches(List<Long> addresses) {
+      matches.addAll(addresses);
+      matches.sort(UnsignedLongs::compare);
+      resultsCombo.refresh();
+    }
+
+    private void setStatus(String status) {
+      statusLabel.setText(status);
+      statusLabel.requestLayout();
+    }
+
+    private void stop() {
+      if (search != null) {
+        search.cancel();
+        search = null;
+        if (!findButton.isDisposed()) {
+          findButton.setText("Find");
+          setStatus(matches.size() + " found, stopped");
+        }
+      }
+    }
+
+    /**
+     * Stops any running search and clears the matches, as they no longer apply to the memory shown.
+     */
+    public void reset() {
+      stop();
+      matches.clear();
+      resultsCombo.refresh();
+      setStatus("");
+    }
+  }
+
+  /**
+   * Controls to pick a baseline command, whose memory the memory of the selected command is
+   * compared to, and to jump to the changed regions.
+   */
+  private static class DiffBar extends Composite {
+    private final Button baselineButton;
+    private final Label baselineLabel;
+    private final ComboViewer regionsCombo;
+    private final Label statusLabel;
+    private List<Service.MemoryRange> regions = Collections.emptyList();
+
+    public DiffBar(Composite parent, Runnable baselineListener, LongConsumer regionListener) {
+      super(parent, SWT.NONE);
+      setLayout(new GridLayout(4, false));
+
+      baselineButton = createButton(this, "Set Baseline", e -> baselineListener.run());
+      baselineLabel = createLabel(this, "");
+      regionsCombo = createDropDownViewer(this);
+      regionsCombo.setContentProvider(ArrayContentProvider.getInstance());
+      regionsCombo.setLabelProvider(new LabelProvider() {
+        @Override
+        public String getText(Object element) {
+          Service.MemoryRange range = (Service.MemoryRange)element;
+          return String.format("0x%016x (%d byte%s)",
+              range.getBase(), range.getSize(), range.getSize() == 1 ? "" : "s");
+        }
+      });
+      regionsCombo.setInput(regions);
+      statusLabel = createLabel(this, "");
+
+      baselineButton.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      baselineLabel.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      regionsCombo.getCombo().setLayoutData(new GridData(SWT.FILL, SWT.CENTER, false, false));
+      statusLabel.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+
+      regionsCombo.getCombo().addListener(SWT.Selection, e -> {
+        int index = regionsCombo.getCombo().getSelectionIndex();
+        if (index >= 0) {
+          regionListener.accept(regions.get(index).getBase());
+        }
+      });
+      setBaseline(null);
+    }
+
+    public void setBaseline(Path.Command baseline) {
+      baselineButton.setText((baseline == null) ? "Set Baseline" : "Clear Baseline");
+      baselineLabel.setText((baseline == null) ? "Compare memory to another command" :
+          "Changes since command " + Joiner.on('.').join(baseline.getIndicesList()));
+      setRegions(Collections.emptyList(), "");
+    }
+
+    public void setRegions(List<Service.MemoryRange> newRegions, String status) {
+      regions = newRegions;
+      regionsCombo.setInput(regions);
+      regionsCombo.getCombo().setVisible(!regions.isEmpty());
+      statusLabel.setText(status);
+      requestLayout();
+    }
+  }
+
+  /**
+   * Controls to define a {@link MemoryStruct.Layout}, such as a vertex format or a uniform block,
+   * to show the memory as records of, instead of as values of the selected data type.
+   */
+  private static class StructBar extends Composite {
+    private final Consumer<MemoryStruct.Layout> layoutListener;
+    private final Text layoutText;
+    private final Button clearButton;
+    private final Label statusLabel;
+
+    public StructBar(Composite parent, Consumer<MemoryStruct.Layout> layoutListener) {
+      super(parent, SWT.NONE);
+      this.layoutListener = layoutListener;
+      setLayout(new GridLayout(5, false));
+
+      createLabel(this, "Struct:").setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      layoutText = createTextbox(this, "");
+      layoutText.setMessage("e.g. vec3 position; vec2 uv; uint32 color; stride 32");
+      Button showButton = createButton(this, "Show Records", e -> show());
+      clearButton = createButton(this, "Clear", e -> {
+        layoutListener.accept(null);
+        clearButton.setEnabled(false);
+        setStatus("");
+      });
+      statusLabel = createLabel(this, "");
+
+      layoutText.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+      showButton.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      clearButton.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      statusLabel.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+
+      layoutText.addListener(SWT.DefaultSelection, e -> show());
+      clearButton.setEnabled(false);
+    }
+
+    private void show() {
+      MemoryStruct.Layout layout;
+      try {
+        layout = MemoryStruct.Layout.parse(layoutText.getText());
+      } catch (IllegalArgumentException e) {
+        setStatus(e.getMessage());
+        return;
+      }
+      if (StructMemoryModel.getLineLength(layout) > MemoryPanel.MAX_LINE_LENGTH) {
+        setStatus("Too many fields to show a record on a line");
+        return;
+      }
+      layoutListener.accept(layout);
+      setStatus(layout.stride + " byte records: " + layout);
+      clearButton.setEnabled(true);
+    }
+
+    private void setStatus(String status) {
+      statusLabel.setText(status);
+      statusLabel.requestLayout();
+    }
+  }
+
   /**
    * Bookkeeping of the current UI state.
    */
   private static class State {
     public DataType dataType = DataType.Byte;
+    public MemoryStruct.Layout layout;
+    // The address of a record, when showing the memory as records of the layout.
+    public long structBase;
     public Path.Command atomPath;
     public int pool = -1;
     public long offset = -1;
@@ -366,6 +807,7 @@ public class MemoryView extends Composite
       if (memoryPath != null) {
         pool = memoryPath.getPool();
         offset = Long.remainderUnsigned(memoryPath.getAddress(), FixedMemoryModel.BYTES_PER_ROW);
+        structBase = memoryPath.getAddress();
         lastAddress = UnsignedLong.MAX_VALUE.longValue(); // TODO
         atomPath = memoryPath.getAfter();
       }
@@ -385,30 +827,54 @@ public class MemoryView extends Composite
       return false;
     }
 
+    public boolean setLayout(MemoryStruct.Layout newLayout, long base) {
+      if (layout == null && newLayout == null) {
+        return false;
+      }
+      layout = newLayout;
+      structBase = base;
+      return true;
+    }
+
     public boolean isComplete() {
       return atomPath != null && offset >= 0 && pool >= 0;
     }
 
-    public MemoryDataModel createMemoryDataModel(Client client) {
+    /**
+     * @return a new {@link MemoryDataModel} for the current command and pool, fetching pages
+     *     through the given cache, which is shared by all models, so that switching the data type
+     *     does not fetch the memory again. If a diff is given, the bytes that changed since its
+     *     baseline are highlighted.
+     */
+    public PagedMemoryDataModel createMemoryDataModel(
+        MemoryPageCache pages, MemoryDiff diff) {
       final Path.Command curAtomPath = atomPath;
       final int curPool = pool;
-      PagedMemoryDataModel.MemoryFetcher fetcher = (address, count) ->
-          Futures.transform(client.get(Paths.memoryAfter(curAtomPath, curPool, address, count)),
-              value -> value.getMemory());
-
-
-      return new PagedMemoryDataModel(fetcher, offset, lastAddress);
+      PagedMemoryDataModel.MemoryFetcher fetcher = (address, count, priority) -> {
+        Path.Any path = Paths.memoryAfter(curAtomPath, curPool, address, count);
+        // Look up cached pages synchronously, so they can be painted right away.
+        Service.Memory cached = pages.getIfPresent(path);
+        return (cached != null) ? Futures.immediateFuture(cached) : pages.get(path, priority);
+      };
+      PagedMemoryDataModel.ChangeFetcher changes =
+          (diff == null) ? null : (address, count, priority) -> {
+        Path.Any path = Paths.memoryAfter(curAtomPath, curPool, address, count);
+        List<Service.MemoryRange> cached = diff.getChangesIfPresent(path);
+        return (cached != null) ? Futures.immediateFuture(cached) : diff.getChanges(path, priority);
+      };
+      long first = (layout == null) ? offset : Long.remainderUnsigned(structBase, layout.stride);
+      return new PagedMemoryDataModel(fetcher, changes, first, lastAddress);
     }
 
     public MemoryModel getMemoryModel(MemoryDataModel data) {
-      return dataType.getMemoryModel(data);
+      return (layout == null) ? dataType.getMemoryModel(data) : new StructMemoryModel(data, layout);
     }
   }
 
   /**
    * The memory data can be visualized as different atomic data types to ease buffer inspection.
    */
-  private static enum DataType {
+  static enum DataType {
     Byte() {
       @Override
       public MemoryModel getMemoryModel(MemoryDataModel memory) {
@@ -464,9 +930,10 @@ public class MemoryView extends Composite
    * Panel displaying the actual memory data.
    */
   private static class MemoryPanel implements InfiniteScrolledComposite.Scrollable {
+    public static final int MAX_LINE_LENGTH = 255;
+
     public final int lineHeight;
-    public final BigInteger lineHeightBig;
-    private final int[] charOffset = new int[256];
+    private final int[] charOffset = new int[MAX_LINE_LENGTH + 1];
 
     private final Loadable loadable;
     private final Theme theme;
@@ -483,7 +950,6 @@ public class MemoryView extends Composite
       GC gc = new GC(parent);
       gc.setFont(font);
       lineHeight = gc.getFontMetrics().getHeight();
-      lineHeightBig = BigInteger.valueOf(lineHeight);
       StringBuilder sb = new StringBuilder();
       for (int i = 1; i < charOffset.length; i++) {
         charOffset[i] = gc.stringExtent(sb.append('0').toString()).x;
@@ -502,9 +968,9 @@ public class MemoryView extends Composite
           if (isSelectionButton(e)) {
             if ((e.stateMask & SWT.SHIFT) != 0 && selection != null) {
               selecting = true;
-              updateSelection(parent.getLocation(e));
+              updateSelection(e.x, e.y);
             } else {
-              startSelecting(parent.getLocation(e));
+              startSelecting(e.x, e.y);
             }
             parent.redraw();
           }
@@ -525,9 +991,9 @@ public class MemoryView extends Composite
         public void mouseMove(MouseEvent e) {
           if (isSelectionButtonDown(e)) {
             if (selection == null) {
-              startSelecting(parent.getLocation(e));
+              startSelecting(e.x, e.y);
             } else {
-              updateSelection(parent.getLocation(e));
+              updateSelection(e.x, e.y);
             }
           }
         }
@@ -536,23 +1002,24 @@ public class MemoryView extends Composite
         public void widgetSelected(SelectionEvent e) {
           // Scrollbar was moved / mouse wheel caused scrolling.
           if (selecting) {
+            Point mouse = parent.getMouseLocation();
             if (selection == null) {
-              startSelecting(parent.getMouseLocation());
+              startSelecting(mouse.x, mouse.y);
             } else {
-              updateSelection(parent.getMouseLocation());
+              updateSelection(mouse.x, mouse.y);
             }
           }
         }
 
-        private void startSelecting(BigPoint location) {
+        private void startSelecting(int mouseX, int mouseY) {
           selecting = true;
-          long y = location.y.divide(lineHeightBig).longValueExact();
-          if (y < 0 || y >= model.getLineCount()) {
+          long y = parent.getContentY(mouseY);
+          if (mouseY < 0 || Long.compareUnsigned(y, model.getLineCount()) >= 0) {
             selection = null;
             copyPaste.updateCopyState();
             return;
           }
-          selectionPoint.set(getCharColumn(location.x.intValue()), y);
+          selectionPoint.set(getCharColumn((int)parent.getContentX(mouseX)), y);
           IntRange range = model.getSelectableRegion((int)selectionPoint.x);
           if (range != null) {
             selection = new Selection(range, selectionPoint, selectionPoint);
@@ -560,11 +1027,11 @@ public class MemoryView extends Composite
           }
         }
 
-        private void updateSelection(BigPoint location) {
+        private void updateSelection(int mouseX, int mouseY) {
           int x = Math.max(selection.range.from,
-              Math.min(selection.range.to, getCharColumn(location.x.intValueExact())));
-          long y = location.y.divide(lineHeightBig).max(BigInteger.ZERO).longValueExact();
-          if (y >= model.getLineCount()) {
+              Math.min(selection.range.to, getCharColumn((int)parent.getContentX(mouseX))));
+          long y = parent.getContentY(mouseY);
+          if (Long.compareUnsigned(y, model.getLineCount()) >= 0) {
             y = model.getLineCount() - 1;
             x = selection.range.to;
           }
@@ -605,50 +1072,58 @@ public class MemoryView extends Composite
     }
 
     @Override
-    public BigInteger getWidth() {
-      return (model == null) ?
-          BigInteger.ZERO : BigInteger.valueOf(charOffset[model.getLineLength()]);
+    public long getWidth() {
+      return (model == null) ? 0 : charOffset[model.getLineLength()];
+    }
+
+    @Override
+    public int getUnitHeight() {
+      return lineHeight;
     }
 
     @Override
-    public BigInteger getHeight() {
-      return (model == null) ? BigInteger.ZERO :
-        BigInteger.valueOf(model.getLineCount()).multiply(lineHeightBig);
+    public long getHeight() {
+      return (model == null) ? 0 : model.getLineCount();
     }
 
     @Override
-    public void paint(BigInteger xOffset, BigInteger yOffset, GC gc) {
+    public void paint(long xUnit, int xPoints, long yUnit, int yPoints, GC gc) {
       if (model == null) {
         return;
       }
 
       gc.setFont(font);
       Rectangle clip = gc.getClipping();
-      BigInteger startY = yOffset.add(BigInteger.valueOf(top(clip)));
-      long startRow = startY.divide(lineHeightBig)
-          .max(BigInteger.ZERO).min(BigInteger.valueOf(model.getLineCount() - 1)).longValueExact();
-      long endRow = startY.add(BigInteger.valueOf(clip.height + lineHeight - 1))
-          .divide(lineHeightBig)
-          .max(BigInteger.ZERO).min(BigInteger.valueOf(model.getLineCount())).longValueExact();
+      // The vertical units are lines, so the rows are offset by at most the visible line count.
+      int startY = Math.max(0, top(clip) + yPoints);
+      long startRow = Math.min(model.getLineCount() - 1, yUnit + startY / lineHeight);
+      long endRow = Math.min(model.getLineCount(),
+          yUnit + (startY + clip.height + lineHeight - 1) / lineHeight);
+      int maxY = bottom(clip);
 
       Color background = gc.getBackground();
       gc.setBackground(theme.memoryReadHighlight());
       for (Selection read : model.getReads(startRow, endRow, loadable)) {
-        highlight(gc, yOffset, read);
+        highlight(gc, yUnit, yPoints, maxY, read);
       }
 
       gc.setBackground(theme.memoryWriteHighlight());
       for (Selection write : model.getWrites(startRow, endRow, loadable)) {
-        highlight(gc, yOffset, write);
+        highlight(gc, yUnit, yPoints, maxY, write);
+      }
+
+      gc.setBackground(theme.memoryChangeHighlight());
+      for (Selection change : model.getChanges(startRow, endRow, loadable)) {
+        highlight(gc, yUnit, yPoints, maxY, change);
       }
 
       if (selection != null && selection.isSelectionVisible(startRow, endRow)) {
         gc.setBackground(theme.memorySelectionHighlight());
-        highlight(gc, yOffset, selection);
+        highlight(gc, yUnit, yPoints, maxY, selection);
       }
       gc.setBackground(background);
 
-      int y = getY(startRow, yOffset);
+      int y = getY(startRow, yUnit, yPoints, maxY);
       Iterator<Segment> it = model.getLines(startRow, endRow, loadable);
       for (; it.hasNext(); y += lineHeight) {
         Segment segment = it.next();
@@ -656,22 +1131,28 @@ public class MemoryView extends Composite
       }
     }
 
-    private int getY(long line, BigInteger yOffset) {
-      return BigInteger.valueOf(line)
-          .multiply(lineHeightBig).subtract(yOffset).intValueExact();
+    /**
+     * @return the y coordinate of the given line. Lines far outside of the visible area are
+     *     clamped to just outside of it, so that the coordinates of large selections fit in an int.
+     */
+    private int getY(long line, long yUnit, int yPoints, int maxY) {
+      long row = Math.max(-1, Math.min(line - yUnit, maxY / lineHeight + 2));
+      return (int)row * lineHeight - yPoints;
     }
 
-    private void highlight(GC gc, BigInteger yOffset, Selection range) {
+    private void highlight(GC gc, long yUnit, int yPoints, int maxY, Selection range) {
+      int startY = getY(range.startRow, yUnit, yPoints, maxY);
+      int endY = getY(range.endRow, yUnit, yPoints, maxY);
       if (range.startRow == range.endRow) {
         int so = charOffset[range.startCol], eo = charOffset[range.endCol];
-        gc.fillRectangle(so, getY(range.startRow, yOffset), eo - so, lineHeight);
+        gc.fillRectangle(so, startY, eo - so, lineHeight);
       } else {
         int so = charOffset[range.startCol], eo = charOffset[range.endCol];
         int fo = charOffset[range.range.from], to = charOffset[range.range.to];
-        gc.fillRectangle(so, getY(range.startRow, yOffset), to - so, lineHeight);
-        gc.fillRectangle(fo, getY(range.endRow, yOffset), eo - fo, lineHeight);
-        gc.fillRectangle(fo, getY(range.startRow + 1, yOffset), to - fo,
-            (int)(range.endRow - range.startRow - 1) * lineHeight);
+        int middleY = getY(range.startRow + 1, yUnit, yPoints, maxY);
+        gc.fillRectangle(so, startY, to - so, lineHeight);
+        gc.fillRectangle(fo, endY, eo - fo, lineHeight);
+        gc.fillRectangle(fo, middleY, to - fo, endY - middleY);
       }
     }
 
@@ -700,6 +1181,12 @@ public class MemoryView extends Composite
      */
     public ListenableFuture<MemorySegment> get(long offset, int length);
 
+    /**
+     * @return the size of the pages the data is loaded in. The segments of requests that fall
+     *     within a single page share the data of that page.
+     */
+    public int getPageSize();
+
     /**
      * @return a {@link MemoryDataModel} aligned to the given number of bytes.
      */
@@ -707,20 +1194,37 @@ public class MemoryView extends Composite
   }
 
   /**
-   * {@link MemoryDataModel} that requests segments as equally sized pages and maintains a cache of
-   * fetched pages.
+   * {@link MemoryDataModel} that requests segments as equally sized pages. Caching of the pages is
+   * left to the {@link MemoryFetcher}. Whenever a segment is requested, the pages following it in
+   * the direction in which the requested segments have moved are fetched ahead of time, at
+   * {@link Priority#Prefetch} priority. If a {@link ChangeFetcher} is given, the changed bytes of
+   * each page are fetched along with it.
    */
   private static class PagedMemoryDataModel implements MemoryDataModel {
     private static final int PAGE_SIZE = 0x10000;
+    private static final int READ_AHEAD_PAGES = 2;
+    /**
+     * The number of decoded pages kept, which need to cover at least the visible rows, so that
+     * painting does not decode and index the same page again.
+     */
+    private static final int SEGMENT_CACHE_PAGES = 4;
 
     private final MemoryFetcher fetcher;
+    private final ChangeFetcher changes;
+    private final Cache<Long, MemorySegment> segments =
+        CacheBuilder.newBuilder().maximumSize(SEGMENT_CACHE_PAGES).build();
     private final long address;
     private final long lastAddress;
-
-    private final Map<Long, SoftReference<ListenableFuture<Service.Memory>>> cache = Maps.newHashMap();
+    private long lastRequestedPage = -1;
 
     public PagedMemoryDataModel(MemoryFetcher fetcher, long address, long lastAddress) {
+      this(fetcher, null, address, lastAddress);
+    }
+
+    public PagedMemoryDataModel(
+        MemoryFetcher fetcher, ChangeFetcher changes, long address, long lastAddress) {
       this.fetcher = fetcher;
+      this.changes = changes;
       this.address = address;
       this.lastAddress = lastAddress;
     }
@@ -742,6 +1246,7 @@ public class MemoryView extends Composite
 
       long firstPage = getPageForOffset(offset);
       long lastPage = getPageForOffset(offset + length - 1);
+      readAhead(firstPage, lastPage);
       if (firstPage == lastPage) {
         return getPage(firstPage, getOffsetInPage(offset), length);
       }
@@ -770,42 +1275,109 @@ public class MemoryView extends Composite
     }
 
     private ListenableFuture<MemorySegment> getPage(long page, int offset, int length) {
-      ListenableFuture<Service.Memory> mem = getFromCache(page);
-      if (mem == null) {
-        long base = address + getOffsetForPage(page);
-        mem = fetcher.get(base, (int)UnsignedLongs.min(lastAddress - base, PAGE_SIZE - 1) + 1);
-        addToCache(page, mem);
+      MemorySegment cached = segments.getIfPresent(page);
+      if (cached != null) {
+        return Futures.immediateFuture(cached.subSegment(offset, length));
       }
-      return Futures.transform(mem, memory -> new MemorySegment(memory).subSegment(offset, length));
+      return Futures.transform(loadPage(page, Priority.Interactive), segment -> {
+        segments.put(page, segment);
+        return segment.subSegment(offset, length);
+      });
     }
 
-    private ListenableFuture<Service.Memory> getFromCache(long page) {
-      ListenableFuture<Service.Memory> result = null;
-      synchronized (cache) {
-        SoftReference<ListenableFuture<Service.Memory>> reference = cache.get(page);
-        if (reference != null) {
-          result = reference.get();
-          if (result == null) {
-            cache.remove(page);
-          }
+    private ListenableFuture<MemorySegment> loadPage(long page, Priority priority) {
+      if (changes == null) {
+        return Futures.transform(fetchPage(page, priority), memory -> new MemorySegment(memory));
+      }
+      ListenableFuture<Service.Memory> memory = fetchPage(page, priority);
+      ListenableFuture<List<Service.MemoryRange>> changed = fetchChanges(page, priority);
+      return Futures.whenAllSucceed(memory, changed).call(
+          () -> new MemorySegment(Futures.getDone(memory), Futures.getDone(changed)),
+          MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Service.Memory> fetchPage(long page, Priority priority) {
+      long base = address + getOffsetForPage(page);
+      return fetcher.get(base, getPageSize(base), priority);
+    }
+
+    private ListenableFuture<List<Service.MemoryRange>> fetchChanges(long page, Priority priority) {
+      long base = address + getOffsetForPage(page);
+      return changes.get(base, getPageSize(base), priority);
+    }
+
+    private int getPageSize(long base) {
+      return (int)UnsignedLongs.min(lastAddress - base, PAGE_SIZE - 1) + 1;
+    }
+
+    /**
+     * @return the pages, as ranges of absolute addresses, covering the given ranges, in ascending
+     *     address order.
+     */
+    public List<Service.MemoryRange> getPages(List<Service.MemoryRange> ranges) {
+      TreeSet<Long> pages = Sets.newTreeSet();
+      for (Service.MemoryRange range : ranges) {
+        if (range.getSize() == 0) {
+          continue;
+        }
+        long first = UnsignedLongs.max(range.getBase(), address);
+        long last = UnsignedLongs.min(range.getBase() + range.getSize() - 1, lastAddress);
+        if (UnsignedLongs.compare(first, last) > 0) {
+          continue;
+        }
+        long end = getPageForOffset(last - address);
+        for (long page = getPageForOffset(first - address); page <= end; page++) {
+          pages.add(page);
         }
       }
+      List<Service.MemoryRange> result = Lists.newArrayList();
+      for (long page : pages) {
+        long base = address + getOffsetForPage(page);
+        result.add(memory(base, getPageSize(base)));
+      }
       return result;
     }
 
-    private void addToCache(long page, ListenableFuture<Service.Memory> data) {
-      synchronized (cache) {
-        cache.put(page, new SoftReference<ListenableFuture<Service.Memory>>(data));
+    /**
+     * Starts fetching the pages following the requested pages, in the direction in which the
+     * requests have moved since the last request.
+     */
+    private void readAhead(long firstPage, long lastPage) {
+      boolean up = lastRequestedPage >= 0 && firstPage < lastRequestedPage;
+      lastRequestedPage = firstPage;
+      for (int i = 1; i <= READ_AHEAD_PAGES; i++) {
+        long page = up ? firstPage - i : lastPage + i;
+        if (page < 0 ||
+            Long.compareUnsigned(getOffsetForPage(page), lastAddress - address) > 0) {
+          break;
+        }
+        fetchPage(page, Priority.Prefetch);
+        if (changes != null) {
+          fetchChanges(page, Priority.Prefetch);
+        }
       }
     }
 
+    @Override
+    public int getPageSize() {
+      return PAGE_SIZE;
+    }
+
     @Override
     public MemoryDataModel align(int byteAlign) {
       return this;
     }
 
     public interface MemoryFetcher {
-      ListenableFuture<Service.Memory> get(long address, long count);
+      ListenableFuture<Service.Memory> get(long address, long count, Priority priority);
+    }
+
+    public interface ChangeFetcher {
+      /**
+       * @return the ranges, relative to the given address, of the changed bytes.
+       */
+      ListenableFuture<List<Service.MemoryRange>> get(
+          long address, long count, Priority priority);
     }
   }
 
@@ -823,6 +1395,11 @@ public class MemoryView extends Composite
      */
     public int getLineLength();
 
+    /**
+     * @return the number of bytes shown in each line.
+     */
+    public int getBytesPerLine();
+
     /**
      * @return an {@link Iterator} over the given range of lines.
      */
@@ -843,6 +1420,11 @@ public class MemoryView extends Composite
      */
     public Selection[] getWrites(long startRow, long endRow, Loadable loadable);
 
+    /**
+     * @return the selections of bytes changed since the baseline within the given range of rows.
+     */
+    public Selection[] getChanges(long startRow, long endRow, Loadable loadable);
+
     /**
      * @return the given selected memory area as copy-paste content.
      */
@@ -858,15 +1440,19 @@ public class MemoryView extends Composite
     private final static Selection[] NO_SELECTIONS = new Selection[0];
 
     protected final MemoryDataModel data;
+    protected final int bytesPerRow;
     protected final long rows;
 
     public FixedMemoryModel(MemoryDataModel data) {
+      this(data, BYTES_PER_ROW);
+    }
+
+    public FixedMemoryModel(MemoryDataModel data, int bytesPerRow) {
       this.data = data;
-      this.rows =
-          UnsignedLong.fromLongBits(data.getEndAddress() - data.getAddress()).bigIntegerValue()
-          .add(BigInteger.valueOf(BYTES_PER_ROW))
-          .divide(BigInteger.valueOf(BYTES_PER_ROW))
-          .longValueExact();
+      this.bytesPerRow = bytesPerRow;
+      long lastRow = Long.divideUnsigned(data.getEndAddress() - data.getAddress(), bytesPerRow);
+      // Only strides of a byte or two have more rows than fit, of which the last are not shown.
+      this.rows = (lastRow < 0 || lastRow == Long.MAX_VALUE) ? Long.MAX_VALUE : lastRow + 1;
     }
 
     @Override
@@ -874,13 +1460,25 @@ public class MemoryView extends Composite
       return rows;
     }
 
-    private MemorySegment getMemorySegment(long startRow, long endRow, Loadable loadable) {
+    @Override
+    public int getBytesPerLine() {
+      return bytesPerRow;
+    }
+
+    private void checkRows(long startRow, long endRow) {
       if (startRow < 0 || endRow < startRow || endRow > getLineCount()) {
         throw new IndexOutOfBoundsException(
             "[" + startRow + ", " + endRow + ") outside of [0, " + getLineCount() + ")");
       }
-      ListenableFuture<MemorySegment> future =
-          data.get(startRow * BYTES_PER_ROW, (int)(endRow - startRow) * BYTES_PER_ROW);
+    }
+
+    private MemorySegment getMemorySegment(long startRow, long endRow, Loadable loadable) {
+      checkRows(startRow, endRow);
+      return getIfDone(
+          data.get(startRow * bytesPerRow, (int)(endRow - startRow) * bytesPerRow), loadable);
+    }
+
+    protected static <T> T getIfDone(ListenableFuture<T> future, Loadable loadable) {
       if (future.isDone()) {
         loadable.stopLoading();
         return Futures.getUnchecked(future);
@@ -891,25 +1489,51 @@ public class MemoryView extends Composite
       }
     }
 
+    /**
+     * @return the segments, one per page, of the given rows. Unlike a single segment spanning
+     *     multiple pages, these share the data of their page, so that lines formatted from them can
+     *     be cached for as long as the page stays loaded.
+     */
+    protected ListenableFuture<List<MemorySegment>> getPages(long startRow, long endRow) {
+      checkRows(startRow, endRow);
+      long rowsPerPage = getRowsPerPage();
+      List<ListenableFuture<MemorySegment>> pages = Lists.newArrayList();
+      for (long row = startRow; row < endRow; ) {
+        long end = Math.min(endRow, (row / rowsPerPage + 1) * rowsPerPage);
+        pages.add(data.get(row * bytesPerRow, (int)(end - row) * bytesPerRow));
+        row = end;
+      }
+      return Futures.allAsList(pages);
+    }
+
+    protected long getRowsPerPage() {
+      return Math.max(1, data.getPageSize() / bytesPerRow);
+    }
+
     @Override
     public Iterator<Segment> getLines(long startRow, long endRow, Loadable loadable) {
-      MemorySegment segment = getMemorySegment(startRow, endRow, loadable);
-      if (segment != null) {
-        return getLines(startRow, endRow, segment);
+      List<MemorySegment> pages = getIfDone(getPages(startRow, endRow), loadable);
+      if (pages != null) {
+        return getLines(startRow, endRow, pages);
       } else {
         return Collections.emptyIterator();
       }
     }
 
-    protected Iterator<Segment> getLines(long startRow, long endRow, MemorySegment memory) {
+    /**
+     * @return an {@link Iterator} over the given rows, whose memory is given by the consecutive
+     *     segments. The returned {@link Segment} is reused between the lines.
+     */
+    protected Iterator<Segment> getLines(long startRow, long endRow, List<MemorySegment> pages) {
       return new Iterator<Segment>() {
         private long pos = startRow;
+        private int page = 0;
         private int offset = 0;
         private final Segment segment = new Segment(null, 0, 0);
 
         @Override
         public boolean hasNext() {
-          return pos < endRow;
+          return pos < endRow && page < pages.size();
         }
 
         @Override
@@ -917,9 +1541,14 @@ public class MemoryView extends Composite
           if (!hasNext()) {
             throw new NoSuchElementException();
           }
-          getLine(segment, memory.subSegment(offset, BYTES_PER_ROW), pos);
+          MemorySegment memory = pages.get(page);
+          getLine(segment, memory, offset, pos);
           pos++;
-          offset += BYTES_PER_ROW;
+          offset += bytesPerRow;
+          if (offset >= memory.length) {
+            page++;
+            offset = 0;
+          }
           return segment;
         }
 
@@ -930,25 +1559,39 @@ public class MemoryView extends Composite
       };
     }
 
-    protected abstract void getLine(Segment segment, MemorySegment memory, long line);
+    /**
+     * Sets the given segment to the given line, whose memory starts at the given offset into the
+     * given page segment.
+     */
+    protected abstract void getLine(Segment segment, MemorySegment page, int offset, long line);
 
     protected abstract IntRange[] getDataRanges();
 
     @Override
     public Selection[] getReads(long startRow, long endRow, Loadable loadable) {
       MemorySegment memory = getMemorySegment(startRow, endRow, loadable);
-      return memory == null || memory.reads == null || memory.reads.isEmpty() ? NO_SELECTIONS
-          : getSelections(memory.reads, (startRow * BYTES_PER_ROW) - memory.offset);
+      return (memory == null) ? NO_SELECTIONS :
+          getSelections(memory.getReads(), (startRow * bytesPerRow) - memory.offset);
     }
 
     @Override
     public Selection[] getWrites(long startRow, long endRow, Loadable loadable) {
       MemorySegment memory = getMemorySegment(startRow, endRow, loadable);
-      return memory == null || memory.writes == null || memory.writes.isEmpty() ? NO_SELECTIONS
-          : getSelections(memory.writes, (startRow * BYTES_PER_ROW) - memory.offset);
+      return (memory == null) ? NO_SELECTIONS :
+          getSelections(memory.getWrites(), (startRow * bytesPerRow) - memory.offset);
+    }
+
+    @Override
+    public Selection[] getChanges(long startRow, long endRow, Loadable loadable) {
+      MemorySegment memory = getMemorySegment(startRow, endRow, loadable);
+      return (memory == null) ? NO_SELECTIONS :
+          getSelections(memory.getChanges(), (startRow * bytesPerRow) - memory.offset);
     }
 
     private Selection[] getSelections(List<Service.MemoryRange> operation, long offset) {
+      if (operation.isEmpty()) {
+        return NO_SELECTIONS;
+      }
       IntRange[] ranges = getDataRanges();
       Selection[] shapes = new Selection[operation.size() * ranges.length];
       for (int ri = 0; ri < ranges.length; ri++) {
@@ -959,22 +1602,29 @@ public class MemoryView extends Composite
           long endOffset = offset + memoryRange.getBase() + memoryRange.getSize();
           int endCol = getColForOffset(ranges[ri], endOffset, false);
           shapes[ri * operation.size() + oi] = new Selection(ranges[ri], startCol,
-              Long.divideUnsigned(startOffset, BYTES_PER_ROW), endCol,
-              Long.divideUnsigned(endOffset, BYTES_PER_ROW));
+              Long.divideUnsigned(startOffset, bytesPerRow), endCol,
+              Long.divideUnsigned(endOffset, bytesPerRow));
         }
       }
       return shapes;
     }
 
-    private static int getColForOffset(IntRange range, long offset, boolean start) {
+    /**
+     * @return the column of the given range at which the byte at the given offset is shown, if
+     *     start, or at which the byte before it ends, if not start.
+     */
+    protected int getColForOffset(IntRange range, long offset, boolean start) {
       double positionOffset = (range.to - range.from) *
-          ((double)Long.remainderUnsigned(offset, BYTES_PER_ROW)) / BYTES_PER_ROW;
+          ((double)Long.remainderUnsigned(offset, bytesPerRow)) / bytesPerRow;
       return range.from + (int)(start ? Math.ceil(positionOffset) : positionOffset);
     }
   }
 
   /**
-   * A {@link MemoryModel} that uses a char array as a buffer to compute the displayed strings.
+   * A {@link MemoryModel} that uses a char array as a buffer to compute the displayed strings. The
+   * formatted lines of the most recently shown pages are kept, so that repainting does not format
+   * them again, until the data of their page is reloaded. Since a model formats a single data type,
+   * changing the type creates a new model along with a new cache.
    */
   private static abstract class CharBufferMemoryModel extends FixedMemoryModel {
     protected static final int CHARS_PER_ADDRESS = 16; // 8 byte addresses
@@ -982,14 +1632,37 @@ public class MemoryView extends Composite
     protected static final int ADDRESS_CHARS = CHARS_PER_ADDRESS + ADDRESS_SEPARATOR;
     protected static final IntRange ADDRESS_RANGE = new IntRange(0, CHARS_PER_ADDRESS);
     protected static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    /**
+     * The number of pages whose formatted lines are kept, which, just like the decoded pages of
+     * the {@link PagedMemoryDataModel}, need to cover at least the visible rows.
+     */
+    private static final int LINE_CACHE_PAGES = 4;
 
     protected final int charsPerRow;
     protected final IntRange memoryRange;
+    private final Cache<Long, FormattedPage> lines;
+    // The lines of the last evicted page, which are reused for the next page.
+    private FormattedPage spare;
+    // Scratch buffer used to format the values that are not formatted digit by digit.
+    protected final StringBuilder scratch = new StringBuilder(32);
 
     public CharBufferMemoryModel(MemoryDataModel data, int charsPerRow, IntRange memoryRange) {
-      super(data);
+      this(data, BYTES_PER_ROW, charsPerRow, memoryRange);
+    }
+
+    public CharBufferMemoryModel(
+        MemoryDataModel data, int bytesPerRow, int charsPerRow, IntRange memoryRange) {
+      super(data, bytesPerRow);
       this.charsPerRow = charsPerRow;
       this.memoryRange = memoryRange;
+      this.lines = CacheBuilder.newBuilder()
+          .maximumSize(LINE_CACHE_PAGES)
+          .removalListener((RemovalNotification<Long, FormattedPage> removed) -> {
+            if (removed.wasEvicted()) {
+              spare = removed.getValue();
+            }
+          })
+          .build();
     }
 
     @Override
@@ -997,28 +1670,71 @@ public class MemoryView extends Composite
       return charsPerRow;
     }
 
-    protected static void appendUnknown(StringBuilder str, int n) {
-      for (int i = 0; i < n; i++) {
-        str.append(UNKNOWN_CHAR);
+    @Override
+    protected void getLine(Segment segment, MemorySegment page, int offset, long line) {
+      long pageIndex = line / getRowsPerPage();
+      FormattedPage formatted = lines.getIfPresent(pageIndex);
+      if (formatted == null) {
+        formatted = (spare != null) ? spare : new FormattedPage((int)getRowsPerPage());
+        spare = null;
+        formatted.reset(page);
+        lines.put(pageIndex, formatted);
+      } else if (!formatted.isFormattedFrom(page)) {
+        formatted.reset(page);
       }
-    }
 
-    @Override
-    protected void getLine(Segment segment, MemorySegment memory, long line) {
-      segment.array = new char[charsPerRow];
+      int row = (int)(line % getRowsPerPage());
+      char[] array = formatted.get(row);
+      if (array == null) {
+        array = formatted.set(row, charsPerRow);
+        formatLine(array, page.subSegment(offset, bytesPerRow), line);
+      }
+      segment.array = array;
       segment.offset = 0;
       segment.count = charsPerRow;
-      formatLine(segment.array, memory, line);
     }
 
     private void formatLine(char[] array, MemorySegment memory, long line) {
       Arrays.fill(array, ' ');
-      long address = data.getAddress() + line * BYTES_PER_ROW;
+      formatAddress(array, line);
+      formatMemory(array, memory);
+    }
+
+    protected void formatAddress(char[] array, long line) {
+      long address = data.getAddress() + line * bytesPerRow;
       for (int i = CHARS_PER_ADDRESS - 1; i >= 0; i--, address >>>= 4) {
         array[i] = HEX_DIGITS[(int)address & 0xF];
       }
       array[CHARS_PER_ADDRESS] = ':';
-      formatMemory(array, memory);
+    }
+
+    /**
+     * Writes the given value, right aligned and truncated to the given number of characters, to
+     * the buffer at the given position.
+     */
+    protected void putFloat(char[] buffer, int pos, int chars, float value) {
+      scratch.setLength(0);
+      scratch.append(value);
+      putScratch(buffer, pos, chars);
+    }
+
+    /**
+     * Writes the given value, right aligned and truncated to the given number of characters, to
+     * the buffer at the given position.
+     */
+    protected void putDouble(char[] buffer, int pos, int chars, double value) {
+      scratch.setLength(0);
+      scratch.append(value);
+      putScratch(buffer, pos, chars);
+    }
+
+    private void putScratch(char[] buffer, int pos, int chars) {
+      int count = Math.min(chars, scratch.length());
+      scratch.getChars(0, count, buffer, pos + chars - count);
+    }
+
+    protected static void putUnknown(char[] buffer, int pos, int chars) {
+      Arrays.fill(buffer, pos, pos + chars, UNKNOWN_CHAR);
     }
 
     protected abstract void formatMemory(char[] buffer, MemorySegment memory);
@@ -1040,10 +1756,10 @@ public class MemoryView extends Composite
 
     @Override
     public CopyData[] getCopyData(Selection selection) {
-      return Futures.getUnchecked(Futures.transform(data.get(selection.startRow * BYTES_PER_ROW,
-          (int)(selection.endRow - selection.startRow + 1) * BYTES_PER_ROW), memory -> {
+      return Futures.getUnchecked(Futures.transform(
+          getPages(selection.startRow, selection.endRow + 1), pages -> {
             StringBuilder buffer = new StringBuilder();
-            Iterator<Segment> lines = getLines(selection.startRow, selection.endRow + 1, memory);
+            Iterator<Segment> lines = getLines(selection.startRow, selection.endRow + 1, pages);
             if (lines.hasNext()) {
               Segment segment = lines.next();
               if (selection.startRow == selection.endRow) {
@@ -1262,17 +1978,13 @@ public class MemoryView extends Composite
 
     @Override
     protected void formatMemory(char[] buffer, MemorySegment memory) {
-      StringBuilder sb = new StringBuilder(50);
       for (int i = 0, j = ADDRESS_CHARS; i + 1 < memory.length;
           i += 2, j += CHARS_PER_FLOAT + FLOAT_SEPARATOR) {
-        sb.setLength(0);
         if (memory.getShortKnown(i)) {
-          sb.append(Float16.shortBitsToFloat(memory.getShort(i)));
+          putFloat(buffer, j + 1, CHARS_PER_FLOAT, Float16.shortBitsToFloat(memory.getShort(i)));
         } else {
-          appendUnknown(sb, CHARS_PER_FLOAT);
+          putUnknown(buffer, j + 1, CHARS_PER_FLOAT);
         }
-        int count = Math.min(CHARS_PER_FLOAT, sb.length());
-        sb.getChars(0, count, buffer, j + CHARS_PER_FLOAT - count + 1);
       }
     }
   }
@@ -1298,17 +2010,13 @@ public class MemoryView extends Composite
 
     @Override
     protected void formatMemory(char[] buffer, MemorySegment memory) {
-      StringBuilder sb = new StringBuilder(50);
       for (int i = 0, j = ADDRESS_CHARS; i + 3 < memory.length;
           i += 4, j += CHARS_PER_FLOAT + FLOAT_SEPARATOR) {
-        sb.setLength(0);
         if (memory.getIntKnown(i)) {
-          sb.append(Float.intBitsToFloat(memory.getInt(i)));
+          putFloat(buffer, j + 1, CHARS_PER_FLOAT, Float.intBitsToFloat(memory.getInt(i)));
         } else {
-          appendUnknown(sb, CHARS_PER_FLOAT);
+          putUnknown(buffer, j + 1, CHARS_PER_FLOAT);
         }
-        int count = Math.min(CHARS_PER_FLOAT, sb.length());
-        sb.getChars(0, count, buffer, j + CHARS_PER_FLOAT - count + 1);
       }
     }
   }
@@ -1334,21 +2042,216 @@ public class MemoryView extends Composite
 
     @Override
     protected void formatMemory(char[] buffer, MemorySegment memory) {
-      StringBuilder sb = new StringBuilder(50);
       for (int i = 0, j = ADDRESS_CHARS; i + 7 < memory.length;
           i += 8, j += CHARS_PER_DOUBLE + DOUBLE_SEPARATOR) {
-        sb.setLength(0);
         if (memory.getLongKnown(i)) {
-          sb.append(Double.longBitsToDouble(memory.getLong(i)));
+          putDouble(buffer, j + 1, CHARS_PER_DOUBLE, Double.longBitsToDouble(memory.getLong(i)));
         } else {
-          appendUnknown(sb, CHARS_PER_DOUBLE);
+          putUnknown(buffer, j + 1, CHARS_PER_DOUBLE);
         }
-        int count = Math.min(CHARS_PER_DOUBLE, sb.length());
-        sb.getChars(0, count, buffer, j + CHARS_PER_DOUBLE - count + 1);
       }
     }
   }
 
+  /**
+   * {@link MemoryModel} displaying the data as the records of a {@link MemoryStruct.Layout}, a
+   * record per line. The memory is decoded into the values of the records a block at a time, while
+   * the lines are only formatted from the decoded values once they are shown.
+   */
+  private static class StructMemoryModel extends CharBufferMemoryModel {
+    private static final int ITEM_SEPARATOR = 1;
+    private static final int FIELD_SEPARATOR = 2;
+    /**
+     * The number of bytes of the records decoded at once.
+     */
+    private static final int BLOCK_SIZE = 0x10000;
+    /**
+     * The number of decoded blocks kept.
+     */
+    private static final int BLOCK_CACHE_SIZE = 8;
+
+    private final MemoryStruct.Layout layout;
+    // The first character of each of the layout's columns, followed by the line length.
+    private final int[] starts;
+    private final int recordsPerBlock;
+    private final FutureCache<Long, Block> blocks;
+
+    public StructMemoryModel(MemoryDataModel data, MemoryStruct.Layout layout) {
+      this(data, layout, getColumnStarts(layout));
+    }
+
+    private StructMemoryModel(MemoryDataModel data, MemoryStruct.Layout layout, int[] starts) {
+      super(data, layout.stride, starts[starts.length - 1],
+          new IntRange(ADDRESS_CHARS + ITEM_SEPARATOR, starts[starts.length - 1]));
+      this.layout = layout;
+      this.starts = starts;
+      this.recordsPerBlock = Math.max(1, BLOCK_SIZE / layout.stride);
+      this.blocks = new FutureCache<Long, Block>(
+          CacheBuilder.newBuilder().maximumSize(BLOCK_CACHE_SIZE).build(),
+          this::decodeBlock, block -> true);
+    }
+
+    /**
+     * @return the number of characters of a line showing a record of the given layout.
+     */
+    public static int getLineLength(MemoryStruct.Layout layout) {
+      int[] starts = getColumnStarts(layout);
+      return starts[starts.length - 1];
+    }
+
+    private static int[] getColumnStarts(MemoryStruct.Layout layout) {
+      int[] starts = new int[layout.getColumnCount() + 1];
+      int pos = ADDRESS_CHARS, column = 0;
+      for (MemoryStruct.Field field : layout.fields) {
+        if (column > 0) {
+          pos += FIELD_SEPARATOR;
+        }
+        for (int i = 0; i < field.count; i++, column++) {
+          pos += ITEM_SEPARATOR;
+          starts[column] = pos;
+          pos += field.type.chars;
+        }
+      }
+      starts[column] = pos;
+      return starts;
+    }
+
+    private ListenableFuture<Block> decodeBlock(long block) {
+      int length = recordsPerBlock * layout.stride;
+      return Futures.transform(data.get(block * length, length),
+          memory -> new Block(memory.decode(layout), recordsPerBlock));
+    }
+
+    @Override
+    public Iterator<Segment> getLines(long startRow, long endRow, Loadable loadable) {
+      // Decode the blocks of the shown records first, so that the lines are formatted from them.
+      List<ListenableFuture<Block>> decoded = Lists.newArrayList();
+      for (long block = startRow / recordsPerBlock; block * recordsPerBlock < endRow; block++) {
+        decoded.add(blocks.get(block));
+      }
+      if (getIfDone(Futures.allAsList(decoded), loadable) == null) {
+        return Collections.emptyIterator();
+      }
+      return super.getLines(startRow, endRow, loadable);
+    }
+
+    @Override
+    protected void getLine(Segment segment, MemorySegment page, int offset, long line) {
+      Block block = blocks.getIfPresent(line / recordsPerBlock);
+      int record = (int)(line % recordsPerBlock);
+      if (block == null || record >= block.records.count) {
+        // The record has not been decoded, or it is only partially contained in the memory.
+        super.getLine(segment, page, offset, line);
+        return;
+      }
+
+      char[] array = block.lines.get(record);
+      if (array == null) {
+        array = block.lines.set(record, charsPerRow);
+        Arrays.fill(array, ' ');
+        formatAddress(array, line);
+        formatRecord(array, block.records, record);
+      }
+      segment.array = array;
+      segment.offset = 0;
+      segment.count = charsPerRow;
+    }
+
+    @Override
+    protected void formatMemory(char[] buffer, MemorySegment memory) {
+      formatRecord(buffer, memory.decode(layout), 0);
+    }
+
+    private void formatRecord(char[] buffer, MemoryStruct.Records records, int record) {
+      int column = 0;
+      for (MemoryStruct.Field field : layout.fields) {
+        if (column > 0) {
+          buffer[starts[column] - ITEM_SEPARATOR - 1] = '|';
+        }
+        for (int i = 0; i < field.count; i++, column++) {
+          records.format(record, column, buffer, starts[column], scratch);
+        }
+      }
+    }
+
+    /**
+     * The columns are not necessarily in order of their offsets, e.g. if fields overlap, so all of
+     * them are searched: a selection starts at the leftmost column ending after the given offset
+     * and ends at the rightmost column starting before it.
+     */
+    @Override
+    protected int getColForOffset(IntRange range, long offset, boolean start) {
+      int inRecord = (int)Long.remainderUnsigned(offset, bytesPerRow);
+      int result = start ? range.to : range.from;
+      for (int c = 0; c < layout.getColumnCount(); c++) {
+        int columnOffset = layout.getColumnOffset(c);
+        if (start && columnOffset + layout.getColumnType(c).size > inRecord) {
+          result = Math.min(result, starts[c]);
+        } else if (!start && columnOffset < inRecord) {
+          result = Math.max(result, starts[c] + layout.getColumnType(c).chars);
+        }
+      }
+      return result;
+    }
+
+    /**
+     * The decoded records of a block, along with their lines, once formatted.
+     */
+    private static class Block {
+      public final MemoryStruct.Records records;
+      public final FormattedPage lines;
+
+      public Block(MemoryStruct.Records records, int recordsPerBlock) {
+        this.records = records;
+        this.lines = new FormattedPage(recordsPerBlock);
+      }
+    }
+  }
+
+  /**
+   * The formatted lines of a page, or of a block of records, which are formatted on demand.
+   */
+  private static class FormattedPage {
+    private final char[][] lines;
+    private final BitSet formatted;
+    private MemorySegment page;
+
+    public FormattedPage(int rows) {
+      this.lines = new char[rows][];
+      this.formatted = new BitSet(rows);
+    }
+
+    public boolean isFormattedFrom(MemorySegment segment) {
+      return page != null && page.sharesData(segment);
+    }
+
+    /**
+     * Marks all lines as not formatted, keeping their buffers to be reused for the given page.
+     */
+    public void reset(MemorySegment newPage) {
+      page = newPage;
+      formatted.clear();
+    }
+
+    /**
+     * @return the given formatted line, or {@code null} if it has not been formatted yet.
+     */
+    public char[] get(int row) {
+      return formatted.get(row) ? lines[row] : null;
+    }
+
+    /**
+     * @return the buffer to format the given line into, which is marked as formatted.
+     */
+    public char[] set(int row, int length) {
+      if (lines[row] == null || lines[row].length != length) {
+        lines[row] = new char[length];
+      }
+      formatted.set(row);
+      return lines[row];
+    }
+  }
+
   /**
    * A text selection range.
    */
@@ -1404,26 +2307,35 @@ public class MemoryView extends Composite
     protected final int offset;
     protected final int length;
 
-    protected final List<Service.MemoryRange> reads;
-    protected final List<Service.MemoryRange> writes;
+    // The ranges are relative to the start of the data, not the segment.
+    private final RangeIndex<Service.MemoryRange> reads;
+    private final RangeIndex<Service.MemoryRange> writes;
+    private final RangeIndex<Service.MemoryRange> changes;
 
     private MemorySegment(byte[] data, BitSet known, int offset, int length,
-        List<Service.MemoryRange> reads, List<Service.MemoryRange> writes) {
+        RangeIndex<Service.MemoryRange> reads, RangeIndex<Service.MemoryRange> writes,
+        RangeIndex<Service.MemoryRange> changes) {
       this.data = data;
       this.offset = offset;
       this.length = length;
       this.known = known;
       this.reads = reads;
       this.writes = writes;
+      this.changes = changes;
     }
 
     public MemorySegment(Service.Memory info) {
+      this(info, Collections.emptyList());
+    }
+
+    public MemorySegment(Service.Memory info, List<Service.MemoryRange> changes) {
       data = info.getData().toByteArray();
       offset = 0;
       known = computeKnown(info);
       length = data.length;
-      reads = info.getReadsList();
-      writes = info.getWritesList();
+      reads = RangeIndex.of(info.getReadsList());
+      writes = RangeIndex.of(info.getWritesList());
+      this.changes = RangeIndex.of(changes);
     }
 
     public static MemorySegment combine(List<MemorySegment> segments, int length) {
@@ -1433,6 +2345,7 @@ public class MemoryView extends Composite
 
       List<Service.MemoryRange> reads = Lists.newArrayList();
       List<Service.MemoryRange> writes = Lists.newArrayList();
+      List<Service.MemoryRange> changes = Lists.newArrayList();
 
       for (Iterator<MemorySegment> it = segments.iterator(); it.hasNext() && done < length; ) {
         MemorySegment segment = it.next();
@@ -1442,23 +2355,67 @@ public class MemoryView extends Composite
           known.set(done + i, segment.known.get(segment.offset + i));
         }
 
-        for (Service.MemoryRange range : segment.reads) {
-          reads.add((done == 0 && segment.offset == 0) ?
-              range : memory(done - segment.offset + range.getBase(), range.getSize()));
-        }
-        for (Service.MemoryRange range : segment.writes) {
-          writes.add((done == 0 && segment.offset == 0) ?
-              range : memory(done - segment.offset + range.getBase(), range.getSize()));
-        }
+        segment.clip(segment.reads, count, done, reads);
+        segment.clip(segment.writes, count, done, writes);
+        segment.clip(segment.changes, count, done, changes);
 
         done += count;
       }
-      return new MemorySegment(data, known, 0, done, reads, writes);
+      return new MemorySegment(data, known, 0, done,
+          RangeIndex.of(reads), RangeIndex.of(writes), RangeIndex.of(changes));
+    }
+
+    /**
+     * Adds the given ranges overlapping the first count bytes of this segment to the given list,
+     * clipped to those bytes and moved to start at the given offset.
+     */
+    private void clip(RangeIndex<Service.MemoryRange> ranges, int count, int to,
+        List<Service.MemoryRange> result) {
+      for (Service.MemoryRange range : ranges.getOverlapping(offset, offset + count)) {
+        long start = Math.max(range.getBase(), offset);
+        long end = Math.min(range.getBase() + range.getSize(), offset + count);
+        result.add(memory(to + start - offset, end - start));
+      }
+    }
+
+    /**
+     * @return the reads overlapping this segment, relative to the start of the data.
+     */
+    public List<Service.MemoryRange> getReads() {
+      return reads.getOverlapping(offset, offset + length);
+    }
+
+    /**
+     * @return the writes overlapping this segment, relative to the start of the data.
+     */
+    public List<Service.MemoryRange> getWrites() {
+      return writes.getOverlapping(offset, offset + length);
+    }
+
+    /**
+     * @return the changed ranges overlapping this segment, relative to the start of the data.
+     */
+    public List<Service.MemoryRange> getChanges() {
+      return changes.getOverlapping(offset, offset + length);
+    }
+
+    /**
+     * @return whether this and the given segment are parts of the same data.
+     */
+    public boolean sharesData(MemorySegment other) {
+      return data == other.data;
+    }
+
+    /**
+     * @return the records of the given layout contained in this segment.
+     */
+    public MemoryStruct.Records decode(MemoryStruct.Layout layout) {
+      return layout.decode(data, known, offset, length);
     }
 
     public MemorySegment subSegment(int start, int count) {
       return new MemorySegment(
-          data, known, offset + start, Math.min(count, length - start), reads, writes);
+          data, known, offset + start, Math.min(count, length - start), reads, writes, changes);
     }
 
     public String asString(int start, int count) {
@@ -20,7 +20,6 @@ import static com.google.gapid.util.GeoUtils.bottomLeft;
 import static com.google.gapid.util.Loadable.MessageType.Error;
 import static com.google.gapid.util.Loadable.MessageType.Info;
 import static com.google.gapid.util.Paths.resourceAfter;
-import static com.google.gapid.util.Paths.thumbnail;
 import static com.google.gapid.widgets.Widgets.createComposite;
 import static com.google.gapid.widgets.Widgets.createTableColumn;
 import static com.google.gapid.widgets.Widgets.createTableViewer;
@@ -35,11 +34,13 @@ import com.google.common.collect.Maps;
 import com.google.common.primitives.UnsignedLongs;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.image.FetchedImage;
+import com.google.gapid.image.MultiLevelImage;
 import com.google.gapid.models.AtomStream;
 import com.google.gapid.models.AtomStream.AtomIndex;
 import com.google.gapid.models.Capture;
 import com.google.gapid.models.Models;
 import com.google.gapid.models.Resources;
+import com.google.gapid.models.Thumbnails;
 import com.google.gapid.proto.image.Image;
 import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.gfxapi.GfxAPI;
@@ -69,7 +70,6 @@ import org.eclipse.jface.viewers.ViewerComparator;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.graphics.ImageData;
-import org.eclipse.swt.internal.DPIUtil;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
@@ -115,7 +115,7 @@ public class TextureView extends Composite
     setLayout(new FillLayout(SWT.VERTICAL));
     SashForm splitter = new SashForm(this, SWT.VERTICAL);
     textureTable = createTableViewer(splitter, SWT.BORDER | SWT.SINGLE | SWT.FULL_SELECTION);
-    imageProvider = new ImageProvider(client, textureTable, widgets.loading);
+    imageProvider = new ImageProvider(models.thumbs, textureTable, widgets.loading);
     initTextureSelector(textureTable, imageProvider);
 
     Composite imageAndToolbar = createComposite(splitter, new GridLayout(2, false));
@@ -146,7 +146,7 @@ public class TextureView extends Composite
     textureTable.getTable().addListener(SWT.Selection, e -> updateSelection());
   }
 
-  protected void setImage(FetchedImage result) {
+  protected void setImage(MultiLevelImage result) {
     imagePanel.setImage(result);
   }
 
@@ -258,9 +258,10 @@ public class TextureView extends Composite
       loading.startLoading();
       Data data = (Data)textureTable.getElementAt(selection);
       rpcController.start().listen(FetchedImage.load(client, data.path.getResourceData()),
-          new UiErrorCallback<FetchedImage, FetchedImage, String>(this, LOG) {
+          new UiErrorCallback<MultiLevelImage, MultiLevelImage, String>(this, LOG) {
         @Override
-        protected ResultOrError<FetchedImage, String> onRpcThread(Result<FetchedImage> result)
+        protected ResultOrError<MultiLevelImage, String> onRpcThread(
+            Result<MultiLevelImage> result)
             throws RpcException, ExecutionException {
           try {
             return success(result.get());
@@ -270,7 +271,7 @@ public class TextureView extends Composite
         }
 
         @Override
-        protected void onUiThreadSuccess(FetchedImage result) {
+        protected void onUiThreadSuccess(MultiLevelImage result) {
           setImage(result);
         }
 
@@ -509,15 +510,15 @@ public class TextureView extends Composite
    * Image provider for the texture selector.
    */
   private static class ImageProvider implements LoadingIndicator.Repaintable {
-    private static final int SIZE = DPIUtil.autoScaleUp(18);
+    private static final int PREVIEW_SIZE = 18;
 
-    private final Client client;
+    private final Thumbnails thumbs;
     private final TableViewer viewer;
     private final LoadingIndicator loading;
     private final Map<Data, LoadableImage> images = Maps.newIdentityHashMap();
 
-    public ImageProvider(Client client, TableViewer viewer, LoadingIndicator loading) {
-      this.client = client;
+    public ImageProvider(Thumbnails thumbs, TableViewer viewer, LoadingIndicator loading) {
+      this.thumbs = thumbs;
       this.viewer = viewer;
       this.loading = loading;
     }
@@ -559,7 +560,7 @@ public class TextureView extends Composite
     }
 
     private ListenableFuture<ImageData> loadImage(Data data) {
-      return FetchedImage.loadThumbnail(client, thumbnail(data.path.getResourceData(), SIZE));
+      return thumbs.getThumbnail(data.path.getResourceData(), PREVIEW_SIZE);
     }
 
     public void reset() {
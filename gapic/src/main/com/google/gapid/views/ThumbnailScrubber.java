@@ -33,7 +33,6 @@ import com.google.gapid.models.Models;
 import com.google.gapid.models.Thumbnails;
 import com.google.gapid.models.Timeline;
 import com.google.gapid.proto.service.Service;
-import com.google.gapid.util.BigPoint;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.Messages;
 import com.google.gapid.widgets.InfiniteScrolledComposite;
@@ -51,12 +50,12 @@ import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 /**
  * Scrubber view displaying thumbnails of the frames in the current capture.
@@ -81,7 +80,7 @@ public class ThumbnailScrubber extends Composite
     scroll = loading.getContents();
 
     scroll.addContentListener(SWT.MouseDown, e -> {
-      Data frame = carousel.selectFrame(scroll.getLocation(e));
+      Data frame = carousel.selectFrame(scroll.getContentX(e.x));
       if (frame != null) {
         models.atoms.selectAtoms(frame.range, false);
       }
@@ -109,10 +108,8 @@ public class ThumbnailScrubber extends Composite
     scroll.updateMinSize();
   }
 
-  private void scrollTo(BigInteger x) {
-    scroll.scrollTo(
-        x.subtract(BigInteger.valueOf(scroll.getClientArea().width / 2)).max(BigInteger.ZERO),
-        BigInteger.ZERO);
+  private void scrollTo(long x) {
+    scroll.scrollTo(Math.max(0, x - scroll.getClientArea().width / 2), 0);
   }
 
   @Override
@@ -240,34 +237,55 @@ public class ThumbnailScrubber extends Composite
       gc.drawString(label, x + 6, y + 6);
     }
 
+    /**
+     * Disposes the image, cancelling its load if it is still loading.
+     */
     public void dispose() {
       if (image != null) {
-        image.dispose();
+        image.unload().dispose();
+        image = null;
       }
     }
   }
 
   /**
-   * Renders the frame thumbnails.
+   * Renders the frame thumbnails. Thumbnails are loaded for the visible frames and, in the
+   * direction of scrolling, for as many frames ahead as will scroll into view shortly, given the
+   * current scroll velocity. At most {@link #MAX_IN_FLIGHT} thumbnails are loaded at a time, with
+   * the visible frames taking priority. Loads of frames that have been scrolled past are
+   * cancelled and the images of frames far outside the view are disposed.
    */
   private static class Carousel
       implements InfiniteScrolledComposite.Scrollable, Thumbnails.Listener {
     private static final int MARGIN = 4;
     private static final int MIN_SIZE = 80;
+    private static final int MAX_IN_FLIGHT = 8;
+    private static final int MIN_READ_AHEAD = 2;
+    private static final int MAX_READ_AHEAD = 32;
+    /** Frames that will scroll into view within this time are read ahead. */
+    private static final double READ_AHEAD_SECONDS = 0.5;
+    /** The time over which the scroll velocity is averaged. */
+    private static final double VELOCITY_WINDOW_SECONDS = 0.25;
+    /** Loaded images of frames further than this outside the read ahead window are disposed. */
+    private static final int KEEP_DISTANCE = 64;
 
     private final Control parent;
     private final Thumbnails thumbs;
     private final Widgets widgets;
     private final LoadingIndicator.Repaintable repainter;
     private final Runnable updateSize;
-    private final Consumer<BigInteger> scrollTo;
+    private final LongConsumer scrollTo;
     private List<Data> datas = Collections.emptyList();
+    private final BitSet withImages = new BitSet();
     private Point imageSize;
     private int selectedIndex = -1;
+    private long lastOffset, lastPaintTime;
+    private double velocity; // In frames per second.
+    private int direction = 1;
 
     public Carousel(Control parent, Thumbnails thumbs, Widgets widgets,
         LoadingIndicator.Repaintable repainter, Runnable updateSize,
-        Consumer<BigInteger> scrollTo) {
+        LongConsumer scrollTo) {
       this.parent = parent;
       this.thumbs = thumbs;
       this.widgets = widgets;
@@ -278,15 +296,15 @@ public class ThumbnailScrubber extends Composite
       thumbs.addListener(this);
     }
 
-    public Data selectFrame(BigPoint point) {
-      int frame = point.x.divide(BigInteger.valueOf(getCellWidth())).intValueExact();
+    public Data selectFrame(long x) {
+      long frame = x / getCellWidth();
       if (frame < 0 || frame >= datas.size()) {
         return null;
       }
 
-      selectedIndex = frame;
+      selectedIndex = (int)frame;
       repainter.repaint();
-      return datas.get(frame);
+      return datas.get(selectedIndex);
     }
 
     public void selectFrame(AtomIndex range) {
@@ -310,24 +328,25 @@ public class ThumbnailScrubber extends Composite
         data.dispose();
       }
       datas = Collections.emptyList();
+      withImages.clear();
       imageSize = null;
       selectedIndex = -1;
+      lastPaintTime = 0;
+      velocity = 0;
     }
 
     @Override
     public void onThumbnailsChanged() {
       for (Data data : datas) {
-        if (data.image != null) {
-          data.image.dispose();
-          data.image = null;
-        }
+        data.dispose();
       }
+      withImages.clear();
       repainter.repaint();
     }
 
     @Override
-    public BigInteger getWidth() {
-      return BigInteger.valueOf(datas.size() * (long)getCellWidth());
+    public long getWidth() {
+      return datas.size() * (long)getCellWidth();
     }
 
     private int getCellWidth() {
@@ -335,25 +354,30 @@ public class ThumbnailScrubber extends Composite
     }
 
     @Override
-    public BigInteger getHeight() {
-      return BigInteger.valueOf(((imageSize == null) ? THUMB_SIZE : imageSize.y) + MARGIN);
+    public long getHeight() {
+      return ((imageSize == null) ? THUMB_SIZE : imageSize.y) + MARGIN;
     }
 
     @Override
-    public void paint(BigInteger xOffset, BigInteger yOffset, GC gc) {
+    public void paint(long xUnit, int xPoints, long yUnit, int yPoints, GC gc) {
       if (datas.isEmpty()) {
         return;
       }
 
       Rectangle clip = gc.getClipping();
-      Point size = (imageSize == null) ? new Point(THUMB_SIZE, THUMB_SIZE) : imageSize;
-      int first = (int)((xOffset.longValueExact() + left(clip)) / (size.x + 2 * MARGIN));
-      int last = Math.min(datas.size(),
-          (int)((xOffset.longValueExact() + right(clip) + size.x - 1) / size.x));
-      int x = (int)(first * ((long)size.x + 2 * MARGIN) - xOffset.longValueExact());
-
+      int width = (imageSize == null) ? THUMB_SIZE : imageSize.x;
+      int height = (imageSize == null) ? THUMB_SIZE : imageSize.y;
+      // The units are points, so xPoints is always 0.
+      long offset = xUnit;
+      int cellWidth = width + 2 * MARGIN;
+      int last = Math.min(datas.size(), (int)((offset + right(clip) + cellWidth - 1) / cellWidth));
+      // The clip may start past the last frame.
+      int first = Math.min(last, (int)((offset + left(clip)) / cellWidth));
+      int x = (int)(first * (long)cellWidth - offset);
+
+      updateVelocity(offset, cellWidth);
       prepareImages(first, last);
-      for (int i = first; i < last; i++, x += size.x + 2 * MARGIN) {
+      for (int i = first; i < last; i++, x += cellWidth) {
         Data data = datas.get(i);
         Image toDraw;
         if (data.image != null) {
@@ -362,21 +386,83 @@ public class ThumbnailScrubber extends Composite
           toDraw = widgets.loading.getCurrentFrame();
           widgets.loading.scheduleForRedraw(repainter);
         }
-        data.paint(gc, toDraw, x + MARGIN, MARGIN / 2, size.x, size.y, i == selectedIndex);
+        data.paint(gc, toDraw, x + MARGIN, MARGIN / 2, width, height, i == selectedIndex);
       }
       updateSize(first, last);
     }
 
+    /**
+     * Updates the average scroll velocity and direction from the scroll offset of this paint.
+     */
+    private void updateVelocity(long offset, int cellWidth) {
+      long now = System.nanoTime();
+      if (lastPaintTime != 0 && now > lastPaintTime) {
+        double seconds = (now - lastPaintTime) / 1e9;
+        double current = (double)(offset - lastOffset) / cellWidth / seconds;
+        velocity += (current - velocity) * Math.min(1, seconds / VELOCITY_WINDOW_SECONDS);
+        if (offset != lastOffset) {
+          direction = (offset > lastOffset) ? 1 : -1;
+        }
+      }
+      lastOffset = offset;
+      lastPaintTime = now;
+    }
+
     private void prepareImages(int first, int last) {
-      for (int i = first; i < last; i++) {
+      if (!thumbs.isReady()) {
+        return;
+      }
+
+      int ahead = (int)Math.max(MIN_READ_AHEAD,
+          Math.min(MAX_READ_AHEAD, Math.abs(velocity) * READ_AHEAD_SECONDS));
+      int start = Math.max(0, first - ((direction > 0) ? MIN_READ_AHEAD : ahead));
+      int end = Math.min(datas.size(), last + ((direction > 0) ? ahead : MIN_READ_AHEAD));
+
+      // Cancel the loads outside the window and dispose the images far outside of it.
+      int inFlight = 0;
+      for (int i = withImages.nextSetBit(0); i >= 0; i = withImages.nextSetBit(i + 1)) {
+        Data data = datas.get(i);
+        boolean outside = i < start || i >= end;
+        if (outside && (data.image.isLoading() ||
+            i < start - KEEP_DISTANCE || i >= end + KEEP_DISTANCE)) {
+          data.dispose();
+          withImages.clear(i);
+        } else if (data.image.isLoading()) {
+          inFlight++;
+        }
+      }
+
+      // Load the visible frames first, then the ones ahead, then the ones behind.
+      if (direction > 0) {
+        inFlight = loadImages(first, last, 1, inFlight);
+        inFlight = loadImages(last, end, 1, inFlight);
+        loadImages(first - 1, start - 1, -1, inFlight);
+      } else {
+        inFlight = loadImages(last - 1, first - 1, -1, inFlight);
+        inFlight = loadImages(first - 1, start - 1, -1, inFlight);
+        loadImages(last, end, 1, inFlight);
+      }
+    }
+
+    /**
+     * Starts loading the images of the frames from {@code from} to {@code to} (exclusive), in
+     * steps of {@code step}, while fewer than {@link #MAX_IN_FLIGHT} images are loading.
+     *
+     * @return the number of images loading after this call.
+     */
+    private int loadImages(int from, int to, int step, int inFlight) {
+      for (int i = from; (step > 0 ? i < to : i > to) && inFlight < MAX_IN_FLIGHT; i += step) {
         Data data = datas.get(i);
-        if (data.image == null && thumbs.isReady()) {
+        if (data.image == null) {
           data.image = LoadableImage.newBuilder(widgets.loading)
               .forImageData(noAlpha(thumbs.getThumbnail(data.range.getCommand(), THUMB_SIZE)))
               .onErrorShowErrorIcon(widgets.theme)
               .build(parent, repainter);
+          withImages.set(i);
+          inFlight++;
         }
       }
+      return inFlight;
     }
 
     private void updateSize(int first, int last) {
@@ -407,8 +493,7 @@ public class ThumbnailScrubber extends Composite
     private void selectAndScroll(int index) {
       selectedIndex = index;
       if (index >= 0) {
-        scrollTo.accept(
-            BigInteger.valueOf(selectedIndex).multiply(BigInteger.valueOf(getCellWidth())));
+        scrollTo.accept((long)selectedIndex * getCellWidth());
       }
     }
   }
@@ -24,7 +24,14 @@ import static com.google.gapid.widgets.Widgets.createLabel;
 import static com.google.gapid.widgets.Widgets.createSeparator;
 import static com.google.gapid.widgets.Widgets.createToggleToolItem;
 import static com.google.gapid.widgets.Widgets.createToolItem;
-
+import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.glviewer.Constants;
 import com.google.gapid.glviewer.ShaderSource;
 import com.google.gapid.glviewer.gl.Buffer;
@@ -34,11 +41,13 @@ import com.google.gapid.image.Image;
 import com.google.gapid.image.Image.PixelInfo;
 import com.google.gapid.image.Image.PixelValue;
 import com.google.gapid.image.MultiLevelImage;
+import com.google.gapid.image.TiledImage;
 import com.google.gapid.rpc.Rpc;
 import com.google.gapid.rpc.RpcException;
 import com.google.gapid.rpc.SingleInFlight;
 import com.google.gapid.rpc.UiErrorCallback;
 import com.google.gapid.server.Client.DataUnavailableException;
+import com.google.gapid.server.RequestScheduler.Priority;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.Messages;
 import com.google.gapid.util.MouseAdapter;
@@ -73,6 +82,9 @@ import org.lwjgl.opengl.GL12;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL30;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.IntConsumer;
@@ -271,7 +283,9 @@ public class ImagePanel extends Composite {
 
     index = Math.min(image.getLevelCount() - 1, index);
     loading.startLoading();
-    imageRequestController.start().listen(image.getLevel(index),
+    ListenableFuture<Image> future = image.getLevel(index,
+        progress -> scheduleIfNotDisposed(status, () -> status.setLoadProgress(progress)));
+    imageRequestController.start().listen(future,
         new UiErrorCallback<Image, Image, Loadable.Message>(this, LOG) {
       @Override
       protected ResultOrError<Image, Loadable.Message> onRpcThread(Rpc.Result<Image> result)
@@ -293,6 +307,7 @@ public class ImagePanel extends Composite {
       @Override
       protected void onUiThreadError(Loadable.Message message) {
         clearImage();
+        status.clearLoadProgress();
         loading.showMessage(message);
       }
     });
@@ -305,9 +320,11 @@ public class ImagePanel extends Composite {
     }
     level = (newLevel == null) ? Image.EMPTY : newLevel;
     status.setLevelSize(level.getWidth(), level.getHeight());
+    status.clearLoadProgress();
     loading.stopLoading();
     if (saveItem != null) {
-      saveItem.setEnabled(newLevel != null);
+      // Tiled images are too large to be saved as a single image.
+      saveItem.setEnabled(newLevel != null && !(newLevel instanceof TiledImage.Level));
     }
     imageComponent.setImageData(level);
   }
@@ -329,7 +346,10 @@ public class ImagePanel extends Composite {
 
     private final GlComposite canvas;
     private Image imageData = Image.EMPTY;
+    private TiledImage.Level tiledLevel = null;
     private final AtomicBoolean newImageData = new AtomicBoolean(false);
+    private final AtomicBoolean tilePaintPending = new AtomicBoolean(false);
+    private final TiledImage.Listener tileListener;
     private double zoom = ZOOM_FIT;
     private boolean flipped = false;
     private float[] channels = new float[] { 1f, 1f, 1f, 1f };
@@ -340,6 +360,8 @@ public class ImagePanel extends Composite {
     private Shader shader;
     private Buffer buffer;
     private Texture texture;
+    private final Map<TiledImage.Tile, Texture> tileTextures = Maps.newHashMap();
+    private final Set<TiledImage.Tile> usedTiles = Sets.newHashSet();
     private int[] uSize = new int[2], uOffset = new int[2];
     private float[] uRange = new float[] { 0, 1 };
 
@@ -349,6 +371,7 @@ public class ImagePanel extends Composite {
 
       canvas = new GlComposite(this);
       canvas.addListener(this);
+      tileListener = tile -> onTileLoaded();
 
       getHorizontalBar().addListener(SWT.Selection, e -> canvas.paint());
       getVerticalBar().addListener(SWT.Selection, e -> canvas.paint());
@@ -365,12 +388,56 @@ public class ImagePanel extends Composite {
     }
 
     public void setImageData(Image data) {
+      if (tiledLevel != null) {
+        tiledLevel.getImage().removeListener(tileListener);
+      }
       imageData = data;
+      tiledLevel = (data instanceof TiledImage.Level) ? (TiledImage.Level)data : null;
+      if (tiledLevel != null) {
+        tiledLevel.getImage().addListener(tileListener);
+      }
       newImageData.set(true);
-      PixelInfo info = data.getData().getInfo();
+
+      // The statistics of float images are computed in the background. Show the image with the
+      // default range until they are available, then auto-range to the actual values.
+      ListenableFuture<PixelInfo> info = data.getData().getInfoAsync();
+      if (info.isDone()) {
+        setRange(Futures.getUnchecked(info));
+      } else {
+        setRange(PixelInfo.NULL_INFO);
+        Futures.addCallback(info, new FutureCallback<PixelInfo>() {
+          @Override
+          public void onSuccess(PixelInfo result) {
+            scheduleIfNotDisposed(ImageComponent.this, () -> {
+              if (imageData == data) {
+                setRange(result);
+                canvas.paint();
+              }
+            });
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            LOG.log(WARNING, "Failed to compute the image statistics", t);
+          }
+        });
+      }
+      canvas.paint();
+    }
+
+    private void onTileLoaded() {
+      // Tiles are loaded in bursts, so coalesce the repaints.
+      if (tilePaintPending.compareAndSet(false, true)) {
+        scheduleIfNotDisposed(this, () -> {
+          tilePaintPending.set(false);
+          canvas.paint();
+        });
+      }
+    }
+
+    private void setRange(PixelInfo info) {
       uRange[0] = info.getMin();
       uRange[1] = info.getMax() - info.getMin();
-      canvas.paint();
     }
 
     public Pixel getPixel(Point point) {
@@ -496,36 +563,58 @@ public class ImagePanel extends Composite {
       if (newImageData.getAndSet(false)) {
         if (texture != null) {
           texture.delete();
+          texture = null;
+        }
+        deleteTileTextures();
+        if (tiledLevel == null) {
+          texture = createTexture();
+          imageData.getData().uploadToTexture(texture);
         }
-        texture = new Texture(GL11.GL_TEXTURE_2D);
-        texture.bind()
-            .setMinMagFilter(GL11.GL_LINEAR, GL11.GL_NEAREST)
-            .setWrapMode(GL12.GL_CLAMP_TO_EDGE, GL12.GL_CLAMP_TO_EDGE);
-        imageData.getData().uploadToTexture(texture);
-        shader.setUniform("uRange", uRange);
       }
 
       clearWith(getDisplay().getSystemColor(SWT.COLOR_WIDGET_BACKGROUND));
       drawBackground(size);
 
       shader.setUniform("uMode", MODE_TEXTURE);
+      shader.setUniform("uRange", uRange);
       shader.setUniform("uPixelSize", new float[] { 1f / size.width, 1f / size.height });
       shader.setUniform("uSize", uSize);
       shader.setUniform("uOffset", uOffset);
-      shader.setUniform("uTextureSize", new float[] { 1, 1 });
-      shader.setUniform("uTextureOffset", new float[] { 0, 0 });
       shader.setUniform("uChannels", channels);
       shader.setUniform("uFlipped", flipped ? 1 : 0);
-      GL11.glDrawArrays(GL11.GL_TRIANGLE_FAN, 0, 4);
+      if (tiledLevel == null) {
+        shader.setUniform("uTextureSize", new float[] { 1, 1 });
+        shader.setUniform("uTextureOffset", new float[] { 0, 0 });
+        GL11.glDrawArrays(GL11.GL_TRIANGLE_FAN, 0, 4);
+      } else {
+        drawTiles(size);
+      }
 
       drawPreview(size);
+
+      if (tiledLevel != null) {
+        // Free the textures of the tiles that are no longer visible.
+        for (Iterator<Map.Entry<TiledImage.Tile, Texture>> it = tileTextures.entrySet().iterator();
+            it.hasNext(); ) {
+          Map.Entry<TiledImage.Tile, Texture> entry = it.next();
+          if (!usedTiles.contains(entry.getKey())) {
+            entry.getValue().delete();
+            it.remove();
+          }
+        }
+        usedTiles.clear();
+      }
     }
 
     @Override
     public void dispose() {
+      if (tiledLevel != null) {
+        tiledLevel.getImage().removeListener(tileListener);
+      }
       if (texture != null) {
         texture.delete();
       }
+      deleteTileTextures();
       buffer.delete();
       shader.delete();
     }
@@ -549,6 +638,129 @@ public class ImagePanel extends Composite {
       }
     }
 
+    private static Texture createTexture() {
+      return new Texture(GL11.GL_TEXTURE_2D).bind()
+          .setMinMagFilter(GL11.GL_LINEAR, GL11.GL_NEAREST)
+          .setWrapMode(GL12.GL_CLAMP_TO_EDGE, GL12.GL_CLAMP_TO_EDGE);
+    }
+
+    private void deleteTileTextures() {
+      for (Texture tileTexture : tileTextures.values()) {
+        tileTexture.delete();
+      }
+      tileTextures.clear();
+      usedTiles.clear();
+    }
+
+    /**
+     * Draws the visible tiles of the level of the tiled image that best matches the current zoom.
+     * Tiles that have not been loaded yet are requested, and in their place the loaded tiles of the
+     * coarser levels are drawn.
+     */
+    private void drawTiles(Rectangle size) {
+      TiledImage image = tiledLevel.getImage();
+      int level = image.getLevelForScale(tiledLevel.index, getScale(size));
+      int coarsest = image.getLevelCount() - 1;
+
+      // The image quad in GL window coordinates and its visible part in texture coordinates.
+      float left = size.width / 2f + uOffset[0] - uSize[0] / 2f;
+      float bottom = size.height / 2f + uOffset[1] - uSize[1] / 2f;
+      float s0 = clamp(-left / uSize[0]), s1 = clamp((size.width - left) / uSize[0]);
+      float b0 = clamp(-bottom / uSize[1]), b1 = clamp((size.height - bottom) / uSize[1]);
+      float t0 = flipped ? 1 - b1 : b0, t1 = flipped ? 1 - b0 : b1;
+
+      if (level != coarsest) {
+        // Always keep the coarsest level loaded, so there is something to show while zooming.
+        // These tiles are only stand-ins, so they must not delay the tiles being shown.
+        int[] range = getTileRange(image, coarsest, s0, s1, t0, t1);
+        for (int y = range[2]; y <= range[3]; y++) {
+          for (int x = range[0]; x <= range[1]; x++) {
+            image.getTile(coarsest, x, y, Priority.Prefetch);
+          }
+        }
+      }
+
+      int w = image.getWidth(level), h = image.getHeight(level);
+      int[] range = getTileRange(image, level, s0, s1, t0, t1);
+      for (int y = range[2]; y <= range[3]; y++) {
+        for (int x = range[0]; x <= range[1]; x++) {
+          TiledImage.Tile tile = image.getTile(level, x, y, Priority.Visible);
+          if (tile != null) {
+            drawTile(tile, w, h, new float[] { 1, 1 }, new float[] { 0, 0 });
+            continue;
+          }
+
+          // Draw the tile of a coarser level, clipped to the area of the missing tile.
+          int x0 = x * TiledImage.TILE_SIZE, x1 = Math.min(w, x0 + TiledImage.TILE_SIZE);
+          int y0 = y * TiledImage.TILE_SIZE, y1 = Math.min(h, y0 + TiledImage.TILE_SIZE);
+          float sc = (x0 + x1) / 2f / w, tc = (y0 + y1) / 2f / h;
+          for (int l = level + 1; l <= coarsest; l++) {
+            TiledImage.Tile standIn = image.peekTile(l, (int)(sc * image.getWidth(l)) /
+                TiledImage.TILE_SIZE, (int)(tc * image.getHeight(l)) / TiledImage.TILE_SIZE);
+            if (standIn != null) {
+              int sx0 = Math.round(left + uSize[0] * (float)x0 / w);
+              int sx1 = Math.round(left + uSize[0] * (float)x1 / w);
+              float by0 = flipped ? 1 - (float)y1 / h : (float)y0 / h;
+              float by1 = flipped ? 1 - (float)y0 / h : (float)y1 / h;
+              int sy0 = Math.round(bottom + uSize[1] * by0);
+              int sy1 = Math.round(bottom + uSize[1] * by1);
+              int lw = image.getWidth(l), lh = image.getHeight(l);
+              withSciscor(sx0, sy0, sx1 - sx0, sy1 - sy0,
+                  () -> drawTile(standIn, lw, lh, new float[] { 1, 1 }, new float[] { 0, 0 }));
+              break;
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * @return the inclusive x and y ranges of the tiles of the given level that cover the given
+     *     texture coordinate ranges, as {x0, x1, y0, y1}.
+     */
+    private static int[] getTileRange(
+        TiledImage image, int level, float s0, float s1, float t0, float t1) {
+      int w = image.getWidth(level), h = image.getHeight(level);
+      int tilesX = image.getTilesX(level), tilesY = image.getTilesY(level);
+      return new int[] {
+          Math.max(0, Math.min(tilesX - 1, (int)(s0 * w) / TiledImage.TILE_SIZE)),
+          Math.max(0, Math.min(tilesX - 1, (int)Math.ceil(s1 * w - 1) / TiledImage.TILE_SIZE)),
+          Math.max(0, Math.min(tilesY - 1, (int)(t0 * h) / TiledImage.TILE_SIZE)),
+          Math.max(0, Math.min(tilesY - 1, (int)Math.ceil(t1 * h - 1) / TiledImage.TILE_SIZE)),
+      };
+    }
+
+    /**
+     * Draws the given tile of a level of the given size at its position within the image, where
+     * the image's texture coordinates are mapped using the given texture size and offset. The
+     * shader discards all fragments outside of the tile.
+     */
+    private void drawTile(TiledImage.Tile tile, int levelWidth, int levelHeight,
+        float[] texSize, float[] texOffset) {
+      float u0 = (float)tile.x / levelWidth, du = (float)tile.getWidth() / levelWidth;
+      float v0 = (float)tile.y / levelHeight, dv = (float)tile.getHeight() / levelHeight;
+      shader.setUniform("uTextureSize", new float[] { texSize[0] / du, texSize[1] / dv });
+      shader.setUniform("uTextureOffset", new float[] {
+          (texOffset[0] - u0) / du,
+          (flipped ? texOffset[1] + v0 + dv - 1 : texOffset[1] - v0) / dv
+      });
+
+      Texture tileTexture = tileTextures.get(tile);
+      if (tileTexture == null) {
+        tileTexture = createTexture();
+        tile.data.uploadToTexture(tileTexture);
+        tileTextures.put(tile, tileTexture);
+      } else {
+        tileTexture.bind();
+      }
+      usedTiles.add(tile);
+      GL11.glDrawArrays(GL11.GL_TRIANGLE_FAN, 0, 4);
+    }
+
+    private static float clamp(float value) {
+      return Math.max(0, Math.min(1, value));
+    }
+
     private void drawPreview(Rectangle size) {
       if (previewPixel == Pixel.OUT_OF_BOUNDS) {
         return;
@@ -574,11 +786,15 @@ public class ImagePanel extends Composite {
       shader.setUniform("uMode", MODE_TEXTURE);
       shader.setUniform("uSize", scale);
       shader.setUniform("uOffset", offset);
-      shader.setUniform("uTextureSize", texScale);
-      shader.setUniform("uTextureOffset", texOffset);
       shader.setUniform("uChannels", new float[] { 1, 1, 1, 0 });
       shader.setUniform("uFlipped", flipped ? 1 : 0);
-      GL11.glDrawArrays(GL11.GL_TRIANGLE_FAN, 0, 4);
+      if (tiledLevel == null) {
+        shader.setUniform("uTextureSize", texScale);
+        shader.setUniform("uTextureOffset", texOffset);
+        GL11.glDrawArrays(GL11.GL_TRIANGLE_FAN, 0, 4);
+      } else {
+        drawPreviewTiles(texScale, texOffset);
+      }
 
       // Render cursor "cross-hair"
       scale = new int[] { PREVIEW_SIZE, PREVIEW_SIZE };
@@ -594,6 +810,25 @@ public class ImagePanel extends Composite {
       GL11.glDrawArrays(GL11.GL_LINE_LOOP, 0, 4);
     }
 
+    /**
+     * Draws the loaded tiles of the displayed level covered by the preview.
+     */
+    private void drawPreviewTiles(float[] texScale, float[] texOffset) {
+      TiledImage image = tiledLevel.getImage();
+      int level = tiledLevel.index;
+      float s0 = texOffset[0], t0 = flipped ? 1 - texOffset[1] - texScale[1] : texOffset[1];
+      int[] range = getTileRange(image, level,
+          clamp(s0), clamp(s0 + texScale[0]), clamp(t0), clamp(t0 + texScale[1]));
+      for (int y = range[2]; y <= range[3]; y++) {
+        for (int x = range[0]; x <= range[1]; x++) {
+          TiledImage.Tile tile = image.peekTile(level, x, y);
+          if (tile != null) {
+            drawTile(tile, image.getWidth(level), image.getHeight(level), texScale, texOffset);
+          }
+        }
+      }
+    }
+
     // TODO: Maybe this is not quite the best way?
     private void drawBorderAround(int x, int y, int w, int h) {
       withSciscor(x - BORDER_SIZE, y - BORDER_SIZE, w + 2 * BORDER_SIZE, h + 2 * BORDER_SIZE,
@@ -821,6 +1056,16 @@ public class ImagePanel extends Composite {
       requestLayout();
     }
 
+    public void setLoadProgress(double progress) {
+      pixelLabel.setText("Loading: " + (int)(100 * progress) + "%");
+      requestLayout();
+    }
+
+    public void clearLoadProgress() {
+      pixelLabel.setText(" ");
+      requestLayout();
+    }
+
     private static Scale createScale(Composite parent) {
       Scale scale = new Scale(parent, SWT.HORIZONTAL);
       scale.setMinimum(0);
@@ -15,13 +15,11 @@
  */
 package com.google.gapid.widgets;
 
-import com.google.gapid.util.BigPoint;
 import com.google.gapid.util.MouseAdapter;
 import com.google.gapid.widgets.CopyPaste.CopySource;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.ScrolledComposite;
-import org.eclipse.swt.events.MouseEvent;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.GC;
@@ -31,21 +29,22 @@ import org.eclipse.swt.internal.DPIUtil;
 import org.eclipse.swt.widgets.Canvas;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
-import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.ScrollBar;
 
-import java.math.BigInteger;
 import java.util.function.IntConsumer;
 
 /**
  * A {@link ScrolledComposite} where the contents can be too large in one or both dimensions to use
  * a standard scrollbar. The scrollbar thumb will jump back to the center position when let go,
  * while scrolling through the middle of the bulk of the scroll range.
+ * <p>
+ * Positions are tracked as an unsigned number of {@link Scrollable units} plus the points into the
+ * next unit, so that contents of up to 2^64 units, such as the lines of the whole address space,
+ * can be scrolled without overflowing and without allocating while scrolling and painting.
  */
 public class InfiniteScrolledComposite extends ScrolledComposite {
-  private static final BigInteger MAX_NON_INFINTE =
-      BigInteger.valueOf(DPIUtil.autoScaleDown((1 << 15)) - 1);
+  private static final int MAX_NON_INFINTE = DPIUtil.autoScaleDown((1 << 15)) - 1;
 
   private final Scrollable contents;
   private final Canvas canvas;
@@ -70,36 +69,52 @@ public class InfiniteScrolledComposite extends ScrolledComposite {
 
     updateMinSize();
     addListener(SWT.Resize, e -> updateMinSize());
-    canvas.addListener(SWT.Paint, e -> contents.paint(xHandler.offset, yHandler.offset, e.gc));
+    canvas.addListener(SWT.Paint, e -> contents.paint(xHandler.offset.units,
+        xHandler.offset.points, yHandler.offset.units, yHandler.offset.points, e.gc));
   }
 
-  public BigPoint getLocation(Event e) {
-    return new BigPoint(
-        xHandler.offset.add(BigInteger.valueOf(e.x)),
-        yHandler.offset.add(BigInteger.valueOf(e.y)));
+  /**
+   * @return the horizontal unit of the contents at the given x coordinate of a content event,
+   *     clamped to the start of the contents.
+   */
+  public long getContentX(int x) {
+    return xHandler.getUnitAt(x);
   }
 
-  public BigPoint getLocation(MouseEvent e) {
-    return new BigPoint(
-        xHandler.offset.add(BigInteger.valueOf(e.x)),
-        yHandler.offset.add(BigInteger.valueOf(e.y)));
+  /**
+   * @return the vertical unit of the contents at the given y coordinate of a content event,
+   *     clamped to the start of the contents.
+   */
+  public long getContentY(int y) {
+    return yHandler.getUnitAt(y);
   }
 
-  public BigPoint getMouseLocation() {
+  /**
+   * @return the location of the mouse in the coordinates of the content events.
+   */
+  public Point getMouseLocation() {
     Display disp = getDisplay();
-    Point mouse = disp.map(null, canvas, disp.getCursorLocation());
-    return new BigPoint(
-        xHandler.offset.add(BigInteger.valueOf(mouse.x)),
-        yHandler.offset.add(BigInteger.valueOf(mouse.y)));
+    return disp.map(null, canvas, disp.getCursorLocation());
   }
 
-  public BigPoint getScrollLocation() {
-    return new BigPoint(
-        xHandler.offset.add(BigInteger.valueOf(xHandler.bar.getSelection())),
-        yHandler.offset.add(BigInteger.valueOf(yHandler.bar.getSelection())));
+  /**
+   * @return the horizontal unit of the contents at the left of the view.
+   */
+  public long getScrollX() {
+    return xHandler.getUnitAt(xHandler.bar.getSelection());
   }
 
-  public void scrollTo(BigInteger x, BigInteger y) {
+  /**
+   * @return the vertical unit of the contents at the top of the view.
+   */
+  public long getScrollY() {
+    return yHandler.getUnitAt(yHandler.bar.getSelection());
+  }
+
+  /**
+   * Scrolls the given units of the contents to the top left of the view, or as close as possible.
+   */
+  public void scrollTo(long x, long y) {
     xHandler.scrollTo(x);
     yHandler.scrollTo(y);
     Widgets.scheduleIfNotDisposed(canvas, canvas::redraw);
@@ -132,35 +147,131 @@ public class InfiniteScrolledComposite extends ScrolledComposite {
   }
 
   public void updateMinSize() {
-    BigInteger w = contents.getWidth(), h = contents.getHeight();
     Rectangle size = getClientArea();
-    xHandler.setEnabled(w.compareTo(MAX_NON_INFINTE) > 0);
-    yHandler.setEnabled(h.compareTo(MAX_NON_INFINTE) > 0);
-    xHandler.max = w.subtract(BigInteger.valueOf(size.width));
-    yHandler.max = h.subtract(BigInteger.valueOf(size.height));
-    int mw = (xHandler.enabled ? MAX_NON_INFINTE : w).intValueExact();
-    int mh = (yHandler.enabled ? MAX_NON_INFINTE : h).intValueExact();
+    long w = contents.getWidth(), h = contents.getHeight();
+    int unitW = contents.getUnitWidth(), unitH = contents.getUnitHeight();
+    xHandler.setEnabled(isInfinite(w, unitW));
+    yHandler.setEnabled(isInfinite(h, unitH));
+    xHandler.setSize(w, unitW, size.width);
+    yHandler.setSize(h, unitH, size.height);
+    int mw = xHandler.enabled ? MAX_NON_INFINTE : (int)(w * unitW);
+    int mh = yHandler.enabled ? MAX_NON_INFINTE : (int)(h * unitH);
     setMinSize(mw, mh);
   }
 
+  private static boolean isInfinite(long units, int unitSize) {
+    return Long.compareUnsigned(units, MAX_NON_INFINTE / unitSize) > 0 ||
+        units * unitSize > MAX_NON_INFINTE;
+  }
+
   /**
-   * Contents to be scrolled.
+   * Contents to be scrolled. The contents are measured in units, which are a fixed number of SWT
+   * points along each axis, e.g. a line of text. The unit sizes and counts are unsigned, so that
+   * the contents can be much larger than 2^63 points.
    */
   public static interface Scrollable {
     /**
-     * @return the height of the scrolling contents in SWT points.
+     * @return the size in SWT points of a horizontal unit.
+     */
+    public default int getUnitWidth() {
+      return 1;
+    }
+
+    /**
+     * @return the size in SWT points of a vertical unit.
      */
-    public BigInteger getHeight();
+    public default int getUnitHeight() {
+      return 1;
+    }
 
     /**
-     * @return the width of the scrolling contents in SWT points.
+     * @return the unsigned height of the scrolling contents in vertical units.
      */
-    public BigInteger getWidth();
+    public long getHeight();
 
     /**
-     * Paints the contents at the given location using the given graphics context.
+     * @return the unsigned width of the scrolling contents in horizontal units.
      */
-    public void paint(BigInteger xOffset, BigInteger yOffset, GC gc);
+    public long getWidth();
+
+    /**
+     * Paints the contents using the given graphics context. The top left corner of the graphics
+     * context is the given number of points into the given unit along each axis.
+     */
+    public void paint(long xUnit, int xPoints, long yUnit, int yPoints, GC gc);
+  }
+
+  /**
+   * A position along an axis, made of an unsigned number of units and the points into the next
+   * unit. All operations saturate at the start and the end of the 64 bit unit range.
+   */
+  private static class Position {
+    public long units;
+    public int points;
+
+    public Position() {
+    }
+
+    public void set(long newUnits, int newPoints) {
+      this.units = newUnits;
+      this.points = newPoints;
+    }
+
+    public void set(Position p) {
+      set(p.units, p.points);
+    }
+
+    public boolean isZero() {
+      return units == 0 && points == 0;
+    }
+
+    /**
+     * Moves this position by the given number of points.
+     */
+    public void add(long delta, int unitSize) {
+      long p = points + delta;
+      if (p >= 0) {
+        long newUnits = units + p / unitSize;
+        if (Long.compareUnsigned(newUnits, units) < 0) {
+          set(-1L, unitSize - 1);
+        } else {
+          set(newUnits, (int)(p % unitSize));
+        }
+      } else {
+        long borrow = (-p + unitSize - 1) / unitSize;
+        if (Long.compareUnsigned(units, borrow) < 0) {
+          set(0, 0);
+        } else {
+          set(units - borrow, (int)(p + borrow * unitSize));
+        }
+      }
+    }
+
+    public int compareTo(Position p) {
+      int result = Long.compareUnsigned(units, p.units);
+      return (result != 0) ? result : Integer.compare(points, p.points);
+    }
+
+    public void min(Position p) {
+      if (compareTo(p) > 0) {
+        set(p);
+      }
+    }
+
+    /**
+     * @return the number of points from this position to the given one, saturated to the int
+     *     range.
+     */
+    public int distanceTo(Position to, int unitSize) {
+      if (compareTo(to) > 0) {
+        return -to.distanceTo(this, unitSize);
+      }
+      long units = to.units - this.units;
+      if (Long.compareUnsigned(units, Integer.MAX_VALUE / unitSize - 1) > 0) {
+        return Integer.MAX_VALUE;
+      }
+      return (int)(units * unitSize) + to.points - points;
+    }
   }
 
   /**
@@ -169,8 +280,11 @@ public class InfiniteScrolledComposite extends ScrolledComposite {
   private static class ScrollHandler extends SelectionAdapter {
     public final ScrollBar bar;
     private final IntConsumer updateLocation;
-    public BigInteger offset = BigInteger.ZERO;
-    public BigInteger max = BigInteger.ONE;
+    public final Position offset = new Position();
+    public final Position max = new Position();
+    // Scratch positions, to avoid allocations.
+    private final Position position = new Position(), limit = new Position();
+    public int unitSize = 1;
     public boolean enabled = false;
 
     public ScrollHandler(ScrollBar bar, IntConsumer updateLocation) {
@@ -182,34 +296,62 @@ public class InfiniteScrolledComposite extends ScrolledComposite {
     public void setEnabled(boolean enabled) {
       if (enabled != this.enabled) {
         this.enabled = enabled;
-        this.offset = BigInteger.ZERO;
-        this.max = BigInteger.ONE;
+        offset.set(0, 0);
+        max.set(0, 0);
       }
     }
 
-    public void scrollTo(BigInteger pos) {
+    /**
+     * Updates the size of the contents and the view, which determine the maximum offset.
+     */
+    public void setSize(long units, int newUnitSize, int viewSize) {
+      unitSize = newUnitSize;
+      max.set(units, 0);
+      max.add(-viewSize, unitSize);
+    }
+
+    public long getUnitAt(int point) {
+      position.set(offset);
+      position.add(point, unitSize);
+      return position.units;
+    }
+
+    public void scrollTo(long units) {
+      position.set(units, 0);
       if (enabled) {
-        int mid = getMidpoint(bar); BigInteger bigMid = BigInteger.valueOf(mid);
-        if (pos.compareTo(bigMid) <= 0) {
+        int mid = getMidpoint(bar);
+        limit.set(0, 0);
+        limit.add(mid, unitSize);
+        if (position.compareTo(limit) <= 0) {
           // Going to the top.
-          offset = BigInteger.ZERO;
-          bar.setSelection(pos.intValue());
-          updateLocation.accept(-pos.intValue());
-        } else if (pos.compareTo(max.subtract(bigMid)) >= 0) {
+          offset.set(0, 0);
+          int selection = offset.distanceTo(position, unitSize);
+          bar.setSelection(selection);
+          updateLocation.accept(-selection);
+          return;
+        }
+
+        limit.set(max);
+        limit.add(-mid, unitSize);
+        if (position.compareTo(limit) >= 0) {
           // Going to the bottom.
-          offset = max.subtract(bigMid).subtract(bigMid);
-          int selection = pos.min(max).subtract(offset).intValue();
+          offset.set(limit);
+          offset.add(-mid, unitSize);
+          position.min(max);
+          int selection = offset.distanceTo(position, unitSize);
           bar.setSelection(selection);
           updateLocation.accept(-selection);
         } else {
           // Going somewhere in the middle.
-          offset = pos.subtract(bigMid);
+          offset.set(position);
+          offset.add(-mid, unitSize);
           bar.setSelection(mid);
           updateLocation.accept(-mid);
         }
       } else {
-        if (pos.compareTo(BigInteger.valueOf(bar.getMaximum() - bar.getThumb())) <= 0) {
-          int selection = pos.intValue();
+        limit.set(0, 0);
+        int selection = limit.distanceTo(position, unitSize);
+        if (selection <= bar.getMaximum() - bar.getThumb()) {
           bar.setSelection(selection);
           updateLocation.accept(-selection);
         }
@@ -232,16 +374,17 @@ public class InfiniteScrolledComposite extends ScrolledComposite {
 
     private int update(int selection) {
       int mid = getMidpoint(bar);
-      BigInteger maxOffset = max.subtract(BigInteger.valueOf(2 * mid));
-      if (selection < mid && offset.equals(BigInteger.ZERO)) {
+      limit.set(max);
+      limit.add(-2L * mid, unitSize);
+      if (selection < mid && offset.isZero()) {
         // We're scrolling near the top. Don't do anything.
-      } else if (selection > mid && offset.compareTo(maxOffset) >= 0) {
+      } else if (selection > mid && offset.compareTo(limit) >= 0) {
         // We're scrolling near the bottom. Don't do anything.
       } else if (selection == mid) {
         // Don't do anything. Since the bar hasn't moved.
       } else {
-        offset = offset.add(BigInteger.valueOf(selection - mid))
-            .max(BigInteger.ZERO).min(maxOffset);
+        offset.add(selection - mid, unitSize);
+        offset.min(limit);
         bar.setSelection(mid);
         selection = mid;
       }
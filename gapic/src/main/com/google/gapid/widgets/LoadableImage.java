@@ -133,6 +133,10 @@ public class LoadableImage {
     }
   }
 
+  public boolean isLoading() {
+    return state == State.LOADING;
+  }
+
   public boolean hasFinished() {
     return (state != State.NOT_STARTED) && (state != State.LOADING);
   }
@@ -71,7 +71,37 @@ func Blob(ctx context.Context, p *path.Blob) ([]byte, error) {
 	if !ok {
 		return nil, fmt.Errorf("Path %s gave %T, expected []byte", p, obj)
 	}
-	return bytes, nil
+	if p.Offset == 0 && p.Size == 0 && p.Rows == 0 {
+		return bytes, nil
+	}
+	count := uint64(len(bytes))
+	if p.Offset > count {
+		return nil, errPathOOB(p.Offset, "Offset", 0, count, p)
+	}
+	if p.Rows > 0 {
+		// Each term is checked against the bytes left after the offset, rather than
+		// computing the end of the last row, which could overflow.
+		avail := count - p.Offset
+		if p.Size == 0 || p.Size > avail {
+			return nil, errPathOOB(p.Size, "Size", 1, avail, p)
+		}
+		if p.Rows > 1 {
+			maxStride := (avail - p.Size) / (p.Rows - 1)
+			if p.Stride < p.Size || p.Stride > maxStride {
+				return nil, errPathOOB(p.Stride, "Stride", p.Size, maxStride, p)
+			}
+		}
+		out := make([]byte, 0, p.Rows*p.Size)
+		for i, start := uint64(0), p.Offset; i < p.Rows; i, start = i+1, start+p.Stride {
+			out = append(out, bytes[start:start+p.Size]...)
+		}
+		return out, nil
+	}
+	end := count
+	if p.Size != 0 && p.Size < count-p.Offset {
+		end = p.Offset + p.Size
+	}
+	return bytes[p.Offset:end], nil
 }
 
 // Field resolves and returns the field from the path p.
@@ -0,0 +1,86 @@
+// Copyright (C) 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package resolve
+
+import (
+	"math"
+	"testing"
+
+	"github.com/google/gapid/core/assert"
+	"github.com/google/gapid/core/log"
+	"github.com/google/gapid/gapis/database"
+	"github.com/google/gapid/gapis/service/path"
+)
+
+func TestBlob(t *testing.T) {
+	ctx := log.Testing(t)
+	ctx = database.Put(ctx, database.NewInMemory(ctx))
+
+	data := make([]byte, 16)
+	for i := range data {
+		data[i] = byte(i)
+	}
+	id, err := database.Store(ctx, data)
+	assert.With(ctx).ThatError(err).Succeeded()
+
+	blob := func(offset, size, rows, stride uint64) *path.Blob {
+		return &path.Blob{
+			Id:     path.NewID(id),
+			Offset: offset,
+			Size:   size,
+			Rows:   rows,
+			Stride: stride,
+		}
+	}
+	maxU64 := uint64(math.MaxUint64)
+
+	for _, test := range []struct {
+		path *path.Blob
+		val  []byte
+		err  error
+	}{
+		// Ranges
+		{blob(0, 0, 0, 0), data, nil},
+		{blob(4, 0, 0, 0), data[4:], nil},
+		{blob(4, 4, 0, 0), data[4:8], nil},
+		{blob(12, 10, 0, 0), data[12:], nil},
+		{blob(12, maxU64, 0, 0), data[12:], nil},
+		{blob(16, 0, 0, 0), data[16:], nil},
+		{blob(17, 0, 0, 0), nil, errPathOOB(17, "Offset", 0, 16, blob(17, 0, 0, 0))},
+		{blob(maxU64, 1, 0, 0), nil, errPathOOB(maxU64, "Offset", 0, 16, blob(maxU64, 1, 0, 0))},
+
+		// Rows
+		{blob(1, 2, 1, 0), data[1:3], nil},
+		{blob(1, 2, 3, 4), []byte{1, 2, 5, 6, 9, 10}, nil},
+		{blob(2, 2, 4, 4), []byte{2, 3, 6, 7, 10, 11, 14, 15}, nil},
+		{blob(0, 16, 1, 0), data, nil},
+		{blob(3, 2, 4, 4), nil, errPathOOB(4, "Stride", 2, 3, blob(3, 2, 4, 4))},
+		{blob(0, 0, 1, 0), nil, errPathOOB(0, "Size", 1, 16, blob(0, 0, 1, 0))},
+		{blob(10, 7, 1, 0), nil, errPathOOB(7, "Size", 1, 6, blob(10, 7, 1, 0))},
+		{blob(0, 4, 2, 2), nil, errPathOOB(2, "Stride", 4, 12, blob(0, 4, 2, 2))},
+		{blob(17, 1, 1, 0), nil, errPathOOB(17, "Offset", 0, 16, blob(17, 1, 1, 0))},
+
+		// Overflows
+		{blob(1, maxU64, 1, 0), nil, errPathOOB(maxU64, "Size", 1, 15, blob(1, maxU64, 1, 0))},
+		{blob(0, 1, 2, maxU64), nil, errPathOOB(maxU64, "Stride", 1, 15, blob(0, 1, 2, maxU64))},
+		{blob(0, 1, maxU64, 1), nil, errPathOOB(1, "Stride", 1, 0, blob(0, 1, maxU64, 1))},
+		{blob(8, 8, maxU64, maxU64/2), nil, errPathOOB(maxU64/2, "Stride", 8, 0, blob(8, 8, maxU64, maxU64/2))},
+	} {
+		ctx := log.V{"path": test.path.Text()}.Bind(ctx)
+		got, err := Blob(ctx, test.path)
+		assert.With(ctx).That(got).DeepEquals(test.val)
+		assert.With(ctx).ThatError(err).DeepEquals(test.err)
+	}
+}
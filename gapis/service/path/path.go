@@ -55,6 +55,19 @@ func printIndices(index []uint64) string {
 	return strings.Join(parts, ".")
 }
 
+func printBlobRange(n Blob) string {
+	switch {
+	case n.Rows != 0:
+		return fmt.Sprintf("[%v:%v]x%v/%v", n.Offset, n.Offset+n.Size, n.Rows, n.Stride)
+	case n.Size != 0:
+		return fmt.Sprintf("[%v:%v]", n.Offset, n.Offset+n.Size)
+	case n.Offset != 0:
+		return fmt.Sprintf("[%v:]", n.Offset)
+	default:
+		return ""
+	}
+}
+
 func (n *API) Path() *Any                       { return &Any{&Any_Api{n}} }
 func (n *ArrayIndex) Path() *Any                { return &Any{&Any_ArrayIndex{n}} }
 func (n *As) Path() *Any                        { return &Any{&Any_As{n}} }
@@ -122,7 +135,7 @@ func (n Thumbnail) Parent() Node                 { return oneOfNode(n.Object) }
 func (n ArrayIndex) Text() string { return fmt.Sprintf("%v[%v]", n.Parent().Text(), n.Index) }
 func (n API) Text() string        { return fmt.Sprintf("api<%v>", n.Id) }
 func (n As) Text() string         { return fmt.Sprintf("%v.as<%v>", n.Parent().Text(), protoutil.OneOf(n.To)) }
-func (n Blob) Text() string       { return fmt.Sprintf("blob<%x>", n.Id) }
+func (n Blob) Text() string       { return fmt.Sprintf("blob<%x>%v", n.Id, printBlobRange(n)) }
 func (n Capture) Text() string    { return fmt.Sprintf("capture<%x>", n.Id) }
 func (n ConstantSet) Text() string {
 	return fmt.Sprintf("%v.constant-set<%v>", n.Parent().Text(), n.Index)